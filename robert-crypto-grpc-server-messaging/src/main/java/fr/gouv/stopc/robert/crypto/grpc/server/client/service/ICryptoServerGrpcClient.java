@@ -18,4 +18,6 @@ public interface ICryptoServerGrpcClient {
 	Optional<GetInfoFromHelloMessageResponse> getInfoFromHelloMessage(GetInfoFromHelloMessageRequest request);
 
 	Optional<DeleteIdResponse> deleteId(DeleteIdRequest request);
+
+	Optional<ValidateContactResponse> validateContact(ValidateContactRequest request);
 }
@@ -123,6 +123,21 @@ public class CryptoServerGrpcClient implements ICryptoServerGrpcClient {
         return Optional.empty();
     }
 
+    @Override
+    public Optional<ValidateContactResponse> validateContact(ValidateContactRequest request) {
+        try {
+            ValidateContactResponse response = this.blockingStub.validateContact(request);
+            if (Objects.nonNull(this.testHelper)) {
+                this.testHelper.onMessage(response);
+            }
+
+            return Optional.ofNullable(response);
+        } catch (StatusRuntimeException ex) {
+            log.error(ERROR_MESSAGE, ex.getMessage());
+        }
+        return Optional.empty();
+    }
+
     @VisibleForTesting
     public interface TestHelper {
         /**
@@ -0,0 +1,189 @@
+package fr.gouv.stopc.robert.crypto.grpc.server.storage.cache;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import javax.inject.Inject;
+
+import org.bson.internal.Base64;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import fr.gouv.stopc.robert.crypto.grpc.server.storage.model.ClientIdentifierBundle;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Size- and TTL-bounded cache of the decrypted keys of the clients, so that repeated lookups of a client skip the
+ * database and the decryption of its keys under the KEK.
+ * Entries expire a fixed time after they were cached, and the oldest entries are evicted first when the cache is
+ * full. The keys of an entry are wiped when it is evicted, expires or is invalidated: the cache only hands out
+ * copies of them.
+ * Keys read from the database are only cached if no client was invalidated since the read started, so that the keys
+ * of a client deleted meanwhile are not cached again.
+ * A maximum size of 0 disables the cache.
+ */
+@Component
+public class ClientIdentifierBundleCache {
+
+    public static final String GETS = "robert.crypto.client-keys.cache.gets";
+
+    public static final String EVICTIONS = "robert.crypto.client-keys.cache.evictions";
+
+    public static final String SIZE = "robert.crypto.client-keys.cache.size";
+
+    private final int maxSize;
+
+    private final long ttlMillis;
+
+    private final Clock clock;
+
+    // In insertion order, so that the expired entries are at the head
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter sizeEvictions;
+
+    private final Counter expirations;
+
+    private final Counter invalidations;
+
+    // Incremented with each invalidation
+    private long generation;
+
+    @Inject
+    public ClientIdentifierBundleCache(@Value("${robert.crypto.server.client-keys.cache.max-size}") final int maxSize,
+                                       @Value("${robert.crypto.server.client-keys.cache.ttl-seconds}") final long ttlSeconds,
+                                       final ObjectProvider<MeterRegistry> meterRegistry) {
+        this(maxSize, ttlSeconds * 1000L, meterRegistry.getIfAvailable(() -> Metrics.globalRegistry),
+                Clock.systemUTC());
+    }
+
+    public ClientIdentifierBundleCache(final int maxSize, final long ttlMillis, final MeterRegistry meterRegistry,
+                                       final Clock clock) {
+        if (maxSize < 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("The size and the TTL of the cache must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.hits = meterRegistry.counter(GETS, "result", "hit");
+        this.misses = meterRegistry.counter(GETS, "result", "miss");
+        this.sizeEvictions = meterRegistry.counter(EVICTIONS, "cause", "size");
+        this.expirations = meterRegistry.counter(EVICTIONS, "cause", "expired");
+        this.invalidations = meterRegistry.counter(EVICTIONS, "cause", "invalidated");
+        Gauge.builder(SIZE, this, ClientIdentifierBundleCache::size).register(meterRegistry);
+    }
+
+    /**
+     * @return a copy of the cached keys of the client
+     */
+    public synchronized Optional<ClientIdentifierBundle> get(byte[] id) {
+        if (this.maxSize == 0) {
+            return Optional.empty();
+        }
+        removeExpired();
+
+        Entry entry = this.entries.get(Base64.encode(id));
+        if (Objects.isNull(entry)) {
+            this.misses.increment();
+            return Optional.empty();
+        }
+        this.hits.increment();
+        return Optional.of(copy(entry.bundle));
+    }
+
+    /**
+     * @return the generation to give to {@link #put(ClientIdentifierBundle, long)}, read before reading the keys to
+     * cache
+     */
+    public synchronized long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Cache a copy of the keys of a client, unless a client was invalidated since the given generation
+     */
+    public synchronized void put(ClientIdentifierBundle bundle, long generation) {
+        if (this.maxSize == 0 || generation != this.generation) {
+            return;
+        }
+        removeExpired();
+
+        Entry previousEntry = this.entries.remove(Base64.encode(bundle.getId()));
+        if (Objects.nonNull(previousEntry)) {
+            wipe(previousEntry.bundle);
+        }
+        this.entries.put(Base64.encode(bundle.getId()), new Entry(copy(bundle), this.clock.millis() + this.ttlMillis));
+
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (this.entries.size() > this.maxSize) {
+            wipe(iterator.next().bundle);
+            iterator.remove();
+            this.sizeEvictions.increment();
+        }
+    }
+
+    public synchronized void invalidate(byte[] id) {
+        this.generation++;
+        Entry entry = this.entries.remove(Base64.encode(id));
+        if (Objects.nonNull(entry)) {
+            wipe(entry.bundle);
+            this.invalidations.increment();
+        }
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    private void removeExpired() {
+        long now = this.clock.millis();
+        Iterator<Map.Entry<String, Entry>> iterator = this.entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.expirationTime > now) {
+                return;
+            }
+            wipe(entry.bundle);
+            iterator.remove();
+            this.expirations.increment();
+        }
+    }
+
+    private static ClientIdentifierBundle copy(ClientIdentifierBundle bundle) {
+        return ClientIdentifierBundle.builder()
+                .id(Arrays.copyOf(bundle.getId(), bundle.getId().length))
+                .keyForMac(Arrays.copyOf(bundle.getKeyForMac(), bundle.getKeyForMac().length))
+                .keyForTuples(Arrays.copyOf(bundle.getKeyForTuples(), bundle.getKeyForTuples().length))
+                .build();
+    }
+
+    private static void wipe(ClientIdentifierBundle bundle) {
+        Arrays.fill(bundle.getKeyForMac(), (byte) 0);
+        Arrays.fill(bundle.getKeyForTuples(), (byte) 0);
+    }
+
+    private static class Entry {
+
+        private final ClientIdentifierBundle bundle;
+
+        private final long expirationTime;
+
+        private Entry(ClientIdentifierBundle bundle, long expirationTime) {
+            this.bundle = bundle;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package fr.gouv.stopc.robert.crypto.grpc.server.storage.cache;
+
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * K_S keys of the server-key-yyyyMMdd aliases of a keystore, by day.
+ * The keys are held in an immutable map replaced as a whole when reloaded, so that lookups never lock nor touch the
+ * keystore. Reloads only read from the keystore the keys not indexed yet. A lookup of a day without key returns
+ * null at once and hands a reload to the reload executor, at most once per minimum interval, so that a key
+ * provisioned since the last reload is found by the following lookups without waiting for the next periodic one.
+ */
+@Slf4j
+public class ServerKeyIndex {
+
+    public static final String ALIAS_PREFIX = "server-key-";
+
+    private static final DateTimeFormatter ALIAS_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final KeyStore keyStore;
+
+    private final Executor reloadExecutor;
+
+    private final long minReloadIntervalMillis;
+
+    private final Clock clock;
+
+    private volatile Map<LocalDate, byte[]> serverKeys = Collections.emptyMap();
+
+    // Time before which a lookup of a day without key does not trigger a reload of the keys
+    private final AtomicLong nextReloadOnMissTime = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param reloadExecutor the executor of the reloads triggered by a lookup of a day without key
+     * @param minReloadIntervalMillis the minimum time between two reloads triggered by a lookup of a day without key
+     */
+    public ServerKeyIndex(KeyStore keyStore, Executor reloadExecutor, long minReloadIntervalMillis, Clock clock) {
+        this.keyStore = keyStore;
+        this.reloadExecutor = reloadExecutor;
+        this.minReloadIntervalMillis = minReloadIntervalMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the key of the day, or null if no key of the day was loaded from the keystore yet
+     */
+    public byte[] get(LocalDate date) {
+        byte[] serverKey = this.serverKeys.get(date);
+        if (Objects.isNull(serverKey)) {
+            reloadOnMissIfDue();
+        }
+        return serverKey;
+    }
+
+    public int size() {
+        return this.serverKeys.size();
+    }
+
+    /**
+     * Load the keys of all the server-key-yyyyMMdd aliases of the keystore. The current keys are kept if the keystore
+     * cannot be read.
+     */
+    public synchronized void reload() {
+        Map<LocalDate, byte[]> currentServerKeys = this.serverKeys;
+        Map<LocalDate, byte[]> loadedServerKeys = new HashMap<>();
+        try {
+            Enumeration<String> aliases = this.keyStore.aliases();
+            while (aliases.hasMoreElements()) {
+                String alias = aliases.nextElement();
+                if (!alias.startsWith(ALIAS_PREFIX)) {
+                    continue;
+                }
+                LocalDate date;
+                try {
+                    date = LocalDate.parse(alias.substring(ALIAS_PREFIX.length()), ALIAS_DATE_FORMATTER);
+                } catch (DateTimeParseException e) {
+                    log.warn("Ignoring the server key with the unexpected alias {}", alias);
+                    continue;
+                }
+                byte[] serverKey = currentServerKeys.get(date);
+                if (Objects.isNull(serverKey)) {
+                    Key key = this.keyStore.getKey(alias, null);
+                    serverKey = Objects.isNull(key) ? null : key.getEncoded();
+                }
+                if (Objects.nonNull(serverKey)) {
+                    loadedServerKeys.put(date, serverKey);
+                }
+            }
+        } catch (KeyStoreException | UnrecoverableKeyException | NoSuchAlgorithmException | RuntimeException e) {
+            log.error("An expected error occured when trying to load the server keys due to {}", e.getMessage());
+            return;
+        }
+
+        this.serverKeys = Collections.unmodifiableMap(loadedServerKeys);
+        if (loadedServerKeys.size() != currentServerKeys.size()) {
+            log.info("Loaded {} server keys", loadedServerKeys.size());
+        }
+    }
+
+    /**
+     * Hand a reload of the keys to the reload executor if no other lookup did it during the minimum interval
+     */
+    private void reloadOnMissIfDue() {
+        long now = this.clock.millis();
+        long nextReloadTime = this.nextReloadOnMissTime.get();
+        if (now < nextReloadTime
+                || !this.nextReloadOnMissTime.compareAndSet(nextReloadTime, now + this.minReloadIntervalMillis)) {
+            return;
+        }
+        try {
+            this.reloadExecutor.execute(this::reload);
+        } catch (RejectedExecutionException e) {
+            log.warn("The server keys could not be reloaded after a lookup of a day without key due to {}",
+                    e.getMessage());
+        }
+    }
+}
@@ -13,20 +13,25 @@ import java.security.PublicKey;
 import java.security.Security;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.time.Clock;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.TemporalAmount;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Inject;
 
-import fr.gouv.stopc.robert.server.common.utils.ByteUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import fr.gouv.stopc.robert.crypto.grpc.server.storage.cache.ServerKeyIndex;
 import fr.gouv.stopc.robert.crypto.grpc.server.storage.cryptographic.service.ICryptographicStorageService;
 import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
 import lombok.extern.slf4j.Slf4j;
@@ -34,7 +39,7 @@ import sun.security.pkcs11.SunPKCS11;
 
 @Slf4j
 @Service
-public class CryptographicStorageServiceImpl implements ICryptographicStorageService {
+public class CryptographicStorageServiceImpl implements ICryptographicStorageService, DisposableBean {
 
     private KeyStore keyStore;
 
@@ -52,21 +57,34 @@ public class CryptographicStorageServiceImpl implements ICryptographicStorageSer
     //private static final String ALIAS_SERVER_KEK = "server-key-encryption-key;
     private static final String ALIAS_CLIENT_KEK = "key-encryption-key"; // KEK
     private static final String ALIAS_FEDERATION_KEY = "federation-key"; // K_G
-    private static final String ALIAS_SERVER_KEY_PREFIX = "server-key-"; // K_S
 
-    private KeyPair keyPair;
+    private final long serverKeysRefreshMinutes;
 
-    // Cache for K_S keys
-    private Map<String, byte[]> serverKeyCache;
+    private final long serverKeysReloadOnMissSeconds;
+
+    private volatile KeyPair keyPair;
+
+    // K_S keys indexed by day, set once the keystore is loaded
+    private volatile ServerKeyIndex serverKeyIndex;
+
+    private ScheduledExecutorService serverKeysRefresher;
 
     // Cache for KEK keys
-    private Map<String, Key> kekCache;
+    private Map<String, Key> kekCache = new ConcurrentHashMap<>();
 
     private Provider provider;
 
     private PublicKey publicKey;
 
-    private Key federationKeyCached;
+    private volatile Key federationKeyCached;
+
+    @Inject
+    public CryptographicStorageServiceImpl(
+            @Value("${robert.crypto.server.keystore.server-keys-refresh-minutes}") final long serverKeysRefreshMinutes,
+            @Value("${robert.crypto.server.keystore.server-keys-reload-on-miss-seconds}") final long serverKeysReloadOnMissSeconds) {
+        this.serverKeysRefreshMinutes = serverKeysRefreshMinutes;
+        this.serverKeysReloadOnMissSeconds = serverKeysReloadOnMissSeconds;
+    }
 
     @Override
     public void init(String password, String configFile) {
@@ -91,8 +109,30 @@ public class CryptographicStorageServiceImpl implements ICryptographicStorageSer
             throw new RuntimeException("could not add security provider");
         } 
 
-        serverKeyCache = new HashMap<>();
-        kekCache = new HashMap<>();
+        if (Objects.isNull(this.serverKeysRefresher)) {
+            // Also reloads the server keys when one is missing, so that the lookups never wait for the keystore
+            this.serverKeysRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "server-keys-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        ServerKeyIndex index = new ServerKeyIndex(this.keyStore, this.serverKeysRefresher,
+                this.serverKeysReloadOnMissSeconds * 1000L, Clock.systemUTC());
+        index.reload();
+        boolean firstInit = Objects.isNull(this.serverKeyIndex);
+        this.serverKeyIndex = index;
+        if (firstInit && this.serverKeysRefreshMinutes > 0) {
+            this.serverKeysRefresher.scheduleWithFixedDelay(() -> this.serverKeyIndex.reload(),
+                    this.serverKeysRefreshMinutes, this.serverKeysRefreshMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (Objects.nonNull(this.serverKeysRefresher)) {
+            this.serverKeysRefresher.shutdownNow();
+        }
     }
 
     @Override
@@ -157,12 +197,15 @@ public class CryptographicStorageServiceImpl implements ICryptographicStorageSer
 
     private Key getKeyForEncryptingKeys(String alias, String errorMessage) {
         
-        if (this.kekCache.containsKey(alias)) {
-            return this.kekCache.get(alias);
+        Key cachedKey = this.kekCache.get(alias);
+        if (Objects.nonNull(cachedKey)) {
+            return cachedKey;
         }
         try {
             Key key = this.keyStore.getKey(alias, null);
-            this.kekCache.put(alias, key);
+            if (Objects.nonNull(key)) {
+                this.kekCache.put(alias, key);
+            }
             return key;
         } catch (KeyStoreException | NoSuchAlgorithmException | UnrecoverableKeyException | IllegalStateException e) {
             log.error(errorMessage);
@@ -188,25 +231,11 @@ public class CryptographicStorageServiceImpl implements ICryptographicStorageSer
     }
 
     private byte[] getServerKey(LocalDate dateFromEpoch) {
-        byte[] serverKey = null;
-        try {
-            DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd");
-
-            String alias = String.format("%s%s", ALIAS_SERVER_KEY_PREFIX, dateFromEpoch.format(dateFormatter));
-            if (this.serverKeyCache.containsKey(alias)) {
-                return this.serverKeyCache.get(alias);
-            }
-            if (!this.keyStore.containsAlias(alias)) {
-                log.error("Key store does not contain key for alias {}", alias);
-            } else {
-                Key key = this.keyStore.getKey(alias, null);
-                serverKey = key.getEncoded();
-                this.serverKeyCache.put(alias, serverKey);
-            }
-        } catch (Exception e) {
-            log.error("An expected error occured when trying to store the alias {} due to {}", dateFromEpoch, e.getMessage());
+        ServerKeyIndex index = this.serverKeyIndex;
+        byte[] serverKey = Objects.isNull(index) ? null : index.get(dateFromEpoch);
+        if (Objects.isNull(serverKey)) {
+            log.error("Key store does not contain key for day {}", dateFromEpoch);
         }
-
         return serverKey;
     }
 
@@ -21,6 +21,7 @@ import javax.inject.Inject;
 import org.bson.internal.Base64;
 import org.springframework.stereotype.Service;
 
+import fr.gouv.stopc.robert.crypto.grpc.server.storage.cache.ClientIdentifierBundleCache;
 import fr.gouv.stopc.robert.crypto.grpc.server.storage.cryptographic.service.ICryptographicStorageService;
 import fr.gouv.stopc.robert.crypto.grpc.server.storage.database.model.ClientIdentifier;
 import fr.gouv.stopc.robert.crypto.grpc.server.storage.database.repository.ClientIdentifierRepository;
@@ -40,12 +41,16 @@ public class ClientKeyStorageServiceImpl implements IClientKeyStorageService {
 
     private ClientIdentifierRepository clientIdentifierRepository;
 
+    private ClientIdentifierBundleCache clientIdentifierBundleCache;
+
     @Inject
     public ClientKeyStorageServiceImpl(final ICryptographicStorageService cryptographicStorageService,
-            final ClientIdentifierRepository clientIdentifierRepository) {
+            final ClientIdentifierRepository clientIdentifierRepository,
+            final ClientIdentifierBundleCache clientIdentifierBundleCache) {
 
         this.cryptographicStorageService = cryptographicStorageService;
         this.clientIdentifierRepository = clientIdentifierRepository;
+        this.clientIdentifierBundleCache = clientIdentifierBundleCache;
 
         // TODO: Find out a way not to do this. Required because otherwise lock when saving is done
         ClientIdentifier c = ClientIdentifier.builder()
@@ -180,7 +185,14 @@ public class ClientKeyStorageServiceImpl implements IClientKeyStorageService {
 
     @Override
     public Optional<ClientIdentifierBundle> findKeyById(byte[] id) {
-        return this.clientIdentifierRepository.findByIdA(Base64.encode(id))
+        Optional<ClientIdentifierBundle> cachedBundle = this.clientIdentifierBundleCache.get(id);
+        if (cachedBundle.isPresent()) {
+            return cachedBundle;
+        }
+        // Read before the database, so that keys deleted meanwhile are not cached
+        long cacheGeneration = this.clientIdentifierBundleCache.getGeneration();
+
+        Optional<ClientIdentifierBundle> bundle = this.clientIdentifierRepository.findByIdA(Base64.encode(id))
                 .map(client -> {
 
                     Key clientKek = this.cryptographicStorageService.getKeyForEncryptingClientKeys();
@@ -207,18 +219,25 @@ public class ClientKeyStorageServiceImpl implements IClientKeyStorageService {
                         return null;
                     }
 
-                    return ClientIdentifierBundle.builder()
+                    ClientIdentifierBundle clientIdentifierBundle = ClientIdentifierBundle.builder()
                             .id(Arrays.copyOf(id, id.length))
                             .keyForMac(Arrays.copyOf(decryptedKeyForMac, decryptedKeyForMac.length))
                             .keyForTuples(Arrays.copyOf(decryptedKeyForTuples, decryptedKeyForTuples.length))
                             .build();
+                    Arrays.fill(decryptedKeyForMac, (byte) 0);
+                    Arrays.fill(decryptedKeyForTuples, (byte) 0);
+                    return clientIdentifierBundle;
                 });
 
+        bundle.ifPresent(clientIdentifierBundle -> this.clientIdentifierBundleCache.put(clientIdentifierBundle,
+                cacheGeneration));
+        return bundle;
     }
 
     @Override
     public void deleteClientId(byte[] id) {
         this.clientIdentifierRepository.findByIdA(Base64.encode(id)).ifPresent(this.clientIdentifierRepository::delete);
+        this.clientIdentifierBundleCache.invalidate(id);
     }
 
     private static final String AES_ENCRYPTION_CIPHER_SCHEME = "AES/GCM/NoPadding";
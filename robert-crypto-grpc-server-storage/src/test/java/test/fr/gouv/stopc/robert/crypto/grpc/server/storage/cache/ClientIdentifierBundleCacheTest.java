@@ -0,0 +1,166 @@
+package test.fr.gouv.stopc.robert.crypto.grpc.server.storage.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.crypto.grpc.server.storage.cache.ClientIdentifierBundleCache;
+import fr.gouv.stopc.robert.crypto.grpc.server.storage.model.ClientIdentifierBundle;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(SpringExtension.class)
+public class ClientIdentifierBundleCacheTest {
+
+    private static final long TTL_MILLIS = 60000L;
+
+    @Mock
+    private Clock clock;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private ClientIdentifierBundleCache cache;
+
+    @BeforeEach
+    public void before() {
+        when(this.clock.millis()).thenReturn(0L);
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.cache = new ClientIdentifierBundleCache(2, TTL_MILLIS, this.meterRegistry, this.clock);
+    }
+
+    @Test
+    public void testGetReturnsACopyOfTheCachedKeys() {
+        // Given
+        ClientIdentifierBundle bundle = bundle();
+        this.cache.put(bundle, 0L);
+
+        // When
+        Optional<ClientIdentifierBundle> cachedBundle = this.cache.get(bundle.getId());
+        Optional<ClientIdentifierBundle> unknownBundle = this.cache.get(new byte[] { 9, 9, 9, 9, 9 });
+
+        // Then
+        assertTrue(cachedBundle.isPresent());
+        assertNotSame(bundle.getKeyForMac(), cachedBundle.get().getKeyForMac());
+        assertArrayEquals(bundle.getKeyForMac(), cachedBundle.get().getKeyForMac());
+        assertArrayEquals(bundle.getKeyForTuples(), cachedBundle.get().getKeyForTuples());
+        assertFalse(unknownBundle.isPresent());
+        assertEquals(1.0, counter(ClientIdentifierBundleCache.GETS, "result", "hit"));
+        assertEquals(1.0, counter(ClientIdentifierBundleCache.GETS, "result", "miss"));
+    }
+
+    @Test
+    public void testEntriesExpireAfterTheirTtl() {
+        // Given
+        ClientIdentifierBundle bundle = bundle();
+        this.cache.put(bundle, 0L);
+
+        // When
+        when(this.clock.millis()).thenReturn(TTL_MILLIS);
+        Optional<ClientIdentifierBundle> expiredBundle = this.cache.get(bundle.getId());
+
+        // Then
+        assertFalse(expiredBundle.isPresent());
+        assertEquals(0, this.cache.size());
+        assertEquals(1.0, counter(ClientIdentifierBundleCache.EVICTIONS, "cause", "expired"));
+    }
+
+    @Test
+    public void testTheOldestEntryIsEvictedWhenTheCacheIsFull() {
+        // Given
+        ClientIdentifierBundle first = bundle();
+        this.cache.put(first, 0L);
+        ClientIdentifierBundle cachedFirst = this.cache.get(first.getId()).get();
+        this.cache.put(bundle(), 0L);
+
+        // When
+        this.cache.put(bundle(), 0L);
+
+        // Then
+        assertEquals(2, this.cache.size());
+        assertFalse(this.cache.get(first.getId()).isPresent());
+        // The copies handed out are not wiped with the entry
+        assertTrue(isNotWiped(cachedFirst.getKeyForMac()));
+        assertEquals(1.0, counter(ClientIdentifierBundleCache.EVICTIONS, "cause", "size"));
+        assertEquals(2.0, this.meterRegistry.get(ClientIdentifierBundleCache.SIZE).gauge().value());
+    }
+
+    @Test
+    public void testInvalidateRemovesTheEntry() {
+        // Given
+        ClientIdentifierBundle bundle = bundle();
+        this.cache.put(bundle, 0L);
+
+        // When
+        this.cache.invalidate(bundle.getId());
+
+        // Then
+        assertFalse(this.cache.get(bundle.getId()).isPresent());
+        assertEquals(1.0, counter(ClientIdentifierBundleCache.EVICTIONS, "cause", "invalidated"));
+    }
+
+    @Test
+    public void testKeysReadBeforeAnInvalidationAreNotCached() {
+        // Given
+        ClientIdentifierBundle bundle = bundle();
+        long generation = this.cache.getGeneration();
+        this.cache.invalidate(bundle.getId());
+
+        // When
+        this.cache.put(bundle, generation);
+
+        // Then
+        assertFalse(this.cache.get(bundle.getId()).isPresent());
+        assertEquals(0, this.cache.size());
+    }
+
+    @Test
+    public void testAMaxSizeOfZeroDisablesTheCache() {
+        // Given
+        ClientIdentifierBundleCache disabledCache = new ClientIdentifierBundleCache(0, TTL_MILLIS,
+                new SimpleMeterRegistry(), this.clock);
+        ClientIdentifierBundle bundle = bundle();
+
+        // When
+        disabledCache.put(bundle, 0L);
+
+        // Then
+        assertFalse(disabledCache.get(bundle.getId()).isPresent());
+        assertEquals(0, disabledCache.size());
+    }
+
+    private double counter(String name, String tagKey, String tagValue) {
+        return this.meterRegistry.get(name).tag(tagKey, tagValue).counter().count();
+    }
+
+    private static boolean isNotWiped(byte[] key) {
+        for (byte b : key) {
+            if (b != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ClientIdentifierBundle bundle() {
+        SecureRandom random = new SecureRandom();
+        byte[] id = new byte[5];
+        byte[] keyForMac = new byte[32];
+        byte[] keyForTuples = new byte[32];
+        random.nextBytes(id);
+        random.nextBytes(keyForMac);
+        random.nextBytes(keyForTuples);
+        return ClientIdentifierBundle.builder().id(id).keyForMac(keyForMac).keyForTuples(keyForTuples).build();
+    }
+}
@@ -0,0 +1,279 @@
+package test.fr.gouv.stopc.robert.crypto.grpc.server.storage.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.cert.Certificate;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.crypto.grpc.server.storage.cache.ServerKeyIndex;
+
+@ExtendWith(SpringExtension.class)
+public class ServerKeyIndexTest {
+
+    private static final long MIN_RELOAD_INTERVAL_MILLIS = 60000L;
+
+    private static final LocalDate DAY = LocalDate.of(2020, 6, 15);
+
+    @Mock
+    private Clock clock;
+
+    private InMemoryKeyStoreSpi keyStoreSpi;
+
+    private final List<Runnable> reloads = new ArrayList<>();
+
+    private ServerKeyIndex serverKeyIndex;
+
+    @BeforeEach
+    public void before() throws Exception {
+        when(this.clock.millis()).thenReturn(0L);
+        this.keyStoreSpi = new InMemoryKeyStoreSpi();
+        KeyStore keyStore = new KeyStore(this.keyStoreSpi, null, "memory") {
+        };
+        keyStore.load(null, null);
+        this.serverKeyIndex = new ServerKeyIndex(keyStore, this.reloads::add, MIN_RELOAD_INTERVAL_MILLIS, this.clock);
+    }
+
+    @Test
+    public void testGetReturnsTheKeyOfTheDay() {
+        // Given
+        byte[] serverKey = serverKey(1);
+        this.keyStoreSpi.put("server-key-20200615", serverKey);
+        this.keyStoreSpi.put("server-key-20200617", serverKey(3));
+        this.serverKeyIndex.reload();
+
+        // When - Then
+        assertArrayEquals(serverKey, this.serverKeyIndex.get(DAY));
+        assertArrayEquals(serverKey(3), this.serverKeyIndex.get(DAY.plusDays(2)));
+        assertEquals(2, this.serverKeyIndex.size());
+    }
+
+    @Test
+    public void testGetReturnsNullOutOfTheDaysWithAKey() {
+        // Given
+        this.keyStoreSpi.put("server-key-20200615", serverKey(1));
+        this.keyStoreSpi.put("server-key-20200617", serverKey(3));
+        this.serverKeyIndex.reload();
+
+        // When - Then
+        assertNull(this.serverKeyIndex.get(DAY.minusDays(1)));
+        assertNull(this.serverKeyIndex.get(DAY.plusDays(1)));
+        assertNull(this.serverKeyIndex.get(DAY.plusDays(3)));
+    }
+
+    @Test
+    public void testAFarFutureKeyIsIndexedAlongTheOthers() {
+        // Given
+        this.keyStoreSpi.put("server-key-20200615", serverKey(1));
+        this.keyStoreSpi.put("server-key-99991231", serverKey(2));
+
+        // When
+        this.serverKeyIndex.reload();
+
+        // Then
+        assertEquals(2, this.serverKeyIndex.size());
+        assertArrayEquals(serverKey(2), this.serverKeyIndex.get(LocalDate.of(9999, 12, 31)));
+    }
+
+    @Test
+    public void testAliasesWhichAreNotServerKeysOrNotDatesAreIgnored() {
+        // Given
+        this.keyStoreSpi.put("server-key-20200615", serverKey(1));
+        this.keyStoreSpi.put("server-key-2020061", serverKey(2));
+        this.keyStoreSpi.put("server-key-20201315", serverKey(3));
+        this.keyStoreSpi.put("server-key-today", serverKey(4));
+        this.keyStoreSpi.put("federation-key", serverKey(5));
+
+        // When
+        this.serverKeyIndex.reload();
+
+        // Then
+        assertEquals(1, this.serverKeyIndex.size());
+        assertArrayEquals(serverKey(1), this.serverKeyIndex.get(DAY));
+    }
+
+    @Test
+    public void testReloadAddsTheNewKeysAndOnlyReadsThoseNotIndexedYet() {
+        // Given
+        this.keyStoreSpi.put("server-key-20200615", serverKey(1));
+        this.serverKeyIndex.reload();
+        this.keyStoreSpi.put("server-key-20200616", serverKey(2));
+
+        // When
+        this.serverKeyIndex.reload();
+
+        // Then
+        assertEquals(2, this.serverKeyIndex.size());
+        assertArrayEquals(serverKey(2), this.serverKeyIndex.get(DAY.plusDays(1)));
+        assertEquals(1, this.keyStoreSpi.getNbOfKeysRead("server-key-20200615"));
+    }
+
+    @Test
+    public void testAMissHandsAReloadOfTheKeysToTheExecutorAtMostOncePerInterval() {
+        // Given
+        this.serverKeyIndex.reload();
+        this.keyStoreSpi.put("server-key-20200615", serverKey(1));
+
+        // When
+        byte[] keyOnTheFirstMiss = this.serverKeyIndex.get(DAY);
+        byte[] keyOnASecondMissWithinTheInterval = this.serverKeyIndex.get(DAY);
+        int nbOfAliasesListingsOnTheMisses = this.keyStoreSpi.getNbOfAliasesListings();
+        runReloads();
+        byte[] keyOnceReloaded = this.serverKeyIndex.get(DAY);
+        this.keyStoreSpi.put("server-key-20200616", serverKey(2));
+        this.serverKeyIndex.get(DAY.plusDays(1));
+        int nbOfReloadsWithinTheInterval = this.reloads.size();
+        when(this.clock.millis()).thenReturn(MIN_RELOAD_INTERVAL_MILLIS);
+        this.serverKeyIndex.get(DAY.plusDays(1));
+        runReloads();
+
+        // Then
+        assertNull(keyOnTheFirstMiss);
+        assertNull(keyOnASecondMissWithinTheInterval);
+        assertEquals(1, nbOfAliasesListingsOnTheMisses);
+        assertArrayEquals(serverKey(1), keyOnceReloaded);
+        assertEquals(0, nbOfReloadsWithinTheInterval);
+        assertArrayEquals(serverKey(2), this.serverKeyIndex.get(DAY.plusDays(1)));
+        assertEquals(3, this.keyStoreSpi.getNbOfAliasesListings());
+    }
+
+    private void runReloads() {
+        List<Runnable> pendingReloads = new ArrayList<>(this.reloads);
+        this.reloads.clear();
+        pendingReloads.forEach(Runnable::run);
+    }
+
+    private static byte[] serverKey(int value) {
+        byte[] serverKey = new byte[24];
+        serverKey[0] = (byte) value;
+        return serverKey;
+    }
+
+    /**
+     * Keystore of secret keys without password, as the PKCS#11 keystore of the HSM
+     */
+    private static class InMemoryKeyStoreSpi extends KeyStoreSpi {
+
+        private final Map<String, Key> keys = new LinkedHashMap<>();
+
+        private final Map<String, Integer> nbOfKeysRead = new LinkedHashMap<>();
+
+        private int nbOfAliasesListings;
+
+        private void put(String alias, byte[] key) {
+            this.keys.put(alias, new SecretKeySpec(key, "AES"));
+        }
+
+        private int getNbOfKeysRead(String alias) {
+            return this.nbOfKeysRead.getOrDefault(alias, 0);
+        }
+
+        private int getNbOfAliasesListings() {
+            return this.nbOfAliasesListings;
+        }
+
+        @Override
+        public Key engineGetKey(String alias, char[] password) {
+            this.nbOfKeysRead.merge(alias, 1, Integer::sum);
+            return this.keys.get(alias);
+        }
+
+        @Override
+        public Certificate[] engineGetCertificateChain(String alias) {
+            return null;
+        }
+
+        @Override
+        public Certificate engineGetCertificate(String alias) {
+            return null;
+        }
+
+        @Override
+        public Date engineGetCreationDate(String alias) {
+            return null;
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) {
+            this.keys.put(alias, key);
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) throws KeyStoreException {
+            throw new KeyStoreException("Unsupported");
+        }
+
+        @Override
+        public void engineSetCertificateEntry(String alias, Certificate cert) throws KeyStoreException {
+            throw new KeyStoreException("Unsupported");
+        }
+
+        @Override
+        public void engineDeleteEntry(String alias) {
+            this.keys.remove(alias);
+        }
+
+        @Override
+        public Enumeration<String> engineAliases() {
+            this.nbOfAliasesListings++;
+            return Collections.enumeration(this.keys.keySet());
+        }
+
+        @Override
+        public boolean engineContainsAlias(String alias) {
+            return this.keys.containsKey(alias);
+        }
+
+        @Override
+        public int engineSize() {
+            return this.keys.size();
+        }
+
+        @Override
+        public boolean engineIsKeyEntry(String alias) {
+            return this.keys.containsKey(alias);
+        }
+
+        @Override
+        public boolean engineIsCertificateEntry(String alias) {
+            return false;
+        }
+
+        @Override
+        public String engineGetCertificateAlias(Certificate cert) {
+            return null;
+        }
+
+        @Override
+        public void engineStore(OutputStream stream, char[] password) {
+        }
+
+        @Override
+        public void engineLoad(InputStream stream, char[] password) {
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package test.fr.gouv.stopc.robert.crypto.grpc.server.storage.service.impl;
 
+import fr.gouv.stopc.robert.crypto.grpc.server.storage.cache.ClientIdentifierBundleCache;
 import fr.gouv.stopc.robert.crypto.grpc.server.storage.cryptographic.service.ICryptographicStorageService;
 import fr.gouv.stopc.robert.crypto.grpc.server.storage.database.model.ClientIdentifier;
 import fr.gouv.stopc.robert.crypto.grpc.server.storage.database.repository.ClientIdentifierRepository;
 import fr.gouv.stopc.robert.crypto.grpc.server.storage.model.ClientIdentifierBundle;
 import fr.gouv.stopc.robert.crypto.grpc.server.storage.service.impl.ClientKeyStorageServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.bson.internal.Base64;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -19,6 +21,7 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 import javax.crypto.spec.SecretKeySpec;
 
 import java.security.SecureRandom;
+import java.time.Clock;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -42,7 +45,8 @@ public class ClientKeyStorageImplTest {
     void beforeEach() {
         this.mockClientIdentifierRepository = new MockClientIdentifierRepository();
 
-        this.clientKeyStorageService = new ClientKeyStorageServiceImpl(cryptographicStorageService, mockClientIdentifierRepository);
+        this.clientKeyStorageService = new ClientKeyStorageServiceImpl(cryptographicStorageService, mockClientIdentifierRepository,
+                new ClientIdentifierBundleCache(10, 60000L, new SimpleMeterRegistry(), Clock.systemUTC()));
         this.mockClientIdentifierRepository.clearLastSavedClientIdentifier();
 
         when(this.cryptographicStorageService.getKeyForEncryptingClientKeys()).thenReturn(new SecretKeySpec(generateKey(), "AES"));
@@ -80,10 +84,52 @@ public class ClientKeyStorageImplTest {
         assertNotEquals(encryptedClientIdentifierWithEncryptedKeys1.getKeyForTuples(), encryptedClientIdentifier2.getKeyForTuples());
     }
 
+    @Test
+    void testFindKeyByIdIsCachedUntilTheIdIsDeleted() {
+        // Given
+        Optional<ClientIdentifierBundle> clientIdentifierBundle = this.clientKeyStorageService.createClientIdUsingKeys(generateKey(), generateKey());
+        byte[] id = clientIdentifierBundle.get().getId();
+        this.clientKeyStorageService.findKeyById(id);
+        this.mockClientIdentifierRepository.clearLastSavedClientIdentifier();
+
+        // When
+        Optional<ClientIdentifierBundle> cachedClientIdentifierBundle = this.clientKeyStorageService.findKeyById(id);
+        this.clientKeyStorageService.deleteClientId(id);
+        Optional<ClientIdentifierBundle> deletedClientIdentifierBundle = this.clientKeyStorageService.findKeyById(id);
+
+        // Then
+        assertTrue(cachedClientIdentifierBundle.isPresent());
+        assertArrayEquals(clientIdentifierBundle.get().getKeyForTuples(), cachedClientIdentifierBundle.get().getKeyForTuples());
+        assertFalse(deletedClientIdentifierBundle.isPresent());
+    }
+
+    @Test
+    void testFindKeyByIdDoesNotCacheTheKeysOfAnIdDeletedWhileReadingThem() {
+        // Given
+        Optional<ClientIdentifierBundle> clientIdentifierBundle = this.clientKeyStorageService.createClientIdUsingKeys(generateKey(), generateKey());
+        byte[] id = clientIdentifierBundle.get().getId();
+        // The id is deleted once its keys are read from the database, before they are cached
+        this.mockClientIdentifierRepository.afterNextFind(() -> this.clientKeyStorageService.deleteClientId(id));
+
+        // When
+        Optional<ClientIdentifierBundle> readClientIdentifierBundle = this.clientKeyStorageService.findKeyById(id);
+        Optional<ClientIdentifierBundle> deletedClientIdentifierBundle = this.clientKeyStorageService.findKeyById(id);
+
+        // Then
+        assertTrue(readClientIdentifierBundle.isPresent());
+        assertFalse(deletedClientIdentifierBundle.isPresent());
+    }
+
     private class MockClientIdentifierRepository implements ClientIdentifierRepository {
 
         private ClientIdentifier lastSavedClientIdentifier;
 
+        private Runnable afterNextFind;
+
+        public void afterNextFind(Runnable afterNextFind) {
+            this.afterNextFind = afterNextFind;
+        }
+
         public ClientIdentifier getLastSavedClientIdentifier() {
             return this.lastSavedClientIdentifier;
         }
@@ -96,7 +142,13 @@ public class ClientKeyStorageImplTest {
 
         @Override
         public Optional<ClientIdentifier> findByIdA(String idA) {
-            return Optional.ofNullable(this.lastSavedClientIdentifier);
+            Optional<ClientIdentifier> clientIdentifier = Optional.ofNullable(this.lastSavedClientIdentifier);
+            Runnable runnable = this.afterNextFind;
+            this.afterNextFind = null;
+            if (runnable != null) {
+                runnable.run();
+            }
+            return clientIdentifier;
         }
 
         @Override
@@ -131,7 +183,9 @@ public class ClientKeyStorageImplTest {
 
         @Override
         public void delete(ClientIdentifier clientIdentifier) {
-
+            if (clientIdentifier == this.lastSavedClientIdentifier) {
+                this.lastSavedClientIdentifier = null;
+            }
         }
 
         @Override
@@ -7,6 +7,7 @@ import javax.inject.Inject;
 import fr.gouv.stopc.robert.server.common.utils.ByteUtils;
 import org.springframework.context.annotation.Configuration;
 
+import fr.gouv.stopc.robert.crypto.grpc.server.service.IServerKeyScheduleService;
 import fr.gouv.stopc.robert.crypto.grpc.server.storage.cryptographic.service.ICryptographicStorageService;
 import fr.gouv.stopc.robert.crypto.grpc.server.utils.PropertyLoader;
 
@@ -17,11 +18,15 @@ public class CryptoServiceConfiguration {
     @Inject
     public CryptoServiceConfiguration(CryptoServiceGrpcServer server, 
             PropertyLoader propertyLoader, 
-            ICryptographicStorageService  cryptoStorageService) throws IOException, InterruptedException {
+            ICryptographicStorageService  cryptoStorageService,
+            IServerKeyScheduleService serverKeyScheduleService) throws IOException, InterruptedException {
 
          // Init the cryptographic Storage
         cryptoStorageService.init(propertyLoader.getKeyStorePassword(), propertyLoader.getKeyStoreConfigFile());
 
+        // Expand the key schedules of the server keys before serving requests
+        serverKeyScheduleService.start();
+
         // Store if does not exist the public and key 
         //cryptoStorageService.addECDHKeys(propertyLoader.getServerPublicKey(), propertyLoader.getServerPrivateKey());
         //cryptoStorageService.addKekKeysIfNotExist(
@@ -0,0 +1,25 @@
+package fr.gouv.stopc.robert.crypto.grpc.server.service;
+
+import java.util.Optional;
+
+import fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoSkinny64;
+
+/**
+ * Skinny64 ciphers of the server keys (K_S), with their key schedule expanded once per day
+ */
+public interface IServerKeyScheduleService {
+
+    /**
+     * Expand the key schedules of the past days, of today and of tomorrow, then keep expanding the key schedule of
+     * the next day before midnight UTC
+     */
+    void start();
+
+    Optional<CryptoSkinny64> getServerKeySchedule(int epochId, boolean takePreviousDaysKey);
+
+    /**
+     * @return the ciphers of the nbDays days starting with the day of the epoch, null for a day without key, or null
+     * if the keys could not be retrieved
+     */
+    CryptoSkinny64[] getServerKeySchedules(int epochId, int nbDays);
+}
@@ -0,0 +1,25 @@
+package fr.gouv.stopc.robert.crypto.grpc.server.service;
+
+import java.security.Key;
+import java.util.List;
+
+import fr.gouv.stopc.robert.server.crypto.model.EphemeralTuple;
+import fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoSkinny64;
+
+/**
+ * Generation of the (EBID, ECC) tuples of a client over several days
+ */
+public interface ITupleGenerationService {
+
+    /**
+     * @param serverKeySchedules the Skinny64 ciphers of the server keys of the days, null for a day without key
+     * @param nbOfEpochsPerDay the number of epochs to generate for each day
+     * @return the tuples ordered by epoch, without the tuples which could not be generated
+     */
+    List<EphemeralTuple> generateTuples(CryptoSkinny64[] serverKeySchedules,
+                                        int[] nbOfEpochsPerDay,
+                                        Key federationKey,
+                                        byte[] idA,
+                                        int firstEpoch,
+                                        byte countryCode);
+}
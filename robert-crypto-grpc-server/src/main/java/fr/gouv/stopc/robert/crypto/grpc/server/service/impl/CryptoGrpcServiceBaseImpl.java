@@ -5,13 +5,11 @@ import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import javax.crypto.spec.SecretKeySpec;
 import org.bson.internal.Base64;
 import javax.inject.Inject;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import fr.gouv.stopc.robert.crypto.grpc.server.messaging.*;
 import fr.gouv.stopc.robert.crypto.grpc.server.storage.cryptographic.service.ICryptographicStorageService;
 import fr.gouv.stopc.robert.server.common.utils.ByteUtils;
@@ -22,7 +20,6 @@ import lombok.*;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.protobuf.ByteString;
 
 import fr.gouv.stopc.robert.crypto.grpc.server.messaging.CryptoGrpcServiceImplGrpc.CryptoGrpcServiceImplImplBase;
@@ -30,8 +27,10 @@ import fr.gouv.stopc.robert.crypto.grpc.server.storage.model.ClientIdentifierBun
 import fr.gouv.stopc.robert.crypto.grpc.server.storage.service.IClientKeyStorageService;
 import fr.gouv.stopc.robert.crypto.grpc.server.service.ICryptoServerConfigurationService;
 import fr.gouv.stopc.robert.crypto.grpc.server.service.IECDHKeyService;
+import fr.gouv.stopc.robert.crypto.grpc.server.service.IServerKeyScheduleService;
+import fr.gouv.stopc.robert.crypto.grpc.server.service.ITupleGenerationService;
+import fr.gouv.stopc.robert.crypto.grpc.server.utils.EncryptedTuplesWriter;
 import fr.gouv.stopc.robert.server.common.DigestSaltEnum;
-import fr.gouv.stopc.robert.server.crypto.callable.TupleGenerator;
 import fr.gouv.stopc.robert.server.crypto.exception.RobertServerCryptoException;
 import fr.gouv.stopc.robert.server.crypto.model.EphemeralTuple;
 import fr.gouv.stopc.robert.server.crypto.service.CryptoService;
@@ -47,19 +46,25 @@ public class CryptoGrpcServiceBaseImpl extends CryptoGrpcServiceImplImplBase {
     private final IECDHKeyService keyService;
     private final IClientKeyStorageService clientStorageService;
     private final ICryptographicStorageService cryptographicStorageService;
+    private final IServerKeyScheduleService serverKeyScheduleService;
+    private final ITupleGenerationService tupleGenerationService;
 
     @Inject
     public CryptoGrpcServiceBaseImpl(final ICryptoServerConfigurationService serverConfigurationService,
                                      final CryptoService cryptoService,
                                      final IECDHKeyService keyService,
                                      final IClientKeyStorageService clientStorageService,
-                                     final ICryptographicStorageService cryptographicStorageService) {
+                                     final ICryptographicStorageService cryptographicStorageService,
+                                     final IServerKeyScheduleService serverKeyScheduleService,
+                                     final ITupleGenerationService tupleGenerationService) {
 
         this.serverConfigurationService = serverConfigurationService;
         this.cryptoService = cryptoService;
         this.keyService = keyService;
         this.clientStorageService = clientStorageService;
         this.cryptographicStorageService = cryptographicStorageService;
+        this.serverKeyScheduleService = serverKeyScheduleService;
+        this.tupleGenerationService = tupleGenerationService;
     }
 
     @Override
@@ -271,6 +276,117 @@ public class CryptoGrpcServiceBaseImpl extends CryptoGrpcServiceImplImplBase {
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void validateContact(ValidateContactRequest request,
+                                StreamObserver<ValidateContactResponse> responseObserver) {
+        if (request.getHelloMessagesCount() == 0) {
+            responseObserver.onError(new RobertServerCryptoException("No HELLO message to validate"));
+            return;
+        }
+
+        byte[] ebid = request.getEbid().toByteArray();
+        byte[] ecc = request.getEcc().toByteArray();
+
+        // Decrypt EBID once for all HELLO messages
+        EbidContent ebidContent = decryptContactEBID(ebid, request.getHelloMessagesList());
+        if (Objects.isNull(ebidContent)) {
+            responseObserver.onError(new RobertServerCryptoException("Could not decrypt EBID"));
+            return;
+        }
+
+        // Check the epoch of each HELLO message against the EBID, then its MAC with keys looked up once
+        List<Boolean> validHelloMessages = new ArrayList<>(request.getHelloMessagesCount());
+        Optional<ClientIdentifierBundle> clientIdentifierBundle = this.clientStorageService.findKeyById(ebidContent.getIdA());
+        if (!clientIdentifierBundle.isPresent()) {
+            String errorMessage = "Could not find keys for id";
+            log.warn(errorMessage);
+            responseObserver.onError(new RobertServerCryptoException(errorMessage));
+            return;
+        }
+        CryptoHMACSHA256 cryptoHMACSHA256 = new CryptoHMACSHA256(clientIdentifierBundle.get().getKeyForMac());
+        for (ContactHelloMessage helloMessage : request.getHelloMessagesList()) {
+            if (!isEpochOfTimeReceived(ebidContent.getEpochId(), helloMessage.getTimeReceived())) {
+                validHelloMessages.add(false);
+                continue;
+            }
+            try {
+                validHelloMessages.add(this.cryptoService.macHelloValidation(
+                        cryptoHMACSHA256,
+                        generateHello(ecc, ebid, helloMessage.getTimeSent(), helloMessage.getMac().toByteArray())));
+            } catch (RobertServerCryptoException e) {
+                validHelloMessages.add(false);
+            }
+        }
+
+        byte[] cc;
+        try {
+            // Decrypt ECC
+            cc = decryptECC(ebid, request.getEcc().byteAt(0));
+        } catch (RobertServerCryptoException e) {
+            String errorMessage = "Could not decrypt ECC";
+            log.warn(errorMessage);
+            responseObserver.onError(new RobertServerCryptoException(errorMessage));
+            return;
+        }
+
+        responseObserver.onNext(ValidateContactResponse.newBuilder()
+                .setIdA(ByteString.copyFrom(ebidContent.getIdA()))
+                .setEpochId(ebidContent.getEpochId())
+                .setCountryCode(ByteString.copyFrom(cc))
+                .addAllValidHelloMessages(validHelloMessages)
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Decrypt the EBID of a contact using the reception time of its HELLO messages; another message is only tried
+     * when its reception time falls in an epoch that has not been tried yet
+     * @param ebid
+     * @param helloMessages
+     * @return the content of the EBID or null if it could not be decrypted
+     */
+    private EbidContent decryptContactEBID(byte[] ebid, List<ContactHelloMessage> helloMessages) {
+        Set<Integer> triedEpochs = new HashSet<>();
+        for (ContactHelloMessage helloMessage : helloMessages) {
+            int epoch = TimeUtils.getNumberOfEpochsBetween(
+                    this.serverConfigurationService.getServiceTimeStart(),
+                    helloMessage.getTimeReceived());
+            if (triedEpochs.add(epoch)) {
+                try {
+                    EbidContent ebidContent = decryptEBIDWithTimeReceived(ebid, helloMessage.getTimeReceived());
+                    if (Objects.nonNull(ebidContent)) {
+                        return ebidContent;
+                    }
+                } catch (RobertServerCryptoException e) {
+                    log.warn("Could not decrypt EBID for epoch {}", epoch);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same check as {@link #decryptEBIDWithTimeReceived(byte[], long)} on an EBID already decrypted: its epoch must be
+     * the epoch of the reception time, or the adjacent epoch of the other day when received at a day boundary
+     */
+    private boolean isEpochOfTimeReceived(int ebidEpochId, long timeReceived) {
+        int epoch = TimeUtils.getNumberOfEpochsBetween(
+                this.serverConfigurationService.getServiceTimeStart(),
+                timeReceived);
+        if (ebidEpochId == epoch) {
+            return true;
+        }
+        switch (atStartOrEndOfDay(timeReceived)) {
+            case PREVIOUS:
+                return ebidEpochId == epoch - 1;
+            case NEXT:
+                return ebidEpochId == epoch + 1;
+            case NONE:
+            default:
+                return false;
+        }
+    }
+
     private Optional<AuthRequestValidationResult> validateAuthRequest(byte[] encryptedEbid,
                                                                       int epochId,
                                                                       long time,
@@ -323,7 +439,7 @@ public class CryptoGrpcServiceBaseImpl extends CryptoGrpcServiceImplImplBase {
         byte[] encryptedTuples;
     }
 
-    // The two following classes are used to serialize to a JSON string that complies with the API Spec
+    // The two following classes describe the JSON that complies with the API Spec, as written by EncryptedTuplesWriter
     @AllArgsConstructor
     @NoArgsConstructor
     @Builder
@@ -368,18 +484,17 @@ public class CryptoGrpcServiceBaseImpl extends CryptoGrpcServiceImplImplBase {
                                                  AdjacentEpochMatchEnum adjacentEpochMatchEnum)
             throws RobertServerCryptoException {
 
-        byte[] serverKey = this.cryptographicStorageService.getServerKey(
+        Optional<CryptoSkinny64> serverKeySchedule = this.serverKeyScheduleService.getServerKeySchedule(
                 authRequestEpoch,
-                this.serverConfigurationService.getServiceTimeStart(),
                 mustCheckWithPreviousDayKey);
 
-        if (Objects.isNull(serverKey)) {
+        if (!serverKeySchedule.isPresent()) {
             log.warn("Cannot retrieve server key for {}", authRequestEpoch);
             //return manageEBIDDecryptRetry(ebid, authRequestEpoch, adjacentEpochMatchEnum);
             return null;
         }
 
-        byte[] decryptedEbid = this.cryptoService.decryptEBID(new CryptoSkinny64(serverKey), ebid);
+        byte[] decryptedEbid = this.cryptoService.decryptEBID(serverKeySchedule.get(), ebid);
         byte[] idA = getIdFromDecryptedEBID(decryptedEbid);
         int ebidEpochId = getEpochIdFromDecryptedEBID(decryptedEbid);
 
@@ -491,13 +606,18 @@ public class CryptoGrpcServiceBaseImpl extends CryptoGrpcServiceImplImplBase {
     }
 
     private byte[] generateHelloFromHelloMessageRequest(GetInfoFromHelloMessageRequest request) {
+        return generateHello(
+                request.getEcc().toByteArray(),
+                request.getEbid().toByteArray(),
+                request.getTimeSent(),
+                request.getMac().toByteArray());
+    }
+
+    private byte[] generateHello(byte[] ecc, byte[] ebid, int timeSent, byte[] mac) {
         byte[] hello = new byte[16];
-        byte[] ecc = request.getEcc().toByteArray();
-        byte[] ebid = request.getEbid().toByteArray();
-        byte[] mac = request.getMac().toByteArray();
         System.arraycopy(ecc, 0, hello, 0, ecc.length);
         System.arraycopy(ebid, 0, hello, ecc.length, ebid.length);
-        System.arraycopy(ByteUtils.intToBytes(request.getTimeSent()), 2, hello, ecc.length + ebid.length, 2);
+        System.arraycopy(ByteUtils.intToBytes(timeSent), 2, hello, ecc.length + ebid.length, 2);
         System.arraycopy(mac, 0, hello, ecc.length + ebid.length + 2, mac.length);
         return hello;
     }
@@ -515,21 +635,6 @@ public class CryptoGrpcServiceBaseImpl extends CryptoGrpcServiceImplImplBase {
         return all;
     }
 
-    private java.util.List<EphemeralTupleJson> mapEphemeralTuples(Collection<EphemeralTuple> tuples) {
-        ArrayList<EphemeralTupleJson> mappedTuples = new ArrayList<>();
-
-        for (EphemeralTuple tuple : tuples) {
-            mappedTuples.add(EphemeralTupleJson.builder()
-                    .epochId(tuple.getEpochId())
-                    .key(EphemeralTupleEbidEccJson.builder()
-                            .ebid(tuple.getEbid())
-                            .ecc(tuple.getEncryptedCountryCode())
-                            .build())
-                    .build());
-        }
-        return mappedTuples;
-    }
-
     private Optional<TuplesGenerationResult> generateEncryptedTuples(byte[] tuplesEncryptionKey,
                                                                      byte[] id,
                                                                      int epochId,
@@ -544,62 +649,39 @@ public class CryptoGrpcServiceBaseImpl extends CryptoGrpcServiceImplImplBase {
         // TODO: limit generation to a max number of days ?
 
         // Generate tuples
-        final byte[][] serverKeys = this.cryptographicStorageService.getServerKeys(
-                epochId,
-                this.serverConfigurationService.getServiceTimeStart(),
-                nbDays);
+        final CryptoSkinny64[] serverKeySchedules = this.serverKeyScheduleService.getServerKeySchedules(epochId, nbDays);
 
-        if (Objects.isNull(serverKeys)) {
+        if (Objects.isNull(serverKeySchedules)) {
             log.warn("Could not retrieve server keys for epoch span starting with: {}", epochId);
             return Optional.empty();
         }
-        int[] nbOfEpochsToGeneratePerDay = new int[serverKeys.length];
+        int[] nbOfEpochsToGeneratePerDay = new int[serverKeySchedules.length];
         nbOfEpochsToGeneratePerDay[0] = TimeUtils.remainingEpochsForToday(epochId);
         for (int i = 1; i < nbOfEpochsToGeneratePerDay.length;  i++) {
             nbOfEpochsToGeneratePerDay[i] = TimeUtils.EPOCHS_PER_DAY;
         }
 
-        Collection<EphemeralTuple> ephemeralTuples = new ArrayList<>();
         final Key federationKey = this.cryptographicStorageService.getFederationKey();
-        int offset = 0;
-        for (int i = 0; i < nbDays; i++) {
-            if (serverKeys[i] != null) {
-                final TupleGenerator tupleGenerator = new TupleGenerator(serverKeys[i], federationKey);
-                try {
-                    Collection<EphemeralTuple> tuplesForDay = tupleGenerator.exec(
-                            id,
-                            epochId + offset,
-                            nbOfEpochsToGeneratePerDay[i],
-                            serverCountryCode
-                    );
-                    tupleGenerator.stop();
-                    ephemeralTuples.addAll(tuplesForDay);
-                } catch (RobertServerCryptoException e) {
-                    log.warn("Error generating tuples for day {}", i);
-                    //return Optional.empty();
-                }
-            } else {
-                log.warn("Cannot generating tuples for day {}, missing key", i);
-            }
-            offset += nbOfEpochsToGeneratePerDay[i];
-        }
-        ephemeralTuples = ephemeralTuples.stream()
-                .sorted(Comparator.comparingInt(EphemeralTuple::getEpochId))
-                .collect(Collectors.toList());
+        List<EphemeralTuple> ephemeralTuples = this.tupleGenerationService.generateTuples(
+                serverKeySchedules,
+                nbOfEpochsToGeneratePerDay,
+                federationKey,
+                id,
+                epochId,
+                serverCountryCode);
+        int nbOfEpochs = Arrays.stream(nbOfEpochsToGeneratePerDay).sum();
 
-        if (offset != ephemeralTuples.size()) {
-            log.warn("Should have generated {} tuples but only returning {} to client", offset, ephemeralTuples.size());
+        if (nbOfEpochs != ephemeralTuples.size()) {
+            log.warn("Should have generated {} tuples but only returning {} to client", nbOfEpochs, ephemeralTuples.size());
         }
 
         try {
             if (!CollectionUtils.isEmpty(ephemeralTuples)) {
-                ObjectMapper objectMapper = new ObjectMapper();
-                byte[] tuplesAsBytes = objectMapper.writeValueAsBytes(mapEphemeralTuples(ephemeralTuples));
-                CryptoAESGCM cryptoAESGCM = new CryptoAESGCM(tuplesEncryptionKey);
-                return Optional.of(TuplesGenerationResult.builder().encryptedTuples(cryptoAESGCM.encrypt(tuplesAsBytes)).build());
+                byte[] encryptedTuples = EncryptedTuplesWriter.encrypt(ephemeralTuples, tuplesEncryptionKey);
+                return Optional.of(TuplesGenerationResult.builder().encryptedTuples(encryptedTuples).build());
             }
             return Optional.empty();
-        } catch (JsonProcessingException | RobertServerCryptoException e) {
+        } catch (RobertServerCryptoException e) {
             log.warn("Error serializing tuples to encrypted JSON");
             return Optional.empty();
         }
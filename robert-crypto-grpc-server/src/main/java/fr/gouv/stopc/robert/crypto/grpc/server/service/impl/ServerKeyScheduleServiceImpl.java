@@ -0,0 +1,224 @@
+package fr.gouv.stopc.robert.crypto.grpc.server.service.impl;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import fr.gouv.stopc.robert.crypto.grpc.server.service.ICryptoServerConfigurationService;
+import fr.gouv.stopc.robert.crypto.grpc.server.service.IServerKeyScheduleService;
+import fr.gouv.stopc.robert.crypto.grpc.server.storage.cryptographic.service.ICryptographicStorageService;
+import fr.gouv.stopc.robert.crypto.grpc.server.utils.PropertyLoader;
+import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
+import fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoSkinny64;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cache of the Skinny64 ciphers of the server keys, indexed by day, so that the key schedule of a server key is
+ * expanded once instead of on each EBID decryption or tuple generation.
+ * The cache is an immutable map replaced as a whole on each change: lookups never lock. The ciphers themselves are
+ * never modified once built and are shared between threads.
+ * The key schedules of the past days, of today and of tomorrow are expanded on start, then the key schedule of the
+ * next day is expanded every day before midnight UTC, when the days out of the window are evicted. The keys of the
+ * other days are expanded on their first use.
+ */
+@Slf4j
+@Service
+public class ServerKeyScheduleServiceImpl implements IServerKeyScheduleService, DisposableBean {
+
+    private final ICryptographicStorageService cryptographicStorageService;
+
+    private final ICryptoServerConfigurationService serverConfigurationService;
+
+    private final int daysBack;
+
+    private final long nextDayLeadMillis;
+
+    private final Clock clock;
+
+    private volatile Map<LocalDate, CryptoSkinny64> schedules = Collections.emptyMap();
+
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public ServerKeyScheduleServiceImpl(final ICryptographicStorageService cryptographicStorageService,
+                                        final ICryptoServerConfigurationService serverConfigurationService,
+                                        final PropertyLoader propertyLoader) {
+        this(cryptographicStorageService, serverConfigurationService, propertyLoader.getKeyScheduleDaysBack(),
+                propertyLoader.getKeyScheduleNextDayLeadMinutes(), Clock.systemUTC());
+    }
+
+    public ServerKeyScheduleServiceImpl(final ICryptographicStorageService cryptographicStorageService,
+                                        final ICryptoServerConfigurationService serverConfigurationService,
+                                        final int daysBack,
+                                        final int nextDayLeadMinutes,
+                                        final Clock clock) {
+        if (daysBack < 0 || nextDayLeadMinutes <= 0 || nextDayLeadMinutes >= TimeUnit.DAYS.toMinutes(1)) {
+            throw new IllegalArgumentException("Invalid window of the key schedule cache");
+        }
+        this.cryptographicStorageService = cryptographicStorageService;
+        this.serverConfigurationService = serverConfigurationService;
+        this.daysBack = daysBack;
+        this.nextDayLeadMillis = TimeUnit.MINUTES.toMillis(nextDayLeadMinutes);
+        this.clock = clock.withZone(ZoneOffset.UTC);
+    }
+
+    @Override
+    public synchronized void start() {
+        LocalDate today = LocalDate.now(this.clock);
+        for (LocalDate day = today.minusDays(this.daysBack); !day.isAfter(today.plusDays(1)); day = day.plusDays(1)) {
+            expand(day);
+        }
+        log.info("Expanded the key schedules of {} days", this.schedules.size());
+
+        if (Objects.isNull(this.scheduler)) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "server-key-schedule");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduleNextDay();
+        }
+    }
+
+    /**
+     * Expand the key schedule of the next day and evict the days before the window of the next day
+     */
+    public void expandNextDay() {
+        LocalDate nextDay = LocalDate.now(this.clock).plusDays(1);
+        expand(nextDay);
+        evictBefore(nextDay.minusDays(this.daysBack + 1));
+    }
+
+    @Override
+    public Optional<CryptoSkinny64> getServerKeySchedule(int epochId, boolean takePreviousDaysKey) {
+        long serviceTimeStart = this.serverConfigurationService.getServiceTimeStart();
+        LocalDate day = TimeUtils.getDateFromEpoch(epochId, serviceTimeStart);
+        if (takePreviousDaysKey) {
+            day = day.minusDays(1);
+        }
+
+        CryptoSkinny64 schedule = this.schedules.get(day);
+        if (Objects.nonNull(schedule)) {
+            return Optional.of(schedule);
+        }
+
+        byte[] serverKey = this.cryptographicStorageService.getServerKey(epochId, serviceTimeStart, takePreviousDaysKey);
+        if (Objects.isNull(serverKey)) {
+            return Optional.empty();
+        }
+        return Optional.of(put(day, new CryptoSkinny64(serverKey)));
+    }
+
+    @Override
+    public CryptoSkinny64[] getServerKeySchedules(int epochId, int nbDays) {
+        long serviceTimeStart = this.serverConfigurationService.getServiceTimeStart();
+        LocalDate firstDay = TimeUtils.getDateFromEpoch(epochId, serviceTimeStart);
+
+        Map<LocalDate, CryptoSkinny64> cachedSchedules = this.schedules;
+        CryptoSkinny64[] schedules = new CryptoSkinny64[nbDays];
+        boolean complete = true;
+        for (int i = 0; i < nbDays; i++) {
+            schedules[i] = cachedSchedules.get(firstDay.plusDays(i));
+            complete &= Objects.nonNull(schedules[i]);
+        }
+        if (complete) {
+            return schedules;
+        }
+
+        byte[][] serverKeys = this.cryptographicStorageService.getServerKeys(epochId, serviceTimeStart, nbDays);
+        if (Objects.isNull(serverKeys)) {
+            return null;
+        }
+        for (int i = 0; i < nbDays && i < serverKeys.length; i++) {
+            if (Objects.isNull(schedules[i]) && Objects.nonNull(serverKeys[i])) {
+                schedules[i] = put(firstDay.plusDays(i), new CryptoSkinny64(serverKeys[i]));
+            }
+        }
+        return schedules;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (Objects.nonNull(this.scheduler)) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    private void scheduleNextDay() {
+        Instant now = this.clock.instant();
+        Instant nextRun = LocalDate.now(this.clock).plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant()
+                .minusMillis(this.nextDayLeadMillis);
+        if (!nextRun.isAfter(now)) {
+            nextRun = nextRun.plus(1, ChronoUnit.DAYS);
+        }
+
+        this.scheduler.schedule(() -> {
+            try {
+                expandNextDay();
+            } catch (RuntimeException e) {
+                log.error("Could not expand the key schedule of the next day due to {}", e.getMessage());
+            } finally {
+                scheduleNextDay();
+            }
+        }, Duration.between(now, nextRun).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void expand(LocalDate day) {
+        if (this.schedules.containsKey(day)) {
+            return;
+        }
+
+        long serviceTimeStart = this.serverConfigurationService.getServiceTimeStart();
+        long epochId = ChronoUnit.DAYS.between(TimeUtils.getDateFromEpoch(0, serviceTimeStart), day)
+                * TimeUtils.EPOCHS_PER_DAY;
+        if (epochId < 0 || epochId > Integer.MAX_VALUE) {
+            return;
+        }
+
+        byte[] serverKey = this.cryptographicStorageService.getServerKey((int) epochId, serviceTimeStart, false);
+        if (Objects.isNull(serverKey)) {
+            log.warn("Cannot retrieve server key for {}", day);
+            return;
+        }
+        try {
+            put(day, new CryptoSkinny64(serverKey));
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid server key for {}", day);
+        }
+    }
+
+    private synchronized CryptoSkinny64 put(LocalDate day, CryptoSkinny64 schedule) {
+        CryptoSkinny64 cachedSchedule = this.schedules.get(day);
+        if (Objects.nonNull(cachedSchedule)) {
+            return cachedSchedule;
+        }
+        Map<LocalDate, CryptoSkinny64> schedules = new HashMap<>(this.schedules);
+        schedules.put(day, schedule);
+        this.schedules = Collections.unmodifiableMap(schedules);
+        return schedule;
+    }
+
+    private synchronized void evictBefore(LocalDate day) {
+        Map<LocalDate, CryptoSkinny64> schedules = new HashMap<>(this.schedules);
+        if (schedules.keySet().removeIf(cachedDay -> cachedDay.isBefore(day))) {
+            this.schedules = Collections.unmodifiableMap(schedules);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package fr.gouv.stopc.robert.crypto.grpc.server.service.impl;
+
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import javax.inject.Inject;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import fr.gouv.stopc.robert.crypto.grpc.server.service.ITupleGenerationService;
+import fr.gouv.stopc.robert.crypto.grpc.server.utils.PropertyLoader;
+import fr.gouv.stopc.robert.server.crypto.callable.ParallelTupleGenerator;
+import fr.gouv.stopc.robert.server.crypto.callable.TupleGenerator;
+import fr.gouv.stopc.robert.server.crypto.exception.RobertServerCryptoException;
+import fr.gouv.stopc.robert.server.crypto.model.EphemeralTuple;
+import fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoSkinny64;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Generate the tuples either day after day on the calling thread, or, when a parallelism is configured, by blocks of
+ * epochs on a fork-join pool shared by all the requests, which bounds the number of threads generating tuples.
+ */
+@Slf4j
+@Service
+public class TupleGenerationServiceImpl implements ITupleGenerationService, DisposableBean {
+
+    private final ForkJoinPool pool;
+
+    private final ParallelTupleGenerator parallelTupleGenerator;
+
+    @Inject
+    public TupleGenerationServiceImpl(final PropertyLoader propertyLoader) {
+        this(propertyLoader.getTuplesParallelism(), propertyLoader.getTuplesEpochsPerTask());
+    }
+
+    /**
+     * @param parallelism the number of threads of the pool, 0 to generate the tuples on the calling thread
+     * @param epochsPerTask the maximum number of epochs generated by a task of the pool
+     */
+    public TupleGenerationServiceImpl(final int parallelism, final int epochsPerTask) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("The parallelism of the tuple generation cannot be negative");
+        }
+        if (parallelism == 0) {
+            this.pool = null;
+            this.parallelTupleGenerator = null;
+        } else {
+            this.pool = new ForkJoinPool(parallelism, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("tuple-generation-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+            this.parallelTupleGenerator = new ParallelTupleGenerator(this.pool, epochsPerTask);
+        }
+    }
+
+    @Override
+    public List<EphemeralTuple> generateTuples(CryptoSkinny64[] serverKeySchedules,
+                                               int[] nbOfEpochsPerDay,
+                                               Key federationKey,
+                                               byte[] idA,
+                                               int firstEpoch,
+                                               byte countryCode) {
+        if (Objects.isNull(this.parallelTupleGenerator)) {
+            return generateTuplesSequentially(serverKeySchedules, nbOfEpochsPerDay, federationKey, idA, firstEpoch,
+                    countryCode);
+        }
+
+        try {
+            return this.parallelTupleGenerator.exec(serverKeySchedules, nbOfEpochsPerDay, federationKey, idA,
+                    firstEpoch, countryCode);
+        } catch (RobertServerCryptoException e) {
+            log.warn("Error generating tuples: {}", e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (Objects.nonNull(this.pool)) {
+            this.pool.shutdownNow();
+        }
+    }
+
+    private List<EphemeralTuple> generateTuplesSequentially(CryptoSkinny64[] serverKeySchedules,
+                                                            int[] nbOfEpochsPerDay,
+                                                            Key federationKey,
+                                                            byte[] idA,
+                                                            int firstEpoch,
+                                                            byte countryCode) {
+        // The days and their epochs are generated in order: the tuples do not need to be sorted
+        List<EphemeralTuple> ephemeralTuples = new ArrayList<>();
+        int offset = 0;
+        for (int i = 0; i < nbOfEpochsPerDay.length; i++) {
+            if (serverKeySchedules[i] != null) {
+                final TupleGenerator tupleGenerator = new TupleGenerator(serverKeySchedules[i], federationKey);
+                try {
+                    ephemeralTuples.addAll(tupleGenerator.exec(
+                            idA,
+                            firstEpoch + offset,
+                            nbOfEpochsPerDay[i],
+                            countryCode
+                    ));
+                    tupleGenerator.stop();
+                } catch (RobertServerCryptoException e) {
+                    log.warn("Error generating tuples for day {}", i);
+                }
+            } else {
+                log.warn("Cannot generating tuples for day {}, missing key", i);
+            }
+            offset += nbOfEpochsPerDay[i];
+        }
+        return ephemeralTuples;
+    }
+}
@@ -0,0 +1,228 @@
+package fr.gouv.stopc.robert.crypto.grpc.server.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import fr.gouv.stopc.robert.server.crypto.exception.RobertServerCryptoException;
+import fr.gouv.stopc.robert.server.crypto.model.EphemeralTuple;
+import fr.gouv.stopc.robert.server.crypto.structure.CryptoAES;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Write the tuples of a client as JSON straight into an AES-GCM cipher, without building the JSON beans nor the
+ * whole plain text.
+ * The JSON is written chunk by chunk into a buffer reused by each thread, then encrypted into an array sized
+ * beforehand. The result is byte-for-byte what {@link com.fasterxml.jackson.databind.ObjectMapper} produces for a list
+ * of {@code EphemeralTupleJson}, encrypted by {@link fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoAESGCM}:
+ * the 12 bytes of the IV, followed by the cipher text and the 16 bytes of the GCM tag.
+ * Nothing of a bundle stays in the writer of the thread once written: the buffer is wiped and the cipher initialized
+ * with the key of the client is released.
+ */
+@Slf4j
+public final class EncryptedTuplesWriter {
+
+    private static final String AES_ENCRYPTION_CIPHER_SCHEME = "AES/GCM/NoPadding";
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final byte[] BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] TUPLE_START = "{\"epochId\":".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] EBID_START = ",\"key\":{\"ebid\":".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] ECC_START = ",\"ecc\":".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] TUPLE_END = "}}".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    // The longest decimal representation of an int, "-2147483648"
+    private static final int MAX_INT_LENGTH = 11;
+
+    private static final ThreadLocal<EncryptedTuplesWriter> WRITERS = ThreadLocal.withInitial(EncryptedTuplesWriter::new);
+
+    private Cipher cipher;
+
+    private byte[] chunk = new byte[CHUNK_SIZE];
+
+    private int position;
+
+    private byte[] cipherText;
+
+    private int cipherTextLength;
+
+    private EncryptedTuplesWriter() {
+    }
+
+    /**
+     * @param tuples the tuples, serialized in the order of the list
+     * @param key the AES key of the client for the tuples
+     * @return the IV, the encrypted JSON array of the tuples and the GCM tag
+     * @throws RobertServerCryptoException if the tuples could not be encrypted
+     */
+    public static byte[] encrypt(List<EphemeralTuple> tuples, byte[] key) throws RobertServerCryptoException {
+        return WRITERS.get().write(tuples, key);
+    }
+
+    private byte[] write(List<EphemeralTuple> tuples, byte[] key) throws RobertServerCryptoException {
+        try {
+            this.cipher = Cipher.getInstance(AES_ENCRYPTION_CIPHER_SCHEME);
+            // A random IV is generated by the provider on each initialization
+            this.cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, CryptoAES.AES_ENCRYPTION_KEY_SCHEME));
+            byte[] iv = this.cipher.getIV();
+
+            this.cipherText = new byte[iv.length + this.cipher.getOutputSize(jsonLength(tuples))];
+            System.arraycopy(iv, 0, this.cipherText, 0, iv.length);
+            this.cipherTextLength = iv.length;
+            this.position = 0;
+
+            writeByte('[');
+            for (int i = 0; i < tuples.size(); i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                writeTuple(tuples.get(i));
+            }
+            writeByte(']');
+
+            flush();
+            this.cipherTextLength += this.cipher.doFinal(this.cipherText, this.cipherTextLength);
+
+            if (this.cipherTextLength != this.cipherText.length) {
+                throw new RobertServerCryptoException("Unexpected size of the encrypted tuples");
+            }
+            return this.cipherText;
+        } catch (GeneralSecurityException e) {
+            log.error(e.getMessage(), e);
+            throw new RobertServerCryptoException(e.getMessage());
+        } finally {
+            this.cipherText = null;
+            this.cipher = null;
+            Arrays.fill(this.chunk, (byte) 0);
+            this.position = 0;
+            if (this.chunk.length > CHUNK_SIZE) {
+                this.chunk = new byte[CHUNK_SIZE];
+            }
+        }
+    }
+
+    private void writeTuple(EphemeralTuple tuple) throws GeneralSecurityException {
+        writeBytes(TUPLE_START);
+        writeInt(tuple.getEpochId());
+        writeBytes(EBID_START);
+        writeBase64(tuple.getEbid());
+        writeBytes(ECC_START);
+        writeBase64(tuple.getEncryptedCountryCode());
+        writeBytes(TUPLE_END);
+    }
+
+    private void writeByte(char c) throws GeneralSecurityException {
+        ensureCapacity(1);
+        this.chunk[this.position++] = (byte) c;
+    }
+
+    private void writeBytes(byte[] bytes) throws GeneralSecurityException {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, this.chunk, this.position, bytes.length);
+        this.position += bytes.length;
+    }
+
+    private void writeInt(int value) throws GeneralSecurityException {
+        ensureCapacity(MAX_INT_LENGTH);
+        long remaining = value;
+        if (remaining < 0) {
+            this.chunk[this.position++] = '-';
+            remaining = -remaining;
+        }
+        int end = this.position + digits(remaining);
+        for (int i = end - 1; i >= this.position; i--) {
+            this.chunk[i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        this.position = end;
+    }
+
+    /**
+     * Write the bytes as a JSON string in standard Base64 with padding, as Jackson does by default
+     */
+    private void writeBase64(byte[] bytes) throws GeneralSecurityException {
+        if (Objects.isNull(bytes)) {
+            writeBytes(NULL);
+            return;
+        }
+        ensureCapacity(base64Length(bytes.length) + 2);
+        byte[] out = this.chunk;
+        int p = this.position;
+        out[p++] = '"';
+        int i = 0;
+        for (; i + 3 <= bytes.length; i += 3) {
+            int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            out[p++] = BASE64_ALPHABET[bits >>> 18];
+            out[p++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            out[p++] = BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+            out[p++] = BASE64_ALPHABET[bits & 0x3f];
+        }
+        int remaining = bytes.length - i;
+        if (remaining > 0) {
+            int bits = (bytes[i] & 0xff) << 16 | (remaining == 2 ? (bytes[i + 1] & 0xff) << 8 : 0);
+            out[p++] = BASE64_ALPHABET[bits >>> 18];
+            out[p++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            out[p++] = remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3f] : (byte) '=';
+            out[p++] = '=';
+        }
+        out[p++] = '"';
+        this.position = p;
+    }
+
+    private void ensureCapacity(int length) throws GeneralSecurityException {
+        if (this.position + length <= this.chunk.length) {
+            return;
+        }
+        flush();
+        if (length > this.chunk.length) {
+            Arrays.fill(this.chunk, (byte) 0);
+            this.chunk = new byte[length];
+        }
+    }
+
+    private void flush() throws GeneralSecurityException {
+        this.cipherTextLength += this.cipher.update(this.chunk, 0, this.position, this.cipherText, this.cipherTextLength);
+        this.position = 0;
+    }
+
+    private static int jsonLength(List<EphemeralTuple> tuples) {
+        int length = 2 + Math.max(0, tuples.size() - 1);
+        for (EphemeralTuple tuple : tuples) {
+            length += TUPLE_START.length + EBID_START.length + ECC_START.length + TUPLE_END.length;
+            int epochId = tuple.getEpochId();
+            length += (epochId < 0 ? 1 : 0) + digits(Math.abs((long) epochId));
+            length += base64StringLength(tuple.getEbid()) + base64StringLength(tuple.getEncryptedCountryCode());
+        }
+        return length;
+    }
+
+    private static int base64StringLength(byte[] bytes) {
+        return Objects.isNull(bytes) ? NULL.length : base64Length(bytes.length) + 2;
+    }
+
+    private static int base64Length(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+}
@@ -25,4 +25,16 @@ public class PropertyLoader {
     @Value("${robert.crypto.server.private.key}")
     private String serverPrivateKey;
 
+    @Value("${robert.crypto.server.key-schedule.days-back}")
+    private int keyScheduleDaysBack;
+
+    @Value("${robert.crypto.server.key-schedule.next-day-lead-minutes}")
+    private int keyScheduleNextDayLeadMinutes;
+
+    @Value("${robert.crypto.server.tuples.parallelism}")
+    private int tuplesParallelism;
+
+    @Value("${robert.crypto.server.tuples.epochs-per-task}")
+    private int tuplesEpochsPerTask;
+
 }
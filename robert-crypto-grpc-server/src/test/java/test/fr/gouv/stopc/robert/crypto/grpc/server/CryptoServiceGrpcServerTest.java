@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -46,6 +47,8 @@ import fr.gouv.stopc.robert.crypto.grpc.server.service.ICryptoServerConfiguratio
 import fr.gouv.stopc.robert.crypto.grpc.server.service.impl.CryptoGrpcServiceBaseImpl;
 import fr.gouv.stopc.robert.crypto.grpc.server.service.impl.CryptoServerConfigurationServiceImpl;
 import fr.gouv.stopc.robert.crypto.grpc.server.service.impl.ECDHKeyServiceImpl;
+import fr.gouv.stopc.robert.crypto.grpc.server.service.impl.ServerKeyScheduleServiceImpl;
+import fr.gouv.stopc.robert.crypto.grpc.server.service.impl.TupleGenerationServiceImpl;
 import fr.gouv.stopc.robert.server.common.utils.ByteUtils;
 import fr.gouv.stopc.robert.server.crypto.service.CryptoService;
 import fr.gouv.stopc.robert.server.crypto.service.impl.CryptoServiceImpl;
@@ -85,6 +88,8 @@ class CryptoServiceGrpcServerTest {
 
     private CryptoService cryptoService;
 
+    private TupleGenerationServiceImpl tupleGenerationService;
+
     @InjectMocks
     private ECDHKeyServiceImpl keyService;
 
@@ -106,11 +111,19 @@ class CryptoServiceGrpcServerTest {
 
         clientStorageService = new MockClientKeyStorageService();
 
+        tupleGenerationService = new TupleGenerationServiceImpl(2, 24);
+
         service = new CryptoGrpcServiceBaseImpl(serverConfigurationService,
                 cryptoService,
                 keyService,
                 clientStorageService,
-                cryptographicStorageService);
+                cryptographicStorageService,
+                new ServerKeyScheduleServiceImpl(cryptographicStorageService,
+                        serverConfigurationService,
+                        14,
+                        10,
+                        Clock.systemUTC()),
+                tupleGenerationService);
 
         when(this.cryptographicStorageService.getServerKeyPair())
                 .thenReturn(Optional.ofNullable(CryptoTestUtils.generateECDHKeyPair()));
@@ -141,6 +154,7 @@ class CryptoServiceGrpcServerTest {
     @AfterEach
     void tearDown() throws Exception {
         server.stop();
+        tupleGenerationService.destroy();
     }
 
     @Test
@@ -1078,6 +1092,8 @@ class CryptoServiceGrpcServerTest {
                 DigestSaltEnum.STATUS);
 
         byte[][] serverKeys = generateRandomServerKeys();
+        // The key schedule of today is cached when decrypting the EBID: today's key must be the same in both mocks
+        serverKeys[0] = bundle.getServerKey();
 
         when(this.cryptographicStorageService.getServerKeys(this.currentEpochId,
                 this.serverConfigurationService.getServiceTimeStart(),
@@ -1647,6 +1663,189 @@ class CryptoServiceGrpcServerTest {
         assertTrue(res.isError());
     }
 
+    @Test
+    void testValidateContactSucceeds() {
+        Optional<ClientIdentifierBundle> clientIdentifierBundle = createId();
+        HelloMessageBundle bundle = generateHelloMessage(
+                clientIdentifierBundle.get().getId(),
+                new byte[1][24],
+                clientIdentifierBundle.get().getKeyForMac(),
+                DigestSaltEnum.HELLO,
+                3000,
+                OtherKSEnum.NONE);
+
+        // Given
+        ContactHelloMessage helloMessage = ContactHelloMessage
+                .newBuilder()
+                .setMac(ByteString.copyFrom(bundle.getMac()))
+                .setTimeReceived(bundle.getTimeReceived())
+                .setTimeSent(bundle.getTimeSent())
+                .build();
+
+        ValidateContactRequest request = ValidateContactRequest
+                .newBuilder()
+                .setEbid(ByteString.copyFrom(bundle.getEbid()))
+                .setEcc(ByteString.copyFrom(bundle.getEcc()))
+                .addHelloMessages(helloMessage)
+                .addHelloMessages(helloMessage)
+                .build();
+
+        ObserverExecutionResult res = new ObserverExecutionResult(false);
+        ValidateContactResponse response =
+                sendCryptoRequest(
+                        request,
+                        (stub, req, observer) -> stub.validateContact(req, observer),
+                        (t) -> fail(),
+                        res);
+        assertTrue(!res.isError());
+        assertTrue(Arrays.equals(clientIdentifierBundle.get().getId(), response.getIdA().toByteArray()));
+        assertTrue(Arrays.equals(response.getCountryCode().toByteArray(), SERVER_COUNTRY_CODE));
+        assertEquals(Arrays.asList(true, true), response.getValidHelloMessagesList());
+    }
+
+    @Test
+    void testValidateContactWithOneBadMacReturnsValidityOfEachMessage() {
+        Optional<ClientIdentifierBundle> clientIdentifierBundle = createId();
+        HelloMessageBundle bundle = generateHelloMessage(
+                clientIdentifierBundle.get().getId(),
+                new byte[1][24],
+                clientIdentifierBundle.get().getKeyForMac(),
+                DigestSaltEnum.HELLO,
+                3000,
+                OtherKSEnum.NONE);
+
+        // Mess up with mac of the second message
+        byte[] mac = new byte[bundle.getMac().length];
+        System.arraycopy(bundle.getMac(), 0, mac, 0, bundle.getMac().length);
+        mac[3] = (byte)(mac[3] ^ 0x4);
+
+        // Given
+        ValidateContactRequest request = ValidateContactRequest
+                .newBuilder()
+                .setEbid(ByteString.copyFrom(bundle.getEbid()))
+                .setEcc(ByteString.copyFrom(bundle.getEcc()))
+                .addHelloMessages(ContactHelloMessage
+                        .newBuilder()
+                        .setMac(ByteString.copyFrom(bundle.getMac()))
+                        .setTimeReceived(bundle.getTimeReceived())
+                        .setTimeSent(bundle.getTimeSent())
+                        .build())
+                .addHelloMessages(ContactHelloMessage
+                        .newBuilder()
+                        .setMac(ByteString.copyFrom(mac))
+                        .setTimeReceived(bundle.getTimeReceived())
+                        .setTimeSent(bundle.getTimeSent())
+                        .build())
+                .build();
+
+        ObserverExecutionResult res = new ObserverExecutionResult(false);
+        ValidateContactResponse response =
+                sendCryptoRequest(
+                        request,
+                        (stub, req, observer) -> stub.validateContact(req, observer),
+                        (t) -> fail(),
+                        res);
+        assertTrue(!res.isError());
+        assertEquals(Arrays.asList(true, false), response.getValidHelloMessagesList());
+    }
+
+    @Test
+    void testValidateContactWithAMessageReceivedInAnotherEpochReturnsValidityOfEachMessage() {
+        Optional<ClientIdentifierBundle> clientIdentifierBundle = createId();
+        HelloMessageBundle bundle = generateHelloMessage(
+                clientIdentifierBundle.get().getId(),
+                new byte[1][24],
+                clientIdentifierBundle.get().getKeyForMac(),
+                DigestSaltEnum.HELLO,
+                3000,
+                OtherKSEnum.NONE);
+
+        // Given a second message with a valid MAC, received one epoch after the epoch of the EBID
+        ValidateContactRequest request = ValidateContactRequest
+                .newBuilder()
+                .setEbid(ByteString.copyFrom(bundle.getEbid()))
+                .setEcc(ByteString.copyFrom(bundle.getEcc()))
+                .addHelloMessages(ContactHelloMessage
+                        .newBuilder()
+                        .setMac(ByteString.copyFrom(bundle.getMac()))
+                        .setTimeReceived(bundle.getTimeReceived())
+                        .setTimeSent(bundle.getTimeSent())
+                        .build())
+                .addHelloMessages(ContactHelloMessage
+                        .newBuilder()
+                        .setMac(ByteString.copyFrom(bundle.getMac()))
+                        .setTimeReceived(bundle.getTimeReceived() + TimeUtils.EPOCH_DURATION_SECS)
+                        .setTimeSent(bundle.getTimeSent())
+                        .build())
+                .build();
+
+        ObserverExecutionResult res = new ObserverExecutionResult(false);
+        ValidateContactResponse response =
+                sendCryptoRequest(
+                        request,
+                        (stub, req, observer) -> stub.validateContact(req, observer),
+                        (t) -> fail(),
+                        res);
+        assertTrue(!res.isError());
+        assertEquals(Arrays.asList(true, false), response.getValidHelloMessagesList());
+    }
+
+    @Test
+    void testValidateContactFakeEbidFails() {
+        Optional<ClientIdentifierBundle> clientIdentifierBundle = createId();
+        HelloMessageBundle bundle = generateHelloMessage(
+                clientIdentifierBundle.get().getId(),
+                new byte[1][24],
+                clientIdentifierBundle.get().getKeyForMac(),
+                DigestSaltEnum.HELLO,
+                5000,
+                OtherKSEnum.NONE);
+
+        byte[] fakeEbid = new byte[8];
+        new SecureRandom().nextBytes(fakeEbid);
+
+        // Given
+        ValidateContactRequest request = ValidateContactRequest
+                .newBuilder()
+                .setEbid(ByteString.copyFrom(fakeEbid))
+                .setEcc(ByteString.copyFrom(bundle.getEcc()))
+                .addHelloMessages(ContactHelloMessage
+                        .newBuilder()
+                        .setMac(ByteString.copyFrom(bundle.getMac()))
+                        .setTimeReceived(bundle.getTimeReceived())
+                        .setTimeSent(bundle.getTimeSent())
+                        .build())
+                .build();
+
+        ObserverExecutionResult res = new ObserverExecutionResult(false);
+        ValidateContactResponse response =
+                sendCryptoRequest(
+                        request,
+                        (stub, req, observer) -> stub.validateContact(req, observer),
+                        (t) -> {},
+                        res);
+        assertTrue(res.isError());
+    }
+
+    @Test
+    void testValidateContactWithoutHelloMessageFails() {
+        // Given
+        ValidateContactRequest request = ValidateContactRequest
+                .newBuilder()
+                .setEbid(ByteString.copyFrom(new byte[8]))
+                .setEcc(ByteString.copyFrom(new byte[1]))
+                .build();
+
+        ObserverExecutionResult res = new ObserverExecutionResult(false);
+        ValidateContactResponse response =
+                sendCryptoRequest(
+                        request,
+                        (stub, req, observer) -> stub.validateContact(req, observer),
+                        (t) -> {},
+                        res);
+        assertTrue(res.isError());
+    }
+
     @AllArgsConstructor
     @NoArgsConstructor
     @Getter
@@ -0,0 +1,168 @@
+package test.fr.gouv.stopc.robert.crypto.grpc.server.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.crypto.grpc.server.service.ICryptoServerConfigurationService;
+import fr.gouv.stopc.robert.crypto.grpc.server.service.impl.CryptoServerConfigurationServiceImpl;
+import fr.gouv.stopc.robert.crypto.grpc.server.service.impl.ServerKeyScheduleServiceImpl;
+import fr.gouv.stopc.robert.crypto.grpc.server.storage.cryptographic.service.ICryptographicStorageService;
+import fr.gouv.stopc.robert.server.common.utils.ByteUtils;
+import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
+import fr.gouv.stopc.robert.server.crypto.exception.RobertServerCryptoException;
+import fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoSkinny64;
+
+@ExtendWith(SpringExtension.class)
+public class ServerKeyScheduleServiceImplTest {
+
+    private static final int DAYS_BACK = 2;
+
+    // 2020-10-15T23:55:00Z, i.e. 5 minutes before midnight UTC of day 136 of the service
+    private static final Instant NOW = Instant.parse("2020-10-15T23:55:00Z");
+
+    private static final int FIRST_EPOCH_OF_TODAY = 136 * TimeUtils.EPOCHS_PER_DAY;
+
+    @Mock
+    private ICryptographicStorageService cryptographicStorageService;
+
+    private final ICryptoServerConfigurationService serverConfigurationService = new CryptoServerConfigurationServiceImpl();
+
+    private ServerKeyScheduleServiceImpl serverKeyScheduleService;
+
+    private long serviceTimeStart;
+
+    @BeforeEach
+    public void before() {
+        this.serviceTimeStart = this.serverConfigurationService.getServiceTimeStart();
+        this.serverKeyScheduleService = new ServerKeyScheduleServiceImpl(this.cryptographicStorageService,
+                this.serverConfigurationService, DAYS_BACK, 10, Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @AfterEach
+    public void after() {
+        this.serverKeyScheduleService.destroy();
+    }
+
+    @Test
+    public void testTheKeyScheduleIsExpandedOncePerDay() throws RobertServerCryptoException {
+        // Given
+        byte[] serverKey = ByteUtils.generateRandom(24);
+        when(this.cryptographicStorageService.getServerKey(anyInt(), eq(this.serviceTimeStart), eq(false)))
+                .thenReturn(serverKey);
+
+        // When
+        Optional<CryptoSkinny64> firstEpochSchedule = this.serverKeyScheduleService
+                .getServerKeySchedule(FIRST_EPOCH_OF_TODAY, false);
+        Optional<CryptoSkinny64> lastEpochSchedule = this.serverKeyScheduleService
+                .getServerKeySchedule(FIRST_EPOCH_OF_TODAY + TimeUtils.EPOCHS_PER_DAY - 1, false);
+
+        // Then
+        assertTrue(firstEpochSchedule.isPresent());
+        assertSame(firstEpochSchedule.get(), lastEpochSchedule.get());
+        verify(this.cryptographicStorageService, times(1)).getServerKey(anyInt(), anyLong(), anyBoolean());
+        byte[] plainText = ByteUtils.generateRandom(8);
+        assertArrayEquals(new CryptoSkinny64(serverKey).encrypt(plainText), firstEpochSchedule.get().encrypt(plainText));
+    }
+
+    @Test
+    public void testThePreviousDaysKeyScheduleIsTheKeyScheduleOfTheDayBefore() {
+        // Given
+        when(this.cryptographicStorageService.getServerKey(FIRST_EPOCH_OF_TODAY, this.serviceTimeStart, true))
+                .thenReturn(ByteUtils.generateRandom(24));
+
+        // When
+        Optional<CryptoSkinny64> previousDaysSchedule = this.serverKeyScheduleService
+                .getServerKeySchedule(FIRST_EPOCH_OF_TODAY, true);
+        Optional<CryptoSkinny64> yesterdaysSchedule = this.serverKeyScheduleService
+                .getServerKeySchedule(FIRST_EPOCH_OF_TODAY - 1, false);
+
+        // Then
+        assertTrue(previousDaysSchedule.isPresent());
+        assertSame(previousDaysSchedule.get(), yesterdaysSchedule.get());
+    }
+
+    @Test
+    public void testAMissingKeyIsNotCached() {
+        // When
+        Optional<CryptoSkinny64> schedule = this.serverKeyScheduleService.getServerKeySchedule(FIRST_EPOCH_OF_TODAY, false);
+        CryptoSkinny64[] schedules = this.serverKeyScheduleService.getServerKeySchedules(FIRST_EPOCH_OF_TODAY, 2);
+
+        // Then
+        assertFalse(schedule.isPresent());
+        assertNull(schedules);
+        when(this.cryptographicStorageService.getServerKey(FIRST_EPOCH_OF_TODAY, this.serviceTimeStart, false))
+                .thenReturn(ByteUtils.generateRandom(24));
+        assertTrue(this.serverKeyScheduleService.getServerKeySchedule(FIRST_EPOCH_OF_TODAY, false).isPresent());
+    }
+
+    @Test
+    public void testStartExpandsTheWindowOfDays() {
+        // Given
+        when(this.cryptographicStorageService.getServerKey(anyInt(), eq(this.serviceTimeStart), eq(false)))
+                .thenAnswer(invocation -> ByteUtils.generateRandom(24));
+
+        // When
+        this.serverKeyScheduleService.start();
+
+        // Then
+        for (int day = -DAYS_BACK; day <= 1; day++) {
+            verify(this.cryptographicStorageService).getServerKey(FIRST_EPOCH_OF_TODAY + day * TimeUtils.EPOCHS_PER_DAY,
+                    this.serviceTimeStart, false);
+        }
+        CryptoSkinny64[] schedules = this.serverKeyScheduleService
+                .getServerKeySchedules(FIRST_EPOCH_OF_TODAY - DAYS_BACK * TimeUtils.EPOCHS_PER_DAY, DAYS_BACK + 2);
+        assertEquals(DAYS_BACK + 2, schedules.length);
+        for (CryptoSkinny64 schedule : schedules) {
+            assertNotNull(schedule);
+        }
+        verify(this.cryptographicStorageService, never()).getServerKeys(anyInt(), anyLong(), anyInt());
+    }
+
+    @Test
+    public void testExpandNextDayEvictsTheDaysBeforeTheWindowOfTheNextDay() {
+        // Given
+        int epochBeforeWindow = FIRST_EPOCH_OF_TODAY - (DAYS_BACK + 1) * TimeUtils.EPOCHS_PER_DAY;
+        int firstEpochOfTomorrow = FIRST_EPOCH_OF_TODAY + TimeUtils.EPOCHS_PER_DAY;
+        when(this.cryptographicStorageService.getServerKey(anyInt(), eq(this.serviceTimeStart), eq(false)))
+                .thenAnswer(invocation -> ByteUtils.generateRandom(24));
+        this.serverKeyScheduleService.getServerKeySchedule(epochBeforeWindow, false);
+        this.serverKeyScheduleService.getServerKeySchedule(FIRST_EPOCH_OF_TODAY, false);
+
+        // When
+        this.serverKeyScheduleService.expandNextDay();
+
+        // Then
+        verify(this.cryptographicStorageService).getServerKey(firstEpochOfTomorrow, this.serviceTimeStart, false);
+        this.serverKeyScheduleService.getServerKeySchedule(firstEpochOfTomorrow, false);
+        this.serverKeyScheduleService.getServerKeySchedule(FIRST_EPOCH_OF_TODAY, false);
+        this.serverKeyScheduleService.getServerKeySchedule(epochBeforeWindow, false);
+        verify(this.cryptographicStorageService).getServerKey(firstEpochOfTomorrow, this.serviceTimeStart, false);
+        verify(this.cryptographicStorageService).getServerKey(FIRST_EPOCH_OF_TODAY, this.serviceTimeStart, false);
+        verify(this.cryptographicStorageService, times(2)).getServerKey(epochBeforeWindow, this.serviceTimeStart, false);
+    }
+}
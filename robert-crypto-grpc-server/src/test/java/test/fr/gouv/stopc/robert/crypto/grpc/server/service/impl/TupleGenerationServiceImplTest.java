@@ -0,0 +1,98 @@
+package test.fr.gouv.stopc.robert.crypto.grpc.server.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.security.Key;
+import java.util.List;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fr.gouv.stopc.robert.crypto.grpc.server.service.impl.TupleGenerationServiceImpl;
+import fr.gouv.stopc.robert.server.common.utils.ByteUtils;
+import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
+import fr.gouv.stopc.robert.server.crypto.model.EphemeralTuple;
+import fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoSkinny64;
+
+public class TupleGenerationServiceImplTest {
+
+    private static final int FIRST_EPOCH = 136 * TimeUtils.EPOCHS_PER_DAY + 50;
+
+    private static final byte COUNTRY_CODE = (byte) 0x21;
+
+    private final Key federationKey = new SecretKeySpec(ByteUtils.generateRandom(32), "AES");
+
+    private final byte[] idA = ByteUtils.generateRandom(5);
+
+    private final int[] nbOfEpochsPerDay = { TimeUtils.EPOCHS_PER_DAY - 50, TimeUtils.EPOCHS_PER_DAY,
+            TimeUtils.EPOCHS_PER_DAY };
+
+    private TupleGenerationServiceImpl sequentialService;
+
+    private TupleGenerationServiceImpl parallelService;
+
+    @BeforeEach
+    public void before() {
+        this.sequentialService = new TupleGenerationServiceImpl(0, 24);
+        this.parallelService = new TupleGenerationServiceImpl(4, 10);
+    }
+
+    @AfterEach
+    public void after() {
+        this.sequentialService.destroy();
+        this.parallelService.destroy();
+    }
+
+    @Test
+    public void testTheParallelGenerationReturnsTheTuplesOfTheSequentialGeneration() {
+        // Given
+        CryptoSkinny64[] serverKeySchedules = serverKeySchedules(3);
+
+        // When
+        List<EphemeralTuple> sequentialTuples = this.sequentialService.generateTuples(serverKeySchedules,
+                this.nbOfEpochsPerDay, this.federationKey, this.idA, FIRST_EPOCH, COUNTRY_CODE);
+        List<EphemeralTuple> parallelTuples = this.parallelService.generateTuples(serverKeySchedules,
+                this.nbOfEpochsPerDay, this.federationKey, this.idA, FIRST_EPOCH, COUNTRY_CODE);
+
+        // Then
+        assertEquals(TimeUtils.EPOCHS_PER_DAY * 3 - 50, parallelTuples.size());
+        assertEquals(sequentialTuples.size(), parallelTuples.size());
+        for (int i = 0; i < parallelTuples.size(); i++) {
+            assertEquals(FIRST_EPOCH + i, parallelTuples.get(i).getEpochId());
+            assertEquals(sequentialTuples.get(i).getEpochId(), parallelTuples.get(i).getEpochId());
+            assertArrayEquals(sequentialTuples.get(i).getEbid(), parallelTuples.get(i).getEbid());
+            assertArrayEquals(sequentialTuples.get(i).getEncryptedCountryCode(),
+                    parallelTuples.get(i).getEncryptedCountryCode());
+        }
+    }
+
+    @Test
+    public void testTheDaysWithoutKeyAreSkippedInEpochOrder() {
+        // Given
+        CryptoSkinny64[] serverKeySchedules = serverKeySchedules(3);
+        serverKeySchedules[1] = null;
+
+        // When
+        List<EphemeralTuple> parallelTuples = this.parallelService.generateTuples(serverKeySchedules,
+                this.nbOfEpochsPerDay, this.federationKey, this.idA, FIRST_EPOCH, COUNTRY_CODE);
+
+        // Then
+        int nbOfEpochsOfFirstDay = this.nbOfEpochsPerDay[0];
+        assertEquals(nbOfEpochsOfFirstDay + TimeUtils.EPOCHS_PER_DAY, parallelTuples.size());
+        assertEquals(FIRST_EPOCH + nbOfEpochsOfFirstDay - 1, parallelTuples.get(nbOfEpochsOfFirstDay - 1).getEpochId());
+        assertEquals(FIRST_EPOCH + nbOfEpochsOfFirstDay + TimeUtils.EPOCHS_PER_DAY,
+                parallelTuples.get(nbOfEpochsOfFirstDay).getEpochId());
+    }
+
+    private static CryptoSkinny64[] serverKeySchedules(int nbDays) {
+        CryptoSkinny64[] serverKeySchedules = new CryptoSkinny64[nbDays];
+        for (int i = 0; i < nbDays; i++) {
+            serverKeySchedules[i] = new CryptoSkinny64(ByteUtils.generateRandom(24));
+        }
+        return serverKeySchedules;
+    }
+}
@@ -0,0 +1,103 @@
+package test.fr.gouv.stopc.robert.crypto.grpc.server.utils;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.gouv.stopc.robert.crypto.grpc.server.service.impl.CryptoGrpcServiceBaseImpl.EphemeralTupleEbidEccJson;
+import fr.gouv.stopc.robert.crypto.grpc.server.service.impl.CryptoGrpcServiceBaseImpl.EphemeralTupleJson;
+import fr.gouv.stopc.robert.crypto.grpc.server.utils.EncryptedTuplesWriter;
+import fr.gouv.stopc.robert.server.common.utils.ByteUtils;
+import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
+import fr.gouv.stopc.robert.server.crypto.model.EphemeralTuple;
+import fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoAESGCM;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Run with {@code mvn test -P benchmark}: the allocations measured depend on the JVM
+ */
+@Slf4j
+@Tag("benchmark")
+public class EncryptedTuplesWriterBenchmarkTest {
+
+    private static final int FIRST_EPOCH = 136 * TimeUtils.EPOCHS_PER_DAY;
+
+    private final byte[] key = ByteUtils.generateRandom(32);
+
+    /**
+     * Compare the bytes allocated for a bundle of 14 days by the Jackson serialization followed by the encryption of
+     * the JSON, and by the streaming writer
+     */
+    @Test
+    public void testTheStreamingWriterAllocatesLessPerBundle() throws Exception {
+        // Given
+        assumeTrue(threadMXBean().isThreadAllocatedMemorySupported());
+        List<EphemeralTuple> tuples = tuples(TimeUtils.EPOCHS_PER_DAY * 14);
+        int iterations = 200;
+        for (int i = 0; i < iterations; i++) {
+            encryptWithJackson(tuples);
+            EncryptedTuplesWriter.encrypt(tuples, this.key);
+        }
+
+        // When
+        long jacksonAllocatedBytes = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            encryptWithJackson(tuples);
+        }
+        jacksonAllocatedBytes = (allocatedBytes() - jacksonAllocatedBytes) / iterations;
+
+        long streamingAllocatedBytes = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            EncryptedTuplesWriter.encrypt(tuples, this.key);
+        }
+        streamingAllocatedBytes = (allocatedBytes() - streamingAllocatedBytes) / iterations;
+
+        // Then
+        log.info("Bytes allocated per bundle of {} tuples: {} with Jackson, {} with the streaming writer",
+                tuples.size(), jacksonAllocatedBytes, streamingAllocatedBytes);
+        assertTrue(streamingAllocatedBytes < jacksonAllocatedBytes);
+    }
+
+    private byte[] encryptWithJackson(List<EphemeralTuple> tuples) throws Exception {
+        byte[] tuplesAsBytes = new ObjectMapper().writeValueAsBytes(beans(tuples));
+        return new CryptoAESGCM(this.key).encrypt(tuplesAsBytes);
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    private static long allocatedBytes() {
+        return threadMXBean().getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static List<EphemeralTuple> tuples(int nbTuples) {
+        List<EphemeralTuple> tuples = new ArrayList<>(nbTuples);
+        for (int i = 0; i < nbTuples; i++) {
+            tuples.add(new EphemeralTuple(FIRST_EPOCH + i, ByteUtils.generateRandom(8), ByteUtils.generateRandom(1)));
+        }
+        return tuples;
+    }
+
+    private static List<EphemeralTupleJson> beans(List<EphemeralTuple> tuples) {
+        List<EphemeralTupleJson> beans = new ArrayList<>();
+        for (EphemeralTuple tuple : tuples) {
+            beans.add(EphemeralTupleJson.builder()
+                    .epochId(tuple.getEpochId())
+                    .key(EphemeralTupleEbidEccJson.builder()
+                            .ebid(tuple.getEbid())
+                            .ecc(tuple.getEncryptedCountryCode())
+                            .build())
+                    .build());
+        }
+        return beans;
+    }
+}
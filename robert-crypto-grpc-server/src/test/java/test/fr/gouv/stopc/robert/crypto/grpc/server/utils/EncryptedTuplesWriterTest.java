@@ -0,0 +1,95 @@
+package test.fr.gouv.stopc.robert.crypto.grpc.server.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.gouv.stopc.robert.crypto.grpc.server.service.impl.CryptoGrpcServiceBaseImpl.EphemeralTupleEbidEccJson;
+import fr.gouv.stopc.robert.crypto.grpc.server.service.impl.CryptoGrpcServiceBaseImpl.EphemeralTupleJson;
+import fr.gouv.stopc.robert.crypto.grpc.server.utils.EncryptedTuplesWriter;
+import fr.gouv.stopc.robert.server.common.utils.ByteUtils;
+import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
+import fr.gouv.stopc.robert.server.crypto.exception.RobertServerCryptoException;
+import fr.gouv.stopc.robert.server.crypto.model.EphemeralTuple;
+import fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoAESGCM;
+
+public class EncryptedTuplesWriterTest {
+
+    private static final int FIRST_EPOCH = 136 * TimeUtils.EPOCHS_PER_DAY;
+
+    private final byte[] key = ByteUtils.generateRandom(32);
+
+    @Test
+    public void testTheDecryptedTuplesAreTheJsonWrittenByJackson() throws Exception {
+        // Given enough tuples to fill several chunks, with EBIDs of every length modulo 3
+        List<EphemeralTuple> tuples = tuples(TimeUtils.EPOCHS_PER_DAY * 5);
+        tuples.add(new EphemeralTuple(Integer.MAX_VALUE, ByteUtils.generateRandom(7), ByteUtils.generateRandom(2)));
+        tuples.add(new EphemeralTuple(0, ByteUtils.generateRandom(9), new byte[0]));
+
+        // When
+        byte[] encryptedTuples = EncryptedTuplesWriter.encrypt(tuples, this.key);
+
+        // Then
+        byte[] decryptedTuples = new CryptoAESGCM(this.key).decrypt(encryptedTuples);
+        assertArrayEquals(new ObjectMapper().writeValueAsBytes(beans(tuples)), decryptedTuples);
+    }
+
+    @Test
+    public void testAnEmptyListIsAnEmptyJsonArray() throws RobertServerCryptoException {
+        // When
+        byte[] encryptedTuples = EncryptedTuplesWriter.encrypt(Collections.emptyList(), this.key);
+
+        // Then
+        assertEquals("[]", new String(new CryptoAESGCM(this.key).decrypt(encryptedTuples), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testTheIvIsNotReusedBetweenBundles() throws RobertServerCryptoException {
+        // Given
+        List<EphemeralTuple> tuples = tuples(10);
+
+        // When
+        byte[] firstEncryptedTuples = EncryptedTuplesWriter.encrypt(tuples, this.key);
+        byte[] secondEncryptedTuples = EncryptedTuplesWriter.encrypt(tuples, this.key);
+
+        // Then
+        assertEquals(firstEncryptedTuples.length, secondEncryptedTuples.length);
+        byte[] firstIv = new byte[12];
+        byte[] secondIv = new byte[12];
+        System.arraycopy(firstEncryptedTuples, 0, firstIv, 0, firstIv.length);
+        System.arraycopy(secondEncryptedTuples, 0, secondIv, 0, secondIv.length);
+        assertFalse(Arrays.equals(firstIv, secondIv));
+    }
+
+    private static List<EphemeralTuple> tuples(int nbTuples) {
+        List<EphemeralTuple> tuples = new ArrayList<>(nbTuples);
+        for (int i = 0; i < nbTuples; i++) {
+            tuples.add(new EphemeralTuple(FIRST_EPOCH + i, ByteUtils.generateRandom(8), ByteUtils.generateRandom(1)));
+        }
+        return tuples;
+    }
+
+    private static List<EphemeralTupleJson> beans(List<EphemeralTuple> tuples) {
+        List<EphemeralTupleJson> beans = new ArrayList<>();
+        for (EphemeralTuple tuple : tuples) {
+            beans.add(EphemeralTupleJson.builder()
+                    .epochId(tuple.getEpochId())
+                    .key(EphemeralTupleEbidEccJson.builder()
+                            .ebid(tuple.getEbid())
+                            .ecc(tuple.getEncryptedCountryCode())
+                            .build())
+                    .build());
+        }
+        return beans;
+    }
+}
@@ -1,33 +1,71 @@
 package fr.gouv.stopc.robert.server.batch.configuration;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
 
 import javax.inject.Inject;
 
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.Step;
 import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
 import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
 import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.job.builder.FlowBuilder;
+import org.springframework.batch.core.job.builder.FlowJobBuilder;
+import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.core.step.builder.SimpleStepBuilder;
 import org.springframework.batch.item.ItemProcessor;
-import org.springframework.batch.item.data.MongoItemReader;
-import org.springframework.batch.item.data.MongoItemWriter;
-import org.springframework.batch.item.data.builder.MongoItemWriterBuilder;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.domain.Sort;
-import org.springframework.data.domain.Sort.Direction;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import fr.gouv.stopc.robert.crypto.grpc.server.client.service.ICryptoServerGrpcClient;
+import fr.gouv.stopc.robert.server.batch.coordination.ShardLeaseManager;
+import fr.gouv.stopc.robert.server.batch.federation.FederationSpool;
+import fr.gouv.stopc.robert.server.batch.listener.BatchRunReportJobListener;
+import fr.gouv.stopc.robert.server.batch.listener.ProcessedContactsCleanupJobListener;
+import fr.gouv.stopc.robert.server.batch.listener.ProcessedContactsDeletionListener;
+import fr.gouv.stopc.robert.server.batch.listener.ProcessedContactsListenerAbstract;
+import fr.gouv.stopc.robert.server.batch.listener.ProcessedContactsMarkingListener;
+import fr.gouv.stopc.robert.server.batch.model.ContactExposure;
+import fr.gouv.stopc.robert.server.batch.model.ContactView;
+import fr.gouv.stopc.robert.server.batch.partitioner.ContactTimeInsertionPartitioner;
+import fr.gouv.stopc.robert.server.batch.policy.AdaptiveChunkCompletionPolicy;
+import fr.gouv.stopc.robert.server.batch.processor.ContactPreValidator;
 import fr.gouv.stopc.robert.server.batch.processor.ContactProcessor;
+import fr.gouv.stopc.robert.server.batch.reader.ContactCursorItemReader;
+import fr.gouv.stopc.robert.server.batch.reader.RawContactCursorItemReader;
+import fr.gouv.stopc.robert.server.batch.runner.ContinuousContactProcessingRunner;
 import fr.gouv.stopc.robert.server.batch.service.ScoringStrategyService;
+import fr.gouv.stopc.robert.server.batch.tasklet.ExpiredEpochsPurgeTasklet;
+import fr.gouv.stopc.robert.server.batch.utils.ContactDeduplicator;
+import fr.gouv.stopc.robert.server.batch.utils.ContactDeletionMode;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
 import fr.gouv.stopc.robert.server.batch.utils.PropertyLoader;
+import fr.gouv.stopc.robert.server.batch.utils.RegistrationLockProvider;
+import fr.gouv.stopc.robert.server.batch.utils.UnknownIdentifierCache;
+import fr.gouv.stopc.robert.server.batch.writer.PipelinedContactWriter;
+import fr.gouv.stopc.robert.server.batch.writer.RegistrationExposureWriter;
 import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
 import fr.gouv.stopc.robertserver.database.model.Contact;
 import fr.gouv.stopc.robertserver.database.service.ContactService;
 import fr.gouv.stopc.robertserver.database.service.IRegistrationService;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Configuration
 @EnableBatchProcessing
@@ -43,17 +81,33 @@ public class ContactsProcessingConfiguration {
 
 	private final ICryptoServerGrpcClient cryptoServerClient;
 
-	private final int CHUNK_SIZE = 10000;
-
 	private final PropertyLoader propertyLoader;
 
+	private final RegistrationLockProvider registrationLockProvider;
+
+	private final UnknownIdentifierCache unknownIdentifierCache;
+
+	private final ContactProcessingMetrics contactProcessingMetrics;
+
+	private final FederationSpool federationSpool;
+
+	private final ContactDeduplicator contactDeduplicator;
+
+	private final ShardLeaseManager shardLeaseManager;
+
 	@Inject
 	public ContactsProcessingConfiguration(final IServerConfigurationService serverConfigurationService,
 										   final IRegistrationService registrationService,
 										   final ContactService contactService,
 										   final ICryptoServerGrpcClient cryptoServerClient,
 										   final ScoringStrategyService scoringStrategyService,
-										   final PropertyLoader propertyLoader
+										   final PropertyLoader propertyLoader,
+										   final RegistrationLockProvider registrationLockProvider,
+										   final UnknownIdentifierCache unknownIdentifierCache,
+										   final ContactProcessingMetrics contactProcessingMetrics,
+										   final FederationSpool federationSpool,
+										   final ContactDeduplicator contactDeduplicator,
+										   final ShardLeaseManager shardLeaseManager
 			) {
 		
 		this.serverConfigurationService = serverConfigurationService;
@@ -62,58 +116,341 @@ public class ContactsProcessingConfiguration {
 		this.cryptoServerClient = cryptoServerClient;
 		this.scoringStrategyService = scoringStrategyService;
 		this.propertyLoader =  propertyLoader;
+		this.registrationLockProvider = registrationLockProvider;
+		this.unknownIdentifierCache = unknownIdentifierCache;
+		this.contactProcessingMetrics = contactProcessingMetrics;
+		this.federationSpool = federationSpool;
+		this.contactDeduplicator = contactDeduplicator;
+		this.shardLeaseManager = shardLeaseManager;
 
 	}
 
 	@Bean
-	public Job readReport(JobBuilderFactory jobBuilderFactory, Step step) {
-		return jobBuilderFactory.get("processContacts").flow(step).end().build();
+	public Job readReport(JobBuilderFactory jobBuilderFactory, Step step, Step partitionedStep, Step pipelinedStep,
+			Step purgeExpiredEpochsStep, MongoTemplate mongoTemplate) {
+		Step contactsStep = step;
+		if (this.propertyLoader.getPartitionedMode()) {
+			contactsStep = partitionedStep;
+		} else if (this.propertyLoader.getPipelinedMode()) {
+			contactsStep = pipelinedStep;
+		}
+		// The listeners are called back in reverse order after the job: the spool flushes first since it may still fail
+		// the run, then the processed contacts are cleaned up and the report is saved with the final status
+		JobBuilder jobBuilder = jobBuilderFactory.get("processContacts")
+				.listener(new BatchRunReportJobListener(mongoTemplate, this.contactProcessingMetrics));
+		if (this.propertyLoader.getContactDeletionMode() == ContactDeletionMode.END_OF_RUN) {
+			jobBuilder.listener(new ProcessedContactsCleanupJobListener(mongoTemplate, this.propertyLoader.getCursorBatchSize()));
+		}
+		jobBuilder.listener(this.unknownIdentifierCache)
+				.listener(this.contactDeduplicator);
+		if (this.shardLeaseManager.isEnabled()) {
+			if (this.propertyLoader.getContactDeletionMode() == ContactDeletionMode.END_OF_RUN) {
+				// The collection of contacts cannot be rotated while other nodes read it
+				throw new IllegalStateException("Contact deletion mode END_OF_RUN is not supported in multi-node mode");
+			}
+			jobBuilder.listener(this.shardLeaseManager);
+		}
+		jobBuilder.listener(this.federationSpool);
+		FlowBuilder<FlowJobBuilder> flowBuilder = jobBuilder.flow(contactsStep);
+		if (this.propertyLoader.getPurgeExpiredEpochs()) {
+			flowBuilder = flowBuilder.next(purgeExpiredEpochsStep);
+		}
+		return flowBuilder.end().build();
 	}
 
 	@Bean
-	public Step step(StepBuilderFactory stepBuilderFactory, MongoItemReader<Contact> mongoItemReader,
-			MongoItemWriter<Contact> mongoItemWriter, IServerConfigurationService serverConfigurationService) {
-		return stepBuilderFactory.get("read").<Contact, Contact>chunk(CHUNK_SIZE).reader(mongoItemReader)
-				.processor(contactsProcessor()).writer(mongoItemWriter).build();
+	public ExpiredEpochsPurgeTasklet expiredEpochsPurgeTasklet(MongoTemplate mongoTemplate) {
+		return new ExpiredEpochsPurgeTasklet(mongoTemplate, this.serverConfigurationService,
+				this.propertyLoader.getPurgeIdRanges());
 	}
 
 	@Bean
-	public MongoItemReader<Contact> mongoItemReader(MongoTemplate mongoTemplate) {
-		
-	    MongoItemReader<Contact> reader = new MongoItemReader<>();
+	public Step purgeExpiredEpochsStep(StepBuilderFactory stepBuilderFactory,
+			ExpiredEpochsPurgeTasklet expiredEpochsPurgeTasklet) {
+		return stepBuilderFactory.get("purgeExpiredEpochs")
+				.tasklet(expiredEpochsPurgeTasklet)
+				.build();
+	}
 
-	    reader.setTemplate(mongoTemplate);
+	@Bean
+	public Step step(StepBuilderFactory stepBuilderFactory, ItemStreamReader<Contact> contactItemReader,
+			RawContactCursorItemReader rawContactItemReader, ItemWriter<ContactExposure> registrationExposureWriter,
+			IServerConfigurationService serverConfigurationService, AdaptiveChunkCompletionPolicy chunkCompletionPolicy,
+			ProcessedContactsListenerAbstract<Contact> processedContactsListener,
+			ProcessedContactsListenerAbstract<ContactView> processedContactViewsListener) {
+		return contactsStep(stepBuilderFactory.get("read"), contactItemReader, rawContactItemReader,
+				registrationExposureWriter, chunkCompletionPolicy, processedContactsListener, processedContactViewsListener);
+	}
 
-	    reader.setSort(new HashMap<String, Sort.Direction>() {{
+	@Bean
+	public Step partitionedStep(StepBuilderFactory stepBuilderFactory, Step workerStep,
+			TaskExecutor partitionTaskExecutor, MongoTemplate mongoTemplate) {
+		return stepBuilderFactory.get("partitionedRead")
+				.partitioner(workerStep.getName(), new ContactTimeInsertionPartitioner(mongoTemplate))
+				.step(workerStep)
+				.gridSize(this.propertyLoader.getGridSize())
+				.taskExecutor(partitionTaskExecutor)
+				.build();
+	}
 
-	      put("_id", Direction.DESC);
+	@Bean
+	public Step workerStep(StepBuilderFactory stepBuilderFactory, ItemStreamReader<Contact> partitionItemReader,
+			RawContactCursorItemReader rawPartitionItemReader, ItemWriter<ContactExposure> registrationExposureWriter,
+			AdaptiveChunkCompletionPolicy chunkCompletionPolicy,
+			ProcessedContactsListenerAbstract<Contact> processedContactsListener,
+			ProcessedContactsListenerAbstract<ContactView> processedContactViewsListener) {
+		return contactsStep(stepBuilderFactory.get("workerRead"), partitionItemReader, rawPartitionItemReader,
+				registrationExposureWriter, chunkCompletionPolicy, processedContactsListener, processedContactViewsListener);
+	}
 
-	    }});
+	/**
+	 * In raw BSON reader mode, the contacts are read and processed as views recycled from one chunk to the next
+	 */
+	private Step contactsStep(StepBuilder stepBuilder, ItemStreamReader<Contact> contactItemReader,
+			RawContactCursorItemReader rawContactItemReader, ItemWriter<ContactExposure> registrationExposureWriter,
+			AdaptiveChunkCompletionPolicy chunkCompletionPolicy,
+			ProcessedContactsListenerAbstract<Contact> processedContactsListener,
+			ProcessedContactsListenerAbstract<ContactView> processedContactViewsListener) {
+		if (this.propertyLoader.getRawBsonReaderMode()) {
+			ItemProcessor<ContactView, ContactExposure> contactViewProcessor = contactsProcessor()::processView;
+			SimpleStepBuilder<ContactView, ContactExposure> rawStepBuilder = stepBuilder
+					.<ContactView, ContactExposure>chunk(chunkCompletionPolicy).reader(rawContactItemReader)
+					.processor(contactViewProcessor).writer(registrationExposureWriter);
+			// Registered first so that the views are only recycled once the other listeners are done with the chunk
+			rawStepBuilder.listener((ChunkListener) rawContactItemReader);
+			return withChunkListeners(rawStepBuilder, chunkCompletionPolicy, processedContactViewsListener)
+					.build();
+		}
+		return withChunkListeners(stepBuilder.<Contact, ContactExposure>chunk(chunkCompletionPolicy).reader(contactItemReader)
+				.processor(contactsProcessor()).writer(registrationExposureWriter), chunkCompletionPolicy,
+				processedContactsListener).build();
+	}
 
-	    reader.setTargetType(Contact.class);
+	@Bean
+	public Step pipelinedStep(StepBuilderFactory stepBuilderFactory, ItemStreamReader<Contact> contactItemReader,
+			ItemWriter<Contact> pipelinedContactWriter, AdaptiveChunkCompletionPolicy chunkCompletionPolicy,
+			ProcessedContactsListenerAbstract<Contact> processedContactsListener) {
+		return withChunkListeners(stepBuilderFactory.get("pipelinedRead").<Contact, Contact>chunk(chunkCompletionPolicy).reader(contactItemReader)
+				.writer(pipelinedContactWriter), chunkCompletionPolicy, processedContactsListener).build();
+	}
 
-	    reader.setQuery("{}");
-		return reader;
+	@Bean
+	public AdaptiveChunkCompletionPolicy chunkCompletionPolicy(MeterRegistry meterRegistry) {
+		return new AdaptiveChunkCompletionPolicy(
+				this.propertyLoader.getChunkMinSize(),
+				this.propertyLoader.getChunkInitialSize(),
+				this.propertyLoader.getChunkMaxSize(),
+				this.propertyLoader.getChunkTargetDurationMillis(),
+				this.propertyLoader.getChunkMaxHeapUsage(),
+				meterRegistry);
 	}
 
 	@Bean
-	public MongoItemWriter<Contact> mongoItemWriter(MongoTemplate mongoTemplate) {
-		Map<String, Direction> sortDirection = new HashMap<>();
-		sortDirection.put("timeInsertion", Direction.DESC);
-		MongoItemWriter<Contact> writer = new MongoItemWriterBuilder<Contact>().template(mongoTemplate)
-				.collection("contacts_to_process").build();
-		return writer;
+	public ItemWriter<Contact> pipelinedContactWriter(RegistrationExposureWriter registrationExposureWriter,
+			TaskExecutor contactValidationTaskExecutor, TaskExecutor registrationLookupTaskExecutor) {
+		return new PipelinedContactWriter(
+				contactsProcessor(),
+				this.registrationService,
+				registrationExposureWriter,
+				contactValidationTaskExecutor,
+				registrationLookupTaskExecutor,
+				this.propertyLoader.getPipelineMaxInFlightContacts(),
+				this.propertyLoader.getPipelineLookupBatchSize());
 	}
 
 	@Bean
-	public ItemProcessor<Contact, Contact> contactsProcessor() {
-		return new ContactProcessor(
-				this.serverConfigurationService,
+	public TaskExecutor contactValidationTaskExecutor() {
+		return pipelineStageTaskExecutor(this.propertyLoader.getPipelineValidationParallelism(), "contacts-validation-");
+	}
+
+	@Bean
+	public TaskExecutor registrationLookupTaskExecutor() {
+		return pipelineStageTaskExecutor(this.propertyLoader.getPipelineLookupParallelism(), "registrations-lookup-");
+	}
+
+	private TaskExecutor pipelineStageTaskExecutor(int parallelism, String threadNamePrefix) {
+		ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+		taskExecutor.setCorePoolSize(parallelism);
+		taskExecutor.setMaxPoolSize(parallelism);
+		// Never more tasks than contacts in flight
+		taskExecutor.setQueueCapacity(this.propertyLoader.getPipelineMaxInFlightContacts());
+		taskExecutor.setThreadNamePrefix(threadNamePrefix);
+		taskExecutor.initialize();
+		return taskExecutor;
+	}
+
+	private <I, O> SimpleStepBuilder<I, O> withChunkListeners(SimpleStepBuilder<I, O> stepBuilder,
+			AdaptiveChunkCompletionPolicy chunkCompletionPolicy, ProcessedContactsListenerAbstract<I> processedContactsListener) {
+		if (this.shardLeaseManager.isEnabled()) {
+			// Registered first so that the shards are only given back once the contacts of the chunk are removed
+			stepBuilder.listener((ChunkListener) this.shardLeaseManager);
+			stepBuilder.listener((ItemWriteListener<Object>) this.shardLeaseManager);
+		}
+		stepBuilder.listener((ChunkListener) chunkCompletionPolicy);
+		stepBuilder.listener((ChunkListener) this.contactProcessingMetrics);
+		stepBuilder.listener((ItemReadListener<I>) processedContactsListener);
+		stepBuilder.listener((ChunkListener) processedContactsListener);
+		return stepBuilder;
+	}
+
+	@Bean
+	public ProcessedContactsListenerAbstract<Contact> processedContactsListener(MongoTemplate mongoTemplate) {
+		if (this.propertyLoader.getContactDeletionMode() == ContactDeletionMode.END_OF_RUN) {
+			return new ProcessedContactsMarkingListener<>(mongoTemplate, this.contactProcessingMetrics, Contact::getId);
+		}
+		return new ProcessedContactsDeletionListener<>(this.contactService, this.contactProcessingMetrics,
+				Contact::getId);
+	}
+
+	@Bean
+	public ProcessedContactsListenerAbstract<ContactView> processedContactViewsListener(MongoTemplate mongoTemplate) {
+		if (this.propertyLoader.getContactDeletionMode() == ContactDeletionMode.END_OF_RUN) {
+			return new ProcessedContactsMarkingListener<>(mongoTemplate, this.contactProcessingMetrics, ContactView::getId);
+		}
+		return new ProcessedContactsDeletionListener<>(this.contactService, this.contactProcessingMetrics,
+				ContactView::getId);
+	}
+
+	@Bean
+	public TaskExecutor partitionTaskExecutor() {
+		ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+		taskExecutor.setCorePoolSize(this.propertyLoader.getGridSize());
+		taskExecutor.setMaxPoolSize(this.propertyLoader.getGridSize());
+		taskExecutor.setThreadNamePrefix("contacts-partition-");
+		taskExecutor.initialize();
+		return taskExecutor;
+	}
+
+	@Bean
+	@StepScope
+	public ContactCursorItemReader partitionItemReader(MongoTemplate mongoTemplate,
+			@Value("#{stepExecutionContext['" + ContactTimeInsertionPartitioner.MIN_TIME_INSERTION_KEY + "']}") Long minTimeInsertion,
+			@Value("#{stepExecutionContext['" + ContactTimeInsertionPartitioner.MAX_TIME_INSERTION_KEY + "']}") Long maxTimeInsertion,
+			@Value("#{stepExecution.jobExecution.startTime}") Date runStart) {
+
+		return new ContactCursorItemReader(mongoTemplate,
+				this.shardLeaseManager.restrictToOwnedShards(buildContactsQuery(minTimeInsertion,
+						Math.min(maxTimeInsertion, getMaxTimeInsertionToProcess(runStart)))),
+				this.propertyLoader.getCursorBatchSize(),
+				this.shardLeaseManager::isRead);
+	}
+
+	/**
+	 * Contacts already processed by a failed run are skipped when they are only removed at the end of a run
+	 */
+	private Query buildContactsQuery(long minTimeInsertion, long maxTimeInsertion) {
+		Query query = ContactTimeInsertionPartitioner.buildPartitionQuery(minTimeInsertion, maxTimeInsertion);
+		return this.propertyLoader.getContactDeletionMode() == ContactDeletionMode.END_OF_RUN ?
+				ProcessedContactsMarkingListener.excludeProcessedContacts(query)
+				: query;
+	}
+
+	/**
+	 * Contacts received during the run are left for the next one when they are only removed at the end of the run
+	 */
+	private long getMaxTimeInsertionToProcess(Date runStart) {
+		return this.propertyLoader.getContactDeletionMode() == ContactDeletionMode.END_OF_RUN ?
+				runStart.getTime()
+				: Long.MAX_VALUE;
+	}
+
+	@Bean
+	@StepScope
+	public ContactCursorItemReader contactItemReader(MongoTemplate mongoTemplate,
+			@Value("#{stepExecution.jobExecution.startTime}") Date runStart) {
+
+		return new ContactCursorItemReader(mongoTemplate,
+				this.shardLeaseManager.restrictToOwnedShards(
+						buildContactsQuery(Long.MIN_VALUE, getMaxTimeInsertionToProcess(runStart))),
+				this.propertyLoader.getCursorBatchSize(),
+				this.shardLeaseManager::isRead);
+	}
+
+	@Bean
+	@StepScope
+	public RawContactCursorItemReader rawPartitionItemReader(MongoTemplate mongoTemplate,
+			@Value("#{stepExecutionContext['" + ContactTimeInsertionPartitioner.MIN_TIME_INSERTION_KEY + "']}") Long minTimeInsertion,
+			@Value("#{stepExecutionContext['" + ContactTimeInsertionPartitioner.MAX_TIME_INSERTION_KEY + "']}") Long maxTimeInsertion,
+			@Value("#{stepExecution.jobExecution.startTime}") Date runStart) {
+
+		return new RawContactCursorItemReader(mongoTemplate,
+				this.shardLeaseManager.restrictToOwnedShards(buildContactsQuery(minTimeInsertion,
+						Math.min(maxTimeInsertion, getMaxTimeInsertionToProcess(runStart)))),
+				this.propertyLoader.getCursorBatchSize(),
+				this.shardLeaseManager::isRead);
+	}
+
+	@Bean
+	@StepScope
+	public RawContactCursorItemReader rawContactItemReader(MongoTemplate mongoTemplate,
+			@Value("#{stepExecution.jobExecution.startTime}") Date runStart) {
+
+		return new RawContactCursorItemReader(mongoTemplate,
+				this.shardLeaseManager.restrictToOwnedShards(
+						buildContactsQuery(Long.MIN_VALUE, getMaxTimeInsertionToProcess(runStart))),
+				this.propertyLoader.getCursorBatchSize(),
+				this.shardLeaseManager::isRead);
+	}
+
+	@Bean
+	public RegistrationExposureWriter registrationExposureWriter(MongoTemplate mongoTemplate) {
+		return new RegistrationExposureWriter(
+				mongoTemplate,
 				this.registrationService,
+				this.serverConfigurationService,
+				this.propertyLoader,
+				this.registrationLockProvider,
+				this.unknownIdentifierCache,
+				this.contactProcessingMetrics,
+				this.scoringStrategyService);
+	}
+
+	/**
+	 * Runs after the processContacts job launched at startup
+	 */
+	@Bean
+	@Order(Ordered.LOWEST_PRECEDENCE)
+	public ContinuousContactProcessingRunner continuousContactProcessingRunner(MongoTemplate mongoTemplate,
+			ItemWriter<Contact> pipelinedContactWriter, RegistrationExposureWriter registrationExposureWriter,
+			ExpiredEpochsPurgeTasklet expiredEpochsPurgeTasklet) {
+		ItemWriter<Contact> contactsWriter = this.propertyLoader.getPipelinedMode() ? pipelinedContactWriter
+				: contacts -> {
+					List<ContactExposure> exposures = new ArrayList<>(contacts.size());
+					for (Contact contact : contacts) {
+						ContactExposure exposure = contactsProcessor().process(contact);
+						if (Objects.nonNull(exposure)) {
+							exposures.add(exposure);
+						}
+					}
+					registrationExposureWriter.write(exposures);
+				};
+		return new ContinuousContactProcessingRunner(
+				this.propertyLoader.getContinuousMode(),
+				mongoTemplate,
 				this.contactService,
+				contactsWriter,
+				this.propertyLoader.getContinuousMicroBatchSize(),
+				this.propertyLoader.getContinuousPollIntervalMillis(),
+				this.propertyLoader.getContinuousMaxAttempts(),
+				this.propertyLoader.getContinuousMaxBackoffMillis(),
+				this.contactProcessingMetrics,
+				this.contactDeduplicator,
+				this.shardLeaseManager,
+				this.propertyLoader.getPurgeExpiredEpochs() ? expiredEpochsPurgeTasklet : null,
+				this.propertyLoader.getContinuousPurgeIntervalMillis());
+	}
+
+	@Bean
+	public ContactProcessor contactsProcessor() {
+		return new ContactProcessor(
+				this.serverConfigurationService,
 				this.cryptoServerClient,
-				this.scoringStrategyService,
-				this.propertyLoader) {
+				this.unknownIdentifierCache,
+				this.contactProcessingMetrics,
+				this.federationSpool,
+				this.contactDeduplicator,
+				new ContactPreValidator(this.serverConfigurationService,
+						this.propertyLoader.getPrevalidationMaxHelloMessages())) {
 		};
 	}
 }
@@ -2,10 +2,13 @@ package fr.gouv.stopc.robert.server.batch.configuration;
 
 import javax.inject.Inject;
 
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import fr.gouv.stopc.robert.crypto.grpc.server.client.service.ICryptoServerGrpcClient;
 import fr.gouv.stopc.robert.server.batch.utils.PropertyLoader;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 @Configuration
 public class RobertServerBatchConfiguration {
@@ -17,4 +20,13 @@ public class RobertServerBatchConfiguration {
 		cryptoServerClient.init(propertyLoader.getCryptoServerHost(), Integer.parseInt( propertyLoader.getCryptoServerPort()));
 	}
 
+	/**
+	 * In-memory registry of the batch meters, summed up in the run report: the batch has no endpoint to scrape and
+	 * no registry is auto-configured without the actuator
+	 */
+	@Bean
+	public MeterRegistry meterRegistry() {
+		return new SimpleMeterRegistry();
+	}
+
 }
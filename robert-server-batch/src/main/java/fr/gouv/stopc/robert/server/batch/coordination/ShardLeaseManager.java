@@ -0,0 +1,470 @@
+package fr.gouv.stopc.robert.server.batch.coordination;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import fr.gouv.stopc.robert.server.batch.exception.ShardLeaseLostException;
+import fr.gouv.stopc.robert.server.batch.model.BatchNode;
+import fr.gouv.stopc.robert.server.batch.model.ShardLease;
+import fr.gouv.stopc.robert.server.batch.utils.PropertyLoader;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Share the contacts between several batch nodes in multi-node mode. Contacts are split into shards by their time of
+ * insertion modulo the number of shards, and each node only processes the shards it holds a lease on.
+ * Leases are stored in MongoDB and renewed by a heartbeat: the shards of a node which stops renewing them are
+ * taken over by the other nodes once their leases expire. Each node takes its fair share of the shards, from the
+ * number of nodes whose heartbeat has not expired, and gives back the shards above it.
+ * Shards are taken when rebalancing, at the start of a run or between two micro-batches in continuous mode, since the
+ * query of a step is built once. Between two chunks, the shards above the fair share stop being read at once and are
+ * given back once the chunks which may have read their contacts are over, so that other nodes take them during a run.
+ * Before the exposures of a chunk are written, the node checks that it still holds the leases of its shards, and
+ * fails the chunk if a lease was lost since the chunk started: another node may be processing the same contacts.
+ * Does nothing outside of multi-node mode.
+ */
+@Slf4j
+@Component
+public class ShardLeaseManager implements JobExecutionListener, ChunkListener, ItemWriteListener<Object>, DisposableBean {
+
+    private static final String TIME_INSERTION_FIELD = "timeInsertion";
+
+    private static final String ID_FIELD = "_id";
+
+    private static final String OWNER_FIELD = "owner";
+
+    private static final String EXPIRES_AT_FIELD = "expiresAt";
+
+    private final boolean enabled;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final String nodeId;
+
+    private final int nbOfShards;
+
+    private final long leaseTtlMillis;
+
+    private final long heartbeatMillis;
+
+    // The shards whose contacts are read
+    private final Set<Integer> ownedShards = new TreeSet<>();
+
+    // The shards no longer read but still held, with the generation from which they stopped being read
+    private final Map<Integer, Long> drainingShards = new HashMap<>();
+
+    // The number of chunks in progress by the generation at which they started
+    private final TreeMap<Long, Integer> chunksInProgress = new TreeMap<>();
+
+    private final ThreadLocal<Long> chunkGeneration = new ThreadLocal<>();
+
+    // Incremented each time shards stop being read, or leases are found lost
+    private long generation;
+
+    private long lastLossGeneration = -1L;
+
+    private volatile boolean[] readShards = new boolean[0];
+
+    private ScheduledExecutorService heartbeat;
+
+    private long lastRebalanceTime;
+
+    @Inject
+    public ShardLeaseManager(MongoTemplate mongoTemplate, PropertyLoader propertyLoader) {
+        this(propertyLoader.getMultiNodeMode(), mongoTemplate, buildNodeId(), propertyLoader.getMultiNodeShards(),
+                propertyLoader.getMultiNodeLeaseTtlMillis(), propertyLoader.getMultiNodeHeartbeatMillis());
+    }
+
+    public ShardLeaseManager(boolean enabled, MongoTemplate mongoTemplate, String nodeId, int nbOfShards,
+            long leaseTtlMillis, long heartbeatMillis) {
+        if (enabled && leaseTtlMillis <= heartbeatMillis) {
+            throw new IllegalArgumentException("The lease TTL must be longer than the heartbeat interval");
+        }
+        this.enabled = enabled;
+        this.mongoTemplate = mongoTemplate;
+        this.nodeId = nodeId;
+        this.nbOfShards = nbOfShards;
+        this.leaseTtlMillis = leaseTtlMillis;
+        this.heartbeatMillis = heartbeatMillis;
+        if (enabled) {
+            this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "shard-lease-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.heartbeat.scheduleWithFixedDelay(this::renew, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+            log.info("Multi-node mode: node {} sharing {} shards", nodeId, nbOfShards);
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public String getNodeId() {
+        return this.nodeId;
+    }
+
+    public synchronized Set<Integer> getOwnedShards() {
+        return Collections.unmodifiableSet(new TreeSet<>(this.ownedShards));
+    }
+
+    /**
+     * @param timeInsertion the time of insertion of a contact, 0 if it has none
+     * @return whether the contact belongs to a shard still read by this node
+     */
+    public boolean isRead(long timeInsertion) {
+        if (!this.enabled) {
+            return true;
+        }
+        boolean[] currentReadShards = this.readShards;
+        int shard = (int) Math.floorMod(timeInsertion, (long) this.nbOfShards);
+        return shard < currentReadShards.length && currentReadShards[shard];
+    }
+
+    /**
+     * Restrict a query on the contacts to the shards held by this node, or to none if it holds none
+     * @return the query itself
+     */
+    public Query restrictToOwnedShards(Query query) {
+        if (!this.enabled) {
+            return query;
+        }
+        List<Criteria> shardCriteria = new ArrayList<>();
+        for (int shard : getOwnedShards()) {
+            shardCriteria.add(Criteria.where(TIME_INSERTION_FIELD).mod(this.nbOfShards, shard));
+            if (shard == 0) {
+                // Contacts without time of insertion belong to the first shard
+                shardCriteria.add(Criteria.where(TIME_INSERTION_FIELD).is(null));
+            }
+        }
+        if (shardCriteria.isEmpty()) {
+            shardCriteria.add(Criteria.where(ID_FIELD).in(Collections.emptyList()));
+        }
+        // Wrapped in $and so as not to clash with the criteria of the query on the same field or with its $or
+        return query.addCriteria(new Criteria().andOperator(
+                new Criteria().orOperator(shardCriteria.toArray(new Criteria[0]))));
+    }
+
+    /**
+     * Take leases on free or expired shards up to the fair share of this node, or give back the shards above it
+     */
+    public synchronized void rebalance() {
+        if (!this.enabled) {
+            return;
+        }
+        Date now = new Date();
+        Date expiresAt = new Date(now.getTime() + this.leaseTtlMillis);
+        this.lastRebalanceTime = now.getTime();
+
+        this.mongoTemplate.remove(new Query(Criteria.where(EXPIRES_AT_FIELD).lt(now)), BatchNode.class);
+        int fairShare = getFairShare(now, expiresAt);
+        renewLeases(expiresAt);
+        stopReadingExtraShards(fairShare);
+        releaseDrainedShards();
+
+        // Start from a shard depending on the node so that nodes do not all compete for the same shards
+        int firstShard = Math.floorMod(this.nodeId.hashCode(), this.nbOfShards);
+        for (int i = 0; i < this.nbOfShards && this.ownedShards.size() < fairShare; i++) {
+            int shard = (firstShard + i) % this.nbOfShards;
+            if (!this.ownedShards.contains(shard) && !this.drainingShards.containsKey(shard)
+                    && tryAcquire(shard, now, expiresAt)) {
+                this.ownedShards.add(shard);
+            }
+        }
+        publishReadShards();
+        log.info("Node {} holds shards {} out of {}", this.nodeId, this.ownedShards, this.nbOfShards);
+    }
+
+    /**
+     * Rebalance unless it was done less than a heartbeat ago
+     */
+    public synchronized void rebalanceIfDue() {
+        if (this.enabled && System.currentTimeMillis() - this.lastRebalanceTime >= this.heartbeatMillis) {
+            rebalance();
+        }
+    }
+
+    /**
+     * Stop reading the shards above the fair share of this node, unless it was done less than a heartbeat ago.
+     * Unlike {@link #rebalance()}, no shard is taken, since the steps in progress would not read it.
+     */
+    public synchronized void giveBackExtraShardsIfDue() {
+        if (!this.enabled || System.currentTimeMillis() - this.lastRebalanceTime < this.heartbeatMillis) {
+            return;
+        }
+        Date now = new Date();
+        Date expiresAt = new Date(now.getTime() + this.leaseTtlMillis);
+        this.lastRebalanceTime = now.getTime();
+        renewLeases(expiresAt);
+        stopReadingExtraShards(getFairShare(now, expiresAt));
+        releaseDrainedShards();
+    }
+
+    /**
+     * Check that this node still holds the leases of the shards read since the chunk of the current thread started
+     * @throws ShardLeaseLostException if a lease was lost
+     */
+    public void checkLeases() {
+        if (!this.enabled) {
+            return;
+        }
+        Long startGeneration = this.chunkGeneration.get();
+        checkLeases(startGeneration == null ? getGeneration() : startGeneration);
+    }
+
+    /**
+     * @param startGeneration the generation when the contacts to write started to be read
+     * @throws ShardLeaseLostException if a lease was lost since then
+     */
+    public synchronized void checkLeases(long startGeneration) {
+        if (!this.enabled) {
+            return;
+        }
+        Set<Integer> heldShards = new TreeSet<>(this.ownedShards);
+        heldShards.addAll(this.drainingShards.keySet());
+        if (!heldShards.isEmpty()) {
+            Set<Integer> validShards = this.mongoTemplate.find(new Query(Criteria.where(ID_FIELD).in(heldShards)
+                    .and(OWNER_FIELD).is(this.nodeId).and(EXPIRES_AT_FIELD).gt(new Date())), ShardLease.class)
+                    .stream()
+                    .map(ShardLease::getShard)
+                    .collect(Collectors.toSet());
+            forgetLostShards(validShards);
+        }
+        if (this.lastLossGeneration >= startGeneration) {
+            throw new ShardLeaseLostException(String.format(
+                    "Node %s lost shard leases while processing contacts; another node may process them", this.nodeId));
+        }
+    }
+
+    public synchronized long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Give back all the shards held by this node
+     */
+    public synchronized void releaseAll() {
+        if (!this.enabled) {
+            return;
+        }
+        this.mongoTemplate.remove(new Query(Criteria.where(OWNER_FIELD).is(this.nodeId)), ShardLease.class);
+        this.ownedShards.clear();
+        this.drainingShards.clear();
+        publishReadShards();
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        rebalance();
+    }
+
+    @Override
+    public synchronized void beforeChunk(ChunkContext context) {
+        if (!this.enabled) {
+            return;
+        }
+        this.chunkGeneration.set(this.generation);
+        this.chunksInProgress.merge(this.generation, 1, Integer::sum);
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        endChunk();
+        giveBackExtraShardsIfDue();
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        endChunk();
+    }
+
+    @Override
+    public void beforeWrite(List<? extends Object> items) {
+        checkLeases();
+    }
+
+    @Override
+    public void afterWrite(List<? extends Object> items) {
+    }
+
+    @Override
+    public void onWriteError(Exception exception, List<? extends Object> items) {
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        releaseAll();
+    }
+
+    @Override
+    public void destroy() {
+        if (!this.enabled) {
+            return;
+        }
+        this.heartbeat.shutdown();
+        releaseAll();
+        this.mongoTemplate.remove(new Query(Criteria.where(ID_FIELD).is(this.nodeId)), BatchNode.class);
+    }
+
+    private synchronized void renew() {
+        try {
+            Date expiresAt = new Date(System.currentTimeMillis() + this.leaseTtlMillis);
+            this.mongoTemplate.updateFirst(new Query(Criteria.where(ID_FIELD).is(this.nodeId)),
+                    new Update().set(EXPIRES_AT_FIELD, expiresAt), BatchNode.class);
+            renewLeases(expiresAt);
+        } catch (RuntimeException e) {
+            log.error("Could not renew the shard leases of node {}", this.nodeId, e);
+        }
+    }
+
+    /**
+     * Extend the leases still held by this node, and forget those it lost
+     */
+    private void renewLeases(Date expiresAt) {
+        if (this.ownedShards.isEmpty() && this.drainingShards.isEmpty()) {
+            return;
+        }
+        Query ownedLeases = new Query(Criteria.where(OWNER_FIELD).is(this.nodeId));
+        this.mongoTemplate.updateMulti(ownedLeases, new Update().set(EXPIRES_AT_FIELD, expiresAt), ShardLease.class);
+        forgetLostShards(this.mongoTemplate.find(ownedLeases, ShardLease.class).stream()
+                .map(ShardLease::getShard)
+                .collect(Collectors.toSet()));
+    }
+
+    /**
+     * Stop reading the shards whose lease is no longer held, and fail the chunks in progress
+     */
+    private void forgetLostShards(Set<Integer> heldShards) {
+        List<Integer> lostShards = new ArrayList<>();
+        this.ownedShards.stream().filter(shard -> !heldShards.contains(shard)).forEach(lostShards::add);
+        this.drainingShards.keySet().stream().filter(shard -> !heldShards.contains(shard)).forEach(lostShards::add);
+        if (lostShards.isEmpty()) {
+            return;
+        }
+        log.error("Node {} lost the leases of shards {}: renew them more often than {} ms", this.nodeId, lostShards,
+                this.leaseTtlMillis);
+        this.ownedShards.removeAll(lostShards);
+        this.drainingShards.keySet().removeAll(lostShards);
+        this.lastLossGeneration = this.generation++;
+        publishReadShards();
+    }
+
+    private int getFairShare(Date now, Date expiresAt) {
+        this.mongoTemplate.upsert(new Query(Criteria.where(ID_FIELD).is(this.nodeId)),
+                new Update().set(EXPIRES_AT_FIELD, expiresAt), BatchNode.class);
+        long nbOfNodes = Math.max(1, this.mongoTemplate.count(
+                new Query(Criteria.where(EXPIRES_AT_FIELD).gte(now)), BatchNode.class));
+        return (int) ((this.nbOfShards + nbOfNodes - 1) / nbOfNodes);
+    }
+
+    /**
+     * Stop reading the shards above the fair share; their leases are given back once no chunk may still write them
+     */
+    private void stopReadingExtraShards(int fairShare) {
+        if (this.ownedShards.size() <= fairShare) {
+            return;
+        }
+        List<Integer> extraShards = this.ownedShards.stream()
+                .skip(fairShare)
+                .collect(Collectors.toList());
+        long drainGeneration = ++this.generation;
+        extraShards.forEach(shard -> this.drainingShards.put(shard, drainGeneration));
+        this.ownedShards.removeAll(extraShards);
+        publishReadShards();
+        log.info("Node {} stops reading shards {}, above its fair share of {}", this.nodeId, extraShards, fairShare);
+    }
+
+    /**
+     * Give back the leases of the shards no longer read by the chunks in progress
+     */
+    private void releaseDrainedShards() {
+        long oldestChunkGeneration = this.chunksInProgress.isEmpty() ? Long.MAX_VALUE : this.chunksInProgress.firstKey();
+        List<Integer> drainedShards = this.drainingShards.entrySet().stream()
+                .filter(entry -> entry.getValue() <= oldestChunkGeneration)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        if (drainedShards.isEmpty()) {
+            return;
+        }
+        this.mongoTemplate.remove(new Query(Criteria.where(ID_FIELD).in(drainedShards)
+                .and(OWNER_FIELD).is(this.nodeId)), ShardLease.class);
+        this.drainingShards.keySet().removeAll(drainedShards);
+        log.info("Node {} gave back shards {}", this.nodeId, drainedShards);
+    }
+
+    private synchronized void endChunk() {
+        if (!this.enabled) {
+            return;
+        }
+        Long startGeneration = this.chunkGeneration.get();
+        this.chunkGeneration.remove();
+        if (startGeneration != null) {
+            this.chunksInProgress.computeIfPresent(startGeneration, (key, count) -> count == 1 ? null : count - 1);
+        }
+        releaseDrainedShards();
+    }
+
+    private void publishReadShards() {
+        boolean[] shards = new boolean[this.nbOfShards];
+        this.ownedShards.forEach(shard -> shards[shard] = true);
+        this.readShards = shards;
+    }
+
+    /**
+     * Take the lease of a shard if no other node holds it, or if its lease expired
+     */
+    private boolean tryAcquire(int shard, Date now, Date expiresAt) {
+        Query freeLease = new Query(Criteria.where(ID_FIELD).is(shard)
+                .orOperator(Criteria.where(OWNER_FIELD).is(this.nodeId), Criteria.where(EXPIRES_AT_FIELD).lt(now)));
+        try {
+            ShardLease lease = this.mongoTemplate.findAndModify(freeLease,
+                    new Update().set(OWNER_FIELD, this.nodeId).set(EXPIRES_AT_FIELD, expiresAt),
+                    FindAndModifyOptions.options().upsert(true).returnNew(true),
+                    ShardLease.class);
+            return lease != null && this.nodeId.equals(lease.getOwner());
+        } catch (DuplicateKeyException e) {
+            // The lease exists and is held by another node
+            return false;
+        }
+    }
+
+    private static String buildNodeId() {
+        String hostName;
+        try {
+            hostName = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            hostName = "unknown";
+        }
+        return hostName + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
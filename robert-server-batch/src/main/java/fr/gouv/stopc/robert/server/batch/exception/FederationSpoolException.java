@@ -0,0 +1,7 @@
+package fr.gouv.stopc.robert.server.batch.exception;
+
+public class FederationSpoolException extends RuntimeException {
+    public FederationSpoolException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,7 @@
+package fr.gouv.stopc.robert.server.batch.exception;
+
+public class ShardLeaseLostException extends RuntimeException {
+    public ShardLeaseLostException(String message) {
+        super(message);
+    }
+}
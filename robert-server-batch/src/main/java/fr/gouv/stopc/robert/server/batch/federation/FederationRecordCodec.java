@@ -0,0 +1,80 @@
+package fr.gouv.stopc.robert.server.batch.federation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.model.HelloMessageDetail;
+
+/**
+ * Binary record of a contact in the federation spool:
+ * <pre>
+ * ebid (u8 length + bytes) | ecc (u8 length + bytes) | timeInsertion (i64) | number of messages (u16)
+ * then for each message:
+ * timeCollectedOnDevice (i64) | timeFromHelloMessage (i32) | rssiCalibrated (i32) | mac (u8 length + bytes)
+ * </pre>
+ * Missing values are written as 0 or as empty arrays.
+ */
+public final class FederationRecordCodec {
+
+    private FederationRecordCodec() {
+    }
+
+    public static void write(DataOutput out, Contact contact) throws IOException {
+        writeBytes(out, contact.getEbid());
+        writeBytes(out, contact.getEcc());
+        out.writeLong(contact.getTimeInsertion() == null ? 0L : contact.getTimeInsertion());
+        List<HelloMessageDetail> messageDetails = contact.getMessageDetails() == null ? new ArrayList<>()
+                : contact.getMessageDetails();
+        out.writeShort(messageDetails.size());
+        for (HelloMessageDetail messageDetail : messageDetails) {
+            out.writeLong(messageDetail.getTimeCollectedOnDevice() == null ? 0L : messageDetail.getTimeCollectedOnDevice());
+            out.writeInt(messageDetail.getTimeFromHelloMessage() == null ? 0 : messageDetail.getTimeFromHelloMessage());
+            out.writeInt(messageDetail.getRssiCalibrated() == null ? 0 : messageDetail.getRssiCalibrated());
+            writeBytes(out, messageDetail.getMac());
+        }
+    }
+
+    public static Contact read(DataInput in) throws IOException {
+        byte[] ebid = readBytes(in);
+        byte[] ecc = readBytes(in);
+        long timeInsertion = in.readLong();
+        int nbOfMessages = in.readUnsignedShort();
+        List<HelloMessageDetail> messageDetails = new ArrayList<>(nbOfMessages);
+        for (int i = 0; i < nbOfMessages; i++) {
+            messageDetails.add(HelloMessageDetail.builder()
+                    .timeCollectedOnDevice(in.readLong())
+                    .timeFromHelloMessage(in.readInt())
+                    .rssiCalibrated(in.readInt())
+                    .mac(readBytes(in))
+                    .build());
+        }
+        return Contact.builder()
+                .ebid(ebid)
+                .ecc(ecc)
+                .timeInsertion(timeInsertion)
+                .messageDetails(messageDetails)
+                .build();
+    }
+
+    private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeByte(0);
+            return;
+        }
+        if (bytes.length > 0xFF) {
+            throw new IOException("Field too long for a federation record: " + bytes.length + " bytes");
+        }
+        out.writeByte(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedByte()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
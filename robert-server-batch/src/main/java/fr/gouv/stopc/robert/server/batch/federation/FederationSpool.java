@@ -0,0 +1,324 @@
+package fr.gouv.stopc.robert.server.batch.federation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.inject.Inject;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import fr.gouv.stopc.robert.server.batch.exception.FederationSpoolException;
+import fr.gouv.stopc.robert.server.batch.model.FederationSpoolSegment;
+import fr.gouv.stopc.robert.server.batch.utils.PropertyLoader;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Outbound spool of the contacts belonging to other country servers, waiting for a forwarding service.
+ * Contacts are appended to an in-memory segment per country code, which is sealed once it reaches its maximum size
+ * or age, or at the end of the run, then compressed and inserted by a single background thread, so that the
+ * contacts processing never waits for the spool.
+ * A segment which cannot be inserted is kept in memory and inserted again later, before the segments sealed after it.
+ * Until it is, appending a contact fails, so that the chunks stop removing contacts which could not be spooled, and
+ * the run fails if the segments still cannot be inserted when it ends.
+ * Contacts of the segments not inserted yet are lost if the batch stops abruptly, as they are removed with the other
+ * contacts of their chunk.
+ */
+@Slf4j
+@Component
+public class FederationSpool implements JobExecutionListener, DisposableBean {
+
+    private static final String COUNTRY_CODE_FIELD = "countryCode";
+
+    private static final String SEAL_TIME_FIELD = "sealTime";
+
+    private final MongoTemplate mongoTemplate;
+
+    private final int segmentMaxBytes;
+
+    private final long segmentMaxAgeMillis;
+
+    private final Map<Integer, SegmentBuffer> segmentBuffers = new HashMap<>();
+
+    private final ScheduledExecutorService segmentWriter;
+
+    // Only used by the segment writer thread
+    private final Deque<SegmentBuffer> failedSegments = new ArrayDeque<>();
+
+    private boolean retryScheduled;
+
+    private volatile Exception insertFailure;
+
+    @Inject
+    public FederationSpool(MongoTemplate mongoTemplate, PropertyLoader propertyLoader) {
+        this(mongoTemplate, propertyLoader.getFederationSegmentMaxBytes(),
+                propertyLoader.getFederationSegmentMaxAgeMillis());
+    }
+
+    public FederationSpool(MongoTemplate mongoTemplate, int segmentMaxBytes, long segmentMaxAgeMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.segmentMaxAgeMillis = segmentMaxAgeMillis;
+        this.segmentWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "federation-spool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Append a contact to the segment of its country code
+     * @throws FederationSpoolException if segments sealed before could not be inserted yet
+     */
+    public void append(byte countryCode, Contact contact) {
+        Exception failure = this.insertFailure;
+        if (Objects.nonNull(failure)) {
+            throw new FederationSpoolException("Segments of the federation spool could not be inserted yet", failure);
+        }
+        SegmentBuffer sealedSegment = null;
+        synchronized (this) {
+            SegmentBuffer segmentBuffer = this.segmentBuffers.get(Byte.toUnsignedInt(countryCode));
+            if (Objects.isNull(segmentBuffer)) {
+                segmentBuffer = new SegmentBuffer(Byte.toUnsignedInt(countryCode));
+                this.segmentBuffers.put(segmentBuffer.countryCode, segmentBuffer);
+                // Each segment is sealed once it reaches its maximum age, wherever the other segments are
+                SegmentBuffer expiringSegment = segmentBuffer;
+                segmentBuffer.sealTask = this.segmentWriter.schedule(() -> sealExpiredSegment(expiringSegment),
+                        this.segmentMaxAgeMillis, TimeUnit.MILLISECONDS);
+            }
+            segmentBuffer.append(contact);
+            if (segmentBuffer.size() >= this.segmentMaxBytes) {
+                sealedSegment = this.segmentBuffers.remove(segmentBuffer.countryCode);
+                sealedSegment.sealTask.cancel(false);
+            }
+        }
+        if (sealedSegment != null) {
+            SegmentBuffer segment = sealedSegment;
+            this.segmentWriter.execute(() -> insert(segment));
+        }
+    }
+
+    /**
+     * Seal the segments being filled and wait for all the sealed segments to be inserted
+     * @throws FederationSpoolException if segments could not be inserted
+     */
+    public void flush() {
+        List<SegmentBuffer> sealedSegments;
+        synchronized (this) {
+            sealedSegments = new ArrayList<>(this.segmentBuffers.values());
+            this.segmentBuffers.clear();
+        }
+        sealedSegments.forEach(segment -> {
+            segment.sealTask.cancel(false);
+            this.segmentWriter.execute(() -> insert(segment));
+        });
+        try {
+            // The writer runs its tasks in order: once this one is done, the segments above are inserted, and the
+            // segments which failed before are attempted again
+            this.segmentWriter.submit(this::insertFailedSegments).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Could not flush the federation spool", e);
+        }
+        Exception failure = this.insertFailure;
+        if (Objects.nonNull(failure)) {
+            throw new FederationSpoolException("Segments of the federation spool could not be inserted", failure);
+        }
+    }
+
+    /**
+     * Go through the contacts spooled for a country, oldest segment first
+     */
+    public CloseableIterator<Contact> iterator(byte countryCode) {
+        Query query = new Query(Criteria.where(COUNTRY_CODE_FIELD).is(Byte.toUnsignedInt(countryCode)))
+                .with(Sort.by(Sort.Direction.ASC, SEAL_TIME_FIELD, "_id"));
+        return new SpooledContactIterator(this.mongoTemplate.stream(query, FederationSpoolSegment.class));
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        try {
+            flush();
+        } catch (FederationSpoolException e) {
+            log.error("Contacts for other countries could not be spooled; failing the run", e);
+            jobExecution.setStatus(BatchStatus.FAILED);
+            jobExecution.addFailureException(e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            flush();
+        } catch (FederationSpoolException e) {
+            log.error("Contacts for other countries lost on shutdown", e);
+        }
+        this.segmentWriter.shutdown();
+    }
+
+    private void sealExpiredSegment(SegmentBuffer segmentBuffer) {
+        synchronized (this) {
+            // Already sealed if it is no longer the segment being filled for its country
+            if (!this.segmentBuffers.remove(segmentBuffer.countryCode, segmentBuffer)) {
+                return;
+            }
+        }
+        insert(segmentBuffer);
+    }
+
+    /**
+     * Insert the segment once those which failed before are inserted, to keep the order of the segments of a country
+     */
+    private void insert(SegmentBuffer segmentBuffer) {
+        this.failedSegments.add(segmentBuffer);
+        insertFailedSegments();
+    }
+
+    private void insertFailedSegments() {
+        while (!this.failedSegments.isEmpty()) {
+            SegmentBuffer segmentBuffer = this.failedSegments.peek();
+            try {
+                write(segmentBuffer);
+            } catch (IOException | RuntimeException e) {
+                log.error("Could not spool {} contacts for country {}; they will be spooled again in {} ms",
+                        segmentBuffer.nbOfRecords, segmentBuffer.countryCode, this.segmentMaxAgeMillis, e);
+                this.insertFailure = e;
+                if (!this.retryScheduled) {
+                    this.retryScheduled = true;
+                    this.segmentWriter.schedule(() -> {
+                        this.retryScheduled = false;
+                        insertFailedSegments();
+                    }, this.segmentMaxAgeMillis, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            this.failedSegments.poll();
+        }
+        this.insertFailure = null;
+    }
+
+    private void write(SegmentBuffer segmentBuffer) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(segmentBuffer.size() / 2);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+            segmentBuffer.records.writeTo(out);
+        }
+        this.mongoTemplate.insert(FederationSpoolSegment.builder()
+                .countryCode(segmentBuffer.countryCode)
+                .firstRecordTime(new Date(segmentBuffer.firstRecordTime))
+                .sealTime(new Date())
+                .nbOfRecords(segmentBuffer.nbOfRecords)
+                .uncompressedSize(segmentBuffer.size())
+                .records(compressed.toByteArray())
+                .build());
+        log.info("Federation segment of {} contacts for country {} spooled ({} bytes)",
+                segmentBuffer.nbOfRecords, segmentBuffer.countryCode, compressed.size());
+    }
+
+    private static final class SegmentBuffer {
+
+        private final int countryCode;
+
+        private final long firstRecordTime = System.currentTimeMillis();
+
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+        private final DataOutputStream out = new DataOutputStream(this.records);
+
+        private int nbOfRecords;
+
+        private ScheduledFuture<?> sealTask;
+
+        private SegmentBuffer(int countryCode) {
+            this.countryCode = countryCode;
+        }
+
+        private void append(Contact contact) {
+            try {
+                FederationRecordCodec.write(this.out, contact);
+                this.nbOfRecords++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private int size() {
+            return this.records.size();
+        }
+    }
+
+    private static final class SpooledContactIterator implements CloseableIterator<Contact> {
+
+        private final CloseableIterator<FederationSpoolSegment> segments;
+
+        private DataInputStream currentSegment;
+
+        private int remainingRecords;
+
+        private SpooledContactIterator(CloseableIterator<FederationSpoolSegment> segments) {
+            this.segments = segments;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.remainingRecords == 0 && this.segments.hasNext()) {
+                FederationSpoolSegment segment = this.segments.next();
+                this.currentSegment = new DataInputStream(
+                        new InflaterInputStream(new ByteArrayInputStream(segment.getRecords())));
+                this.remainingRecords = segment.getNbOfRecords();
+            }
+            return this.remainingRecords > 0;
+        }
+
+        @Override
+        public Contact next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                this.remainingRecords--;
+                return FederationRecordCodec.read(this.currentSegment);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            this.segments.close();
+        }
+    }
+}
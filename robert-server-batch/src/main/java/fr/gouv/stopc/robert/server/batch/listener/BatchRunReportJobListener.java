@@ -0,0 +1,126 @@
+package fr.gouv.stopc.robert.server.batch.listener;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import fr.gouv.stopc.robert.server.batch.model.BatchRunReport;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics.RejectionReason;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Save a {@link BatchRunReport} once the run is over. The counters are cumulative, so the values of the run are the
+ * differences with those taken when it started, while the latencies are those of the timers of the run.
+ */
+@Slf4j
+public class BatchRunReportJobListener implements JobExecutionListener {
+
+    private static final double P95 = 0.95;
+
+    // Used by SimpleStepExecutionSplitter to name the worker steps of a partitioned step
+    private static final String PARTITION_STEP_NAME_SEPARATOR = ":";
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ContactProcessingMetrics metrics;
+
+    private long nbOfContactsAtStart;
+
+    private long nbOfAcceptedContactsAtStart;
+
+    private long nbOfDuplicateHelloMessagesAtStart;
+
+    private Map<RejectionReason, Long> nbOfRejectedContactsAtStart = new HashMap<>();
+
+    public BatchRunReportJobListener(MongoTemplate mongoTemplate, ContactProcessingMetrics metrics) {
+        this.mongoTemplate = mongoTemplate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        this.metrics.startRun();
+        this.nbOfContactsAtStart = this.metrics.getNbOfContacts();
+        this.nbOfAcceptedContactsAtStart = this.metrics.getNbOfAcceptedContacts();
+        this.nbOfDuplicateHelloMessagesAtStart = this.metrics.getNbOfDuplicateHelloMessages();
+        this.nbOfRejectedContactsAtStart = this.metrics.getNbOfRejectedContacts();
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        this.metrics.endRun();
+        BatchRunReport report = buildReport(jobExecution);
+        log.info("Run report: {}", report);
+        try {
+            this.mongoTemplate.save(report);
+        } catch (RuntimeException e) {
+            // The report must not fail a run whose exposures are already written
+            log.error("Could not save the run report", e);
+        }
+    }
+
+    public BatchRunReport buildReport(JobExecution jobExecution) {
+        long durationMillis = Objects.nonNull(jobExecution.getStartTime()) && Objects.nonNull(jobExecution.getEndTime())
+                ? jobExecution.getEndTime().getTime() - jobExecution.getStartTime().getTime()
+                : 0L;
+        long nbOfContacts = this.metrics.getNbOfContacts() - this.nbOfContactsAtStart;
+
+        Map<String, Long> nbOfRejectedContacts = new LinkedHashMap<>();
+        this.metrics.getNbOfRejectedContacts().forEach((reason, count) -> nbOfRejectedContacts.put(reason.name(),
+                count - this.nbOfRejectedContactsAtStart.getOrDefault(reason, 0L)));
+
+        Map<String, Double> meanLatenciesMillis = new LinkedHashMap<>();
+        Map<String, Double> p95LatenciesMillis = new LinkedHashMap<>();
+        this.metrics.getRunTimers().forEach((name, timer) -> {
+            meanLatenciesMillis.put(name, timer.mean(TimeUnit.MILLISECONDS));
+            p95LatenciesMillis.put(name, getP95Millis(timer));
+        });
+
+        return BatchRunReport.builder()
+                .jobExecutionId(jobExecution.getId())
+                .status(jobExecution.getStatus().name())
+                .startTime(jobExecution.getStartTime())
+                .endTime(jobExecution.getEndTime())
+                .durationMillis(durationMillis)
+                .nbOfContactsRead(getNbOfContactsRead(jobExecution))
+                .nbOfContacts(nbOfContacts)
+                .nbOfAcceptedContacts(this.metrics.getNbOfAcceptedContacts() - this.nbOfAcceptedContactsAtStart)
+                .contactsPerSecond(durationMillis == 0 ? 0.0 : nbOfContacts * 1000.0 / durationMillis)
+                .nbOfDuplicateHelloMessages(this.metrics.getNbOfDuplicateHelloMessages() - this.nbOfDuplicateHelloMessagesAtStart)
+                .nbOfRejectedContacts(nbOfRejectedContacts)
+                .meanLatenciesMillis(meanLatenciesMillis)
+                .p95LatenciesMillis(p95LatenciesMillis)
+                .build();
+    }
+
+    /**
+     * In partitioned mode, the job execution also holds the worker steps, named after the worker step followed by ':'
+     * and the name of their partition, whose counts are already summed up by their manager step: only the counts of the
+     * top-level steps are added up
+     */
+    private static long getNbOfContactsRead(JobExecution jobExecution) {
+        return jobExecution.getStepExecutions().stream()
+                .filter(stepExecution -> !stepExecution.getStepName().contains(PARTITION_STEP_NAME_SEPARATOR))
+                .mapToLong(StepExecution::getReadCount)
+                .sum();
+    }
+
+    private static double getP95Millis(Timer timer) {
+        for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+            if (percentile.percentile() == P95) {
+                return percentile.value(TimeUnit.MILLISECONDS);
+            }
+        }
+        return 0.0;
+    }
+}
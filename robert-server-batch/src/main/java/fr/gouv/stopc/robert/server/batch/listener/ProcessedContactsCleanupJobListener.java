@@ -0,0 +1,127 @@
+package fr.gouv.stopc.robert.server.batch.listener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Rotate the collection of contacts once a run is completed, instead of removing the processed contacts.
+ * Only contacts inserted before the start of the run are read in this mode, and they are flagged as processed chunk
+ * by chunk by {@link ProcessedContactsMarkingListener}. The collection is atomically renamed so that new contacts go
+ * to a fresh one, given the indexes of the old one, the contacts not flagged are copied back to it in batches
+ * and the renamed collection is dropped, which also gives its disk space back.
+ */
+@Slf4j
+public class ProcessedContactsCleanupJobListener implements JobExecutionListener {
+
+    private static final String ID_INDEX_NAME = "_id_";
+
+    private static final String INDEX_NAME_FIELD = "name";
+
+    private static final String INDEX_NAMESPACE_FIELD = "ns";
+
+    private final MongoTemplate mongoTemplate;
+
+    private final int copyBatchSize;
+
+    /**
+     * @param mongoTemplate
+     * @param copyBatchSize the number of contacts copied back to the new collection with each request
+     */
+    public ProcessedContactsCleanupJobListener(MongoTemplate mongoTemplate, int copyBatchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.copyBatchSize = copyBatchSize;
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        if (jobExecution.getStatus() != BatchStatus.COMPLETED) {
+            log.warn("Run ended with status {}; processed contacts are kept until a run completes", jobExecution.getStatus());
+            return;
+        }
+
+        String collectionName = this.mongoTemplate.getCollectionName(Contact.class);
+        if (!this.mongoTemplate.collectionExists(collectionName)) {
+            return;
+        }
+
+        List<Document> indexes = getIndexes(collectionName);
+        String rotatedCollectionName = collectionName + "_" + jobExecution.getId();
+        this.mongoTemplate.getCollection(collectionName)
+                .renameCollection(new MongoNamespace(this.mongoTemplate.getDb().getName(), rotatedCollectionName));
+        createIndexes(collectionName, indexes);
+
+        long nbOfContactsKept = copyUnprocessedContacts(rotatedCollectionName, collectionName);
+
+        this.mongoTemplate.dropCollection(rotatedCollectionName);
+        log.info("Collection of processed contacts dropped; {} contacts not processed kept", nbOfContactsKept);
+    }
+
+    /**
+     * @return the specifications of the indexes of the collection, except the one on the id that every collection has
+     */
+    private List<Document> getIndexes(String collectionName) {
+        List<Document> indexes = new ArrayList<>();
+        for (Document index : this.mongoTemplate.getCollection(collectionName).listIndexes()) {
+            if (!ID_INDEX_NAME.equals(index.getString(INDEX_NAME_FIELD))) {
+                // The namespace is only returned by older servers and is implied by the target collection
+                index.remove(INDEX_NAMESPACE_FIELD);
+                indexes.add(index);
+            }
+        }
+        return indexes;
+    }
+
+    private void createIndexes(String collectionName, List<Document> indexes) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        // Creates the collection if no contact was received since the rename
+        this.mongoTemplate.getDb().runCommand(new Document("createIndexes", collectionName).append("indexes", indexes));
+    }
+
+    /**
+     * Stream the contacts not flagged as processed, such as those received during the run, to the new collection
+     * @return the number of contacts copied
+     */
+    private long copyUnprocessedContacts(String fromCollectionName, String toCollectionName) {
+        MongoCollection<Document> toCollection = this.mongoTemplate.getCollection(toCollectionName);
+        List<Document> batch = new ArrayList<>(this.copyBatchSize);
+        long nbOfContactsCopied = 0;
+        try (MongoCursor<Document> cursor = this.mongoTemplate.getCollection(fromCollectionName)
+                .find(Filters.ne(ProcessedContactsMarkingListener.PROCESSED_FIELD, true))
+                .batchSize(this.copyBatchSize)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() == this.copyBatchSize) {
+                    toCollection.insertMany(batch);
+                    nbOfContactsCopied += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            toCollection.insertMany(batch);
+            nbOfContactsCopied += batch.size();
+        }
+        return nbOfContactsCopied;
+    }
+}
@@ -0,0 +1,33 @@
+package fr.gouv.stopc.robert.server.batch.listener;
+
+import java.util.List;
+import java.util.function.Function;
+
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
+import fr.gouv.stopc.robertserver.database.service.ContactService;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Remove the contacts read in a chunk with a single request once the chunk is committed.
+ * @param <T> the type of the contacts read
+ */
+@Slf4j
+public class ProcessedContactsDeletionListener<T> extends ProcessedContactsListenerAbstract<T> {
+
+    private final ContactService contactService;
+
+    private final ContactProcessingMetrics metrics;
+
+    public ProcessedContactsDeletionListener(ContactService contactService, ContactProcessingMetrics metrics,
+            Function<T, String> contactIdGetter) {
+        super(contactIdGetter);
+        this.contactService = contactService;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void onChunkProcessed(List<String> contactIds) {
+        this.metrics.getContactsDeletionTimer().record(() -> this.contactService.deleteAllByIds(contactIds));
+        log.info("{} processed contacts removed", contactIds.size());
+    }
+}
@@ -0,0 +1,65 @@
+package fr.gouv.stopc.robert.server.batch.listener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+
+/**
+ * Collect the ids of the contacts read in a chunk and hand them over at once when the chunk is committed.
+ * Every contact read is handed over whatever the outcome of its processing, unless the chunk fails.
+ * Ids are kept per thread since each partition processes its chunks in its own thread.
+ * @param <T> the type of the contacts read
+ */
+public abstract class ProcessedContactsListenerAbstract<T> implements ItemReadListener<T>, ChunkListener {
+
+    private final Function<T, String> contactIdGetter;
+
+    private final ThreadLocal<List<String>> chunkContactIds = ThreadLocal.withInitial(ArrayList::new);
+
+    protected ProcessedContactsListenerAbstract(Function<T, String> contactIdGetter) {
+        this.contactIdGetter = contactIdGetter;
+    }
+
+    /**
+     * @param contactIds the ids of the contacts read in the committed chunk
+     */
+    protected abstract void onChunkProcessed(List<String> contactIds);
+
+    @Override
+    public void beforeRead() {
+    }
+
+    @Override
+    public void afterRead(T contact) {
+        String contactId = this.contactIdGetter.apply(contact);
+        if (Objects.nonNull(contactId)) {
+            this.chunkContactIds.get().add(contactId);
+        }
+    }
+
+    @Override
+    public void onReadError(Exception ex) {
+    }
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        this.chunkContactIds.remove();
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        onChunkProcessed(this.chunkContactIds.get());
+        this.chunkContactIds.remove();
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        // The contacts of a failed chunk are kept to be processed again
+        this.chunkContactIds.remove();
+    }
+}
@@ -0,0 +1,58 @@
+package fr.gouv.stopc.robert.server.batch.listener;
+
+import java.util.List;
+import java.util.function.Function;
+
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Flag the contacts read in a chunk as processed with a single request once the chunk is committed.
+ * The flagged contacts are no longer read, so that a run which fails does not score them twice when it is run
+ * again, and are dropped with the collection when a run completes.
+ * @param <T> the type of the contacts read
+ */
+@Slf4j
+public class ProcessedContactsMarkingListener<T> extends ProcessedContactsListenerAbstract<T> {
+
+    public static final String PROCESSED_FIELD = "processed";
+
+    private static final String ID_FIELD = "_id";
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ContactProcessingMetrics metrics;
+
+    public ProcessedContactsMarkingListener(MongoTemplate mongoTemplate, ContactProcessingMetrics metrics,
+            Function<T, String> contactIdGetter) {
+        super(contactIdGetter);
+        this.mongoTemplate = mongoTemplate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param query a query on the contacts
+     * @return the query, restricted to the contacts not yet processed
+     */
+    public static Query excludeProcessedContacts(Query query) {
+        return query.addCriteria(Criteria.where(PROCESSED_FIELD).ne(true));
+    }
+
+    @Override
+    protected void onChunkProcessed(List<String> contactIds) {
+        if (contactIds.isEmpty()) {
+            return;
+        }
+        this.metrics.getContactsDeletionTimer().record(() -> this.mongoTemplate.updateMulti(
+                new Query(Criteria.where(ID_FIELD).in(contactIds)),
+                Update.update(PROCESSED_FIELD, true),
+                Contact.class));
+        log.info("{} contacts flagged as processed", contactIds.size());
+    }
+}
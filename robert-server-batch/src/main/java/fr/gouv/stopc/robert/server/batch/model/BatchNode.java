@@ -0,0 +1,27 @@
+package fr.gouv.stopc.robert.server.batch.model;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Batch node alive until its heartbeat expires, counted to share the shards of the contacts between the nodes
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+@Document(collection = "BATCH_NODES")
+public class BatchNode {
+
+    @Id
+    private String id;
+
+    private Date expiresAt;
+}
@@ -0,0 +1,55 @@
+package fr.gouv.stopc.robert.server.batch.model;
+
+import java.util.Date;
+import java.util.Map;
+
+import javax.persistence.Id;
+
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Summary of a run of the processContacts job, saved once the run is over to follow the capacity of the batch
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+@Document(collection = "BATCH_RUN_REPORTS")
+public class BatchRunReport {
+
+    @Id
+    private String id;
+
+    private Long jobExecutionId;
+
+    private String status;
+
+    private Date startTime;
+
+    private Date endTime;
+
+    private long durationMillis;
+
+    private long nbOfContactsRead;
+
+    private long nbOfContacts;
+
+    private long nbOfAcceptedContacts;
+
+    private double contactsPerSecond;
+
+    private long nbOfDuplicateHelloMessages;
+
+    // Number of contacts rejected per reason
+    private Map<String, Long> nbOfRejectedContacts;
+
+    // Mean and 95th percentile latencies, in milliseconds, per timer
+    private Map<String, Double> meanLatenciesMillis;
+
+    private Map<String, Double> p95LatenciesMillis;
+}
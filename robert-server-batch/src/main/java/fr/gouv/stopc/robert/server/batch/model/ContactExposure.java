@@ -0,0 +1,34 @@
+package fr.gouv.stopc.robert.server.batch.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Outcome of the processing of a valid contact: the score of the exposure of id_A during the epoch of the EBID.
+ * The contacts of a chunk are scored at once by the writer: until then, the exposure keeps the HELLO messages to score.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+public class ContactExposure {
+
+    @ToString.Exclude
+    private byte[] idA;
+
+    @ToString.Exclude
+    private byte[] ebid;
+
+    private int epochId;
+
+    private Double score;
+
+    @ToString.Exclude
+    private long[] timesCollectedOnDevice;
+
+    @ToString.Exclude
+    private int[] rssisCalibrated;
+}
@@ -0,0 +1,231 @@
+package fr.gouv.stopc.robert.server.batch.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.model.HelloMessageDetail;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Contact laid out as primitive arrays, as consumed by the processor: the fields of the i-th HELLO message are at
+ * index i of each array, and its MAC at index i * MAC_SIZE of the MAC array.
+ * A view can be reused for another contact once its processing is over: {@link #reset(int)} keeps the arrays when
+ * they are large enough. Not thread-safe.
+ */
+@ToString(onlyExplicitlyIncluded = true)
+public class ContactView {
+
+    public static final int MAC_SIZE = 5;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Arrays above this capacity are released when the view is recycled, so that a pool of views stays small
+    private static final int MAX_RETAINED_CAPACITY = 1024;
+
+    @Getter
+    @Setter
+    private String id;
+
+    @Getter
+    @Setter
+    private byte[] ebid;
+
+    @Getter
+    @Setter
+    private byte[] ecc;
+
+    @Getter
+    @Setter
+    private long timeInsertion;
+
+    @Getter
+    @ToString.Include
+    private int nbOfMessages;
+
+    @Getter
+    private long[] timesCollectedOnDevice = new long[INITIAL_CAPACITY];
+
+    @Getter
+    private int[] timesFromHelloMessage = new int[INITIAL_CAPACITY];
+
+    @Getter
+    private int[] rssisCalibrated = new int[INITIAL_CAPACITY];
+
+    @Getter
+    private byte[] macs = new byte[INITIAL_CAPACITY * MAC_SIZE];
+
+    /**
+     * Whether at least one message lacks a field or has a MAC of another size, in which case its values are left
+     * to 0
+     */
+    @Getter
+    @Setter
+    private boolean malformedMessages;
+
+    /**
+     * Clear the view for a contact with the given number of messages
+     */
+    public void reset(int nbOfMessages) {
+        this.id = null;
+        this.ebid = null;
+        this.ecc = null;
+        this.timeInsertion = 0L;
+        this.malformedMessages = false;
+        this.nbOfMessages = 0;
+        ensureCapacity(nbOfMessages);
+    }
+
+    /**
+     * Release the arrays grown for a contact with many messages
+     */
+    public void recycle() {
+        if (this.timesCollectedOnDevice.length > MAX_RETAINED_CAPACITY) {
+            allocate(INITIAL_CAPACITY);
+        }
+        reset(0);
+    }
+
+    public void addMessage(long timeCollectedOnDevice, int timeFromHelloMessage, int rssiCalibrated) {
+        ensureCapacity(this.nbOfMessages + 1);
+        this.timesCollectedOnDevice[this.nbOfMessages] = timeCollectedOnDevice;
+        this.timesFromHelloMessage[this.nbOfMessages] = timeFromHelloMessage;
+        this.rssisCalibrated[this.nbOfMessages] = rssiCalibrated;
+        Arrays.fill(this.macs, this.nbOfMessages * MAC_SIZE, (this.nbOfMessages + 1) * MAC_SIZE, (byte) 0);
+        this.nbOfMessages++;
+    }
+
+    public long getTimeCollectedOnDevice(int index) {
+        return this.timesCollectedOnDevice[index];
+    }
+
+    public int getTimeFromHelloMessage(int index) {
+        return this.timesFromHelloMessage[index];
+    }
+
+    public int getRssiCalibrated(int index) {
+        return this.rssisCalibrated[index];
+    }
+
+    public void setTimeCollectedOnDevice(int index, long timeCollectedOnDevice) {
+        this.timesCollectedOnDevice[index] = timeCollectedOnDevice;
+    }
+
+    public void setTimeFromHelloMessage(int index, int timeFromHelloMessage) {
+        this.timesFromHelloMessage[index] = timeFromHelloMessage;
+    }
+
+    public void setRssiCalibrated(int index, int rssiCalibrated) {
+        this.rssisCalibrated[index] = rssiCalibrated;
+    }
+
+    /**
+     * @return the offset of the MAC of a message in {@link #getMacs()}
+     */
+    public static int macOffset(int index) {
+        return index * MAC_SIZE;
+    }
+
+    /**
+     * Keep the messages matching the predicate, in order. The predicate is called once per message, in order.
+     * @return the number of messages removed
+     */
+    public int retainMessages(IntPredicate predicate) {
+        int nbOfKeptMessages = 0;
+        for (int i = 0; i < this.nbOfMessages; i++) {
+            if (!predicate.test(i)) {
+                continue;
+            }
+            if (nbOfKeptMessages != i) {
+                this.timesCollectedOnDevice[nbOfKeptMessages] = this.timesCollectedOnDevice[i];
+                this.timesFromHelloMessage[nbOfKeptMessages] = this.timesFromHelloMessage[i];
+                this.rssisCalibrated[nbOfKeptMessages] = this.rssisCalibrated[i];
+                System.arraycopy(this.macs, macOffset(i), this.macs, macOffset(nbOfKeptMessages), MAC_SIZE);
+            }
+            nbOfKeptMessages++;
+        }
+        int nbOfRemovedMessages = this.nbOfMessages - nbOfKeptMessages;
+        this.nbOfMessages = nbOfKeptMessages;
+        return nbOfRemovedMessages;
+    }
+
+    public static ContactView of(Contact contact) {
+        return new ContactView().load(contact);
+    }
+
+    /**
+     * Copy the values of the contact into this view. A missing RSSI is read as 0, as it is not part of the HELLO
+     * message checked by the crypto back-end.
+     * @return this view
+     */
+    public ContactView load(Contact contact) {
+        List<HelloMessageDetail> messageDetails = contact.getMessageDetails();
+        int nbOfMessages = messageDetails == null ? 0 : messageDetails.size();
+        reset(nbOfMessages);
+        this.id = contact.getId();
+        this.ebid = contact.getEbid();
+        this.ecc = contact.getEcc();
+        this.timeInsertion = contact.getTimeInsertion() == null ? 0L : contact.getTimeInsertion();
+
+        for (int i = 0; i < nbOfMessages; i++) {
+            HelloMessageDetail messageDetail = messageDetails.get(i);
+            if (messageDetail == null
+                    || messageDetail.getTimeCollectedOnDevice() == null
+                    || messageDetail.getTimeFromHelloMessage() == null
+                    || messageDetail.getMac() == null
+                    || messageDetail.getMac().length != MAC_SIZE) {
+                this.malformedMessages = true;
+                addMessage(0L, 0, 0);
+                continue;
+            }
+            addMessage(messageDetail.getTimeCollectedOnDevice(), messageDetail.getTimeFromHelloMessage(),
+                    messageDetail.getRssiCalibrated() == null ? 0 : messageDetail.getRssiCalibrated());
+            System.arraycopy(messageDetail.getMac(), 0, this.macs, macOffset(i), MAC_SIZE);
+        }
+        return this;
+    }
+
+    /**
+     * @return a contact with copies of the values of the view
+     */
+    public Contact toContact() {
+        List<HelloMessageDetail> messageDetails = new ArrayList<>(this.nbOfMessages);
+        for (int i = 0; i < this.nbOfMessages; i++) {
+            messageDetails.add(HelloMessageDetail.builder()
+                    .timeCollectedOnDevice(this.timesCollectedOnDevice[i])
+                    .timeFromHelloMessage(this.timesFromHelloMessage[i])
+                    .rssiCalibrated(this.rssisCalibrated[i])
+                    .mac(Arrays.copyOfRange(this.macs, macOffset(i), macOffset(i + 1)))
+                    .build());
+        }
+        return Contact.builder()
+                .id(this.id)
+                .ebid(this.ebid)
+                .ecc(this.ecc)
+                .timeInsertion(this.timeInsertion)
+                .messageDetails(messageDetails)
+                .build();
+    }
+
+    private void ensureCapacity(int nbOfMessages) {
+        if (nbOfMessages <= this.timesCollectedOnDevice.length) {
+            return;
+        }
+        int capacity = Math.max(nbOfMessages, this.timesCollectedOnDevice.length * 2);
+        this.timesCollectedOnDevice = Arrays.copyOf(this.timesCollectedOnDevice, capacity);
+        this.timesFromHelloMessage = Arrays.copyOf(this.timesFromHelloMessage, capacity);
+        this.rssisCalibrated = Arrays.copyOf(this.rssisCalibrated, capacity);
+        this.macs = Arrays.copyOf(this.macs, capacity * MAC_SIZE);
+    }
+
+    private void allocate(int capacity) {
+        this.timesCollectedOnDevice = new long[capacity];
+        this.timesFromHelloMessage = new int[capacity];
+        this.rssisCalibrated = new int[capacity];
+        this.macs = new byte[capacity * MAC_SIZE];
+    }
+}
@@ -0,0 +1,42 @@
+package fr.gouv.stopc.robert.server.batch.model;
+
+import java.util.Date;
+
+import javax.persistence.Id;
+
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Segment of the federation spool: contacts of another country server, encoded with
+ * {@link fr.gouv.stopc.robert.server.batch.federation.FederationRecordCodec} one after the other and compressed
+ * with deflate. Segments are only inserted, never updated.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+@Document(collection = "FEDERATION_SPOOL")
+public class FederationSpoolSegment {
+
+    @Id
+    private String id;
+
+    private int countryCode;
+
+    private Date firstRecordTime;
+
+    private Date sealTime;
+
+    private int nbOfRecords;
+
+    private int uncompressedSize;
+
+    @ToString.Exclude
+    private byte[] records;
+}
@@ -0,0 +1,51 @@
+package fr.gouv.stopc.robert.server.batch.model;
+
+import java.util.List;
+
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.model.HelloMessageDetail;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * HELLO messages of several contacts laid out as primitive arrays: the messages of the i-th contact are at the
+ * indexes from offsets[i] included to offsets[i + 1] excluded
+ */
+@Getter
+@AllArgsConstructor
+public class HelloMessageColumns {
+
+    private final long[] timesCollectedOnDevice;
+
+    private final int[] rssisCalibrated;
+
+    private final int[] offsets;
+
+    public int getNbOfContacts() {
+        return this.offsets.length - 1;
+    }
+
+    public int getNbOfMessages(int contactIndex) {
+        return this.offsets[contactIndex + 1] - this.offsets[contactIndex];
+    }
+
+    public static HelloMessageColumns of(List<Contact> contacts) {
+        int nbOfMessages = contacts.stream().mapToInt(contact -> contact.getMessageDetails().size()).sum();
+        long[] timesCollectedOnDevice = new long[nbOfMessages];
+        int[] rssisCalibrated = new int[nbOfMessages];
+        int[] offsets = new int[contacts.size() + 1];
+
+        int index = 0;
+        for (int i = 0; i < contacts.size(); i++) {
+            offsets[i] = index;
+            for (HelloMessageDetail messageDetail : contacts.get(i).getMessageDetails()) {
+                timesCollectedOnDevice[index] = messageDetail.getTimeCollectedOnDevice();
+                rssisCalibrated[index] = messageDetail.getRssiCalibrated();
+                index++;
+            }
+        }
+        offsets[contacts.size()] = index;
+
+        return new HelloMessageColumns(timesCollectedOnDevice, rssisCalibrated, offsets);
+    }
+}
@@ -0,0 +1,29 @@
+package fr.gouv.stopc.robert.server.batch.model;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Lease of a shard of the contacts by a batch node, valid until it expires unless renewed by its owner
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+@Document(collection = "BATCH_SHARD_LEASES")
+public class ShardLease {
+
+    @Id
+    private Integer shard;
+
+    private String owner;
+
+    private Date expiresAt;
+}
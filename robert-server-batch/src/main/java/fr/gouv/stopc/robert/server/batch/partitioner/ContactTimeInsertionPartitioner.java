@@ -0,0 +1,102 @@
+package fr.gouv.stopc.robert.server.batch.partitioner;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Split the contacts to process in disjoint ranges of insertion time, one per partition.
+ * The first partition has no lower bound and also handles contacts without insertion time,
+ * the last one has no upper bound so that contacts inserted during the run are not lost.
+ */
+@Slf4j
+public class ContactTimeInsertionPartitioner implements Partitioner {
+
+    public static final String PARTITION_PREFIX = "partition";
+
+    public static final String MIN_TIME_INSERTION_KEY = "minTimeInsertion";
+
+    public static final String MAX_TIME_INSERTION_KEY = "maxTimeInsertion";
+
+    private static final String TIME_INSERTION_FIELD = "timeInsertion";
+
+    private final MongoTemplate mongoTemplate;
+
+    public ContactTimeInsertionPartitioner(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        Map<String, ExecutionContext> partitions = new HashMap<>();
+
+        Long min = findBoundaryTimeInsertion(Direction.ASC);
+        Long max = findBoundaryTimeInsertion(Direction.DESC);
+
+        if (Objects.isNull(min) || Objects.isNull(max) || gridSize <= 1) {
+            partitions.put(PARTITION_PREFIX + 0, createContext(Long.MIN_VALUE, Long.MAX_VALUE));
+            return partitions;
+        }
+
+        long rangeSize = (max - min) / gridSize + 1;
+        for (int i = 0; i < gridSize; i++) {
+            long lowerBound = i == 0 ? Long.MIN_VALUE : min + i * rangeSize;
+            long upperBound = i == gridSize - 1 ? Long.MAX_VALUE : min + (i + 1) * rangeSize;
+            partitions.put(PARTITION_PREFIX + i, createContext(lowerBound, upperBound));
+        }
+
+        log.info("Contacts inserted between {} and {} split in {} partitions", min, max, gridSize);
+        return partitions;
+    }
+
+    /**
+     * Build the query selecting the contacts of a partition
+     * @param minTimeInsertion inclusive lower bound, {@link Long#MIN_VALUE} if none
+     * @param maxTimeInsertion exclusive upper bound, {@link Long#MAX_VALUE} if none
+     * @return
+     */
+    public static Query buildPartitionQuery(long minTimeInsertion, long maxTimeInsertion) {
+        Criteria range = Criteria.where(TIME_INSERTION_FIELD);
+        if (minTimeInsertion != Long.MIN_VALUE) {
+            range = range.gte(minTimeInsertion);
+        }
+        if (maxTimeInsertion != Long.MAX_VALUE) {
+            range = range.lt(maxTimeInsertion);
+        }
+
+        if (minTimeInsertion == Long.MIN_VALUE && maxTimeInsertion == Long.MAX_VALUE) {
+            return new Query();
+        } else if (minTimeInsertion == Long.MIN_VALUE) {
+            return new Query(new Criteria().orOperator(range, Criteria.where(TIME_INSERTION_FIELD).is(null)));
+        }
+        return new Query(range);
+    }
+
+    private Long findBoundaryTimeInsertion(Direction direction) {
+        Query query = new Query(Criteria.where(TIME_INSERTION_FIELD).ne(null))
+                .with(Sort.by(direction, TIME_INSERTION_FIELD))
+                .limit(1);
+        query.fields().include(TIME_INSERTION_FIELD);
+
+        Contact contact = this.mongoTemplate.findOne(query, Contact.class);
+        return Objects.isNull(contact) ? null : contact.getTimeInsertion();
+    }
+
+    private ExecutionContext createContext(long minTimeInsertion, long maxTimeInsertion) {
+        ExecutionContext context = new ExecutionContext();
+        context.putLong(MIN_TIME_INSERTION_KEY, minTimeInsertion);
+        context.putLong(MAX_TIME_INSERTION_KEY, maxTimeInsertion);
+        return context;
+    }
+}
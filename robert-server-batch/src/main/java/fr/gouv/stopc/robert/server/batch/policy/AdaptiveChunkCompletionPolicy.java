@@ -0,0 +1,149 @@
+package fr.gouv.stopc.robert.server.batch.policy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.repeat.RepeatContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.repeat.context.RepeatContextSupport;
+import org.springframework.batch.repeat.policy.CompletionPolicySupport;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Completion policy sizing the chunks from the duration of the previous ones. Registered as a chunk listener of the
+ * step, it measures the time spent per item by each chunk, from its first read to its write, and moves the chunk size
+ * halfway towards the one that would take the target duration. The size is halved when the heap usage is above a
+ * threshold, and stays within bounds.
+ * The size is shared by the partitions of a step, each chunk keeping the size it started with.
+ */
+@Slf4j
+public class AdaptiveChunkCompletionPolicy extends CompletionPolicySupport implements ChunkListener {
+
+    public static final String CHUNK_SIZE = "robert.batch.chunk.size";
+
+    private final int minChunkSize;
+
+    private final int maxChunkSize;
+
+    private final long targetChunkDurationNanos;
+
+    private final double maxHeapUsage;
+
+    private final AtomicInteger chunkSize;
+
+    private final ThreadLocal<ChunkStart> chunkStart = new ThreadLocal<>();
+
+    public AdaptiveChunkCompletionPolicy(int minChunkSize, int initialChunkSize, int maxChunkSize,
+            long targetChunkDurationMillis, double maxHeapUsage, MeterRegistry meterRegistry) {
+        if (minChunkSize <= 0 || minChunkSize > maxChunkSize) {
+            throw new IllegalArgumentException("Invalid chunk size bounds: [" + minChunkSize + ", " + maxChunkSize + "]");
+        }
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.targetChunkDurationNanos = TimeUnit.MILLISECONDS.toNanos(targetChunkDurationMillis);
+        this.maxHeapUsage = maxHeapUsage;
+        this.chunkSize = meterRegistry.gauge(CHUNK_SIZE, new AtomicInteger(clamp(initialChunkSize)));
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize.get();
+    }
+
+    @Override
+    public RepeatContext start(RepeatContext parent) {
+        return new SizedRepeatContext(parent, this.chunkSize.get());
+    }
+
+    @Override
+    public boolean isComplete(RepeatContext context) {
+        return context.getStartedCount() >= ((SizedRepeatContext) context).size;
+    }
+
+    @Override
+    public boolean isComplete(RepeatContext context, RepeatStatus result) {
+        return super.isComplete(context, result) || isComplete(context);
+    }
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        this.chunkStart.set(new ChunkStart(System.nanoTime(),
+                context.getStepContext().getStepExecution().getReadCount()));
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        ChunkStart start = this.chunkStart.get();
+        this.chunkStart.remove();
+        if (start == null) {
+            return;
+        }
+        int nbOfItems = context.getStepContext().getStepExecution().getReadCount() - start.readCount;
+        if (nbOfItems > 0) {
+            adjust(nbOfItems, System.nanoTime() - start.nanoTime, getHeapUsage());
+        }
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        this.chunkStart.remove();
+    }
+
+    /**
+     * Compute the size of the next chunks from the last one
+     * @param nbOfItems the number of items of the chunk
+     * @param durationNanos the duration of the chunk
+     * @param heapUsage the ratio of the maximum heap size in use
+     * @return the new chunk size
+     */
+    public int adjust(int nbOfItems, long durationNanos, double heapUsage) {
+        double nanosPerItem = Math.max(1.0, (double) durationNanos / nbOfItems);
+        long targetChunkSize = (long) (this.targetChunkDurationNanos / nanosPerItem);
+        return this.chunkSize.updateAndGet(currentChunkSize -> {
+            long nextChunkSize = (currentChunkSize + Math.min(targetChunkSize, Integer.MAX_VALUE)) / 2;
+            if (heapUsage > this.maxHeapUsage) {
+                nextChunkSize = Math.min(nextChunkSize, currentChunkSize / 2);
+            }
+            int adjustedChunkSize = clamp(nextChunkSize);
+            if (adjustedChunkSize != currentChunkSize) {
+                log.debug("Chunk size {} -> {} ({} ns per item, heap usage {})", currentChunkSize, adjustedChunkSize,
+                        (long) nanosPerItem, String.format("%.2f", heapUsage));
+            }
+            return adjustedChunkSize;
+        });
+    }
+
+    private int clamp(long chunkSize) {
+        return (int) Math.max(this.minChunkSize, Math.min(this.maxChunkSize, chunkSize));
+    }
+
+    private static double getHeapUsage() {
+        Runtime runtime = Runtime.getRuntime();
+        return (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+    }
+
+    private static class SizedRepeatContext extends RepeatContextSupport {
+
+        private final int size;
+
+        SizedRepeatContext(RepeatContext parent, int size) {
+            super(parent);
+            this.size = size;
+        }
+    }
+
+    private static class ChunkStart {
+
+        private final long nanoTime;
+
+        private final int readCount;
+
+        ChunkStart(long nanoTime, int readCount) {
+            this.nanoTime = nanoTime;
+            this.readCount = readCount;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package fr.gouv.stopc.robert.server.batch.processor;
+
+import fr.gouv.stopc.robert.server.batch.model.ContactView;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics.RejectionReason;
+import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
+import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Checks of a contact that need neither the crypto back-end nor the database, so that the contacts failing them
+ * are rejected before their validation by the crypto back-end: size of the identifiers and of the list of messages,
+ * time tolerance of the HELLO messages (Robert spec step #5) and time of collection within the contagious period.
+ * Checks do not allocate.
+ */
+@Slf4j
+public class ContactPreValidator {
+
+    public static final int EBID_SIZE = 8;
+
+    public static final int ECC_SIZE = 1;
+
+    public static final int MAC_SIZE = ContactView.MAC_SIZE;
+
+    private final IServerConfigurationService serverConfigurationService;
+
+    private final int maxNbOfHelloMessages;
+
+    public ContactPreValidator(IServerConfigurationService serverConfigurationService, int maxNbOfHelloMessages) {
+        this.serverConfigurationService = serverConfigurationService;
+        this.maxNbOfHelloMessages = maxNbOfHelloMessages;
+    }
+
+    /**
+     * @return the reason why the contact is rejected, null if it passes the checks
+     */
+    public RejectionReason check(ContactView contact) {
+        if (contact.getNbOfMessages() == 0) {
+            return RejectionReason.NO_MESSAGES;
+        }
+        if (contact.getNbOfMessages() > this.maxNbOfHelloMessages) {
+            log.warn("Contact has {} messages, more than {}; discarding contact", contact.getNbOfMessages(),
+                    this.maxNbOfHelloMessages);
+            return RejectionReason.TOO_MANY_MESSAGES;
+        }
+        if (!hasSize(contact.getEbid(), EBID_SIZE) || !hasSize(contact.getEcc(), ECC_SIZE)) {
+            log.warn("Contact EBID or ECC has not the expected size; discarding contact");
+            return RejectionReason.MALFORMED_CONTACT;
+        }
+        if (contact.isMalformedMessages()) {
+            log.warn("HELLO message is incomplete or its MAC has not the expected size; discarding contact");
+            return RejectionReason.MALFORMED_HELLO_MESSAGE;
+        }
+
+        final long serviceTimeStart = this.serverConfigurationService.getServiceTimeStart();
+        final int currentEpochId = TimeUtils.getCurrentEpochFrom(serviceTimeStart);
+        final int nbOfEpochsToKeep = (this.serverConfigurationService.getContagiousPeriod() * 24 * 3600)
+                / this.serverConfigurationService.getEpochDurationSecs();
+        // The epoch of the EBID may be one epoch away from the one of the messages (Robert spec step #6): a contact
+        // with a message further out of the contagious period has no exposure to keep
+        final int oldestEpochId = currentEpochId - nbOfEpochsToKeep - 1;
+        final int latestEpochId = currentEpochId + 1;
+
+        for (int i = 0; i < contact.getNbOfMessages(); i++) {
+            if (!step5CheckDeltaTaAndTimeABelowThreshold(contact.getTimeFromHelloMessage(i),
+                    contact.getTimeCollectedOnDevice(i))) {
+                return RejectionReason.TIME_TOLERANCE;
+            }
+            int epochId = TimeUtils.getNumberOfEpochsBetween(serviceTimeStart, contact.getTimeCollectedOnDevice(i));
+            if (epochId < oldestEpochId || epochId > latestEpochId) {
+                log.warn("HELLO message collected during epoch {}, out of [{}, {}]; discarding contact", epochId,
+                        oldestEpochId, latestEpochId);
+                return RejectionReason.OUTSIDE_CONTAGIOUS_PERIOD;
+            }
+        }
+        return null;
+    }
+
+    /**
+     *  Robert Spec Step #5: check that the delta between tA (16 bits) & timeA (32 bits) [truncated to 16bits] is below threshold.
+     */
+    private boolean step5CheckDeltaTaAndTimeABelowThreshold(int timeFromHelloMessage, long timeCollectedOnDevice) {
+        // Process 16-bit values for sanity check
+        final long timeFromHelloNTPsecAs16bits = castIntegerToLong(timeFromHelloMessage, 2);
+        final long timeFromDeviceAs16bits = castLong(timeCollectedOnDevice, 2);
+        final int timeDiffTolerance = this.serverConfigurationService.getHelloMessageTimeStampTolerance();
+
+        // TODO: fix this as overflow of 16bits may cause rejection of valid messages
+        if (Math.abs(timeFromHelloNTPsecAs16bits - timeFromDeviceAs16bits) > timeDiffTolerance) {
+            log.warn("Time tolerance was exceeded: |{} (HELLO) vs {} (receiving device)| > {}; discarding HELLO message",
+                    timeFromHelloNTPsecAs16bits,
+                    timeFromDeviceAs16bits,
+                    timeDiffTolerance);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean hasSize(byte[] bytes, int size) {
+        return bytes != null && bytes.length == size;
+    }
+
+    private long castIntegerToLong(int x, int nbOfSignificantBytes) {
+        int shift = nbOfSignificantBytes * 8;
+        return Integer.toUnsignedLong(x << shift >>> shift);
+    }
+
+    private long castLong(long x, int nbOfSignificantBytes) {
+        int shift = (Long.BYTES - nbOfSignificantBytes) * 8;
+        return x << shift >>> shift;
+    }
+}
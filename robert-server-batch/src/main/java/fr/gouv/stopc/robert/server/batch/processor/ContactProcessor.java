@@ -1,173 +1,177 @@
 package fr.gouv.stopc.robert.server.batch.processor;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import fr.gouv.stopc.robert.crypto.grpc.server.messaging.*;
 import org.springframework.batch.item.ItemProcessor;
-import org.springframework.util.CollectionUtils;
 
-import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 
 import fr.gouv.stopc.robert.crypto.grpc.server.client.service.ICryptoServerGrpcClient;
 import fr.gouv.stopc.robert.server.batch.exception.RobertScoringException;
-import fr.gouv.stopc.robert.server.batch.service.ScoringStrategyService;
-import fr.gouv.stopc.robert.server.batch.utils.PropertyLoader;
+import fr.gouv.stopc.robert.server.batch.federation.FederationSpool;
+import fr.gouv.stopc.robert.server.batch.model.ContactExposure;
+import fr.gouv.stopc.robert.server.batch.model.ContactView;
+import fr.gouv.stopc.robert.server.batch.utils.ContactDeduplicator;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics.RejectionReason;
+import fr.gouv.stopc.robert.server.batch.utils.UnknownIdentifierCache;
 import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
 import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
 import fr.gouv.stopc.robert.server.crypto.exception.RobertServerCryptoException;
 import fr.gouv.stopc.robertserver.database.model.Contact;
-import fr.gouv.stopc.robertserver.database.model.EpochExposition;
-import fr.gouv.stopc.robertserver.database.model.HelloMessageDetail;
-import fr.gouv.stopc.robertserver.database.model.Registration;
-import fr.gouv.stopc.robertserver.database.service.ContactService;
-import fr.gouv.stopc.robertserver.database.service.IRegistrationService;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @AllArgsConstructor
-public class ContactProcessor implements ItemProcessor<Contact, Contact> {
+public class ContactProcessor implements ItemProcessor<Contact, ContactExposure> {
 
     private IServerConfigurationService serverConfigurationService;
 
-    private IRegistrationService registrationService;
+    private ICryptoServerGrpcClient cryptoServerClient;
 
-    private ContactService contactService;
+    private UnknownIdentifierCache unknownIdentifierCache;
 
-    private ICryptoServerGrpcClient cryptoServerClient;
+    private ContactProcessingMetrics metrics;
+
+    private FederationSpool federationSpool;
+
+    private ContactDeduplicator contactDeduplicator;
 
-    private ScoringStrategyService scoringStrategy;
+    private ContactPreValidator contactPreValidator;
 
-    private PropertyLoader propertyLoader;
+    // Contacts read as entities are copied into a view reused by each thread
+    private final ThreadLocal<ContactView> views = ThreadLocal.withInitial(ContactView::new);
 
     /**
      * NOTE:
-     * validation step order has evolved from spec because of delegation of validation of messages to crypto back-end
+     * validation step order has evolved from spec because of delegation of validation of messages to crypto back-end.
+     * Contacts are not removed here, whatever the outcome: see {@link fr.gouv.stopc.robert.server.batch.utils.ContactDeletionMode}
      * @param contact
      * @return
      * @throws RobertServerCryptoException
      * @throws RobertScoringException
      */
     @Override
-    public Contact process(Contact contact) throws RobertServerCryptoException, RobertScoringException {
+    public ContactExposure process(Contact contact) throws RobertServerCryptoException, RobertScoringException {
+        ContactView view = this.views.get().load(contact);
+        try {
+            return processView(view);
+        } finally {
+            view.recycle();
+        }
+    }
+
+    /**
+     * Process a contact read as a view: the messages of the view may be overwritten by another contact once this
+     * method returns, so that nothing returned or kept refers to their arrays
+     * @see #process(Contact)
+     */
+    public ContactExposure processView(ContactView contact) throws RobertScoringException {
         log.info("Contact processing started");
+        this.metrics.contactReceived();
 
-        if (CollectionUtils.isEmpty(contact.getMessageDetails())) {
+        if (contact.getNbOfMessages() == 0) {
             log.warn("No messages in contact; discarding contact");
-            this.contactService.delete(contact);
-            return null;
+            return reject(RejectionReason.NO_MESSAGES);
+        }
+
+        // Local checks, including step #5, before any call to the crypto back-end
+        RejectionReason preValidationRejection = this.contactPreValidator.check(contact);
+        if (preValidationRejection != null) {
+            return reject(preValidationRejection);
+        }
+
+        // Uploads may be retried: drop the HELLO messages already received before paying for their validation
+        int nbOfDuplicates = this.contactDeduplicator.removeDuplicates(contact);
+        if (nbOfDuplicates > 0) {
+            this.metrics.helloMessagesDuplicated(nbOfDuplicates);
+            if (contact.getNbOfMessages() == 0) {
+                log.info("All the messages of the contact were already received; discarding contact");
+                return reject(RejectionReason.DUPLICATE);
+            }
+        }
+
+        if (this.unknownIdentifierCache.isUnknownEbid(contact.getEbid())) {
+            log.info("EBID already resolved to an unknown id_A; discarding contact");
+            return reject(RejectionReason.UNKNOWN_EBID_CACHED);
         }
 
         byte[] serverCountryCode = new byte[1];
         serverCountryCode[0] = this.serverConfigurationService.getServerCountryCode();
 
-        Registration registration = null;
-        Integer epoch = null;
-        for (HelloMessageDetail helloMessageDetail : contact.getMessageDetails()) {
-            GetInfoFromHelloMessageRequest request = GetInfoFromHelloMessageRequest.newBuilder()
-                    .setEcc(ByteString.copyFrom(contact.getEcc()))
-                    .setEbid(ByteString.copyFrom(contact.getEbid()))
-                    .setTimeSent(helloMessageDetail.getTimeFromHelloMessage())
-                    .setMac(ByteString.copyFrom(helloMessageDetail.getMac()))
-                    .setTimeReceived(helloMessageDetail.getTimeCollectedOnDevice())
-                    .build();
-
-            // Step #8: Validate message
-            Optional<GetInfoFromHelloMessageResponse> response = this.cryptoServerClient.getInfoFromHelloMessage(request);
-
-            if (response.isPresent()) {
-                GetInfoFromHelloMessageResponse helloMessageResponse = response.get();
-
-                // Check step #2: is contact managed by this server?
-                if (!Arrays.equals(helloMessageResponse.getCountryCode().toByteArray(), serverCountryCode)) {
-                    log.info(
-                            "Country code {} is not managed by this server ({}); rerouting contact to federation network",
-                            helloMessageResponse.getCountryCode(),
-                            serverCountryCode);
-
-                    // TODO: send the message to the dedicated country server
-                    // remove the message from the database
-                    this.contactService.delete(contact);
-                    return null;
-                } else {
-                    byte[] idA = helloMessageResponse.getIdA().toByteArray();
-                    epoch = helloMessageResponse.getEpochId();
-
-                    // Check step #4: check once if registration exists
-                    if (Objects.isNull(registration)) {
-                        Optional<Registration> registrationRecord = registrationService.findById(idA);
-
-                        if (!registrationRecord.isPresent()) {
-                            log.info("Recovered id_A is unknown (fake or now unregistered?): {}; discarding contact", idA);
-                            contactService.delete(contact);
-                            return null;
-                        } else {
-                            registration = registrationRecord.get();
-                        }
-                    }
-
-                    // Check steps #5, #6
-                    if (!step5CheckDeltaTaAndTimeABelowThreshold(helloMessageDetail)
-                        || !step6CheckTimeACorrespondsToEpochiA(
-                                helloMessageResponse.getEpochId(),
-                                helloMessageDetail.getTimeCollectedOnDevice())) {
-                        contactService.delete(contact);
-                        return null;
-                    }
-                }
-            } else {
-                log.warn("At least one HELLO message could not be validated; discarding contact");
-                this.contactService.delete(contact);
-                return null;
-            }
+        // Step #8: Validate all messages of the contact with a single decryption of the EBID
+        // The request is sent before the view is modified, so its bytes are wrapped instead of copied
+        ValidateContactRequest.Builder requestBuilder = ValidateContactRequest.newBuilder()
+                .setEcc(UnsafeByteOperations.unsafeWrap(contact.getEcc()))
+                .setEbid(UnsafeByteOperations.unsafeWrap(contact.getEbid()));
+        for (int i = 0; i < contact.getNbOfMessages(); i++) {
+            requestBuilder.addHelloMessages(ContactHelloMessage.newBuilder()
+                    .setTimeSent(contact.getTimeFromHelloMessage(i))
+                    .setMac(UnsafeByteOperations.unsafeWrap(contact.getMacs(), ContactView.macOffset(i), ContactView.MAC_SIZE))
+                    .setTimeReceived(contact.getTimeCollectedOnDevice(i))
+                    .build());
         }
 
-        List<EpochExposition> epochsToKeep = step9ScoreAndAddContactInListOfExposedEpochs(contact, epoch, registration);
-        int latestRiskEpoch = registration.getLatestRiskEpoch();
+        ValidateContactRequest request = requestBuilder.build();
+        Optional<ValidateContactResponse> response = this.metrics.getCryptoValidationTimer()
+                .record(() -> this.cryptoServerClient.validateContact(request));
 
-        // Only consider epochs that are after the last notification for scoring
-        List<EpochExposition> scoresSinceLastNotif = CollectionUtils.isEmpty(epochsToKeep) ?
-                new ArrayList<>()
-                : epochsToKeep.stream()
-                .filter(ep -> ep.getEpochId() > latestRiskEpoch)
-                .collect(Collectors.toList());
+        if (!response.isPresent()) {
+            log.warn("Contact could not be validated by the crypto back-end; discarding contact");
+            return reject(RejectionReason.CRYPTO_FAILURE);
+        }
+        if (response.get().getValidHelloMessagesCount() != contact.getNbOfMessages()
+                || response.get().getValidHelloMessagesList().contains(Boolean.FALSE)) {
+            log.warn("At least one HELLO message could not be validated; discarding contact");
+            return reject(RejectionReason.INVALID_HELLO_MESSAGES);
+        }
+        ValidateContactResponse validationResponse = response.get();
 
-        Double totalRisk = scoresSinceLastNotif.stream()
-                .map(EpochExposition::getExpositionScores)
-                .map(item -> item.stream().mapToDouble(Double::doubleValue).sum())
-                .reduce(0.0, (a,b) -> a + b);
+        // Check step #2: is contact managed by this server?
+        if (!Arrays.equals(validationResponse.getCountryCode().toByteArray(), serverCountryCode)) {
+            log.info(
+                    "Country code {} is not managed by this server ({}); spooling contact for the federation network",
+                    validationResponse.getCountryCode(),
+                    serverCountryCode);
 
-        registration.setAtRisk(totalRisk > this.propertyLoader.getRiskThreshold());
+            if (!validationResponse.getCountryCode().isEmpty()) {
+                this.federationSpool.append(validationResponse.getCountryCode().byteAt(0), contact.toContact());
+            }
+            return reject(RejectionReason.FOREIGN_COUNTRY);
+        }
 
-        this.registrationService.saveRegistration(registration);
-        this.contactService.delete(contact);
-        return null;
+        byte[] idA = validationResponse.getIdA().toByteArray();
+        int epoch = validationResponse.getEpochId();
 
-    }
+        if (this.unknownIdentifierCache.isUnknownIdA(idA)) {
+            log.info("Recovered id_A is already known to be unregistered; discarding contact");
+            return reject(RejectionReason.UNKNOWN_ID_A_CACHED);
+        }
 
-    /**
-     *  Robert Spec Step #5: check that the delta between tA (16 bits) & timeA (32 bits) [truncated to 16bits] is below threshold.
-     */
-    private boolean step5CheckDeltaTaAndTimeABelowThreshold(HelloMessageDetail helloMessageDetail) {
-        // Process 16-bit values for sanity check
-        final long timeFromHelloNTPsecAs16bits = castIntegerToLong(helloMessageDetail.getTimeFromHelloMessage(), 2);
-        final long timeFromDeviceAs16bits = castLong(helloMessageDetail.getTimeCollectedOnDevice(), 2);
-        final int timeDiffTolerance = this.serverConfigurationService.getHelloMessageTimeStampTolerance();
-
-        // TODO: fix this as overflow of 16bits may cause rejection of valid messages
-        if (Math.abs(timeFromHelloNTPsecAs16bits - timeFromDeviceAs16bits) > timeDiffTolerance) {
-            log.warn("Time tolerance was exceeded: |{} (HELLO) vs {} (receiving device)| > {}; discarding HELLO message",
-                    timeFromHelloNTPsecAs16bits,
-                    timeFromDeviceAs16bits,
-                    timeDiffTolerance);
-            return false;
+        // Check step #6, step #5 being checked by the pre-validation
+        for (int i = 0; i < contact.getNbOfMessages(); i++) {
+            if (!step6CheckTimeACorrespondsToEpochiA(epoch, contact.getTimeCollectedOnDevice(i))) {
+                return reject(RejectionReason.EPOCH_MISMATCH);
+            }
         }
-        return true;
+
+        // The contacts of the chunk are scored at once by the writer, from a copy of the messages of the view,
+        // which also counts them as accepted once their exposures are written
+        return ContactExposure.builder()
+                .idA(idA)
+                .ebid(contact.getEbid())
+                .epochId(epoch)
+                .timesCollectedOnDevice(Arrays.copyOf(contact.getTimesCollectedOnDevice(), contact.getNbOfMessages()))
+                .rssisCalibrated(Arrays.copyOf(contact.getRssisCalibrated(), contact.getNbOfMessages()))
+                .build();
+    }
+
+    private ContactExposure reject(RejectionReason reason) {
+        this.metrics.contactsRejected(reason, 1);
+        return null;
     }
 
     /**
@@ -186,64 +190,4 @@ public class ContactProcessor implements ItemProcessor<Contact, Contact> {
         }
         return true;
     }
-
-    /**
-     * Robert spec Step #9: add i_A in LEE_A
-     */
-    private List<EpochExposition> step9ScoreAndAddContactInListOfExposedEpochs(Contact contact, int epochIdFromEBID, Registration registrationRecord) throws RobertScoringException {
-        List<EpochExposition> exposedEpochs = registrationRecord.getExposedEpochs();
-
-        // Exposed epochs should be empty, never null
-        if (Objects.isNull(exposedEpochs)) {
-            exposedEpochs = new ArrayList<>();
-        }
-
-        // Add EBID's epoch to exposed epochs list
-        Optional<EpochExposition> epochToAddTo = exposedEpochs.stream()
-                .filter(item -> item.getEpochId() == epochIdFromEBID)
-                .findFirst();
-
-        Double scoredRisk =  this.scoringStrategy.execute(contact);
-        if (epochToAddTo.isPresent()) {
-            List<Double> epochScores = epochToAddTo.get().getExpositionScores();
-            epochScores.add(scoredRisk);
-        } else {
-            exposedEpochs.add(EpochExposition.builder()
-                    .expositionScores(Arrays.asList(scoredRisk))
-                    .epochId(epochIdFromEBID)
-                    .build());
-        }
-
-        List<EpochExposition> epochsToKeep = getExposedEpochsWithoutEpochsOlderThanContagiousPeriod(exposedEpochs);
-        registrationRecord.setExposedEpochs(epochsToKeep);
-        return epochsToKeep;
-    }
-
-    /**
-     * Keep epochs within the contagious period
-     * @param exposedEpochs
-     * @return
-     */
-    private List<EpochExposition> getExposedEpochsWithoutEpochsOlderThanContagiousPeriod(List<EpochExposition> exposedEpochs) {
-        int currentEpochId = TimeUtils.getCurrentEpochFrom(this.serverConfigurationService.getServiceTimeStart());
-
-        // Purge exposed epochs list from epochs older than contagious period (C_T)
-        return CollectionUtils.isEmpty(exposedEpochs) ?
-                new ArrayList<>()
-                : exposedEpochs.stream().filter(epoch -> {
-            int nbOfEpochsToKeep = (this.serverConfigurationService.getContagiousPeriod() * 24 * 3600)
-                    / this.serverConfigurationService.getEpochDurationSecs();
-            return (currentEpochId - epoch.getEpochId()) <= nbOfEpochsToKeep;
-        }).collect(Collectors.toList());
-    }
-
-    private long castIntegerToLong(int x, int nbOfSignificantBytes) {
-        int shift = nbOfSignificantBytes * 8;
-        return Integer.toUnsignedLong(x << shift >>> shift);
-    }
-
-    private long castLong(long x, int nbOfSignificantBytes) {
-        int shift = (Long.BYTES - nbOfSignificantBytes) * 8;
-        return x << shift >>> shift;
-    }
 }
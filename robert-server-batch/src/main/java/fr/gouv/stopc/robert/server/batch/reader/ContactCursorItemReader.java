@@ -0,0 +1,118 @@
+package fr.gouv.stopc.robert.server.batch.reader;
+
+import java.util.Objects;
+import java.util.function.LongPredicate;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemStreamSupport;
+import org.springframework.batch.item.ReaderNotOpenException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Read the contacts to process through a single server-side cursor instead of paging through the collection.
+ * The cursor follows the _id index so that no sort is performed and contacts removed meanwhile are not an issue;
+ * the last _id read is saved on each commit so that a restarted step resumes after it.
+ * Contacts whose time of insertion is rejected by the filter are skipped, such as those of the shards given back to
+ * other nodes since the cursor was opened.
+ */
+@Slf4j
+public class ContactCursorItemReader extends ItemStreamSupport implements ItemStreamReader<Contact> {
+
+    static final String LAST_READ_ID_KEY = "lastReadId";
+
+    static final String ID_FIELD = "_id";
+
+    private final MongoTemplate mongoTemplate;
+
+    private final Query query;
+
+    private final int batchSize;
+
+    private final LongPredicate timeInsertionFilter;
+
+    private CloseableIterator<Contact> cursor;
+
+    private String lastReadId;
+
+    public ContactCursorItemReader(MongoTemplate mongoTemplate, Query query, int batchSize) {
+        this(mongoTemplate, query, batchSize, timeInsertion -> true);
+    }
+
+    /**
+     * @param timeInsertionFilter whether to read a contact from its time of insertion, 0 if it has none
+     */
+    public ContactCursorItemReader(MongoTemplate mongoTemplate, Query query, int batchSize,
+            LongPredicate timeInsertionFilter) {
+        this.mongoTemplate = mongoTemplate;
+        this.query = query;
+        this.batchSize = batchSize;
+        this.timeInsertionFilter = timeInsertionFilter;
+        setName(ContactCursorItemReader.class.getSimpleName());
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        String lastReadIdKey = getExecutionContextKey(LAST_READ_ID_KEY);
+        this.lastReadId = executionContext.containsKey(lastReadIdKey) ? executionContext.getString(lastReadIdKey) : null;
+
+        Query cursorQuery = new BasicQuery(buildFilter(this.query, this.lastReadId))
+                .with(Sort.by(Direction.ASC, ID_FIELD))
+                .cursorBatchSize(this.batchSize)
+                .noCursorTimeout();
+        this.cursor = this.mongoTemplate.stream(cursorQuery, Contact.class);
+    }
+
+    /**
+     * @return the filter of the query, restricted to the contacts after the last one read if any
+     */
+    static Document buildFilter(Query query, String lastReadId) {
+        Document filter = new Document(query.getQueryObject());
+        if (Objects.nonNull(lastReadId)) {
+            log.info("Resuming the reading of contacts after {}", lastReadId);
+            filter.append(ID_FIELD, new Document("$gt", ObjectId.isValid(lastReadId) ? new ObjectId(lastReadId) : lastReadId));
+        }
+        return filter;
+    }
+
+    @Override
+    public Contact read() {
+        if (Objects.isNull(this.cursor)) {
+            throw new ReaderNotOpenException("Reader must be open before it can be read.");
+        }
+        while (this.cursor.hasNext()) {
+            Contact contact = this.cursor.next();
+            this.lastReadId = contact.getId();
+            if (this.timeInsertionFilter.test(Objects.isNull(contact.getTimeInsertion()) ? 0L : contact.getTimeInsertion())) {
+                return contact;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        if (Objects.nonNull(this.lastReadId)) {
+            executionContext.putString(getExecutionContextKey(LAST_READ_ID_KEY), this.lastReadId);
+        }
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        if (Objects.nonNull(this.cursor)) {
+            this.cursor.close();
+            this.cursor = null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package fr.gouv.stopc.robert.server.batch.reader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.LongPredicate;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemStreamSupport;
+import org.springframework.batch.item.ReaderNotOpenException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.mongodb.client.MongoCursor;
+
+import fr.gouv.stopc.robert.server.batch.model.ContactView;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+
+/**
+ * Read the contacts to process as {@link ContactView}s decoded from the raw BSON returned by the cursor, bypassing
+ * the mapping of Spring Data. Like {@link ContactCursorItemReader}, the cursor follows the _id index and the last _id
+ * read is saved on each commit.
+ * The views of a chunk are recycled once the chunk is committed, so that a step reuses about as many views as there
+ * are contacts in a chunk: the reader must be registered as a chunk listener of its step.
+ */
+public class RawContactCursorItemReader extends ItemStreamSupport implements ItemStreamReader<ContactView>, ChunkListener {
+
+    private final MongoTemplate mongoTemplate;
+
+    private final Query query;
+
+    private final int batchSize;
+
+    private final LongPredicate timeInsertionFilter;
+
+    private final Deque<ContactView> freeViews = new ArrayDeque<>();
+
+    private final List<ContactView> chunkViews = new ArrayList<>();
+
+    private MongoCursor<RawBsonDocument> cursor;
+
+    private String lastReadId;
+
+    public RawContactCursorItemReader(MongoTemplate mongoTemplate, Query query, int batchSize) {
+        this(mongoTemplate, query, batchSize, timeInsertion -> true);
+    }
+
+    /**
+     * @param timeInsertionFilter whether to read a contact from its time of insertion, 0 if it has none
+     * @see ContactCursorItemReader#ContactCursorItemReader(MongoTemplate, Query, int, LongPredicate)
+     */
+    public RawContactCursorItemReader(MongoTemplate mongoTemplate, Query query, int batchSize,
+            LongPredicate timeInsertionFilter) {
+        this.mongoTemplate = mongoTemplate;
+        this.query = query;
+        this.batchSize = batchSize;
+        this.timeInsertionFilter = timeInsertionFilter;
+        setName(RawContactCursorItemReader.class.getSimpleName());
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        String lastReadIdKey = getExecutionContextKey(ContactCursorItemReader.LAST_READ_ID_KEY);
+        this.lastReadId = executionContext.containsKey(lastReadIdKey) ? executionContext.getString(lastReadIdKey) : null;
+
+        this.cursor = this.mongoTemplate.getCollection(this.mongoTemplate.getCollectionName(Contact.class))
+                .withDocumentClass(RawBsonDocument.class)
+                .find(ContactCursorItemReader.buildFilter(this.query, this.lastReadId))
+                .sort(new Document(ContactCursorItemReader.ID_FIELD, 1))
+                .batchSize(this.batchSize)
+                .noCursorTimeout(true)
+                .iterator();
+    }
+
+    @Override
+    public ContactView read() {
+        if (Objects.isNull(this.cursor)) {
+            throw new ReaderNotOpenException("Reader must be open before it can be read.");
+        }
+        while (this.cursor.hasNext()) {
+            ContactView view = this.freeViews.isEmpty() ? new ContactView() : this.freeViews.pop();
+            RawContactDecoder.decode(this.cursor.next().getByteBuffer().asNIO(), view);
+            this.lastReadId = view.getId();
+            if (this.timeInsertionFilter.test(view.getTimeInsertion())) {
+                this.chunkViews.add(view);
+                return view;
+            }
+            this.freeViews.push(view);
+        }
+        return null;
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        if (Objects.nonNull(this.lastReadId)) {
+            executionContext.putString(getExecutionContextKey(ContactCursorItemReader.LAST_READ_ID_KEY), this.lastReadId);
+        }
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        if (Objects.nonNull(this.cursor)) {
+            this.cursor.close();
+            this.cursor = null;
+        }
+        this.freeViews.clear();
+        this.chunkViews.clear();
+    }
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        for (ContactView view : this.chunkViews) {
+            view.recycle();
+            this.freeViews.push(view);
+        }
+        this.chunkViews.clear();
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        // The views of a failed chunk may still be referenced: they are left to the garbage collector
+        this.chunkViews.clear();
+    }
+}
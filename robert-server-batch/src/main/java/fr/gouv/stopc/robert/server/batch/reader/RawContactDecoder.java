@@ -0,0 +1,268 @@
+package fr.gouv.stopc.robert.server.batch.reader;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.bson.BsonSerializationException;
+import org.bson.BsonType;
+import org.bson.types.ObjectId;
+
+import fr.gouv.stopc.robert.server.batch.model.ContactView;
+
+/**
+ * Decode the BSON of a contact, as stored in the CONTACTS_TO_PROCESS collection, into a {@link ContactView} without
+ * going through a document or the mapping of Spring Data: the fields of the HELLO messages are read straight into the
+ * arrays of the view, and the only allocations are the id, the EBID and the ECC of the contact.
+ * Unknown fields are skipped.
+ */
+public final class RawContactDecoder {
+
+    private static final byte[] ID_FIELD = ascii("_id");
+
+    private static final byte[] EBID_FIELD = ascii("ebid");
+
+    private static final byte[] ECC_FIELD = ascii("ecc");
+
+    private static final byte[] TIME_INSERTION_FIELD = ascii("timeInsertion");
+
+    private static final byte[] MESSAGE_DETAILS_FIELD = ascii("messageDetails");
+
+    private static final byte[] TIME_COLLECTED_ON_DEVICE_FIELD = ascii("timeCollectedOnDevice");
+
+    private static final byte[] TIME_FROM_HELLO_MESSAGE_FIELD = ascii("timeFromHelloMessage");
+
+    private static final byte[] RSSI_CALIBRATED_FIELD = ascii("rssiCalibrated");
+
+    private static final byte[] MAC_FIELD = ascii("mac");
+
+    private static final byte OLD_BINARY_SUBTYPE = 0x02;
+
+    private RawContactDecoder() {
+    }
+
+    /**
+     * @param bson the BSON document, from its position to its limit
+     * @param view the view to fill, reset first
+     */
+    public static void decode(ByteBuffer bson, ContactView view) {
+        bson.order(ByteOrder.LITTLE_ENDIAN);
+        view.reset(0);
+
+        int position = bson.position();
+        int end = position + bson.getInt(position) - 1;
+        checkBounds(bson, end);
+        position += Integer.BYTES;
+
+        while (position < end) {
+            byte type = bson.get(position++);
+            int name = position;
+            position = skipCString(bson, position);
+            int value = position;
+
+            if (nameEquals(bson, name, ID_FIELD)) {
+                view.setId(readId(bson, type, value));
+            } else if (nameEquals(bson, name, EBID_FIELD) && type == BsonType.BINARY.getValue()) {
+                view.setEbid(readBinary(bson, value));
+            } else if (nameEquals(bson, name, ECC_FIELD) && type == BsonType.BINARY.getValue()) {
+                view.setEcc(readBinary(bson, value));
+            } else if (nameEquals(bson, name, TIME_INSERTION_FIELD) && isNumber(type)) {
+                view.setTimeInsertion(readLong(bson, type, value));
+            } else if (nameEquals(bson, name, MESSAGE_DETAILS_FIELD) && type == BsonType.ARRAY.getValue()) {
+                decodeMessages(bson, value, view);
+            }
+            position = skipValue(bson, type, value);
+        }
+    }
+
+    private static void decodeMessages(ByteBuffer bson, int array, ContactView view) {
+        int end = array + bson.getInt(array) - 1;
+        int position = array + Integer.BYTES;
+
+        while (position < end) {
+            byte type = bson.get(position++);
+            position = skipCString(bson, position);
+            if (type == BsonType.DOCUMENT.getValue()) {
+                decodeMessage(bson, position, view);
+            } else {
+                view.setMalformedMessages(true);
+                view.addMessage(0L, 0, 0);
+            }
+            position = skipValue(bson, type, position);
+        }
+    }
+
+    private static void decodeMessage(ByteBuffer bson, int document, ContactView view) {
+        int end = document + bson.getInt(document) - 1;
+        int position = document + Integer.BYTES;
+
+        long timeCollectedOnDevice = 0L;
+        int timeFromHelloMessage = 0;
+        int rssiCalibrated = 0;
+        int mac = -1;
+        int nbOfFields = 0;
+
+        while (position < end) {
+            byte type = bson.get(position++);
+            int name = position;
+            position = skipCString(bson, position);
+            int value = position;
+
+            if (nameEquals(bson, name, TIME_COLLECTED_ON_DEVICE_FIELD) && isNumber(type)) {
+                timeCollectedOnDevice = readLong(bson, type, value);
+                nbOfFields++;
+            } else if (nameEquals(bson, name, TIME_FROM_HELLO_MESSAGE_FIELD) && isNumber(type)) {
+                timeFromHelloMessage = (int) readLong(bson, type, value);
+                nbOfFields++;
+            } else if (nameEquals(bson, name, RSSI_CALIBRATED_FIELD) && isNumber(type)) {
+                // Optional, like for the contacts read as entities
+                rssiCalibrated = (int) readLong(bson, type, value);
+            } else if (nameEquals(bson, name, MAC_FIELD) && type == BsonType.BINARY.getValue()
+                    && binaryLength(bson, value) == ContactView.MAC_SIZE) {
+                mac = binaryStart(bson, value);
+                nbOfFields++;
+            }
+            position = skipValue(bson, type, value);
+        }
+
+        int index = view.getNbOfMessages();
+        if (nbOfFields < 3) {
+            view.setMalformedMessages(true);
+            view.addMessage(0L, 0, 0);
+            return;
+        }
+        view.addMessage(timeCollectedOnDevice, timeFromHelloMessage, rssiCalibrated);
+        byte[] macs = view.getMacs();
+        int offset = ContactView.macOffset(index);
+        for (int i = 0; i < ContactView.MAC_SIZE; i++) {
+            macs[offset + i] = bson.get(mac + i);
+        }
+    }
+
+    private static String readId(ByteBuffer bson, byte type, int value) {
+        if (type == BsonType.OBJECT_ID.getValue()) {
+            byte[] objectId = new byte[12];
+            for (int i = 0; i < objectId.length; i++) {
+                objectId[i] = bson.get(value + i);
+            }
+            return new ObjectId(objectId).toHexString();
+        }
+        if (type == BsonType.STRING.getValue()) {
+            int length = bson.getInt(value) - 1;
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = bson.get(value + Integer.BYTES + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    private static byte[] readBinary(ByteBuffer bson, int value) {
+        int start = binaryStart(bson, value);
+        byte[] bytes = new byte[binaryLength(bson, value)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = bson.get(start + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * The old binary subtype repeats the length of the data before the data
+     */
+    private static int binaryLength(ByteBuffer bson, int value) {
+        return bson.get(value + Integer.BYTES) == OLD_BINARY_SUBTYPE ? bson.getInt(value + Integer.BYTES + 1)
+                : bson.getInt(value);
+    }
+
+    private static int binaryStart(ByteBuffer bson, int value) {
+        return value + Integer.BYTES + 1 + (bson.get(value + Integer.BYTES) == OLD_BINARY_SUBTYPE ? Integer.BYTES : 0);
+    }
+
+    private static boolean isNumber(byte type) {
+        return type == BsonType.INT32.getValue() || type == BsonType.INT64.getValue()
+                || type == BsonType.DOUBLE.getValue();
+    }
+
+    private static long readLong(ByteBuffer bson, byte type, int value) {
+        if (type == BsonType.INT32.getValue()) {
+            return bson.getInt(value);
+        }
+        if (type == BsonType.INT64.getValue()) {
+            return bson.getLong(value);
+        }
+        return (long) bson.getDouble(value);
+    }
+
+    /**
+     * @return the position after the value
+     */
+    private static int skipValue(ByteBuffer bson, byte type, int value) {
+        BsonType bsonType = BsonType.findByValue(type);
+        if (bsonType == null) {
+            throw new BsonSerializationException("Unexpected BSON type " + type + " in contact");
+        }
+        switch (bsonType) {
+            case DOUBLE:
+            case DATE_TIME:
+            case INT64:
+            case TIMESTAMP:
+                return value + Long.BYTES;
+            case STRING:
+            case JAVASCRIPT:
+            case SYMBOL:
+                return value + Integer.BYTES + bson.getInt(value);
+            case DOCUMENT:
+            case ARRAY:
+            case JAVASCRIPT_WITH_SCOPE:
+                return value + bson.getInt(value);
+            case BINARY:
+                return value + Integer.BYTES + 1 + bson.getInt(value);
+            case OBJECT_ID:
+                return value + 12;
+            case BOOLEAN:
+                return value + 1;
+            case INT32:
+                return value + Integer.BYTES;
+            case DECIMAL128:
+                return value + 16;
+            case REGULAR_EXPRESSION:
+                return skipCString(bson, skipCString(bson, value));
+            case DB_POINTER:
+                return value + Integer.BYTES + bson.getInt(value) + 12;
+            case UNDEFINED:
+            case NULL:
+            case MIN_KEY:
+            case MAX_KEY:
+                return value;
+            default:
+                throw new BsonSerializationException("Unexpected BSON type " + type + " in contact");
+        }
+    }
+
+    private static int skipCString(ByteBuffer bson, int position) {
+        while (bson.get(position) != 0) {
+            position++;
+        }
+        return position + 1;
+    }
+
+    private static boolean nameEquals(ByteBuffer bson, int name, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (bson.get(name + i) != expected[i]) {
+                return false;
+            }
+        }
+        return bson.get(name + expected.length) == 0;
+    }
+
+    private static void checkBounds(ByteBuffer bson, int end) {
+        if (end < bson.position() + Integer.BYTES || end >= bson.limit() || bson.get(end) != 0) {
+            throw new BsonSerializationException("Invalid BSON document of contact");
+        }
+    }
+
+    private static byte[] ascii(String name) {
+        return name.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,272 @@
+package fr.gouv.stopc.robert.server.batch.runner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import fr.gouv.stopc.robert.server.batch.coordination.ShardLeaseManager;
+import fr.gouv.stopc.robert.server.batch.tasklet.ExpiredEpochsPurgeTasklet;
+import fr.gouv.stopc.robert.server.batch.utils.ContactDeduplicator;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.service.ContactService;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keep processing the contacts as they are received, in micro-batches, once the processContacts job has processed
+ * those received while the batch was not running.
+ * The contacts to process are the ones still in the collection: each micro-batch takes the oldest ones, writes their
+ * exposures and only then removes them, so that a restart resumes with the contacts not processed yet.
+ * A failed micro-batch is retried after a delay doubling with each failure. Once it has failed maxAttempts times in a
+ * row, its contacts are processed one by one and those failing while others succeed are moved to the dead letter
+ * collection, so that a contact which cannot be processed does not block the others.
+ * Micro-batches run on their own thread, which also purges the expired epochs of the registrations periodically.
+ * The processors, caches and gRPC channel stay the same from one micro-batch to the other.
+ */
+@Slf4j
+public class ContinuousContactProcessingRunner implements ApplicationRunner, DisposableBean {
+
+    public static final String DEAD_LETTER_COLLECTION = "CONTACTS_DEAD_LETTER";
+
+    // Time left to the micro-batch in progress to complete on shutdown before its thread is interrupted
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30000L;
+
+    private final boolean enabled;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ContactService contactService;
+
+    private final ItemWriter<Contact> contactsWriter;
+
+    private final int microBatchSize;
+
+    private final long pollIntervalMillis;
+
+    private final int maxAttempts;
+
+    private final long maxBackoffMillis;
+
+    private final ContactProcessingMetrics metrics;
+
+    private final ContactDeduplicator contactDeduplicator;
+
+    private final ShardLeaseManager shardLeaseManager;
+
+    private final ExpiredEpochsPurgeTasklet expiredEpochsPurgeTasklet;
+
+    private final long purgeIntervalMillis;
+
+    private final CountDownLatch stopSignal = new CountDownLatch(1);
+
+    private volatile Thread worker;
+
+    private int nbOfFailedAttempts;
+
+    /**
+     * @param maxAttempts the number of times a micro-batch is attempted before its contacts are processed one by one
+     * @param maxBackoffMillis the maximum time to wait before attempting a failed micro-batch again
+     * @param expiredEpochsPurgeTasklet null not to purge the expired epochs
+     * @param purgeIntervalMillis the time between two purges of the expired epochs
+     */
+    public ContinuousContactProcessingRunner(boolean enabled,
+                                             MongoTemplate mongoTemplate,
+                                             ContactService contactService,
+                                             ItemWriter<Contact> contactsWriter,
+                                             int microBatchSize,
+                                             long pollIntervalMillis,
+                                             int maxAttempts,
+                                             long maxBackoffMillis,
+                                             ContactProcessingMetrics metrics,
+                                             ContactDeduplicator contactDeduplicator,
+                                             ShardLeaseManager shardLeaseManager,
+                                             ExpiredEpochsPurgeTasklet expiredEpochsPurgeTasklet,
+                                             long purgeIntervalMillis) {
+        this.enabled = enabled;
+        this.mongoTemplate = mongoTemplate;
+        this.contactService = contactService;
+        this.contactsWriter = contactsWriter;
+        this.microBatchSize = microBatchSize;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.metrics = metrics;
+        this.contactDeduplicator = contactDeduplicator;
+        this.shardLeaseManager = shardLeaseManager;
+        this.expiredEpochsPurgeTasklet = expiredEpochsPurgeTasklet;
+        this.purgeIntervalMillis = purgeIntervalMillis;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!this.enabled) {
+            return;
+        }
+        log.info("Processing contacts continuously by micro-batches of {} contacts", this.microBatchSize);
+        // Not a daemon thread: it keeps the application running
+        this.worker = new Thread(this::processContinuously, "continuous-contacts");
+        this.worker.start();
+    }
+
+    private void processContinuously() {
+        long nextPurgeMillis = System.currentTimeMillis() + this.purgeIntervalMillis;
+        int nbOfFailures = 0;
+        while (!isStopped()) {
+            if (Objects.nonNull(this.expiredEpochsPurgeTasklet) && System.currentTimeMillis() >= nextPurgeMillis) {
+                purgeExpiredEpochs();
+                nextPurgeMillis = System.currentTimeMillis() + this.purgeIntervalMillis;
+            }
+
+            long waitMillis;
+            try {
+                int nbOfContacts = processMicroBatch();
+                nbOfFailures = 0;
+                // Go on without waiting as long as contacts are waiting
+                waitMillis = nbOfContacts < this.microBatchSize ? this.pollIntervalMillis : 0L;
+            } catch (Exception e) {
+                nbOfFailures++;
+                waitMillis = getBackoffMillis(nbOfFailures);
+                log.error("Micro-batch failed {} time(s) in a row, its contacts will be processed again in {} ms",
+                        nbOfFailures, waitMillis, e);
+            }
+
+            if (waitMillis > 0L && waitForStop(waitMillis)) {
+                break;
+            }
+        }
+        log.info("Continuous processing of contacts stopped");
+    }
+
+    /**
+     * @return the number of contacts processed
+     */
+    public int processMicroBatch() throws Exception {
+        // In multi-node mode, the shards held may change between two micro-batches
+        this.shardLeaseManager.rebalanceIfDue();
+        long shardsGeneration = this.shardLeaseManager.getGeneration();
+        List<Contact> contacts = this.mongoTemplate.find(
+                this.shardLeaseManager.restrictToOwnedShards(
+                        new Query().with(Sort.by(Sort.Direction.ASC, "_id")).limit(this.microBatchSize)),
+                Contact.class);
+        if (contacts.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.currentTimeMillis();
+        // Fails the micro-batch if another node may have taken some of its contacts meanwhile
+        this.shardLeaseManager.checkLeases(shardsGeneration);
+        try {
+            this.contactsWriter.write(contacts);
+        } catch (Exception e) {
+            // Their HELLO messages must not be taken for duplicates when they are processed again
+            this.contactDeduplicator.clear();
+            this.nbOfFailedAttempts++;
+            if (this.nbOfFailedAttempts < this.maxAttempts) {
+                throw e;
+            }
+            log.warn("Micro-batch failed {} times in a row; processing its {} contacts one by one",
+                    this.nbOfFailedAttempts, contacts.size());
+            processOneByOne(contacts, e);
+            this.nbOfFailedAttempts = 0;
+            return contacts.size();
+        }
+        this.nbOfFailedAttempts = 0;
+        deleteContacts(contacts);
+        log.info("Micro-batch of {} contacts processed in {} ms", contacts.size(), System.currentTimeMillis() - start);
+        return contacts.size();
+    }
+
+    /**
+     * Process the contacts of a micro-batch which keeps failing one by one, and set aside those which fail while
+     * others succeed. When they all fail, the cause is more likely an outage than the contacts: they are all kept.
+     * @throws Exception the failure of the micro-batch, if no contact could be processed
+     */
+    private void processOneByOne(List<Contact> contacts, Exception microBatchFailure) throws Exception {
+        List<Contact> processedContacts = new ArrayList<>(contacts.size());
+        List<Contact> failedContacts = new ArrayList<>();
+        for (Contact contact : contacts) {
+            try {
+                this.contactsWriter.write(Collections.singletonList(contact));
+                processedContacts.add(contact);
+            } catch (Exception e) {
+                this.contactDeduplicator.clear();
+                log.warn("Contact failed on its own", e);
+                failedContacts.add(contact);
+            }
+        }
+        if (processedContacts.isEmpty()) {
+            throw microBatchFailure;
+        }
+        deleteContacts(processedContacts);
+
+        if (!failedContacts.isEmpty()) {
+            this.mongoTemplate.insert(failedContacts, DEAD_LETTER_COLLECTION);
+            deleteContacts(failedContacts);
+            log.error("{} contacts could not be processed and were moved to {}", failedContacts.size(),
+                    DEAD_LETTER_COLLECTION);
+        }
+    }
+
+    private void deleteContacts(List<Contact> contacts) {
+        List<String> contactIds = contacts.stream().map(Contact::getId).collect(Collectors.toList());
+        this.metrics.getContactsDeletionTimer().record(() -> this.contactService.deleteAllByIds(contactIds));
+    }
+
+    private void purgeExpiredEpochs() {
+        try {
+            this.expiredEpochsPurgeTasklet.purge();
+        } catch (Exception e) {
+            log.error("Failed to purge the expired epochs, they will be purged next time", e);
+        }
+    }
+
+    private long getBackoffMillis(int nbOfFailures) {
+        long backoffMillis = this.pollIntervalMillis << Math.min(nbOfFailures - 1, 30);
+        return backoffMillis < 0L ? this.maxBackoffMillis : Math.min(backoffMillis, this.maxBackoffMillis);
+    }
+
+    private boolean isStopped() {
+        return this.stopSignal.getCount() == 0;
+    }
+
+    /**
+     * @return whether the runner was stopped while waiting
+     */
+    private boolean waitForStop(long waitMillis) {
+        try {
+            return this.stopSignal.await(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    /**
+     * Stop waiting for contacts at once, and let the micro-batch in progress complete for a while
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        this.stopSignal.countDown();
+        Thread currentWorker = this.worker;
+        if (Objects.isNull(currentWorker)) {
+            return;
+        }
+        currentWorker.join(SHUTDOWN_TIMEOUT_MILLIS);
+        if (currentWorker.isAlive()) {
+            log.warn("Micro-batch still in progress after {} ms; interrupting it", SHUTDOWN_TIMEOUT_MILLIS);
+            currentWorker.interrupt();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package fr.gouv.stopc.robert.server.batch.service;
 
 import fr.gouv.stopc.robert.server.batch.exception.RobertScoringException;
+import fr.gouv.stopc.robert.server.batch.model.HelloMessageColumns;
 import fr.gouv.stopc.robertserver.database.model.Contact;
 
 public interface ScoringStrategyService {
@@ -9,4 +10,11 @@ public interface ScoringStrategyService {
      * @param contact
      */
     Double execute(Contact contact) throws RobertScoringException;
+
+    /**
+     * Compute the risk scores of several contacts at once
+     * @param columns the HELLO messages of the contacts
+     * @return the score of each contact, in the order of the contacts, NaN for a contact with no HELLO messages
+     */
+    double[] executeAll(HelloMessageColumns columns) throws RobertScoringException;
 }
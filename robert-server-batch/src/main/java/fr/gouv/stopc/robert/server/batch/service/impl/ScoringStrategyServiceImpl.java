@@ -1,17 +1,17 @@
 package fr.gouv.stopc.robert.server.batch.service.impl;
 
-import java.util.List;
+import java.util.Collections;
 
 import javax.inject.Inject;
 
 import org.springframework.stereotype.Service;
 
 import fr.gouv.stopc.robert.server.batch.exception.RobertScoringException;
+import fr.gouv.stopc.robert.server.batch.model.HelloMessageColumns;
 import fr.gouv.stopc.robert.server.batch.service.ScoringStrategyService;
 import fr.gouv.stopc.robert.server.batch.utils.PropertyLoader;
 import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
 import fr.gouv.stopc.robertserver.database.model.Contact;
-import fr.gouv.stopc.robertserver.database.model.HelloMessageDetail;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -19,6 +19,7 @@ import lombok.extern.slf4j.Slf4j;
  * risk = - SUM_i=1_to_I((5*delta_t(i, i - 1))/min((RSSI(i) + RSSI(i - 1)) / 2 + alpha, -5) * 60
  * where alpha = - RSSI_1m - 5
  * For contacts with a single message, cap estimated delta to 120 seconds
+ * All the contacts are scored by {@link #executeAll(HelloMessageColumns)} in a single loop over primitive arrays
  */
 @Service
 @Slf4j
@@ -37,36 +38,55 @@ public class ScoringStrategyServiceImpl implements ScoringStrategyService {
 
     @Override
     public Double execute(Contact contact) throws RobertScoringException {
-        List<HelloMessageDetail> messageDetails = contact.getMessageDetails();
-
-        final int alpha = initAlpha();
-        double acc = 0.0;
-        int vectorSize = messageDetails.size();
-
-        if (vectorSize > 1) {
-            for (int i = 1; i < vectorSize; i++) {
-                HelloMessageDetail messageDetail = messageDetails.get(i - 1);
-                HelloMessageDetail nextMessage = messageDetails.get(i);
-                long delta = nextMessage.getTimeCollectedOnDevice() - messageDetail.getTimeCollectedOnDevice();
-                int averageRSSI = (messageDetail.getRssiCalibrated() + nextMessage.getRssiCalibrated()) / 2;
-                acc += (double) (delta * 5) / (Math.min(averageRSSI + alpha, -5) * 60);
-            }
-        } else if (vectorSize == 1) {
-            HelloMessageDetail message = messageDetails.get(0);
-            long epochDuration = this.serverConfigurationService.getEpochDurationSecs();
-            long remainder = (message.getTimeCollectedOnDevice() - this.serverConfigurationService.getServiceTimeStart()) % epochDuration;
-            long delta = remainder > epochDuration / 2 ? epochDuration - remainder : remainder;
-
-            // Cap delta to 120 seconds max
-            long cappedDelta = delta > 120 ? 120 : delta;
-            acc += (double) (cappedDelta * 5) / (Math.min(message.getRssiCalibrated() + alpha, -5) * 60);
-        } else {
+        double score = executeAll(HelloMessageColumns.of(Collections.singletonList(contact)))[0];
+        if (Double.isNaN(score)) {
             String errorMessage = "Cannot score contact with no HELLO messages";
             log.error(errorMessage);
             throw new RobertScoringException(errorMessage);
         }
+        return score;
+    }
+
+    @Override
+    public double[] executeAll(HelloMessageColumns columns) throws RobertScoringException {
+        final long[] times = columns.getTimesCollectedOnDevice();
+        final int[] rssis = columns.getRssisCalibrated();
+        final int[] offsets = columns.getOffsets();
 
-        return 0 - acc;
+        // Read the configuration once for all the contacts
+        final int alpha = initAlpha();
+        final long epochDuration = this.serverConfigurationService.getEpochDurationSecs();
+        final long serviceTimeStart = this.serverConfigurationService.getServiceTimeStart();
+
+        double[] scores = new double[columns.getNbOfContacts()];
+        for (int c = 0; c < scores.length; c++) {
+            final int start = offsets[c];
+            final int end = offsets[c + 1];
+            double acc = 0.0;
+
+            if (end - start > 1) {
+                for (int i = start + 1; i < end; i++) {
+                    long delta = times[i] - times[i - 1];
+                    int averageRSSI = (rssis[i - 1] + rssis[i]) / 2;
+                    acc += (double) (delta * 5) / (Math.min(averageRSSI + alpha, -5) * 60);
+                }
+            } else if (end - start == 1) {
+                long remainder = (times[start] - serviceTimeStart) % epochDuration;
+                long delta = remainder > epochDuration / 2 ? epochDuration - remainder : remainder;
+
+                // Cap delta to 120 seconds max
+                long cappedDelta = delta > 120 ? 120 : delta;
+                acc += (double) (cappedDelta * 5) / (Math.min(rssis[start] + alpha, -5) * 60);
+            } else {
+                // Not to fail the scoring of the other contacts
+                log.warn("Cannot score contact with no HELLO messages");
+                scores[c] = Double.NaN;
+                continue;
+            }
+
+            scores[c] = 0 - acc;
+        }
+        return scores;
     }
 
     private int initAlpha() {
@@ -0,0 +1,155 @@
+package fr.gouv.stopc.robert.server.batch.tasklet;
+
+import java.util.Objects;
+
+import org.bson.Document;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.mongodb.bulk.BulkWriteResult;
+
+import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
+import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
+import fr.gouv.stopc.robertserver.database.converter.EpochExposureWindowWriteConverter;
+import fr.gouv.stopc.robertserver.database.model.Registration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Remove the epochs older than the contagious period (C_T) from all the registrations, including those that
+ * received no contact, with $pull updates run by the database, one id range after the other.
+ * The running total risk of the purged registrations is removed so that the next update computes it again from
+ * the remaining epochs.
+ */
+@Slf4j
+public class ExpiredEpochsPurgeTasklet implements Tasklet {
+
+    public static final String BYTES_RECLAIMED_KEY = "bytesReclaimed";
+
+    private static final String EXPOSED_EPOCHS_FIELD = "exposedEpochs";
+
+    private static final String EXPOSURE_WINDOW_EPOCHS_FIELD = "exposureWindow."
+            + EpochExposureWindowWriteConverter.EPOCHS_FIELD;
+
+    private static final String EPOCH_ID_FIELD = "epochId";
+
+    private static final String TOTAL_RISK_FIELD = "totalRiskSinceLatestRiskEpoch";
+
+    private static final int ID_A_SIZE = 5;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final IServerConfigurationService serverConfigurationService;
+
+    private final int nbOfIdRanges;
+
+    public ExpiredEpochsPurgeTasklet(MongoTemplate mongoTemplate,
+                                     IServerConfigurationService serverConfigurationService,
+                                     int nbOfIdRanges) {
+        this.mongoTemplate = mongoTemplate;
+        this.serverConfigurationService = serverConfigurationService;
+        this.nbOfIdRanges = Math.max(1, Math.min(nbOfIdRanges, 256));
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+        PurgeResult result = purge();
+        contribution.incrementWriteCount(result.getNbOfPurgedRegistrations());
+        chunkContext.getStepContext().getStepExecution().getExecutionContext()
+                .putLong(BYTES_RECLAIMED_KEY, result.getBytesReclaimed());
+        return RepeatStatus.FINISHED;
+    }
+
+    /**
+     * Purge the expired epochs of all the registrations, outside of a step in continuous mode
+     */
+    public PurgeResult purge() {
+        int currentEpochId = TimeUtils.getCurrentEpochFrom(this.serverConfigurationService.getServiceTimeStart());
+        int nbOfEpochsToKeep = (this.serverConfigurationService.getContagiousPeriod() * 24 * 3600)
+                / this.serverConfigurationService.getEpochDurationSecs();
+        int oldestEpochIdToKeep = currentEpochId - nbOfEpochsToKeep;
+
+        long dataSizeBefore = getDataSize();
+        int nbOfPurgedRegistrations = 0;
+        for (int range = 0; range < this.nbOfIdRanges; range++) {
+            BulkOperations bulkOperations = this.mongoTemplate.bulkOps(BulkMode.UNORDERED, Registration.class);
+            bulkOperations.updateMulti(
+                    buildPurgeQuery(range, EXPOSED_EPOCHS_FIELD, oldestEpochIdToKeep),
+                    buildPurgeUpdate(EXPOSED_EPOCHS_FIELD, oldestEpochIdToKeep));
+            bulkOperations.updateMulti(
+                    buildPurgeQuery(range, EXPOSURE_WINDOW_EPOCHS_FIELD, oldestEpochIdToKeep),
+                    buildPurgeUpdate(EXPOSURE_WINDOW_EPOCHS_FIELD, oldestEpochIdToKeep));
+            BulkWriteResult result = bulkOperations.execute();
+            nbOfPurgedRegistrations += result.getModifiedCount();
+        }
+
+        // Approximate when registrations are written at the same time
+        long bytesReclaimed = Math.max(0L, dataSizeBefore - getDataSize());
+        log.info("Epochs before {} purged from {} registrations, {} bytes reclaimed",
+                oldestEpochIdToKeep, nbOfPurgedRegistrations, bytesReclaimed);
+
+        return new PurgeResult(nbOfPurgedRegistrations, bytesReclaimed);
+    }
+
+    /**
+     * Select the registrations of the id range having an epoch to purge in the given array
+     */
+    private Query buildPurgeQuery(int range, String epochsField, int oldestEpochIdToKeep) {
+        Criteria criteria = Criteria.where(epochsField + "." + EPOCH_ID_FIELD).lt(oldestEpochIdToKeep);
+        Criteria idCriteria = Criteria.where("_id");
+        byte[] lowerBound = getIdRangeLowerBound(range);
+        byte[] upperBound = getIdRangeLowerBound(range + 1);
+        // The first and last ranges are left open to cover the identifiers of unexpected sizes
+        if (Objects.nonNull(lowerBound)) {
+            idCriteria.gte(lowerBound);
+        }
+        if (Objects.nonNull(upperBound)) {
+            idCriteria.lt(upperBound);
+        }
+        return new Query(Objects.isNull(lowerBound) && Objects.isNull(upperBound) ? criteria
+                : new Criteria().andOperator(idCriteria, criteria));
+    }
+
+    private Update buildPurgeUpdate(String epochsField, int oldestEpochIdToKeep) {
+        return new Update()
+                .pull(epochsField, new Document(EPOCH_ID_FIELD, new Document("$lt", oldestEpochIdToKeep)))
+                .unset(TOTAL_RISK_FIELD);
+    }
+
+    /**
+     * Ranges split the ids on their first byte, binary ids of the same size being compared byte per byte
+     * @return the lowest id of the range, null for the first range and after the last one
+     */
+    private byte[] getIdRangeLowerBound(int range) {
+        if (range <= 0 || range >= this.nbOfIdRanges) {
+            return null;
+        }
+        byte[] lowerBound = new byte[ID_A_SIZE];
+        lowerBound[0] = (byte) (range * 256 / this.nbOfIdRanges);
+        return lowerBound;
+    }
+
+    private long getDataSize() {
+        Document collectionStats = this.mongoTemplate.getDb()
+                .runCommand(new Document("collStats", this.mongoTemplate.getCollectionName(Registration.class)));
+        return ((Number) collectionStats.get("size")).longValue();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class PurgeResult {
+
+        private final int nbOfPurgedRegistrations;
+
+        private final long bytesReclaimed;
+    }
+}
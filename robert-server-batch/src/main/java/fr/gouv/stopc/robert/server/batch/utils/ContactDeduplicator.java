@@ -0,0 +1,173 @@
+package fr.gouv.stopc.robert.server.batch.utils;
+
+import javax.inject.Inject;
+
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.stereotype.Component;
+
+import fr.gouv.stopc.robert.server.batch.model.ContactView;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Run-scoped detection of the HELLO messages received more than once, as phones retry their uploads.
+ * Each HELLO message is fingerprinted with a 64-bit hash of its EBID, ECC, MAC and time of collection. Fingerprints
+ * go through a Bloom filter first, which rules out most new messages without probing the exact set, and the exact
+ * set then tells the actual duplicates from the false positives.
+ * Fingerprints are recorded in two generations, each sized for half the number of HELLO messages per run: once the
+ * current generation is full, it replaces the previous one and a new generation starts. Memory stays bounded when
+ * contacts are processed continuously, while the most recent fingerprints are still looked up.
+ */
+@Slf4j
+@Component
+public class ContactDeduplicator implements JobExecutionListener {
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int maxNbOfFingerprintsPerGeneration;
+
+    private LongBloomFilter bloomFilter;
+
+    private LongHashSet fingerprints = new LongHashSet();
+
+    private LongBloomFilter previousBloomFilter;
+
+    private LongHashSet previousFingerprints = new LongHashSet();
+
+    private long nbOfDuplicates;
+
+    private long nbOfRotations;
+
+    @Inject
+    public ContactDeduplicator(PropertyLoader propertyLoader) {
+        this(propertyLoader.getDedupExpectedHelloMessages());
+    }
+
+    public ContactDeduplicator(int maxNbOfFingerprints) {
+        this.maxNbOfFingerprintsPerGeneration = Math.max(1, maxNbOfFingerprints / 2);
+        this.bloomFilter = new LongBloomFilter(this.maxNbOfFingerprintsPerGeneration, FALSE_POSITIVE_RATE);
+        this.previousBloomFilter = new LongBloomFilter(this.maxNbOfFingerprintsPerGeneration, FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * Remove from the contact the HELLO messages already received during the run, including those repeated
+     * within the contact itself
+     * @return the number of HELLO messages removed
+     */
+    public synchronized int removeDuplicates(ContactView contact) {
+        if (contact.getNbOfMessages() == 0) {
+            return 0;
+        }
+
+        long contactHash = hash(hash(FNV_OFFSET_BASIS, contact.getEbid(), 0, length(contact.getEbid())),
+                contact.getEcc(), 0, length(contact.getEcc()));
+        int nbOfDuplicates = contact.retainMessages(i -> {
+            long fingerprint = fingerprint(contactHash, contact, i);
+            if (isRecorded(fingerprint, this.bloomFilter, this.fingerprints)
+                    || isRecorded(fingerprint, this.previousBloomFilter, this.previousFingerprints)) {
+                return false;
+            }
+            record(fingerprint);
+            return true;
+        });
+        this.nbOfDuplicates += nbOfDuplicates;
+        return nbOfDuplicates;
+    }
+
+    public synchronized long getNbOfDuplicates() {
+        return this.nbOfDuplicates;
+    }
+
+    public synchronized void clear() {
+        this.bloomFilter.clear();
+        this.fingerprints.clear();
+        this.previousBloomFilter.clear();
+        this.previousFingerprints.clear();
+        this.nbOfDuplicates = 0;
+        this.nbOfRotations = 0;
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        clear();
+    }
+
+    @Override
+    public synchronized void afterJob(JobExecution jobExecution) {
+        log.info("{} duplicate HELLO messages removed, {} fingerprints recorded in {} generations",
+                this.nbOfDuplicates, this.fingerprints.size() + this.previousFingerprints.size(),
+                this.nbOfRotations + 1);
+    }
+
+    private static boolean isRecorded(long fingerprint, LongBloomFilter bloomFilter, LongHashSet fingerprints) {
+        return bloomFilter.mightContain(fingerprint) && fingerprints.contains(fingerprint);
+    }
+
+    private void record(long fingerprint) {
+        if (this.fingerprints.size() >= this.maxNbOfFingerprintsPerGeneration) {
+            rotate();
+        }
+        this.bloomFilter.put(fingerprint);
+        this.fingerprints.add(fingerprint);
+    }
+
+    /**
+     * Drop the previous generation and start a new one, the current generation becoming the previous one
+     */
+    private void rotate() {
+        LongBloomFilter droppedBloomFilter = this.previousBloomFilter;
+        LongHashSet droppedFingerprints = this.previousFingerprints;
+        this.previousBloomFilter = this.bloomFilter;
+        this.previousFingerprints = this.fingerprints;
+        droppedBloomFilter.clear();
+        droppedFingerprints.clear();
+        this.bloomFilter = droppedBloomFilter;
+        this.fingerprints = droppedFingerprints;
+        this.nbOfRotations++;
+        log.debug("{} HELLO message fingerprints recorded; the oldest ones are no longer looked up",
+                this.maxNbOfFingerprintsPerGeneration);
+    }
+
+    /**
+     * @param contactHash the hash of the EBID and ECC of the contact
+     */
+    private static long fingerprint(long contactHash, ContactView contact, int index) {
+        long hash = hash(contactHash, contact.getMacs(), ContactView.macOffset(index), ContactView.MAC_SIZE);
+        long timeCollectedOnDevice = contact.getTimeCollectedOnDevice(index);
+        for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE) {
+            hash = (hash ^ ((timeCollectedOnDevice >>> shift) & 0xFF)) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * FNV-1a over the length and the bytes of a field, so that fields cannot shift into one another
+     */
+    private static long hash(long hash, byte[] bytes, int offset, int length) {
+        hash = (hash ^ (length & 0xFF)) * FNV_PRIME;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? -1 : bytes.length;
+    }
+
+    /**
+     * Final avalanche of MurmurHash3, to spread the bits used by the Bloom filter and the hash set
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,19 @@
+package fr.gouv.stopc.robert.server.batch.utils;
+
+/**
+ * How processed contacts are removed from the collection of contacts to process
+ */
+public enum ContactDeletionMode {
+
+    /**
+     * The contacts of a chunk are removed with a single request once the chunk is committed
+     */
+    PER_CHUNK,
+
+    /**
+     * Only contacts received before the run are processed. The contacts of a chunk are flagged as processed once the
+     * chunk is committed, so that they are skipped if the run is started again, and are removed when a run completes:
+     * the collection is then rotated and the old one dropped
+     */
+    END_OF_RUN
+}
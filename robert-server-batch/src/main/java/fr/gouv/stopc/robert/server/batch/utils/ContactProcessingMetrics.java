@@ -0,0 +1,272 @@
+package fr.gouv.stopc.robert.server.batch.utils;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Micrometer meters of the processing of the contacts: number of contacts processed, of contacts rejected per reason,
+ * throughput of the run, and latency of the calls to the crypto back-end and to the database and of the chunks.
+ * Registered as a chunk listener of the contacts steps to time their chunks.
+ * The latencies are also recorded by timers of the current run only, replaced by {@link #startRun()}, so that the
+ * percentiles of a run do not depend on the runs before it.
+ */
+@Component
+public class ContactProcessingMetrics implements ChunkListener {
+
+    public static final String CONTACTS = "robert.batch.contacts";
+
+    public static final String ACCEPTED_CONTACTS = "robert.batch.contacts.accepted";
+
+    public static final String CONTACTS_PER_SECOND = "robert.batch.contacts.per-second";
+
+    public static final String REJECTED_CONTACTS = "robert.batch.contacts.rejected";
+
+    public static final String DUPLICATE_HELLO_MESSAGES = "robert.batch.hello-messages.duplicate";
+
+    public static final String CRYPTO_VALIDATION = "robert.batch.crypto.validation";
+
+    public static final String REGISTRATION_LOOKUP = "robert.batch.registration.lookup";
+
+    public static final String REGISTRATION_SAVE = "robert.batch.registration.save";
+
+    public static final String CONTACTS_DELETION = "robert.batch.contacts.deletion";
+
+    public static final String CHUNK = "robert.batch.chunk";
+
+    public enum RejectionReason {
+        NO_MESSAGES,
+        TOO_MANY_MESSAGES,
+        MALFORMED_CONTACT,
+        MALFORMED_HELLO_MESSAGE,
+        OUTSIDE_CONTAGIOUS_PERIOD,
+        DUPLICATE,
+        UNKNOWN_EBID_CACHED,
+        CRYPTO_FAILURE,
+        INVALID_HELLO_MESSAGES,
+        FOREIGN_COUNTRY,
+        UNKNOWN_ID_A_CACHED,
+        TIME_TOLERANCE,
+        EPOCH_MISMATCH,
+        UNKNOWN_REGISTRATION
+    }
+
+    private final Counter contacts;
+
+    private final Counter acceptedContacts;
+
+    private final Counter duplicateHelloMessages;
+
+    private final Map<RejectionReason, Counter> rejectedContacts = new EnumMap<>(RejectionReason.class);
+
+    private final Map<String, Timer> timers = new LinkedHashMap<>();
+
+    private final ThreadLocal<Timer.Sample> chunkSample = new ThreadLocal<>();
+
+    private final MeterRegistry meterRegistry;
+
+    // The timers record into the registry of the application and into the one of the current run
+    private final CompositeMeterRegistry timersRegistry;
+
+    private volatile MeterRegistry runRegistry;
+
+    private volatile long runStartNanos;
+
+    private volatile long nbOfContactsAtRunStart;
+
+    // Throughput of the last run once it is over, negative while a run is in progress
+    private volatile double contactsPerSecondOfLastRun = -1.0;
+
+    @Inject
+    public ContactProcessingMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.timersRegistry = new CompositeMeterRegistry(meterRegistry.config().clock(), Collections.singleton(meterRegistry));
+        this.contacts = meterRegistry.counter(CONTACTS);
+        this.acceptedContacts = meterRegistry.counter(ACCEPTED_CONTACTS);
+        this.duplicateHelloMessages = meterRegistry.counter(DUPLICATE_HELLO_MESSAGES);
+        for (RejectionReason reason : RejectionReason.values()) {
+            this.rejectedContacts.put(reason, meterRegistry.counter(REJECTED_CONTACTS, "reason", reason.name()));
+        }
+        for (String name : new String[] { CRYPTO_VALIDATION, REGISTRATION_LOOKUP, REGISTRATION_SAVE,
+                CONTACTS_DELETION, CHUNK }) {
+            this.timers.put(name, Timer.builder(name)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .publishPercentileHistogram()
+                    .register(this.timersRegistry));
+        }
+        Gauge.builder(CONTACTS_PER_SECOND, this, ContactProcessingMetrics::getContactsPerSecond)
+                .register(meterRegistry);
+        startRun();
+    }
+
+    /**
+     * Start measuring a new run: the throughput and the latencies of the run timers only account for what follows
+     */
+    public synchronized void startRun() {
+        MeterRegistry previousRunRegistry = this.runRegistry;
+        this.runRegistry = newRunRegistry();
+        this.timersRegistry.add(this.runRegistry);
+        if (Objects.nonNull(previousRunRegistry)) {
+            this.timersRegistry.remove(previousRunRegistry);
+        }
+        this.nbOfContactsAtRunStart = getNbOfContacts();
+        this.runStartNanos = this.meterRegistry.config().clock().monotonicTime();
+        this.contactsPerSecondOfLastRun = -1.0;
+    }
+
+    /**
+     * Keep the throughput of the run until the next one starts
+     */
+    public synchronized void endRun() {
+        this.contactsPerSecondOfLastRun = getContactsPerSecond();
+    }
+
+    /**
+     * @return the number of contacts per second of the run in progress, or of the last run
+     */
+    public double getContactsPerSecond() {
+        if (this.contactsPerSecondOfLastRun >= 0.0) {
+            return this.contactsPerSecondOfLastRun;
+        }
+        long elapsedNanos = this.meterRegistry.config().clock().monotonicTime() - this.runStartNanos;
+        return elapsedNanos <= 0L ? 0.0
+                : (getNbOfContacts() - this.nbOfContactsAtRunStart) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * The percentiles of the run timers are computed over the whole run instead of a sliding window of a few minutes
+     */
+    private static MeterRegistry newRunRegistry() {
+        MeterRegistry runRegistry = new SimpleMeterRegistry();
+        runRegistry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                return DistributionStatisticConfig.builder()
+                        .expiry(Duration.ofDays(365))
+                        .bufferLength(1)
+                        .build()
+                        .merge(config);
+            }
+        });
+        return runRegistry;
+    }
+
+    public void contactReceived() {
+        this.contacts.increment();
+    }
+
+    public void contactsAccepted(int nbOfContacts) {
+        this.acceptedContacts.increment(nbOfContacts);
+    }
+
+    public void contactsRejected(RejectionReason reason, int nbOfContacts) {
+        this.rejectedContacts.get(reason).increment(nbOfContacts);
+    }
+
+    public void helloMessagesDuplicated(int nbOfHelloMessages) {
+        this.duplicateHelloMessages.increment(nbOfHelloMessages);
+    }
+
+    public long getNbOfContacts() {
+        return (long) this.contacts.count();
+    }
+
+    public long getNbOfAcceptedContacts() {
+        return (long) this.acceptedContacts.count();
+    }
+
+    public long getNbOfDuplicateHelloMessages() {
+        return (long) this.duplicateHelloMessages.count();
+    }
+
+    /**
+     * @return the number of contacts rejected per reason
+     */
+    public Map<RejectionReason, Long> getNbOfRejectedContacts() {
+        Map<RejectionReason, Long> nbOfRejectedContacts = new EnumMap<>(RejectionReason.class);
+        this.rejectedContacts.forEach((reason, counter) -> nbOfRejectedContacts.put(reason, (long) counter.count()));
+        return nbOfRejectedContacts;
+    }
+
+    /**
+     * @return the latency timers of the application by name
+     */
+    public Map<String, Timer> getTimers() {
+        return getTimers(this.meterRegistry);
+    }
+
+    /**
+     * @return the latency timers of the current run only by name
+     */
+    public Map<String, Timer> getRunTimers() {
+        return getTimers(this.runRegistry);
+    }
+
+    /**
+     * The timers recording into both registries read from either of them: read from the given one instead
+     */
+    private Map<String, Timer> getTimers(MeterRegistry registry) {
+        Map<String, Timer> registryTimers = new LinkedHashMap<>();
+        this.timers.keySet().forEach(name -> registryTimers.put(name, registry.get(name).timer()));
+        return Collections.unmodifiableMap(registryTimers);
+    }
+
+    public Timer getCryptoValidationTimer() {
+        return this.timers.get(CRYPTO_VALIDATION);
+    }
+
+    public Timer getRegistrationLookupTimer() {
+        return this.timers.get(REGISTRATION_LOOKUP);
+    }
+
+    public Timer getRegistrationSaveTimer() {
+        return this.timers.get(REGISTRATION_SAVE);
+    }
+
+    public Timer getContactsDeletionTimer() {
+        return this.timers.get(CONTACTS_DELETION);
+    }
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        this.chunkSample.set(Timer.start(this.meterRegistry));
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        stopChunkSample();
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        stopChunkSample();
+    }
+
+    private void stopChunkSample() {
+        Timer.Sample sample = this.chunkSample.get();
+        if (Objects.nonNull(sample)) {
+            sample.stop(this.timers.get(CHUNK));
+            this.chunkSample.remove();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package fr.gouv.stopc.robert.server.batch.utils;
+
+import java.util.Arrays;
+
+/**
+ * Bloom filter of long values, which are expected to be well-mixed hashes already: the probed bits are derived
+ * from the two halves of the value (double hashing). Sized for a number of values and a false positive rate.
+ * Not thread-safe.
+ */
+public class LongBloomFilter {
+
+    private final long[] bits;
+
+    private final int nbOfBits;
+
+    private final int nbOfHashes;
+
+    public LongBloomFilter(int expectedNbOfValues, double falsePositiveRate) {
+        if (expectedNbOfValues <= 0 || falsePositiveRate <= 0.0 || falsePositiveRate >= 1.0) {
+            throw new IllegalArgumentException("Invalid Bloom filter sizing: " + expectedNbOfValues + " values, "
+                    + falsePositiveRate + " false positive rate");
+        }
+        long nbOfBits = (long) Math.ceil(-expectedNbOfValues * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.nbOfBits = (int) Math.min(Math.max(nbOfBits, Long.SIZE), Integer.MAX_VALUE - Long.SIZE);
+        this.nbOfHashes = Math.max(1, (int) Math.round((double) this.nbOfBits / expectedNbOfValues * Math.log(2)));
+        this.bits = new long[(this.nbOfBits + Long.SIZE - 1) / Long.SIZE];
+    }
+
+    public boolean mightContain(long value) {
+        int hash1 = (int) value;
+        int hash2 = (int) (value >>> 32);
+        for (int i = 0; i < this.nbOfHashes; i++) {
+            int bit = bitOf(hash1 + i * hash2);
+            if ((this.bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void put(long value) {
+        int hash1 = (int) value;
+        int hash2 = (int) (value >>> 32);
+        for (int i = 0; i < this.nbOfHashes; i++) {
+            int bit = bitOf(hash1 + i * hash2);
+            this.bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(this.bits, 0L);
+    }
+
+    private int bitOf(int combinedHash) {
+        return (combinedHash & Integer.MAX_VALUE) % this.nbOfBits;
+    }
+}
@@ -0,0 +1,94 @@
+package fr.gouv.stopc.robert.server.batch.utils;
+
+import java.util.Arrays;
+
+/**
+ * Compact set of long values using open addressing with linear probing: one long per slot, no boxing.
+ * Not thread-safe.
+ */
+public class LongHashSet {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // 0 marks an empty slot, the value 0 itself is tracked aside
+    private static final long EMPTY = 0L;
+
+    private long[] slots;
+
+    private boolean containsZero;
+
+    private int size;
+
+    public LongHashSet() {
+        this.slots = new long[INITIAL_CAPACITY];
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return this.containsZero;
+        }
+        int mask = this.slots.length - 1;
+        for (int i = slotOf(value, mask); this.slots[i] != EMPTY; i = (i + 1) & mask) {
+            if (this.slots[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the value was not already in the set
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            boolean added = !this.containsZero;
+            this.containsZero = true;
+            this.size += added ? 1 : 0;
+            return added;
+        }
+        // Keep the load factor under 0.5 so that probe sequences stay short
+        if ((this.size + 1) * 2 > this.slots.length) {
+            resize(this.slots.length * 2);
+        }
+        if (insert(this.slots, value)) {
+            this.size++;
+            return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public void clear() {
+        this.slots = new long[INITIAL_CAPACITY];
+        this.containsZero = false;
+        this.size = 0;
+    }
+
+    private void resize(int capacity) {
+        long[] resized = new long[capacity];
+        Arrays.stream(this.slots).filter(value -> value != EMPTY).forEach(value -> insert(resized, value));
+        this.slots = resized;
+    }
+
+    private static boolean insert(long[] slots, long value) {
+        int mask = slots.length - 1;
+        int i = slotOf(value, mask);
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = value;
+        return true;
+    }
+
+    private static int slotOf(long value, int mask) {
+        // Mix the bits since identifiers may share their high bytes
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -21,4 +21,97 @@ public class PropertyLoader {
 	@Value("${robert.protocol.risk-threshold}")
 	private Double riskThreshold;
 
+	@Value("${robert.batch.partitioned-mode}")
+	private Boolean partitionedMode;
+
+	@Value("${robert.batch.grid-size}")
+	private Integer gridSize;
+
+	@Value("${robert.batch.contact-deletion-mode}")
+	private ContactDeletionMode contactDeletionMode;
+
+	@Value("${robert.batch.cursor-batch-size}")
+	private Integer cursorBatchSize;
+
+	@Value("${robert.batch.pipelined-mode}")
+	private Boolean pipelinedMode;
+
+	@Value("${robert.batch.raw-bson-reader-mode}")
+	private Boolean rawBsonReaderMode;
+
+	@Value("${robert.batch.pipeline.validation-parallelism}")
+	private Integer pipelineValidationParallelism;
+
+	@Value("${robert.batch.pipeline.lookup-parallelism}")
+	private Integer pipelineLookupParallelism;
+
+	@Value("${robert.batch.pipeline.lookup-batch-size}")
+	private Integer pipelineLookupBatchSize;
+
+	@Value("${robert.batch.pipeline.max-in-flight-contacts}")
+	private Integer pipelineMaxInFlightContacts;
+
+	@Value("${robert.batch.purge-expired-epochs}")
+	private Boolean purgeExpiredEpochs;
+
+	@Value("${robert.batch.purge.id-ranges}")
+	private Integer purgeIdRanges;
+
+	@Value("${robert.batch.continuous-mode}")
+	private Boolean continuousMode;
+
+	@Value("${robert.batch.continuous.micro-batch-size}")
+	private Integer continuousMicroBatchSize;
+
+	@Value("${robert.batch.continuous.poll-interval-ms}")
+	private Long continuousPollIntervalMillis;
+
+	@Value("${robert.batch.continuous.max-attempts}")
+	private Integer continuousMaxAttempts;
+
+	@Value("${robert.batch.continuous.max-backoff-ms}")
+	private Long continuousMaxBackoffMillis;
+
+	@Value("${robert.batch.continuous.purge-interval-ms}")
+	private Long continuousPurgeIntervalMillis;
+
+	@Value("${robert.batch.federation.segment-max-bytes}")
+	private Integer federationSegmentMaxBytes;
+
+	@Value("${robert.batch.federation.segment-max-age-ms}")
+	private Long federationSegmentMaxAgeMillis;
+
+	@Value("${robert.batch.dedup.expected-hello-messages}")
+	private Integer dedupExpectedHelloMessages;
+
+	@Value("${robert.batch.prevalidation.max-hello-messages}")
+	private Integer prevalidationMaxHelloMessages;
+
+	@Value("${robert.batch.chunk.min-size}")
+	private Integer chunkMinSize;
+
+	@Value("${robert.batch.chunk.initial-size}")
+	private Integer chunkInitialSize;
+
+	@Value("${robert.batch.chunk.max-size}")
+	private Integer chunkMaxSize;
+
+	@Value("${robert.batch.chunk.target-duration-ms}")
+	private Long chunkTargetDurationMillis;
+
+	@Value("${robert.batch.chunk.max-heap-usage}")
+	private Double chunkMaxHeapUsage;
+
+	@Value("${robert.batch.multi-node-mode}")
+	private Boolean multiNodeMode;
+
+	@Value("${robert.batch.multi-node.shards}")
+	private Integer multiNodeShards;
+
+	@Value("${robert.batch.multi-node.lease-ttl-ms}")
+	private Long multiNodeLeaseTtlMillis;
+
+	@Value("${robert.batch.multi-node.heartbeat-ms}")
+	private Long multiNodeHeartbeatMillis;
+
 }
@@ -0,0 +1,42 @@
+package fr.gouv.stopc.robert.server.batch.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Striped locks guarding the read-modify-write cycle of a registration when contacts are processed
+ * by several partitions at the same time: two contacts for the same id_A always get the same lock.
+ */
+@Component
+public class RegistrationLockProvider {
+
+    private static final int NB_OF_STRIPES = 1024;
+
+    private final Lock[] locks;
+
+    public RegistrationLockProvider() {
+        this.locks = new Lock[NB_OF_STRIPES];
+        for (int i = 0; i < NB_OF_STRIPES; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+    }
+
+    public Lock getLock(byte[] idA) {
+        return this.locks[getStripe(idA)];
+    }
+
+    /**
+     * @return the index of the lock guarding the provided id_A; locks must be acquired in ascending stripe order
+     * when several of them are held at the same time
+     */
+    public int getStripe(byte[] idA) {
+        return (Arrays.hashCode(idA) & Integer.MAX_VALUE) % NB_OF_STRIPES;
+    }
+
+    public Lock getLockForStripe(int stripe) {
+        return this.locks[stripe];
+    }
+}
@@ -0,0 +1,109 @@
+package fr.gouv.stopc.robert.server.batch.utils;
+
+import java.util.Objects;
+
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Run-scoped negative cache of the id_A found without registration, and of the EBIDs that resolved to them.
+ * An EBID always decrypts to the same id_A, so the contacts carrying a cached EBID are discarded without calling
+ * the crypto back-end, and the contacts of a cached id_A without looking for its registration.
+ * Identifiers are stored exactly (id_A and EBID fit in a long), so there is no false positive.
+ * In continuous mode the cache is kept from one micro-batch to the other.
+ */
+@Slf4j
+@Component
+public class UnknownIdentifierCache implements JobExecutionListener {
+
+    // Bounds the memory used when the cache lives across micro-batches in continuous mode
+    private static final int MAX_NB_OF_IDENTIFIERS = 1 << 20;
+
+    private final LongHashSet unknownIdAs = new LongHashSet();
+
+    private final LongHashSet unknownEbids = new LongHashSet();
+
+    private long nbOfLookups;
+
+    private long nbOfHits;
+
+    public synchronized boolean isUnknownIdA(byte[] idA) {
+        return lookup(this.unknownIdAs, idA);
+    }
+
+    public synchronized boolean isUnknownEbid(byte[] ebid) {
+        return lookup(this.unknownEbids, ebid);
+    }
+
+    public synchronized void addUnknown(byte[] idA, byte[] ebid) {
+        if (this.unknownIdAs.size() >= MAX_NB_OF_IDENTIFIERS || this.unknownEbids.size() >= MAX_NB_OF_IDENTIFIERS) {
+            log.info("Unknown identifier cache full, clearing it");
+            this.unknownIdAs.clear();
+            this.unknownEbids.clear();
+        }
+        if (fitsInLong(idA)) {
+            this.unknownIdAs.add(toLong(idA));
+        }
+        if (fitsInLong(ebid)) {
+            this.unknownEbids.add(toLong(ebid));
+        }
+    }
+
+    public synchronized double getHitRatio() {
+        return this.nbOfLookups == 0 ? 0.0 : (double) this.nbOfHits / this.nbOfLookups;
+    }
+
+    public synchronized long getNbOfHits() {
+        return this.nbOfHits;
+    }
+
+    public synchronized long getNbOfLookups() {
+        return this.nbOfLookups;
+    }
+
+    public synchronized void clear() {
+        this.unknownIdAs.clear();
+        this.unknownEbids.clear();
+        this.nbOfLookups = 0;
+        this.nbOfHits = 0;
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        clear();
+    }
+
+    @Override
+    public synchronized void afterJob(JobExecution jobExecution) {
+        log.info("Unknown identifier cache: {} hits out of {} lookups (hit ratio {}), {} id_A and {} EBIDs cached",
+                this.nbOfHits, this.nbOfLookups, String.format("%.3f", getHitRatio()),
+                this.unknownIdAs.size(), this.unknownEbids.size());
+    }
+
+    private boolean lookup(LongHashSet set, byte[] identifier) {
+        if (!fitsInLong(identifier)) {
+            return false;
+        }
+        this.nbOfLookups++;
+        boolean hit = set.contains(toLong(identifier));
+        if (hit) {
+            this.nbOfHits++;
+        }
+        return hit;
+    }
+
+    private static boolean fitsInLong(byte[] identifier) {
+        return Objects.nonNull(identifier) && identifier.length > 0 && identifier.length <= Long.BYTES;
+    }
+
+    private static long toLong(byte[] identifier) {
+        long value = 0;
+        for (byte b : identifier) {
+            value = (value << 8) | (b & 0xFF);
+        }
+        return value;
+    }
+}
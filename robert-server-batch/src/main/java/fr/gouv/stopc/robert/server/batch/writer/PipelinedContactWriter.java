@@ -0,0 +1,165 @@
+package fr.gouv.stopc.robert.server.batch.writer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.batch.item.ItemWriter;
+
+import fr.gouv.stopc.robert.server.batch.model.ContactExposure;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.model.Registration;
+import fr.gouv.stopc.robertserver.database.service.IRegistrationService;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Process the contacts of a chunk through three overlapping stages instead of one contact after the other:
+ * <ol>
+ * <li>validation of the contacts by the crypto back-end, on the validation executor</li>
+ * <li>lookup of the registrations by batches of id_A, each id_A being looked up once per chunk: a batch is sent as soon
+ * as enough distinct id_A are validated, the last one once all the contacts of the chunk are validated</li>
+ * <li>scoring of the exposures of the whole chunk with a single call, merge of the exposures per registration in the
+ * order of the contacts and bulk write, once all lookups are done</li>
+ * </ol>
+ * The number of contacts being validated is bounded so that reading waits for them to complete.
+ */
+@Slf4j
+public class PipelinedContactWriter implements ItemWriter<Contact> {
+
+    private final ItemProcessor<Contact, ContactExposure> contactProcessor;
+
+    private final IRegistrationService registrationService;
+
+    private final RegistrationExposureWriter registrationExposureWriter;
+
+    private final Executor validationExecutor;
+
+    private final Executor lookupExecutor;
+
+    private final int maxInFlightContacts;
+
+    private final int lookupBatchSize;
+
+    public PipelinedContactWriter(ItemProcessor<Contact, ContactExposure> contactProcessor,
+                                  IRegistrationService registrationService,
+                                  RegistrationExposureWriter registrationExposureWriter,
+                                  Executor validationExecutor,
+                                  Executor lookupExecutor,
+                                  int maxInFlightContacts,
+                                  int lookupBatchSize) {
+        this.contactProcessor = contactProcessor;
+        this.registrationService = registrationService;
+        this.registrationExposureWriter = registrationExposureWriter;
+        this.validationExecutor = validationExecutor;
+        this.lookupExecutor = lookupExecutor;
+        this.maxInFlightContacts = maxInFlightContacts;
+        this.lookupBatchSize = lookupBatchSize;
+    }
+
+    @Override
+    public void write(List<? extends Contact> contacts) throws Exception {
+        Semaphore inFlightContacts = new Semaphore(this.maxInFlightContacts);
+        RegistrationLookups registrationLookups = new RegistrationLookups();
+        List<CompletableFuture<ContactExposure>> exposures = new ArrayList<>(contacts.size());
+
+        try {
+            for (Contact contact : contacts) {
+                inFlightContacts.acquire();
+
+                CompletableFuture<ContactExposure> exposure = CompletableFuture
+                        .supplyAsync(() -> validate(contact), this.validationExecutor)
+                        .thenApply(contactExposure -> {
+                            if (Objects.nonNull(contactExposure)) {
+                                registrationLookups.lookup(contactExposure.getIdA());
+                            }
+                            return contactExposure;
+                        });
+                exposure.whenComplete((contactExposure, e) -> inFlightContacts.release());
+                exposures.add(exposure);
+            }
+
+            CompletableFuture.allOf(exposures.toArray(new CompletableFuture[0])).join();
+            registrationLookups.flush().join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+
+        // Exposures are merged in the order of the contacts whatever the order in which they were validated
+        List<ContactExposure> validExposures = exposures.stream()
+                .map(CompletableFuture::join)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        log.info("{} contacts validated out of {}, {} registrations to update",
+                validExposures.size(), contacts.size(), registrationLookups.size());
+
+        this.registrationExposureWriter.write(validExposures, idAs -> registrationLookups.getRegistrations());
+    }
+
+    private ContactExposure validate(Contact contact) {
+        try {
+            return this.contactProcessor.process(contact);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * The lookups of the registrations of a chunk, sent by batches of distinct id_A
+     */
+    private class RegistrationLookups {
+
+        private final Set<ByteBuffer> requestedIdAs = new HashSet<>();
+
+        private final List<CompletableFuture<List<Registration>>> batches = new ArrayList<>();
+
+        private List<byte[]> pendingIdAs = new ArrayList<>();
+
+        synchronized void lookup(byte[] idA) {
+            if (this.requestedIdAs.add(ByteBuffer.wrap(idA))) {
+                this.pendingIdAs.add(idA);
+                if (this.pendingIdAs.size() >= lookupBatchSize) {
+                    sendPendingIdAs();
+                }
+            }
+        }
+
+        /**
+         * @return the completion of all the lookups, once the id_A not yet looked up are
+         */
+        synchronized CompletableFuture<Void> flush() {
+            sendPendingIdAs();
+            return CompletableFuture.allOf(this.batches.toArray(new CompletableFuture[0]));
+        }
+
+        synchronized int size() {
+            return this.requestedIdAs.size();
+        }
+
+        synchronized Map<ByteBuffer, Registration> getRegistrations() {
+            return this.batches.stream()
+                    .flatMap(batch -> batch.join().stream())
+                    .collect(Collectors.toMap(registration -> ByteBuffer.wrap(registration.getPermanentIdentifier()),
+                            Function.identity()));
+        }
+
+        private void sendPendingIdAs() {
+            if (this.pendingIdAs.isEmpty()) {
+                return;
+            }
+            List<byte[]> idAs = this.pendingIdAs;
+            this.pendingIdAs = new ArrayList<>();
+            this.batches.add(CompletableFuture.supplyAsync(() -> registrationService.findAllByIds(idAs), lookupExecutor));
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package fr.gouv.stopc.robert.server.batch.writer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.mongodb.bulk.BulkWriteResult;
+
+import fr.gouv.stopc.robert.server.batch.exception.RobertScoringException;
+import fr.gouv.stopc.robert.server.batch.model.ContactExposure;
+import fr.gouv.stopc.robert.server.batch.model.HelloMessageColumns;
+import fr.gouv.stopc.robert.server.batch.service.ScoringStrategyService;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics.RejectionReason;
+import fr.gouv.stopc.robert.server.batch.utils.PropertyLoader;
+import fr.gouv.stopc.robert.server.batch.utils.RegistrationLockProvider;
+import fr.gouv.stopc.robert.server.batch.utils.UnknownIdentifierCache;
+import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
+import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
+import fr.gouv.stopc.robertserver.database.model.EpochExposition;
+import fr.gouv.stopc.robertserver.database.model.EpochExposureWindow;
+import fr.gouv.stopc.robertserver.database.model.Registration;
+import fr.gouv.stopc.robertserver.database.service.IRegistrationService;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Score the exposures of a chunk with a single call, merge them per registration, then update each registration once
+ * with a single unordered bulk write.
+ * In multi-node mode, another node may update the same registrations: each update only applies to the version of
+ * the registration it was computed from, and the exposures of the registrations updated in between are merged again.
+ */
+@Slf4j
+public class RegistrationExposureWriter implements ItemWriter<ContactExposure> {
+
+    private static final String EXPOSED_EPOCHS_FIELD = "exposedEpochs";
+
+    private static final String EXPOSURE_WINDOW_FIELD = "exposureWindow";
+
+    private static final String AT_RISK_FIELD = "atRisk";
+
+    private static final String TOTAL_RISK_FIELD = "totalRiskSinceLatestRiskEpoch";
+
+    private static final String EXPOSURE_VERSION_FIELD = "exposureVersion";
+
+    private static final String EXPOSURE_WRITE_IDS_FIELD = "exposureWriteIds";
+
+    // Enough for a node to find its update among those made before it checks
+    private static final int MAX_NB_OF_WRITE_IDS = 8;
+
+    private static final int MAX_NB_OF_ATTEMPTS = 5;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final IRegistrationService registrationService;
+
+    private final IServerConfigurationService serverConfigurationService;
+
+    private final PropertyLoader propertyLoader;
+
+    private final RegistrationLockProvider registrationLockProvider;
+
+    private final UnknownIdentifierCache unknownIdentifierCache;
+
+    private final ContactProcessingMetrics metrics;
+
+    private final ScoringStrategyService scoringStrategy;
+
+    public RegistrationExposureWriter(MongoTemplate mongoTemplate,
+                                      IRegistrationService registrationService,
+                                      IServerConfigurationService serverConfigurationService,
+                                      PropertyLoader propertyLoader,
+                                      RegistrationLockProvider registrationLockProvider,
+                                      UnknownIdentifierCache unknownIdentifierCache,
+                                      ContactProcessingMetrics metrics,
+                                      ScoringStrategyService scoringStrategy) {
+        this.mongoTemplate = mongoTemplate;
+        this.registrationService = registrationService;
+        this.serverConfigurationService = serverConfigurationService;
+        this.propertyLoader = propertyLoader;
+        this.registrationLockProvider = registrationLockProvider;
+        this.unknownIdentifierCache = unknownIdentifierCache;
+        this.metrics = metrics;
+        this.scoringStrategy = scoringStrategy;
+    }
+
+    @Override
+    public void write(List<? extends ContactExposure> items) throws RobertScoringException {
+        write(items, this::prefetchRegistrations);
+    }
+
+    /**
+     * Merge and write the exposures of a chunk with registrations loaded by the caller
+     * @param items the exposures of the chunk, in the order of the contacts
+     * @param registrationsLoader gives the registrations of the id_A of the chunk by id_A, called once per chunk;
+     * unknown id_A are missing from the result
+     */
+    public void write(List<? extends ContactExposure> items,
+                      Function<Collection<byte[]>, Map<ByteBuffer, Registration>> registrationsLoader)
+            throws RobertScoringException {
+        write(score(items), registrationsLoader, 1);
+    }
+
+    /**
+     * Score the exposures not scored yet with a single call for the whole chunk, then drop their messages
+     * @return the scored exposures, without those of the contacts with no HELLO messages
+     */
+    private List<ContactExposure> score(List<? extends ContactExposure> items) throws RobertScoringException {
+        int nbOfContacts = 0;
+        int nbOfMessages = 0;
+        for (ContactExposure item : items) {
+            if (Objects.nonNull(item) && Objects.isNull(item.getScore())) {
+                nbOfContacts++;
+                nbOfMessages += item.getTimesCollectedOnDevice().length;
+            }
+        }
+
+        long[] timesCollectedOnDevice = new long[nbOfMessages];
+        int[] rssisCalibrated = new int[nbOfMessages];
+        int[] offsets = new int[nbOfContacts + 1];
+        int contactIndex = 0;
+        int messageIndex = 0;
+        for (ContactExposure item : items) {
+            if (Objects.nonNull(item) && Objects.isNull(item.getScore())) {
+                offsets[contactIndex++] = messageIndex;
+                int length = item.getTimesCollectedOnDevice().length;
+                System.arraycopy(item.getTimesCollectedOnDevice(), 0, timesCollectedOnDevice, messageIndex, length);
+                System.arraycopy(item.getRssisCalibrated(), 0, rssisCalibrated, messageIndex, length);
+                messageIndex += length;
+            }
+        }
+        offsets[nbOfContacts] = messageIndex;
+
+        double[] scores = nbOfContacts == 0 ? new double[0]
+                : this.scoringStrategy.executeAll(new HelloMessageColumns(timesCollectedOnDevice, rssisCalibrated, offsets));
+
+        List<ContactExposure> scoredItems = new ArrayList<>(items.size());
+        contactIndex = 0;
+        for (ContactExposure item : items) {
+            if (Objects.isNull(item)) {
+                continue;
+            }
+            if (Objects.isNull(item.getScore())) {
+                double score = scores[contactIndex++];
+                item.setTimesCollectedOnDevice(null);
+                item.setRssisCalibrated(null);
+                if (Double.isNaN(score)) {
+                    log.warn("Contact exposure with no HELLO messages; discarding contact exposure");
+                    continue;
+                }
+                item.setScore(score);
+            }
+            scoredItems.add(item);
+        }
+        return scoredItems;
+    }
+
+    private void write(List<? extends ContactExposure> items,
+                       Function<Collection<byte[]>, Map<ByteBuffer, Registration>> registrationsLoader,
+                       int attempt) {
+        Map<ByteBuffer, List<ContactExposure>> exposuresByIdA = items.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.groupingBy(item -> ByteBuffer.wrap(item.getIdA()), LinkedHashMap::new, Collectors.toList()));
+
+        if (exposuresByIdA.isEmpty()) {
+            return;
+        }
+
+        boolean multiNodeMode = Boolean.TRUE.equals(this.propertyLoader.getMultiNodeMode());
+        String writeId = UUID.randomUUID().toString();
+        List<byte[]> conflictingIdAs = new ArrayList<>();
+
+        // The registrations may be updated by another partition: lock them from lookup until save,
+        // in ascending stripe order to avoid deadlocks between partitions
+        SortedSet<Integer> stripes = exposuresByIdA.keySet().stream()
+                .map(idA -> this.registrationLockProvider.getStripe(idA.array()))
+                .collect(Collectors.toCollection(TreeSet::new));
+        stripes.forEach(stripe -> this.registrationLockProvider.getLockForStripe(stripe).lock());
+        try {
+            List<byte[]> idAs = exposuresByIdA.keySet().stream()
+                    .map(ByteBuffer::array)
+                    .collect(Collectors.toList());
+            Map<ByteBuffer, Registration> registrations = this.metrics.getRegistrationLookupTimer()
+                    .record(() -> registrationsLoader.apply(idAs));
+
+            BulkOperations bulkOperations = this.mongoTemplate.bulkOps(BulkMode.UNORDERED, Registration.class);
+            List<byte[]> updatedIdAs = new ArrayList<>();
+            int nbOfMergedExposures = 0;
+
+            for (Map.Entry<ByteBuffer, List<ContactExposure>> entry : exposuresByIdA.entrySet()) {
+                byte[] idA = entry.getKey().array();
+
+                // Check step #4: check once if registration exists
+                Registration registration = registrations.get(entry.getKey());
+                if (Objects.isNull(registration)) {
+                    log.info("Recovered id_A is unknown (fake or now unregistered?); discarding {} contact(s)", entry.getValue().size());
+                    entry.getValue().forEach(exposure -> this.unknownIdentifierCache.addUnknown(idA, exposure.getEbid()));
+                    this.metrics.contactsRejected(RejectionReason.UNKNOWN_REGISTRATION, entry.getValue().size());
+                    continue;
+                }
+
+                updateExposedEpochsAndRisk(registration, entry.getValue());
+
+                Query query = new Query(Criteria.where("_id").is(idA));
+                Update update = new Update()
+                        .set(EXPOSED_EPOCHS_FIELD, registration.getExposedEpochs())
+                        .set(EXPOSURE_WINDOW_FIELD, registration.getExposureWindow())
+                        .set(TOTAL_RISK_FIELD, registration.getTotalRiskSinceLatestRiskEpoch())
+                        .set(AT_RISK_FIELD, registration.isAtRisk());
+                if (multiNodeMode) {
+                    query.addCriteria(Criteria.where(EXPOSURE_VERSION_FIELD).is(registration.getExposureVersion()));
+                    update.inc(EXPOSURE_VERSION_FIELD, 1)
+                            .push(EXPOSURE_WRITE_IDS_FIELD).slice(-MAX_NB_OF_WRITE_IDS).each(writeId);
+                }
+                bulkOperations.updateOne(query, update);
+                updatedIdAs.add(idA);
+                nbOfMergedExposures += entry.getValue().size();
+            }
+
+            if (!updatedIdAs.isEmpty()) {
+                BulkWriteResult result = this.metrics.getRegistrationSaveTimer().record(() -> bulkOperations.execute());
+                if (multiNodeMode && result.getMatchedCount() < updatedIdAs.size()) {
+                    conflictingIdAs.addAll(findNotUpdated(updatedIdAs, writeId));
+                }
+            }
+            // The exposures of the conflicting registrations are counted when they are merged again
+            for (byte[] conflictingIdA : conflictingIdAs) {
+                nbOfMergedExposures -= exposuresByIdA.get(ByteBuffer.wrap(conflictingIdA)).size();
+            }
+            this.metrics.contactsAccepted(nbOfMergedExposures);
+            log.info("{} contact exposures merged into {} registrations", items.size(),
+                    updatedIdAs.size() - conflictingIdAs.size());
+        } finally {
+            stripes.forEach(stripe -> this.registrationLockProvider.getLockForStripe(stripe).unlock());
+        }
+
+        if (!conflictingIdAs.isEmpty()) {
+            List<ContactExposure> conflictingExposures = conflictingIdAs.stream()
+                    .flatMap(idA -> exposuresByIdA.get(ByteBuffer.wrap(idA)).stream())
+                    .collect(Collectors.toList());
+            if (attempt >= MAX_NB_OF_ATTEMPTS) {
+                // The chunk fails so that its contacts are not removed and are processed again
+                throw new OptimisticLockingFailureException(String.format(
+                        "%d registrations still updated by other nodes after %d attempts",
+                        conflictingIdAs.size(), attempt));
+            }
+            log.info("{} registrations updated by another node in the meantime; merging their exposures again",
+                    conflictingIdAs.size());
+            write(conflictingExposures, this::prefetchRegistrations, attempt + 1);
+        }
+    }
+
+    /**
+     * @return the id_A of the registrations whose latest updates do not include the given one
+     */
+    private List<byte[]> findNotUpdated(List<byte[]> idAs, String writeId) {
+        return this.registrationService.findAllByIds(idAs).stream()
+                .filter(registration -> Objects.isNull(registration.getExposureWriteIds())
+                        || !registration.getExposureWriteIds().contains(writeId))
+                .map(Registration::getPermanentIdentifier)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Load all the registrations needed by a chunk with a single request
+     */
+    private Map<ByteBuffer, Registration> prefetchRegistrations(Collection<byte[]> idAs) {
+        return this.registrationService.findAllByIds(idAs).stream()
+                .collect(Collectors.toMap(registration -> ByteBuffer.wrap(registration.getPermanentIdentifier()),
+                        Function.identity()));
+    }
+
+    /**
+     * Add the exposures to the exposure window of the registration and update its risk incrementally: the sum of the
+     * scores of each epoch and the total risk since the latest risk epoch are stored with the registration, so that
+     * neither the scores already received nor the epochs are summed again
+     */
+    private void updateExposedEpochsAndRisk(Registration registration, List<ContactExposure> exposures) {
+        int currentEpochId = TimeUtils.getCurrentEpochFrom(this.serverConfigurationService.getServiceTimeStart());
+        int nbOfEpochsToKeep = (this.serverConfigurationService.getContagiousPeriod() * 24 * 3600)
+                / this.serverConfigurationService.getEpochDurationSecs();
+        int oldestEpochIdToKeep = currentEpochId - nbOfEpochsToKeep;
+        int latestRiskEpoch = registration.getLatestRiskEpoch();
+
+        EpochExposureWindow window = getExposureWindow(registration, nbOfEpochsToKeep + 1);
+
+        // Registrations written before the running total was stored get it computed once from the window
+        double totalRisk = Optional.ofNullable(registration.getTotalRiskSinceLatestRiskEpoch())
+                .orElseGet(() -> window.sumAfter(latestRiskEpoch));
+
+        // Purge exposed epochs older than contagious period (C_T)
+        totalRisk -= window.expireBefore(oldestEpochIdToKeep, latestRiskEpoch);
+
+        // Robert spec Step #9: add i_A in LEE_A for each contact of the chunk
+        for (ContactExposure exposure : exposures) {
+            int epochId = exposure.getEpochId();
+            if (epochId < oldestEpochIdToKeep) {
+                continue;
+            }
+            // Account for the epochs leaving the window if this one moves it
+            totalRisk -= window.expireBefore(epochId - window.getCapacity() + 1, latestRiskEpoch);
+            // Only consider epochs that are after the last notification for scoring
+            if (window.add(epochId, exposure.getScore()) && epochId > latestRiskEpoch) {
+                totalRisk += exposure.getScore();
+            }
+        }
+
+        if (window.getLastEpochId() <= latestRiskEpoch) {
+            // Do not let rounding errors accumulate once all the scored epochs have expired
+            totalRisk = 0.0;
+        }
+
+        registration.setExposureWindow(window);
+        registration.setExposedEpochs(new ArrayList<>());
+        registration.setTotalRiskSinceLatestRiskEpoch(totalRisk);
+        registration.setAtRisk(totalRisk > this.propertyLoader.getRiskThreshold());
+    }
+
+    /**
+     * Get the exposure window of the registration with the given capacity, moving the exposed epochs written before
+     * the window into it. The running total is then reset so that it is computed again from the window.
+     */
+    private EpochExposureWindow getExposureWindow(Registration registration, int capacity) {
+        EpochExposureWindow window = registration.getExposureWindow();
+        if (Objects.nonNull(window) && window.getCapacity() == capacity) {
+            return window;
+        }
+
+        EpochExposureWindow newWindow = new EpochExposureWindow(capacity);
+        if (Objects.nonNull(window)) {
+            // The contagious period has changed
+            window.forEach(newWindow::add);
+        } else if (Objects.nonNull(registration.getExposedEpochs())) {
+            registration.getExposedEpochs().stream()
+                    .sorted(Comparator.comparingInt(EpochExposition::getEpochId))
+                    .forEach(epoch -> {
+                        List<Double> scores = Optional.ofNullable(epoch.getExpositionScores()).orElse(new ArrayList<>());
+                        double scoresSum = Optional.ofNullable(epoch.getScoresSum())
+                                .orElseGet(() -> scores.stream().mapToDouble(Double::doubleValue).sum());
+                        newWindow.add(epoch.getEpochId(), scoresSum, scores.size());
+                    });
+        }
+        registration.setTotalRiskSinceLatestRiskEpoch(null);
+        return newWindow;
+    }
+}
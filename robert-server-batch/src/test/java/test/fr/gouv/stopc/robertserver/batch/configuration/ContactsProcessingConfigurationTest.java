@@ -0,0 +1,143 @@
+package test.fr.gouv.stopc.robertserver.batch.configuration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
+import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.launch.support.SimpleJobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.support.MapJobRepositoryFactoryBean;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.crypto.grpc.server.client.service.ICryptoServerGrpcClient;
+import fr.gouv.stopc.robert.server.batch.configuration.ContactsProcessingConfiguration;
+import fr.gouv.stopc.robert.server.batch.coordination.ShardLeaseManager;
+import fr.gouv.stopc.robert.server.batch.federation.FederationSpool;
+import fr.gouv.stopc.robert.server.batch.model.BatchRunReport;
+import fr.gouv.stopc.robert.server.batch.service.ScoringStrategyService;
+import fr.gouv.stopc.robert.server.batch.utils.ContactDeduplicator;
+import fr.gouv.stopc.robert.server.batch.utils.ContactDeletionMode;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
+import fr.gouv.stopc.robert.server.batch.utils.PropertyLoader;
+import fr.gouv.stopc.robert.server.batch.utils.RegistrationLockProvider;
+import fr.gouv.stopc.robert.server.batch.utils.UnknownIdentifierCache;
+import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.service.ContactService;
+import fr.gouv.stopc.robertserver.database.service.IRegistrationService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(SpringExtension.class)
+public class ContactsProcessingConfigurationTest {
+
+    @Mock
+    private IServerConfigurationService serverConfigurationService;
+
+    @Mock
+    private IRegistrationService registrationService;
+
+    @Mock
+    private ContactService contactService;
+
+    @Mock
+    private ICryptoServerGrpcClient cryptoServerClient;
+
+    @Mock
+    private ScoringStrategyService scoringStrategyService;
+
+    @Mock
+    private PropertyLoader propertyLoader;
+
+    @Mock
+    private RegistrationLockProvider registrationLockProvider;
+
+    @Mock
+    private UnknownIdentifierCache unknownIdentifierCache;
+
+    @Mock
+    private FederationSpool federationSpool;
+
+    @Mock
+    private ContactDeduplicator contactDeduplicator;
+
+    @Mock
+    private ShardLeaseManager shardLeaseManager;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private ContactsProcessingConfiguration configuration;
+
+    private JobRepository jobRepository;
+
+    private StepBuilderFactory stepBuilderFactory;
+
+    @BeforeEach
+    public void before() throws Exception {
+        this.configuration = new ContactsProcessingConfiguration(this.serverConfigurationService,
+                this.registrationService, this.contactService, this.cryptoServerClient, this.scoringStrategyService,
+                this.propertyLoader, this.registrationLockProvider, this.unknownIdentifierCache,
+                new ContactProcessingMetrics(new SimpleMeterRegistry()), this.federationSpool,
+                this.contactDeduplicator, this.shardLeaseManager);
+        ResourcelessTransactionManager transactionManager = new ResourcelessTransactionManager();
+        MapJobRepositoryFactoryBean jobRepositoryFactory = new MapJobRepositoryFactoryBean(transactionManager);
+        jobRepositoryFactory.afterPropertiesSet();
+        this.jobRepository = jobRepositoryFactory.getObject();
+        this.stepBuilderFactory = new StepBuilderFactory(this.jobRepository, transactionManager);
+    }
+
+    @Test
+    public void testAFailingSpoolFlushKeepsTheContactsAndIsReportedWhenTheyAreRemovedAtTheEndOfTheRun()
+            throws Exception {
+        // Given
+        when(this.propertyLoader.getContactDeletionMode()).thenReturn(ContactDeletionMode.END_OF_RUN);
+        when(this.propertyLoader.getCursorBatchSize()).thenReturn(100);
+        when(this.mongoTemplate.getCollectionName(Contact.class)).thenReturn("contacts");
+        when(this.mongoTemplate.collectionExists("contacts")).thenReturn(true);
+        doAnswer(invocation -> {
+            invocation.getArgument(0, JobExecution.class).setStatus(BatchStatus.FAILED);
+            return null;
+        }).when(this.federationSpool).afterJob(any(JobExecution.class));
+        Step step = this.stepBuilderFactory.get("read")
+                .tasklet((contribution, chunkContext) -> RepeatStatus.FINISHED)
+                .build();
+        Job job = this.configuration.readReport(new JobBuilderFactory(this.jobRepository), step, step, step, step,
+                this.mongoTemplate);
+
+        // When
+        JobExecution jobExecution = launch(job);
+
+        // Then
+        assertEquals(BatchStatus.FAILED, jobExecution.getStatus());
+        verify(this.mongoTemplate, never()).getCollection(anyString());
+        ArgumentCaptor<BatchRunReport> report = ArgumentCaptor.forClass(BatchRunReport.class);
+        verify(this.mongoTemplate).save(report.capture());
+        assertEquals(BatchStatus.FAILED.name(), report.getValue().getStatus());
+    }
+
+    private JobExecution launch(Job job) throws Exception {
+        SimpleJobLauncher jobLauncher = new SimpleJobLauncher();
+        jobLauncher.setJobRepository(this.jobRepository);
+        jobLauncher.afterPropertiesSet();
+        return jobLauncher.run(job, new JobParameters());
+    }
+}
@@ -0,0 +1,185 @@
+package test.fr.gouv.stopc.robertserver.batch.coordination;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.server.batch.coordination.ShardLeaseManager;
+import fr.gouv.stopc.robert.server.batch.exception.ShardLeaseLostException;
+import fr.gouv.stopc.robert.server.batch.model.BatchNode;
+import fr.gouv.stopc.robert.server.batch.model.ShardLease;
+
+@ExtendWith(SpringExtension.class)
+public class ShardLeaseManagerTest {
+
+    private static final String NODE_ID = "node-1";
+
+    private static final int NB_OF_SHARDS = 16;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private ShardLeaseManager shardLeaseManager;
+
+    @AfterEach
+    public void after() {
+        if (this.shardLeaseManager != null) {
+            this.shardLeaseManager.destroy();
+        }
+    }
+
+    @Test
+    public void testDisabledManagerLeavesQueriesUnchanged() {
+        // Given
+        this.shardLeaseManager = new ShardLeaseManager(false, this.mongoTemplate, NODE_ID, NB_OF_SHARDS, 30000L, 10000L);
+        Query query = new Query();
+
+        // When
+        this.shardLeaseManager.rebalance();
+        Query restrictedQuery = this.shardLeaseManager.restrictToOwnedShards(query);
+
+        // Then
+        assertSame(query, restrictedQuery);
+        assertTrue(restrictedQuery.getQueryObject().isEmpty());
+        verifyNoInteractions(this.mongoTemplate);
+    }
+
+    @Test
+    public void testRebalanceTakesTheFairShareOfTheShards() {
+        // Given
+        this.shardLeaseManager = new ShardLeaseManager(true, this.mongoTemplate, NODE_ID, NB_OF_SHARDS, 30000L, 10000L);
+        when(this.mongoTemplate.count(any(Query.class), eq(BatchNode.class))).thenReturn(3L);
+        when(this.mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(ShardLease.class))).thenReturn(ShardLease.builder().owner(NODE_ID).build());
+
+        // When
+        this.shardLeaseManager.rebalance();
+
+        // Then
+        assertEquals(6, this.shardLeaseManager.getOwnedShards().size());
+    }
+
+    @Test
+    public void testRebalanceSkipsTheShardsHeldByOtherNodes() {
+        // Given
+        this.shardLeaseManager = new ShardLeaseManager(true, this.mongoTemplate, NODE_ID, NB_OF_SHARDS, 30000L, 10000L);
+        when(this.mongoTemplate.count(any(Query.class), eq(BatchNode.class))).thenReturn(1L);
+        when(this.mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(ShardLease.class))).thenThrow(new DuplicateKeyException("Lease held by another node"));
+
+        // When
+        this.shardLeaseManager.rebalance();
+        Query restrictedQuery = this.shardLeaseManager.restrictToOwnedShards(new Query());
+
+        // Then
+        assertTrue(this.shardLeaseManager.getOwnedShards().isEmpty());
+        Document shardCriteria = restrictedQuery.getQueryObject().getList("$and", Document.class).get(0)
+                .getList("$or", Document.class).get(0);
+        assertEquals(new Document("_id", new Document("$in", Collections.emptyList())), shardCriteria);
+    }
+
+    @Test
+    public void testExtraShardsAreOnlyGivenBackOnceTheChunksInProgressAreOver() throws InterruptedException {
+        // Given
+        this.shardLeaseManager = new ShardLeaseManager(true, this.mongoTemplate, NODE_ID, NB_OF_SHARDS, 3000L, 100L);
+        when(this.mongoTemplate.count(any(Query.class), eq(BatchNode.class))).thenReturn(1L, 4L);
+        when(this.mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(ShardLease.class))).thenReturn(ShardLease.builder().owner(NODE_ID).build());
+        when(this.mongoTemplate.find(any(Query.class), eq(ShardLease.class))).thenReturn(leases(NB_OF_SHARDS));
+        this.shardLeaseManager.rebalance();
+        this.shardLeaseManager.beforeChunk(null);
+        Thread.sleep(150L);
+
+        // When
+        this.shardLeaseManager.giveBackExtraShardsIfDue();
+
+        // Then
+        assertEquals(4, this.shardLeaseManager.getOwnedShards().size());
+        int extraShard = IntStream.range(0, NB_OF_SHARDS)
+                .filter(shard -> !this.shardLeaseManager.getOwnedShards().contains(shard))
+                .findFirst()
+                .getAsInt();
+        assertFalse(this.shardLeaseManager.isRead(extraShard));
+        verify(this.mongoTemplate, never()).remove(any(Query.class), eq(ShardLease.class));
+
+        // When
+        this.shardLeaseManager.afterChunk(null);
+
+        // Then
+        verify(this.mongoTemplate).remove(any(Query.class), eq(ShardLease.class));
+    }
+
+    @Test
+    public void testWriteFailsOnceALeaseIsLostUntilTheNextChunk() {
+        // Given
+        this.shardLeaseManager = new ShardLeaseManager(true, this.mongoTemplate, NODE_ID, NB_OF_SHARDS, 30000L, 10000L);
+        when(this.mongoTemplate.count(any(Query.class), eq(BatchNode.class))).thenReturn(1L);
+        when(this.mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(ShardLease.class))).thenReturn(ShardLease.builder().owner(NODE_ID).build());
+        this.shardLeaseManager.rebalance();
+        this.shardLeaseManager.beforeChunk(null);
+        when(this.mongoTemplate.find(any(Query.class), eq(ShardLease.class))).thenReturn(leases(NB_OF_SHARDS - 1));
+
+        // When
+        assertThrows(ShardLeaseLostException.class, () -> this.shardLeaseManager.beforeWrite(Collections.emptyList()));
+        this.shardLeaseManager.afterChunkError(null);
+        this.shardLeaseManager.beforeChunk(null);
+        this.shardLeaseManager.beforeWrite(Collections.emptyList());
+
+        // Then
+        assertEquals(NB_OF_SHARDS - 1, this.shardLeaseManager.getOwnedShards().size());
+        assertFalse(this.shardLeaseManager.isRead(NB_OF_SHARDS - 1));
+    }
+
+    @Test
+    public void testRestrictToOwnedShardsSelectsContactsByTimeOfInsertion() {
+        // Given
+        this.shardLeaseManager = new ShardLeaseManager(true, this.mongoTemplate, NODE_ID, NB_OF_SHARDS, 30000L, 10000L);
+        when(this.mongoTemplate.count(any(Query.class), eq(BatchNode.class))).thenReturn((long) NB_OF_SHARDS);
+        when(this.mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(ShardLease.class))).thenReturn(ShardLease.builder().owner(NODE_ID).build());
+        this.shardLeaseManager.rebalance();
+        int shard = this.shardLeaseManager.getOwnedShards().iterator().next();
+
+        // When
+        Query restrictedQuery = this.shardLeaseManager.restrictToOwnedShards(new Query());
+
+        // Then
+        Document shardCriteria = restrictedQuery.getQueryObject().getList("$and", Document.class).get(0)
+                .getList("$or", Document.class).get(0);
+        assertEquals(new Document("$mod", Arrays.asList(NB_OF_SHARDS, shard)),
+                shardCriteria.get("timeInsertion"));
+    }
+
+    private static List<ShardLease> leases(int nbOfShards) {
+        return IntStream.range(0, nbOfShards)
+                .mapToObj(shard -> ShardLease.builder().shard(shard).owner(NODE_ID).build())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,224 @@
+package test.fr.gouv.stopc.robertserver.batch.federation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.server.batch.exception.FederationSpoolException;
+import fr.gouv.stopc.robert.server.batch.federation.FederationSpool;
+import fr.gouv.stopc.robert.server.batch.model.FederationSpoolSegment;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.model.HelloMessageDetail;
+
+@ExtendWith(SpringExtension.class)
+public class FederationSpoolTest {
+
+    private static final byte COUNTRY_CODE = (byte) 0x21;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private FederationSpool spool;
+
+    @BeforeEach
+    public void before() {
+        // Each contact below takes 43 bytes: a segment is sealed every 3 contacts
+        this.spool = new FederationSpool(this.mongoTemplate, 100, 60000L);
+    }
+
+    @AfterEach
+    public void after() {
+        this.spool.destroy();
+    }
+
+    @Test
+    public void testSegmentIsOnlyWrittenOnceFullOrFlushed() {
+        // When
+        this.spool.append(COUNTRY_CODE, contact(1));
+        this.spool.append(COUNTRY_CODE, contact(2));
+
+        // Then
+        verify(this.mongoTemplate, never()).insert(any(FederationSpoolSegment.class));
+
+        // When
+        this.spool.append(COUNTRY_CODE, contact(3));
+        this.spool.append(COUNTRY_CODE, contact(4));
+        this.spool.flush();
+
+        // Then
+        ArgumentCaptor<FederationSpoolSegment> segments = ArgumentCaptor.forClass(FederationSpoolSegment.class);
+        verify(this.mongoTemplate, times(2)).insert(segments.capture());
+        assertEquals(3, segments.getAllValues().get(0).getNbOfRecords());
+        assertEquals(1, segments.getAllValues().get(1).getNbOfRecords());
+        assertEquals(Byte.toUnsignedInt(COUNTRY_CODE), segments.getAllValues().get(0).getCountryCode());
+        assertTrue(segments.getAllValues().get(0).getRecords().length < segments.getAllValues().get(0).getUncompressedSize());
+    }
+
+    @Test
+    public void testSegmentsArePerCountry() {
+        // When
+        this.spool.append(COUNTRY_CODE, contact(1));
+        this.spool.append((byte) 0x22, contact(2));
+        this.spool.flush();
+
+        // Then
+        ArgumentCaptor<FederationSpoolSegment> segments = ArgumentCaptor.forClass(FederationSpoolSegment.class);
+        verify(this.mongoTemplate, times(2)).insert(segments.capture());
+        assertEquals(1, segments.getAllValues().get(0).getNbOfRecords());
+        assertEquals(1, segments.getAllValues().get(1).getNbOfRecords());
+    }
+
+    @Test
+    public void testSegmentIsSealedOnceItReachesItsMaxAge() throws InterruptedException {
+        // Given
+        this.spool.destroy();
+        this.spool = new FederationSpool(this.mongoTemplate, 100, 500L);
+        Thread.sleep(300L);
+
+        // When
+        this.spool.append(COUNTRY_CODE, contact(1));
+
+        // Then
+        verify(this.mongoTemplate, never()).insert(any(FederationSpoolSegment.class));
+        verify(this.mongoTemplate, timeout(650L)).insert(any(FederationSpoolSegment.class));
+    }
+
+    @Test
+    public void testAppendFailsUntilTheSegmentsWhichFailedAreInserted() {
+        // Given
+        doThrow(new IllegalStateException("Database down"))
+                .doThrow(new IllegalStateException("Database down"))
+                .doReturn(null)
+                .when(this.mongoTemplate).insert(any(FederationSpoolSegment.class));
+        for (int i = 0; i < 3; i++) {
+            this.spool.append(COUNTRY_CODE, contact(i));
+        }
+
+        // When
+        assertThrows(FederationSpoolException.class, () -> this.spool.flush());
+
+        // Then
+        assertThrows(FederationSpoolException.class, () -> this.spool.append(COUNTRY_CODE, contact(3)));
+
+        // When
+        this.spool.flush();
+        this.spool.append(COUNTRY_CODE, contact(3));
+        this.spool.flush();
+
+        // Then
+        ArgumentCaptor<FederationSpoolSegment> segments = ArgumentCaptor.forClass(FederationSpoolSegment.class);
+        verify(this.mongoTemplate, times(4)).insert(segments.capture());
+        assertEquals(3, segments.getAllValues().get(2).getNbOfRecords());
+        assertEquals(1, segments.getAllValues().get(3).getNbOfRecords());
+    }
+
+    @Test
+    public void testRunFailsWhenTheSegmentsCannotBeInserted() {
+        // Given
+        when(this.mongoTemplate.insert(any(FederationSpoolSegment.class))).thenThrow(new IllegalStateException("Database down"));
+        this.spool.append(COUNTRY_CODE, contact(1));
+        JobExecution jobExecution = new JobExecution(1L);
+        jobExecution.setStatus(BatchStatus.COMPLETED);
+
+        // When
+        this.spool.afterJob(jobExecution);
+
+        // Then
+        assertEquals(BatchStatus.FAILED, jobExecution.getStatus());
+        assertTrue(jobExecution.getAllFailureExceptions().get(0) instanceof FederationSpoolException);
+    }
+
+    @Test
+    public void testIteratorGivesBackTheSpooledContacts() {
+        // Given
+        for (int i = 0; i < 4; i++) {
+            this.spool.append(COUNTRY_CODE, contact(i));
+        }
+        this.spool.flush();
+        ArgumentCaptor<FederationSpoolSegment> segments = ArgumentCaptor.forClass(FederationSpoolSegment.class);
+        verify(this.mongoTemplate, times(2)).insert(segments.capture());
+        when(this.mongoTemplate.stream(any(Query.class), eq(FederationSpoolSegment.class)))
+                .thenReturn(closeableIterator(segments.getAllValues()));
+
+        // When
+        Iterator<Contact> contacts = this.spool.iterator(COUNTRY_CODE);
+
+        // Then
+        for (int i = 0; i < 4; i++) {
+            assertTrue(contacts.hasNext());
+            Contact contact = contacts.next();
+            Contact expected = contact(i);
+            assertArrayEquals(expected.getEbid(), contact.getEbid());
+            assertArrayEquals(expected.getEcc(), contact.getEcc());
+            assertEquals(expected.getTimeInsertion(), contact.getTimeInsertion());
+            assertEquals(1, contact.getMessageDetails().size());
+            assertEquals(expected.getMessageDetails().get(0).getTimeCollectedOnDevice(),
+                    contact.getMessageDetails().get(0).getTimeCollectedOnDevice());
+            assertEquals(expected.getMessageDetails().get(0).getRssiCalibrated(),
+                    contact.getMessageDetails().get(0).getRssiCalibrated());
+            assertArrayEquals(expected.getMessageDetails().get(0).getMac(), contact.getMessageDetails().get(0).getMac());
+        }
+        assertFalse(contacts.hasNext());
+    }
+
+    private static Contact contact(int i) {
+        return Contact.builder()
+                .ebid(new byte[] { 1, 2, 3, 4, 5, 6, 7, (byte) i })
+                .ecc(new byte[] { COUNTRY_CODE })
+                .timeInsertion(1000L + i)
+                .messageDetails(Collections.singletonList(HelloMessageDetail.builder()
+                        .timeCollectedOnDevice(3800000000L + i)
+                        .timeFromHelloMessage(12345)
+                        .rssiCalibrated(-70 + i)
+                        .mac(new byte[] { 9, 9, 9, 9, 9, (byte) i })
+                        .build()))
+                .build();
+    }
+
+    private static CloseableIterator<FederationSpoolSegment> closeableIterator(List<FederationSpoolSegment> segments) {
+        Iterator<FederationSpoolSegment> iterator = segments.iterator();
+        return new CloseableIterator<FederationSpoolSegment>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public FederationSpoolSegment next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,239 @@
+package test.fr.gouv.stopc.robertserver.batch.listener;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
+import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.launch.support.SimpleJobLauncher;
+import org.springframework.batch.core.partition.support.SimplePartitioner;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.support.MapJobRepositoryFactoryBean;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.server.batch.listener.BatchRunReportJobListener;
+import fr.gouv.stopc.robert.server.batch.model.BatchRunReport;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics.RejectionReason;
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.core.instrument.simple.SimpleConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(SpringExtension.class)
+public class BatchRunReportJobListenerTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private ContactProcessingMetrics metrics;
+
+    private BatchRunReportJobListener listener;
+
+    @BeforeEach
+    public void before() {
+        this.metrics = new ContactProcessingMetrics(new SimpleMeterRegistry());
+        this.listener = new BatchRunReportJobListener(this.mongoTemplate, this.metrics);
+    }
+
+    @Test
+    public void testReportOnlyCountsTheContactsOfTheRun() {
+        // Given
+        this.metrics.contactReceived();
+        this.metrics.contactsRejected(RejectionReason.TIME_TOLERANCE, 1);
+        JobExecution jobExecution = new JobExecution(1L);
+        jobExecution.setStartTime(new Date(0L));
+
+        // When
+        this.listener.beforeJob(jobExecution);
+        for (int i = 0; i < 4; i++) {
+            this.metrics.contactReceived();
+        }
+        this.metrics.contactsAccepted(1);
+        this.metrics.contactsRejected(RejectionReason.TIME_TOLERANCE, 1);
+        this.metrics.contactsRejected(RejectionReason.UNKNOWN_REGISTRATION, 2);
+        jobExecution.setEndTime(new Date(2000L));
+        jobExecution.setStatus(BatchStatus.COMPLETED);
+        this.listener.afterJob(jobExecution);
+
+        // Then
+        ArgumentCaptor<BatchRunReport> report = ArgumentCaptor.forClass(BatchRunReport.class);
+        verify(this.mongoTemplate).save(report.capture());
+        assertEquals("COMPLETED", report.getValue().getStatus());
+        assertEquals(2000L, report.getValue().getDurationMillis());
+        assertEquals(4L, report.getValue().getNbOfContacts());
+        assertEquals(1L, report.getValue().getNbOfAcceptedContacts());
+        assertEquals(2.0, report.getValue().getContactsPerSecond());
+        assertEquals(1L, report.getValue().getNbOfRejectedContacts().get(RejectionReason.TIME_TOLERANCE.name()));
+        assertEquals(2L, report.getValue().getNbOfRejectedContacts().get(RejectionReason.UNKNOWN_REGISTRATION.name()));
+        assertEquals(0L, report.getValue().getNbOfRejectedContacts().get(RejectionReason.CRYPTO_FAILURE.name()));
+    }
+
+    @Test
+    public void testReportGivesTheMeanLatencyOfTheRun() {
+        // Given
+        JobExecution jobExecution = new JobExecution(1L);
+        this.listener.beforeJob(jobExecution);
+
+        // When
+        this.metrics.getRegistrationSaveTimer().record(10, TimeUnit.MILLISECONDS);
+        this.metrics.getRegistrationSaveTimer().record(30, TimeUnit.MILLISECONDS);
+        jobExecution.setStatus(BatchStatus.COMPLETED);
+        BatchRunReport report = this.listener.buildReport(jobExecution);
+
+        // Then
+        assertEquals(20.0, report.getMeanLatenciesMillis().get(ContactProcessingMetrics.REGISTRATION_SAVE));
+        assertEquals(0.0, report.getMeanLatenciesMillis().get(ContactProcessingMetrics.CRYPTO_VALIDATION));
+    }
+
+    @Test
+    public void testReportGivesThePercentilesOfTheRunOnly() {
+        // Given
+        JobExecution previousJobExecution = new JobExecution(1L);
+        this.listener.beforeJob(previousJobExecution);
+        for (int i = 0; i < 100; i++) {
+            this.metrics.getRegistrationSaveTimer().record(1000, TimeUnit.MILLISECONDS);
+        }
+        this.listener.buildReport(previousJobExecution);
+        JobExecution jobExecution = new JobExecution(2L);
+
+        // When
+        this.listener.beforeJob(jobExecution);
+        for (int i = 0; i < 100; i++) {
+            this.metrics.getRegistrationSaveTimer().record(10, TimeUnit.MILLISECONDS);
+        }
+        BatchRunReport report = this.listener.buildReport(jobExecution);
+
+        // Then
+        assertTrue(report.getP95LatenciesMillis().get(ContactProcessingMetrics.REGISTRATION_SAVE) < 20.0);
+        assertEquals(10.0, report.getMeanLatenciesMillis().get(ContactProcessingMetrics.REGISTRATION_SAVE));
+        assertEquals(200L, this.metrics.getTimers().get(ContactProcessingMetrics.REGISTRATION_SAVE).count());
+    }
+
+    @Test
+    public void testContactsPerSecondIsKeptOnceTheRunIsOver() {
+        // Given
+        MockClock clock = new MockClock();
+        this.metrics = new ContactProcessingMetrics(new SimpleMeterRegistry(SimpleConfig.DEFAULT, clock));
+        this.listener = new BatchRunReportJobListener(this.mongoTemplate, this.metrics);
+        JobExecution jobExecution = new JobExecution(1L);
+        this.listener.beforeJob(jobExecution);
+
+        // When
+        for (int i = 0; i < 10; i++) {
+            this.metrics.contactReceived();
+        }
+        clock.add(2, TimeUnit.SECONDS);
+        double contactsPerSecondDuringRun = this.metrics.getContactsPerSecond();
+        jobExecution.setStatus(BatchStatus.COMPLETED);
+        this.listener.afterJob(jobExecution);
+        clock.add(8, TimeUnit.SECONDS);
+
+        // Then
+        assertEquals(5.0, contactsPerSecondDuringRun);
+        assertEquals(5.0, this.metrics.getContactsPerSecond());
+    }
+
+    @Test
+    public void testContactsReadByAPartitionedStepAreCountedOnce() throws Exception {
+        // Given a step of 2 partitions of 3 contacts each
+        ResourcelessTransactionManager transactionManager = new ResourcelessTransactionManager();
+        MapJobRepositoryFactoryBean jobRepositoryFactory = new MapJobRepositoryFactoryBean(transactionManager);
+        jobRepositoryFactory.afterPropertiesSet();
+        JobRepository jobRepository = jobRepositoryFactory.getObject();
+        StepBuilderFactory stepBuilderFactory = new StepBuilderFactory(jobRepository, transactionManager);
+        Step workerStep = stepBuilderFactory.get("workerStep")
+                .<String, String>chunk(2)
+                .reader(new ContactIdsReader(3))
+                .writer(items -> {
+                })
+                .build();
+        Step managerStep = stepBuilderFactory.get("managerStep")
+                .partitioner("workerStep", new SimplePartitioner())
+                .step(workerStep)
+                .gridSize(2)
+                .build();
+        Job job = new JobBuilderFactory(jobRepository).get("job")
+                .listener(this.listener)
+                .start(managerStep)
+                .build();
+        SimpleJobLauncher jobLauncher = new SimpleJobLauncher();
+        jobLauncher.setJobRepository(jobRepository);
+        jobLauncher.afterPropertiesSet();
+
+        // When
+        JobExecution jobExecution = jobLauncher.run(job, new JobParameters());
+
+        // Then
+        assertEquals(BatchStatus.COMPLETED, jobExecution.getStatus());
+        ArgumentCaptor<BatchRunReport> report = ArgumentCaptor.forClass(BatchRunReport.class);
+        verify(this.mongoTemplate).save(report.capture());
+        assertEquals(6L, report.getValue().getNbOfContactsRead());
+    }
+
+    @Test
+    public void testRunIsNotFailedWhenTheReportCannotBeSaved() {
+        // Given
+        when(this.mongoTemplate.save(any(BatchRunReport.class))).thenThrow(new IllegalStateException("Database down"));
+        JobExecution jobExecution = new JobExecution(1L);
+        this.listener.beforeJob(jobExecution);
+        jobExecution.setStatus(BatchStatus.FAILED);
+
+        // When
+        this.listener.afterJob(jobExecution);
+
+        // Then
+        verify(this.mongoTemplate).save(any(BatchRunReport.class));
+    }
+
+    /**
+     * Read a given number of contact ids from each partition it is opened for
+     */
+    private static class ContactIdsReader implements ItemStreamReader<String> {
+
+        private final int nbOfContacts;
+
+        private int nbOfContactsLeft;
+
+        private ContactIdsReader(int nbOfContacts) {
+            this.nbOfContacts = nbOfContacts;
+        }
+
+        @Override
+        public void open(ExecutionContext executionContext) {
+            this.nbOfContactsLeft = this.nbOfContacts;
+        }
+
+        @Override
+        public String read() {
+            return this.nbOfContactsLeft > 0 ? "contact" + this.nbOfContactsLeft-- : null;
+        }
+
+        @Override
+        public void update(ExecutionContext executionContext) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package test.fr.gouv.stopc.robertserver.batch.listener;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.ListIndexesIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+
+import fr.gouv.stopc.robert.server.batch.listener.ProcessedContactsCleanupJobListener;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+
+@ExtendWith(SpringExtension.class)
+public class ProcessedContactsCleanupJobListenerTest {
+
+    private static final String COLLECTION_NAME = "CONTACTS_TO_PROCESS";
+
+    private static final String ROTATED_COLLECTION_NAME = "CONTACTS_TO_PROCESS_1";
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private MongoDatabase database;
+
+    @Mock
+    private MongoCollection<Document> collection;
+
+    @Mock
+    private MongoCollection<Document> rotatedCollection;
+
+    private ProcessedContactsCleanupJobListener listener;
+
+    @BeforeEach
+    public void before() {
+        when(this.mongoTemplate.getCollectionName(Contact.class)).thenReturn(COLLECTION_NAME);
+        when(this.mongoTemplate.collectionExists(COLLECTION_NAME)).thenReturn(true);
+        when(this.mongoTemplate.getDb()).thenReturn(this.database);
+        when(this.database.getName()).thenReturn("robert");
+        when(this.mongoTemplate.getCollection(COLLECTION_NAME)).thenReturn(this.collection);
+        when(this.mongoTemplate.getCollection(ROTATED_COLLECTION_NAME)).thenReturn(this.rotatedCollection);
+
+        this.listener = new ProcessedContactsCleanupJobListener(this.mongoTemplate, 2);
+    }
+
+    @Test
+    public void testProcessedContactsAreKeptWhenRunFails() {
+        // Given
+        JobExecution jobExecution = new JobExecution(1L);
+        jobExecution.setStatus(BatchStatus.FAILED);
+
+        // When
+        this.listener.afterJob(jobExecution);
+
+        // Then
+        verify(this.collection, never()).renameCollection(any(MongoNamespace.class));
+        verify(this.mongoTemplate, never()).dropCollection(any(String.class));
+    }
+
+    @Test
+    public void testUnprocessedContactsAreCopiedInBatchesToNewCollectionWithIndexes() {
+        // Given
+        mockIndexes(Arrays.asList(
+                new Document("v", 2).append("key", new Document("_id", 1)).append("name", "_id_"),
+                new Document("v", 2).append("key", new Document("timeInsertion", 1)).append("name", "timeInsertion")
+                        .append("ns", "robert." + COLLECTION_NAME)));
+        mockUnprocessedContacts(Arrays.asList(new Document("_id", "1"), new Document("_id", "2"),
+                new Document("_id", "3")));
+        List<List<Document>> insertedBatches = new ArrayList<>();
+        doAnswer(invocation -> {
+            insertedBatches.add(new ArrayList<>(invocation.getArgument(0)));
+            return null;
+        }).when(this.collection).insertMany(any());
+        JobExecution jobExecution = new JobExecution(1L);
+        jobExecution.setStatus(BatchStatus.COMPLETED);
+
+        // When
+        this.listener.afterJob(jobExecution);
+
+        // Then
+        verify(this.collection).renameCollection(new MongoNamespace("robert", ROTATED_COLLECTION_NAME));
+
+        ArgumentCaptor<Bson> command = ArgumentCaptor.forClass(Bson.class);
+        verify(this.database).runCommand(command.capture());
+        assertEquals(new Document("createIndexes", COLLECTION_NAME).append("indexes", Collections.singletonList(
+                new Document("v", 2).append("key", new Document("timeInsertion", 1)).append("name", "timeInsertion"))),
+                command.getValue());
+
+        assertEquals(Arrays.asList(
+                Arrays.asList(new Document("_id", "1"), new Document("_id", "2")),
+                Collections.singletonList(new Document("_id", "3"))),
+                insertedBatches);
+        verify(this.mongoTemplate).dropCollection(ROTATED_COLLECTION_NAME);
+    }
+
+    @Test
+    public void testIndexesAreNotCreatedWhenCollectionOnlyHasTheIdOne() {
+        // Given
+        mockIndexes(Collections.singletonList(new Document("v", 2).append("key", new Document("_id", 1))
+                .append("name", "_id_")));
+        mockUnprocessedContacts(Collections.emptyList());
+        JobExecution jobExecution = new JobExecution(1L);
+        jobExecution.setStatus(BatchStatus.COMPLETED);
+
+        // When
+        this.listener.afterJob(jobExecution);
+
+        // Then
+        verify(this.database, never()).runCommand(any(Bson.class));
+        verify(this.collection, never()).insertMany(any());
+        verify(this.mongoTemplate).dropCollection(ROTATED_COLLECTION_NAME);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockIndexes(List<Document> indexes) {
+        ListIndexesIterable<Document> listIndexes = mock(ListIndexesIterable.class);
+        when(listIndexes.iterator()).thenAnswer(invocation -> cursorOf(indexes));
+        when(this.collection.listIndexes()).thenReturn(listIndexes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockUnprocessedContacts(List<Document> contacts) {
+        FindIterable<Document> find = mock(FindIterable.class);
+        when(find.batchSize(anyInt())).thenReturn(find);
+        when(find.iterator()).thenAnswer(invocation -> cursorOf(contacts));
+        when(this.rotatedCollection.find(any(Bson.class))).thenReturn(find);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MongoCursor<Document> cursorOf(List<Document> documents) {
+        Iterator<Document> iterator = documents.iterator();
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(cursor.next()).thenAnswer(invocation -> iterator.next());
+        return cursor;
+    }
+}
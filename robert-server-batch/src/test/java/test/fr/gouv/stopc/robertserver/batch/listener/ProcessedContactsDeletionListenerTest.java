@@ -0,0 +1,65 @@
+package test.fr.gouv.stopc.robertserver.batch.listener;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.server.batch.listener.ProcessedContactsDeletionListener;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.service.ContactService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(SpringExtension.class)
+public class ProcessedContactsDeletionListenerTest {
+
+    @Mock
+    private ContactService contactService;
+
+    private ProcessedContactsDeletionListener<Contact> listener;
+
+    @BeforeEach
+    public void before() {
+        this.listener = new ProcessedContactsDeletionListener<>(this.contactService,
+                new ContactProcessingMetrics(new SimpleMeterRegistry()), Contact::getId);
+    }
+
+    @Test
+    public void testContactsReadInChunkAreRemovedAtOnceAfterChunk() {
+        // Given
+        this.listener.beforeChunk(null);
+        this.listener.afterRead(Contact.builder().id("1").build());
+        this.listener.afterRead(Contact.builder().id("2").build());
+
+        // When
+        this.listener.afterChunk(null);
+
+        // Then
+        verify(this.contactService).deleteAllByIds(Arrays.asList("1", "2"));
+        verify(this.contactService, never()).delete(any());
+    }
+
+    @Test
+    public void testContactsOfFailedChunkAreKept() {
+        // Given
+        this.listener.beforeChunk(null);
+        this.listener.afterRead(Contact.builder().id("1").build());
+
+        // When
+        this.listener.afterChunkError(null);
+        this.listener.beforeChunk(null);
+        this.listener.afterRead(Contact.builder().id("2").build());
+        this.listener.afterChunk(null);
+
+        // Then
+        verify(this.contactService).deleteAllByIds(Arrays.asList("2"));
+    }
+}
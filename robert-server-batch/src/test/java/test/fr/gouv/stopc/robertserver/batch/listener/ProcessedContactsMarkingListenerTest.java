@@ -0,0 +1,80 @@
+package test.fr.gouv.stopc.robertserver.batch.listener;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.server.batch.listener.ProcessedContactsMarkingListener;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(SpringExtension.class)
+public class ProcessedContactsMarkingListenerTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private ProcessedContactsMarkingListener<Contact> listener;
+
+    @BeforeEach
+    public void before() {
+        this.listener = new ProcessedContactsMarkingListener<>(this.mongoTemplate,
+                new ContactProcessingMetrics(new SimpleMeterRegistry()), Contact::getId);
+    }
+
+    @Test
+    public void testContactsReadInChunkAreFlaggedAtOnceAfterChunk() {
+        // Given
+        this.listener.beforeChunk(null);
+        this.listener.afterRead(Contact.builder().id("1").build());
+        this.listener.afterRead(Contact.builder().id("2").build());
+
+        // When
+        this.listener.afterChunk(null);
+
+        // Then
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(this.mongoTemplate).updateMulti(query.capture(), update.capture(), eq(Contact.class));
+        assertEquals(Document.parse("{_id: {$in: ['1', '2']}}"), query.getValue().getQueryObject());
+        assertEquals(Document.parse("{$set: {processed: true}}"), update.getValue().getUpdateObject());
+    }
+
+    @Test
+    public void testContactsOfFailedChunkAreNotFlagged() {
+        // Given
+        this.listener.beforeChunk(null);
+        this.listener.afterRead(Contact.builder().id("1").build());
+
+        // When
+        this.listener.afterChunkError(null);
+        this.listener.beforeChunk(null);
+        this.listener.afterChunk(null);
+
+        // Then
+        verify(this.mongoTemplate, never()).updateMulti(any(Query.class), any(Update.class), eq(Contact.class));
+    }
+
+    @Test
+    public void testProcessedContactsAreExcludedFromQuery() {
+        // When
+        Query query = ProcessedContactsMarkingListener.excludeProcessedContacts(new Query());
+
+        // Then
+        assertEquals(Document.parse("{processed: {$ne: true}}"), query.getQueryObject());
+    }
+}
@@ -0,0 +1,80 @@
+package test.fr.gouv.stopc.robertserver.batch.partitioner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.server.batch.partitioner.ContactTimeInsertionPartitioner;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+
+@ExtendWith(SpringExtension.class)
+public class ContactTimeInsertionPartitionerTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private ContactTimeInsertionPartitioner partitioner;
+
+    @BeforeEach
+    public void before() {
+        this.partitioner = new ContactTimeInsertionPartitioner(this.mongoTemplate);
+    }
+
+    @Test
+    public void testPartitionWhenNoContactReturnsSinglePartition() {
+        // When
+        Map<String, ExecutionContext> partitions = this.partitioner.partition(4);
+
+        // Then
+        assertEquals(1, partitions.size());
+        ExecutionContext context = partitions.get(ContactTimeInsertionPartitioner.PARTITION_PREFIX + 0);
+        assertEquals(Long.MIN_VALUE, context.getLong(ContactTimeInsertionPartitioner.MIN_TIME_INSERTION_KEY));
+        assertEquals(Long.MAX_VALUE, context.getLong(ContactTimeInsertionPartitioner.MAX_TIME_INSERTION_KEY));
+    }
+
+    @Test
+    public void testPartitionSplitsInsertionTimesInContiguousRanges() {
+        // Given
+        when(this.mongoTemplate.findOne(any(Query.class), eq(Contact.class)))
+                .thenReturn(Contact.builder().timeInsertion(1000L).build())
+                .thenReturn(Contact.builder().timeInsertion(1999L).build());
+
+        // When
+        Map<String, ExecutionContext> partitions = this.partitioner.partition(4);
+
+        // Then
+        assertEquals(4, partitions.size());
+        long previousUpperBound = Long.MIN_VALUE;
+        for (int i = 0; i < 4; i++) {
+            ExecutionContext context = partitions.get(ContactTimeInsertionPartitioner.PARTITION_PREFIX + i);
+            long lowerBound = context.getLong(ContactTimeInsertionPartitioner.MIN_TIME_INSERTION_KEY);
+            long upperBound = context.getLong(ContactTimeInsertionPartitioner.MAX_TIME_INSERTION_KEY);
+            assertEquals(previousUpperBound, i == 0 ? Long.MIN_VALUE : lowerBound);
+            assertTrue(lowerBound < upperBound);
+            previousUpperBound = upperBound;
+        }
+        assertEquals(Long.MAX_VALUE, previousUpperBound);
+    }
+
+    @Test
+    public void testFirstPartitionQueryIncludesContactsWithoutInsertionTime() {
+        // When
+        Query query = ContactTimeInsertionPartitioner.buildPartitionQuery(Long.MIN_VALUE, 1500L);
+
+        // Then
+        assertTrue(query.getQueryObject().containsKey("$or"));
+    }
+}
@@ -0,0 +1,90 @@
+package test.fr.gouv.stopc.robertserver.batch.policy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.repeat.RepeatContext;
+import org.springframework.batch.repeat.RepeatStatus;
+
+import fr.gouv.stopc.robert.server.batch.policy.AdaptiveChunkCompletionPolicy;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class AdaptiveChunkCompletionPolicyTest {
+
+    private MeterRegistry meterRegistry;
+
+    private AdaptiveChunkCompletionPolicy policy;
+
+    @BeforeEach
+    public void before() {
+        this.meterRegistry = new SimpleMeterRegistry();
+        // 1 s per chunk, between 100 and 10000 items
+        this.policy = new AdaptiveChunkCompletionPolicy(100, 1000, 10000, 1000L, 0.75, this.meterRegistry);
+    }
+
+    @Test
+    public void testChunkIsCompleteOnceItsSizeIsReached() {
+        // Given
+        RepeatContext context = this.policy.start(null);
+
+        // When
+        for (int i = 0; i < 999; i++) {
+            this.policy.update(context);
+        }
+
+        // Then
+        assertFalse(this.policy.isComplete(context, RepeatStatus.CONTINUABLE));
+        this.policy.update(context);
+        assertTrue(this.policy.isComplete(context, RepeatStatus.CONTINUABLE));
+        assertTrue(this.policy.isComplete(this.policy.start(null), RepeatStatus.FINISHED));
+    }
+
+    @Test
+    public void testChunkSizeMovesTowardsTheTargetDuration() {
+        // When - chunks of 1000 items taking 100 ms: 10000 items would take 1 s
+        int grownChunkSize = this.policy.adjust(1000, TimeUnit.MILLISECONDS.toNanos(100), 0.1);
+
+        // Then
+        assertEquals(5500, grownChunkSize);
+        assertEquals(5500.0, this.meterRegistry.get(AdaptiveChunkCompletionPolicy.CHUNK_SIZE).gauge().value());
+
+        // When - chunks of 5500 items taking 11 s: 500 items would take 1 s
+        int shrunkChunkSize = this.policy.adjust(5500, TimeUnit.SECONDS.toNanos(11), 0.1);
+
+        // Then
+        assertEquals(3000, shrunkChunkSize);
+    }
+
+    @Test
+    public void testChunkSizeIsHalvedUnderHeapPressure() {
+        // When - chunks fast enough to grow, but with the heap almost full
+        int chunkSize = this.policy.adjust(1000, TimeUnit.MILLISECONDS.toNanos(100), 0.9);
+
+        // Then
+        assertEquals(500, chunkSize);
+    }
+
+    @Test
+    public void testChunkSizeStaysWithinItsBounds() {
+        // When - 1 item per second, then 1 ns per item
+        int minChunkSize = this.policy.adjust(1, TimeUnit.SECONDS.toNanos(1), 0.1);
+        for (int i = 0; i < 10; i++) {
+            minChunkSize = this.policy.adjust(1, TimeUnit.SECONDS.toNanos(1), 0.1);
+        }
+        int maxChunkSize = 0;
+        for (int i = 0; i < 20; i++) {
+            maxChunkSize = this.policy.adjust(1000, 1000L, 0.1);
+        }
+
+        // Then
+        assertEquals(100, minChunkSize);
+        assertEquals(10000, maxChunkSize);
+        assertEquals(10000, this.policy.getChunkSize());
+    }
+}
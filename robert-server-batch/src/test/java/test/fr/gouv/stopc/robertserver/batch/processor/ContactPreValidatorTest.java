@@ -0,0 +1,126 @@
+package test.fr.gouv.stopc.robertserver.batch.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fr.gouv.stopc.robert.server.batch.model.ContactView;
+import fr.gouv.stopc.robert.server.batch.processor.ContactPreValidator;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics.RejectionReason;
+import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
+import fr.gouv.stopc.robert.server.common.service.impl.ServerConfigurationServiceImpl;
+import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.model.HelloMessageDetail;
+
+public class ContactPreValidatorTest {
+
+    private IServerConfigurationService serverConfigurationService;
+
+    private ContactPreValidator preValidator;
+
+    private long currentTime;
+
+    @BeforeEach
+    public void before() {
+        this.serverConfigurationService = new ServerConfigurationServiceImpl();
+        this.preValidator = new ContactPreValidator(this.serverConfigurationService, 3);
+        this.currentTime = TimeUtils.convertUnixMillistoNtpSeconds(System.currentTimeMillis());
+    }
+
+    @Test
+    public void testWellFormedRecentContactPasses() {
+        assertNull(this.preValidator.check(contact(message(this.currentTime), message(this.currentTime - 60))));
+    }
+
+    @Test
+    public void testContactWithoutOrWithTooManyMessagesIsRejected() {
+        assertEquals(RejectionReason.NO_MESSAGES, this.preValidator.check(contact()));
+        assertEquals(RejectionReason.TOO_MANY_MESSAGES, this.preValidator.check(contact(message(this.currentTime),
+                message(this.currentTime), message(this.currentTime), message(this.currentTime))));
+    }
+
+    @Test
+    public void testContactWithIdentifiersOfTheWrongSizeIsRejected() {
+        ContactView contact = contact(message(this.currentTime));
+        contact.setEbid(new byte[7]);
+        assertEquals(RejectionReason.MALFORMED_CONTACT, this.preValidator.check(contact));
+
+        contact = contact(message(this.currentTime));
+        contact.setEcc(null);
+        assertEquals(RejectionReason.MALFORMED_CONTACT, this.preValidator.check(contact));
+
+        HelloMessageDetail messageDetail = message(this.currentTime);
+        messageDetail.setMac(new byte[32]);
+        assertEquals(RejectionReason.MALFORMED_HELLO_MESSAGE, this.preValidator.check(contact(messageDetail)));
+
+        messageDetail = message(this.currentTime);
+        messageDetail.setTimeFromHelloMessage(null);
+        assertEquals(RejectionReason.MALFORMED_HELLO_MESSAGE, this.preValidator.check(contact(messageDetail)));
+    }
+
+    @Test
+    public void testMessageWithoutRssiPasses() {
+        // Given
+        HelloMessageDetail messageDetail = message(this.currentTime);
+        messageDetail.setRssiCalibrated(null);
+
+        // When
+        ContactView contact = contact(messageDetail);
+
+        // Then
+        assertNull(this.preValidator.check(contact));
+        assertEquals(0, contact.getRssiCalibrated(0));
+    }
+
+    @Test
+    public void testMessageOutOfTheTimeToleranceIsRejected() {
+        // Given
+        HelloMessageDetail messageDetail = message(this.currentTime);
+        int tolerance = this.serverConfigurationService.getHelloMessageTimeStampTolerance();
+        messageDetail.setTimeFromHelloMessage((int) ((this.currentTime - tolerance - 1) & 0xFFFF));
+
+        // When - Then
+        assertEquals(RejectionReason.TIME_TOLERANCE, this.preValidator.check(contact(messageDetail)));
+    }
+
+    @Test
+    public void testMessageCollectedOutOfTheContagiousPeriodIsRejected() {
+        // Given
+        long contagiousPeriodSecs = this.serverConfigurationService.getContagiousPeriod() * 24 * 3600L;
+        long epochDurationSecs = this.serverConfigurationService.getEpochDurationSecs();
+
+        // When - Then
+        assertNull(this.preValidator.check(contact(message(this.currentTime - contagiousPeriodSecs))));
+        assertEquals(RejectionReason.OUTSIDE_CONTAGIOUS_PERIOD, this.preValidator.check(
+                contact(message(this.currentTime - contagiousPeriodSecs - 3 * epochDurationSecs))));
+        assertEquals(RejectionReason.OUTSIDE_CONTAGIOUS_PERIOD, this.preValidator.check(
+                contact(message(this.currentTime + 3 * epochDurationSecs))));
+    }
+
+    private static ContactView contact(HelloMessageDetail... messageDetails) {
+        List<HelloMessageDetail> messages = messageDetails.length == 0 ? Collections.emptyList()
+                : new ArrayList<>(Arrays.asList(messageDetails));
+        return ContactView.of(Contact.builder()
+                .ebid(new byte[ContactPreValidator.EBID_SIZE])
+                .ecc(new byte[ContactPreValidator.ECC_SIZE])
+                .messageDetails(messages)
+                .build());
+    }
+
+    private static HelloMessageDetail message(long timeCollectedOnDevice) {
+        return HelloMessageDetail.builder()
+                .timeCollectedOnDevice(timeCollectedOnDevice)
+                .timeFromHelloMessage((int) (timeCollectedOnDevice & 0xFFFF))
+                .mac(new byte[ContactPreValidator.MAC_SIZE])
+                .rssiCalibrated(-70)
+                .build();
+    }
+}
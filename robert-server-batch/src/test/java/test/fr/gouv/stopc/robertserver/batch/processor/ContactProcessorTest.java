@@ -2,12 +2,12 @@ package test.fr.gouv.stopc.robertserver.batch.processor;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -15,13 +15,14 @@ import java.security.Key;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
 
 import com.google.protobuf.ByteString;
-import fr.gouv.stopc.robert.crypto.grpc.server.messaging.GetInfoFromHelloMessageResponse;
 import fr.gouv.stopc.robert.server.crypto.structure.CryptoAES;
 import fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoAESECB;
 import fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoSkinny64;
@@ -31,6 +32,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.ContextConfiguration;
@@ -41,11 +43,21 @@ import org.springframework.util.CollectionUtils;
 import com.google.protobuf.ByteString;
 
 import fr.gouv.stopc.robert.crypto.grpc.server.client.service.ICryptoServerGrpcClient;
-import fr.gouv.stopc.robert.crypto.grpc.server.messaging.GetInfoFromHelloMessageResponse;
+import fr.gouv.stopc.robert.crypto.grpc.server.messaging.ValidateContactRequest;
+import fr.gouv.stopc.robert.crypto.grpc.server.messaging.ValidateContactResponse;
 import fr.gouv.stopc.robert.server.batch.RobertServerBatchApplication;
+import fr.gouv.stopc.robert.server.batch.federation.FederationSpool;
+import fr.gouv.stopc.robert.server.batch.listener.ProcessedContactsDeletionListener;
+import fr.gouv.stopc.robert.server.batch.model.ContactExposure;
+import fr.gouv.stopc.robert.server.batch.processor.ContactPreValidator;
 import fr.gouv.stopc.robert.server.batch.processor.ContactProcessor;
 import fr.gouv.stopc.robert.server.batch.service.ScoringStrategyService;
+import fr.gouv.stopc.robert.server.batch.utils.ContactDeduplicator;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
 import fr.gouv.stopc.robert.server.batch.utils.PropertyLoader;
+import fr.gouv.stopc.robert.server.batch.utils.RegistrationLockProvider;
+import fr.gouv.stopc.robert.server.batch.utils.UnknownIdentifierCache;
+import fr.gouv.stopc.robert.server.batch.writer.RegistrationExposureWriter;
 import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
 import fr.gouv.stopc.robert.server.common.utils.ByteUtils;
 import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
@@ -59,6 +71,7 @@ import fr.gouv.stopc.robertserver.database.model.HelloMessageDetail;
 import fr.gouv.stopc.robertserver.database.model.Registration;
 import fr.gouv.stopc.robertserver.database.service.ContactService;
 import fr.gouv.stopc.robertserver.database.service.IRegistrationService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.crypto.spec.SecretKeySpec;
@@ -89,6 +102,13 @@ public class ContactProcessorTest {
 
 	private ContactProcessor contactProcessor;
 
+	private RegistrationExposureWriter registrationExposureWriter;
+
+	private ProcessedContactsDeletionListener<Contact> processedContactsDeletionListener;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
 	private Optional<Registration> registration;
 
 	@Autowired
@@ -97,6 +117,12 @@ public class ContactProcessorTest {
 	@Autowired
     private PropertyLoader propertyLoader;
 
+	@Autowired
+	private FederationSpool federationSpool;
+
+	@Autowired
+	private ContactDeduplicator contactDeduplicator;
+
 	private byte[] serverKey;
 	private Key federationKey;
 	private byte countryCode;
@@ -116,15 +142,32 @@ public class ContactProcessorTest {
 		this.federationKey = new SecretKeySpec(this.generateKey(32), CryptoAES.AES_ENCRYPTION_KEY_SCHEME);
 		this.countryCode = this.serverConfigurationService.getServerCountryCode();
 
+		UnknownIdentifierCache unknownIdentifierCache = new UnknownIdentifierCache();
+		ContactProcessingMetrics metrics = new ContactProcessingMetrics(new SimpleMeterRegistry());
+
 		this.contactProcessor = new ContactProcessor(
 				serverConfigurationService,
-				registrationService,
-				contactService,
 				cryptoServerClient,
-				scoringStrategyService,
-				propertyLoader
+				unknownIdentifierCache,
+				metrics,
+				federationSpool,
+				contactDeduplicator,
+				new ContactPreValidator(serverConfigurationService, propertyLoader.getPrevalidationMaxHelloMessages())
 				);
 
+		this.registrationExposureWriter = new RegistrationExposureWriter(
+				mongoTemplate,
+				registrationService,
+				serverConfigurationService,
+				propertyLoader,
+				new RegistrationLockProvider(),
+				unknownIdentifierCache,
+				metrics,
+				scoringStrategyService
+				);
+
+		this.processedContactsDeletionListener = new ProcessedContactsDeletionListener<>(contactService, metrics, Contact::getId);
+
 		this.epochDuration = this.serverConfigurationService.getEpochDurationSecs();
 		this.serviceTimeStart = this.serverConfigurationService.getServiceTimeStart();
 	}
@@ -153,7 +196,7 @@ public class ContactProcessorTest {
 			assertFalse(CollectionUtils.isEmpty(this.contactService.findAll()));
 			assertEquals(1, this.contactService.findAll().size());
 			// When
-			Contact processedContact = this.contactProcessor.process(contact);
+			ContactExposure processedContact = processAndWrite(contact);
 
 			// Then
 			assertNull(processedContact);
@@ -187,12 +230,12 @@ public class ContactProcessorTest {
 			assertFalse(CollectionUtils.isEmpty(this.contactService.findAll()));
 			assertEquals(1, this.contactService.findAll().size());
 			// When
-			Contact processedContact = this.contactProcessor.process(contact);
+			ContactExposure processedContact = processAndWrite(contact);
 
 			// Then
 			assertNull(processedContact);
 			assertTrue(CollectionUtils.isEmpty(this.contactService.findAll()));
-			verify(this.cryptoServerClient, never()).getInfoFromHelloMessage(any()); // must be called once only
+			verify(this.cryptoServerClient, never()).validateContact(any());
 		} catch (Exception e) {
 			log.error(e.getMessage());
 			fail(SHOULD_NOT_FAIL);
@@ -228,7 +271,7 @@ public class ContactProcessorTest {
 			System.arraycopy(time, 0, helloMessage, encryptedCountryCode.length + ebid.length, time.length);
 
 			byte[] decryptedEbid = this.cryptoService.decryptEBID(new CryptoSkinny64(serverKey), ebid);
-			when(this.cryptoServerClient.getInfoFromHelloMessage(any())).thenReturn(Optional.empty());
+			when(this.cryptoServerClient.validateContact(any())).thenReturn(Optional.empty());
 
 			Contact contact = Contact.builder()
 					.ebid(ebid)
@@ -244,12 +287,12 @@ public class ContactProcessorTest {
 			this.registrationService.delete(this.registration.get());
 
 			// When
-			Contact processedContact = this.contactProcessor.process(contact);
+			ContactExposure processedContact = processAndWrite(contact);
 
 			// Then
 			assertNull(processedContact);
 			assertTrue(CollectionUtils.isEmpty(this.contactService.findAll()));
-			verify(this.cryptoServerClient).getInfoFromHelloMessage(any()); // must be called once only
+			verify(this.cryptoServerClient).validateContact(any()); // must be called once only
 
 		} catch (Exception e) {
 			fail(SHOULD_NOT_FAIL);
@@ -291,12 +334,7 @@ public class ContactProcessorTest {
 
 			byte[] decryptedEbid = this.cryptoService.decryptEBID(new CryptoSkinny64(serverKey), ebid);
 
-			when(this.cryptoServerClient.getInfoFromHelloMessage(any())).thenReturn(Optional.of(
-					GetInfoFromHelloMessageResponse.newBuilder()
-							.setIdA(ByteString.copyFrom(this.registration.get().getPermanentIdentifier()))
-							.setCountryCode(ByteString.copyFrom(new byte[] { this.serverConfigurationService.getServerCountryCode() }))
-							.setEpochId(currentEpochId)
-							.build()));
+			mockContactValidation(this.registration.get().getPermanentIdentifier(), currentEpochId);
 
 			// Create HELLO message that will make total score exceed threshold
 			long t = currentEpochId * this.epochDuration + this.serviceTimeStart + 15L;
@@ -317,18 +355,18 @@ public class ContactProcessorTest {
 			assertEquals(1, this.contactService.findAll().size());
 
 			// When
-			Contact processedContact = this.contactProcessor.process(contact);
+			ContactExposure processedContact = processAndWrite(contact);
 
 			// Then
-			assertNull(processedContact);
+			assertNotNull(processedContact);
 			assertTrue(CollectionUtils.isEmpty(this.contactService.findAll()));
 			Optional<Registration> expectedRegistration = this.registrationService
 					.findById(registrationWithEE.getPermanentIdentifier());
 			assertTrue(expectedRegistration.isPresent());
-			assertFalse(CollectionUtils.isEmpty(expectedRegistration.get().getExposedEpochs()));
-			assertTrue(expectedRegistration.get().getExposedEpochs().size() == 2);
+			assertFalse(expectedRegistration.get().getExposureWindow().isEmpty());
+			assertTrue(expectedRegistration.get().getExposureWindow().size() == 2);
 			assertRiskThresholdExceededBasedOnConfiguration(expectedRegistration.get());
-			verify(this.cryptoServerClient, times(messages.size())).getInfoFromHelloMessage(any());
+			verify(this.cryptoServerClient).validateContact(any()); // must be called once per contact
 
 		} catch (Exception e) {
 			fail(SHOULD_NOT_FAIL);
@@ -367,12 +405,7 @@ public class ContactProcessorTest {
 			byte[] encryptedCountryCode = this.cryptoService.encryptCountryCode(new CryptoAESECB(federationKey), ebid, countryCode);
 			byte[] decryptedEbid = this.cryptoService.decryptEBID(new CryptoSkinny64(serverKey), ebid);
 
-			when(this.cryptoServerClient.getInfoFromHelloMessage(any())).thenReturn(Optional.of(
-					GetInfoFromHelloMessageResponse.newBuilder()
-							.setIdA(ByteString.copyFrom(this.registration.get().getPermanentIdentifier()))
-							.setCountryCode(ByteString.copyFrom(new byte[] { this.serverConfigurationService.getServerCountryCode() }))
-							.setEpochId(currentEpochId)
-							.build()));
+			mockContactValidation(this.registration.get().getPermanentIdentifier(), currentEpochId);
 
 			// Create HELLO message that will not make total score exceed threshold
 			long t = currentEpochId * this.epochDuration + this.serviceTimeStart + 15L;
@@ -392,20 +425,20 @@ public class ContactProcessorTest {
 			assertEquals(1, this.contactService.findAll().size());
 
 			// When
-			Contact processedContact = this.contactProcessor.process(contact);
+			ContactExposure processedContact = processAndWrite(contact);
 
 			// Then
-			assertNull(processedContact);
+			assertNotNull(processedContact);
 			assertTrue(CollectionUtils.isEmpty(this.contactService.findAll()));
 			Optional<Registration> expectedRegistration = this.registrationService
 					.findById(registrationWithEE.getPermanentIdentifier());
 			assertTrue(expectedRegistration.isPresent());
-			assertFalse(CollectionUtils.isEmpty(expectedRegistration.get().getExposedEpochs()));
-			assertTrue(expectedRegistration.get().getExposedEpochs().size() == 2);
+			assertFalse(expectedRegistration.get().getExposureWindow().isEmpty());
+			assertTrue(expectedRegistration.get().getExposureWindow().size() == 2);
 
 			assertRiskThresholdExceededBasedOnConfiguration(expectedRegistration.get());
 
-			verify(this.cryptoServerClient, times(messages.size())).getInfoFromHelloMessage(any());
+			verify(this.cryptoServerClient).validateContact(any()); // must be called once per contact
 
 		} catch (Exception e) {
 			fail(SHOULD_NOT_FAIL);
@@ -451,12 +484,7 @@ public class ContactProcessorTest {
 
 			byte[] decryptedEbid = this.cryptoService.decryptEBID(new CryptoSkinny64(serverKey), ebid);
 
-			when(this.cryptoServerClient.getInfoFromHelloMessage(any())).thenReturn(Optional.of(
-					GetInfoFromHelloMessageResponse.newBuilder()
-							.setIdA(ByteString.copyFrom(this.registration.get().getPermanentIdentifier()))
-							.setCountryCode(ByteString.copyFrom(new byte[] { this.serverConfigurationService.getServerCountryCode() }))
-							.setEpochId(currentEpochId)
-							.build()));
+			mockContactValidation(this.registration.get().getPermanentIdentifier(), currentEpochId);
 
 			byte[] mac = this.cryptoService
 					.generateMACHello(new CryptoHMACSHA256(getKeyMacFor(this.registration.get().getPermanentIdentifier())), helloMessage);
@@ -480,13 +508,13 @@ public class ContactProcessorTest {
 			assertEquals(1, this.contactService.findAll().size());
 
 			// When
-			Contact processedContact = this.contactProcessor.process(contact);
+			ContactExposure processedContact = processAndWrite(contact);
 
 			// Then
 			assertNull(processedContact);
 			assertTrue(CollectionUtils.isEmpty(this.contactService.findAll()));
 
-			verify(this.cryptoServerClient, times(contact.getMessageDetails().size())).getInfoFromHelloMessage(any());
+			verify(this.cryptoServerClient).validateContact(any()); // must be called once per contact
 
 			assertFalse(helloMessageDetail.toString().contains(Arrays.toString(mac)));
 			assertFalse(helloMessageDetail.toString().contains(Integer.toString(timeHello)));
@@ -544,12 +572,7 @@ public class ContactProcessorTest {
 
 			byte[] decryptedEbid = this.cryptoService.decryptEBID(new CryptoSkinny64(serverKey), ebid);
 
-			when(this.cryptoServerClient.getInfoFromHelloMessage(any())).thenReturn(Optional.of(
-					GetInfoFromHelloMessageResponse.newBuilder()
-							.setIdA(ByteString.copyFrom(this.registration.get().getPermanentIdentifier()))
-							.setCountryCode(ByteString.copyFrom(new byte[] { this.serverConfigurationService.getServerCountryCode() }))
-							.setEpochId(currentEpochId)
-							.build()));
+			mockContactValidation(this.registration.get().getPermanentIdentifier(), currentEpochId);
 
 			byte[] mac = this.cryptoService
 					.generateMACHello(new CryptoHMACSHA256(getKeyMacFor(this.registration.get().getPermanentIdentifier())), helloMessage);
@@ -573,13 +596,13 @@ public class ContactProcessorTest {
 			assertEquals(1, this.contactService.findAll().size());
 
 			// When
-			Contact processedContact = this.contactProcessor.process(contact);
+			ContactExposure processedContact = processAndWrite(contact);
 
 			// Then
 			assertNull(processedContact);
 			assertTrue(CollectionUtils.isEmpty(this.contactService.findAll()));
 
-			verify(this.cryptoServerClient).getInfoFromHelloMessage(any());
+			verify(this.cryptoServerClient).validateContact(any());
 
 		} catch (Exception e) {
 			fail(SHOULD_NOT_FAIL);
@@ -631,7 +654,7 @@ public class ContactProcessorTest {
 
 			byte[] decryptedEbid = this.cryptoService.decryptEBID(new CryptoSkinny64(serverKey), ebid);
 
-			when(this.cryptoServerClient.getInfoFromHelloMessage(any())).thenReturn(Optional.empty());
+			when(this.cryptoServerClient.validateContact(any())).thenReturn(Optional.empty());
 
 			byte[] mac = this.cryptoService
 					.generateMACHello(new CryptoHMACSHA256(getKeyMacFor(this.registration.get().getPermanentIdentifier())), helloMessage);
@@ -655,13 +678,13 @@ public class ContactProcessorTest {
 			assertEquals(1, this.contactService.findAll().size());
 
 			// When
-			Contact processedContact = this.contactProcessor.process(contact);
+			ContactExposure processedContact = processAndWrite(contact);
 
 			// Then
 			assertNull(processedContact);
 			assertTrue(CollectionUtils.isEmpty(this.contactService.findAll()));
 
-			verify(this.cryptoServerClient).getInfoFromHelloMessage(any());
+			verify(this.cryptoServerClient).validateContact(any());
 
 		} catch (Exception e) {
 			fail(SHOULD_NOT_FAIL);
@@ -748,32 +771,27 @@ public class ContactProcessorTest {
 
 			this.contactService.saveContacts(Arrays.asList(contact));
 
-			when(this.cryptoServerClient.getInfoFromHelloMessage(any())).thenReturn(Optional.of(
-					GetInfoFromHelloMessageResponse.newBuilder()
-							.setIdA(ByteString.copyFrom(this.registration.get().getPermanentIdentifier()))
-							.setCountryCode(ByteString.copyFrom(new byte[] { this.serverConfigurationService.getServerCountryCode() }))
-							.setEpochId(currentEpochId)
-							.build()));
+			mockContactValidation(this.registration.get().getPermanentIdentifier(), currentEpochId);
 
 			assertFalse(CollectionUtils.isEmpty(this.contactService.findAll()));
 			assertEquals(1, this.contactService.findAll().size());
 
 			// When
-			Contact processedContact = this.contactProcessor.process(contact);
+			ContactExposure processedContact = processAndWrite(contact);
 
 			// Then
-			assertNull(processedContact);
+			assertNotNull(processedContact);
 			assertTrue(CollectionUtils.isEmpty(this.contactService.findAll()));
 			Optional<Registration> expectedRegistration = this.registrationService
 					.findById(registrationWithEE.getPermanentIdentifier());
 			assertTrue(expectedRegistration.isPresent());
 
-			assertFalse(CollectionUtils.isEmpty(expectedRegistration.get().getExposedEpochs()));
-			assertEquals(nbOfExposedEpochs, expectedRegistration.get().getExposedEpochs().size());
+			assertFalse(expectedRegistration.get().getExposureWindow().isEmpty());
+			assertEquals(nbOfExposedEpochs, expectedRegistration.get().getExposureWindow().size());
 
 			assertRiskThresholdExceededBasedOnConfiguration(expectedRegistration.get());
 
-			verify(this.cryptoServerClient, times(contact.getMessageDetails().size())).getInfoFromHelloMessage(any());
+			verify(this.cryptoServerClient).validateContact(any()); // must be called once per contact
 
 		} catch (Exception e) {
 			fail(SHOULD_NOT_FAIL);
@@ -834,12 +852,7 @@ public class ContactProcessorTest {
 
 			byte[] decryptedEbid = this.cryptoService.decryptEBID(new CryptoSkinny64(serverKey), ebid);
 
-			when(this.cryptoServerClient.getInfoFromHelloMessage(any())).thenReturn(Optional.of(
-					GetInfoFromHelloMessageResponse.newBuilder()
-							.setIdA(ByteString.copyFrom(this.registration.get().getPermanentIdentifier()))
-							.setCountryCode(ByteString.copyFrom(new byte[] { this.serverConfigurationService.getServerCountryCode() }))
-							.setEpochId(currentEpochId)
-							.build()));
+			mockContactValidation(this.registration.get().getPermanentIdentifier(), currentEpochId);
 
 			byte[] mac = this.cryptoService
 					.generateMACHello(new CryptoHMACSHA256(getKeyMacFor(this.registration.get().getPermanentIdentifier())), helloMessage);
@@ -863,20 +876,20 @@ public class ContactProcessorTest {
 			assertEquals(1, this.contactService.findAll().size());
 
 			// When
-			Contact processedContact = this.contactProcessor.process(contact);
+			ContactExposure processedContact = processAndWrite(contact);
 
 			// Then
 			Optional<Registration> expectedRegistration = this.registrationService
 					.findById(registrationWithEE.getPermanentIdentifier());
-			assertNull(processedContact);
+			assertNotNull(processedContact);
 			assertTrue(CollectionUtils.isEmpty(this.contactService.findAll()));
 			assertTrue(expectedRegistration.isPresent());
-			assertFalse(CollectionUtils.isEmpty(expectedRegistration.get().getExposedEpochs()));
-			assertEquals(expectedRegistration.get().getExposedEpochs().size(), nbOfExposedEpochsBefore - 1 + 1);
+			assertFalse(expectedRegistration.get().getExposureWindow().isEmpty());
+			assertEquals(expectedRegistration.get().getExposureWindow().size(), nbOfExposedEpochsBefore - 1 + 1);
 
 			assertRiskThresholdExceededBasedOnConfiguration(expectedRegistration.get());
 
-			verify(this.cryptoServerClient, times(contact.getMessageDetails().size())).getInfoFromHelloMessage(any());
+			verify(this.cryptoServerClient).validateContact(any()); // must be called once per contact
 
 		} catch (Exception e) {
 			fail(SHOULD_NOT_FAIL);
@@ -936,6 +949,32 @@ public class ContactProcessorTest {
 				.build();
 	}
 
+	/**
+	 * Run the contact through a chunk of a single item
+	 */
+	private ContactExposure processAndWrite(Contact contact) throws Exception {
+		this.processedContactsDeletionListener.beforeChunk(null);
+		this.processedContactsDeletionListener.afterRead(contact);
+		ContactExposure contactExposure = this.contactProcessor.process(contact);
+		if (contactExposure != null) {
+			this.registrationExposureWriter.write(Collections.singletonList(contactExposure));
+		}
+		this.processedContactsDeletionListener.afterChunk(null);
+		return contactExposure;
+	}
+
+	private void mockContactValidation(byte[] idA, int epochId) {
+		when(this.cryptoServerClient.validateContact(any())).thenAnswer(invocation -> {
+			ValidateContactRequest request = invocation.getArgument(0);
+			return Optional.of(ValidateContactResponse.newBuilder()
+					.setIdA(ByteString.copyFrom(idA))
+					.setCountryCode(ByteString.copyFrom(new byte[] { this.serverConfigurationService.getServerCountryCode() }))
+					.setEpochId(epochId)
+					.addAllValidHelloMessages(Collections.nCopies(request.getHelloMessagesCount(), true))
+					.build());
+		});
+	}
+
 	private byte[] getKeyMacFor(byte[] idA) {
 		return this.generateRandomByteArrayOfSize(32);
 	}
@@ -958,17 +997,15 @@ public class ContactProcessorTest {
 
 	private void assertRiskThresholdExceededBasedOnConfiguration(Registration expectedRegistration) {
 		boolean atRisk = expectedRegistration.isAtRisk();
-		if (this.propertyLoader.getRiskThreshold() >= sumRiskScores(expectedRegistration.getExposedEpochs())) {
+		if (this.propertyLoader.getRiskThreshold() >= sumRiskScores(expectedRegistration)) {
 			assertFalse(atRisk);
 		} else {
 			assertTrue(atRisk);
 		}
 	}
 
-	private Double sumRiskScores(List<EpochExposition> epochExpositions) {
-		return epochExpositions.stream()
-				.map(EpochExposition::getExpositionScores)
-				.map(item -> item.stream().mapToDouble(Double::doubleValue).sum())
-				.reduce(0.0, (a,b) -> a + b);
+	private double sumRiskScores(Registration registration) {
+		return Objects.isNull(registration.getExposureWindow()) ? 0.0
+				: registration.getExposureWindow().sumAfter(registration.getLatestRiskEpoch());
 	}
 }
@@ -0,0 +1,140 @@
+package test.fr.gouv.stopc.robertserver.batch.reader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ReaderNotOpenException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.server.batch.reader.ContactCursorItemReader;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+
+@ExtendWith(SpringExtension.class)
+public class ContactCursorItemReaderTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private ContactCursorItemReader reader;
+
+    private final String firstId = new ObjectId().toHexString();
+
+    private final String secondId = new ObjectId().toHexString();
+
+    @BeforeEach
+    public void before() {
+        this.reader = new ContactCursorItemReader(this.mongoTemplate,
+                new Query(Criteria.where("timeInsertion").lt(1000L)), 100);
+    }
+
+    @Test
+    public void testReadStreamsAllContactsThenReturnsNull() {
+        // Given
+        mockCursorOf(Contact.builder().id(this.firstId).build(), Contact.builder().id(this.secondId).build());
+
+        // When
+        this.reader.open(new ExecutionContext());
+
+        // Then
+        assertEquals(this.firstId, this.reader.read().getId());
+        assertEquals(this.secondId, this.reader.read().getId());
+        assertNull(this.reader.read());
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(this.mongoTemplate).stream(query.capture(), eq(Contact.class));
+        assertEquals(100, query.getValue().getMeta().getCursorBatchSize());
+        assertFalse(query.getValue().getQueryObject().containsKey("_id"));
+        assertTrue(query.getValue().getQueryObject().containsKey("timeInsertion"));
+    }
+
+    @Test
+    public void testUpdateSavesLastReadIdAndOpenResumesAfterIt() {
+        // Given
+        mockCursorOf(Contact.builder().id(this.firstId).build());
+        ExecutionContext executionContext = new ExecutionContext();
+        this.reader.open(executionContext);
+        this.reader.read();
+        this.reader.update(executionContext);
+        this.reader.close();
+
+        // When
+        ContactCursorItemReader restartedReader = new ContactCursorItemReader(this.mongoTemplate,
+                new Query(Criteria.where("timeInsertion").lt(1000L)), 100);
+        mockCursorOf(Contact.builder().id(this.secondId).build());
+        restartedReader.open(executionContext);
+
+        // Then
+        assertEquals(this.secondId, restartedReader.read().getId());
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(this.mongoTemplate, times(2)).stream(queries.capture(), eq(Contact.class));
+        Document idFilter = queries.getAllValues().get(1).getQueryObject().get("_id", Document.class);
+        assertEquals(new ObjectId(this.firstId), idFilter.get("$gt"));
+    }
+
+    @Test
+    public void testReadSkipsTheContactsRejectedByTheFilter() {
+        // Given
+        ContactCursorItemReader filteringReader = new ContactCursorItemReader(this.mongoTemplate,
+                new Query(Criteria.where("timeInsertion").lt(1000L)), 100, timeInsertion -> timeInsertion % 2 == 0);
+        mockCursorOf(Contact.builder().id(this.firstId).timeInsertion(1L).build(),
+                Contact.builder().id(this.secondId).timeInsertion(2L).build());
+        ExecutionContext executionContext = new ExecutionContext();
+
+        // When
+        filteringReader.open(executionContext);
+
+        // Then
+        assertEquals(this.secondId, filteringReader.read().getId());
+        assertNull(filteringReader.read());
+        filteringReader.update(executionContext);
+        assertEquals(this.secondId, executionContext.getString("ContactCursorItemReader.lastReadId"));
+    }
+
+    @Test
+    public void testReadBeforeOpenFails() {
+        assertThrows(ReaderNotOpenException.class, () -> this.reader.read());
+    }
+
+    private void mockCursorOf(Contact... contacts) {
+        Iterator<Contact> iterator = Arrays.asList(contacts).iterator();
+        when(this.mongoTemplate.stream(any(Query.class), eq(Contact.class))).thenReturn(new CloseableIterator<Contact>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Contact next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+}
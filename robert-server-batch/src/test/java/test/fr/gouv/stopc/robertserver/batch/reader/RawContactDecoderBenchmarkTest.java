@@ -0,0 +1,113 @@
+package test.fr.gouv.stopc.robertserver.batch.reader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import fr.gouv.stopc.robert.server.batch.model.ContactView;
+import fr.gouv.stopc.robert.server.batch.reader.RawContactDecoder;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.model.HelloMessageDetail;
+
+/**
+ * Run with {@code mvn test -P benchmark}: the allocations measured depend on the JVM
+ */
+@Tag("benchmark")
+public class RawContactDecoderBenchmarkTest {
+
+    private static final int CHUNK_SIZE = 10000;
+
+    private MappingMongoConverter converter;
+
+    @BeforeEach
+    public void before() {
+        this.converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        this.converter.afterPropertiesSet();
+    }
+
+    /**
+     * Bytes allocated to decode a chunk of contacts through Spring Data mapping, then through the raw decoder reusing
+     * the views of a previous chunk
+     */
+    @Test
+    public void testDecodingAChunkAllocatesLessThanMappingIt() {
+        // Given
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        List<RawBsonDocument> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            chunk.add(toRawBson(contact(new ObjectId().toHexString(), 10)));
+        }
+        List<ContactView> views = new ArrayList<>(CHUNK_SIZE);
+        for (RawBsonDocument document : chunk) {
+            ContactView view = new ContactView();
+            RawContactDecoder.decode(document.getByteBuffer().asNIO(), view);
+            views.add(view);
+        }
+        // Warm up the mapping
+        for (RawBsonDocument document : chunk) {
+            this.converter.read(Contact.class, document.decode(new DocumentCodec()));
+        }
+
+        // When
+        long threadId = Thread.currentThread().getId();
+        long start = threadMXBean.getThreadAllocatedBytes(threadId);
+        List<Contact> contacts = new ArrayList<>(CHUNK_SIZE);
+        for (RawBsonDocument document : chunk) {
+            contacts.add(this.converter.read(Contact.class, document.decode(new DocumentCodec())));
+        }
+        long mappingBytes = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+
+        start = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            views.get(i).recycle();
+            RawContactDecoder.decode(chunk.get(i).getByteBuffer().asNIO(), views.get(i));
+        }
+        long rawBytes = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+
+        // Then
+        assertEquals(CHUNK_SIZE, contacts.size());
+        assertTrue(rawBytes * 4 < mappingBytes,
+                "Raw decoding allocated " + rawBytes + " bytes, mapping " + mappingBytes + " bytes");
+    }
+
+    private RawBsonDocument toRawBson(Contact contact) {
+        Document document = new Document();
+        this.converter.write(contact, document);
+        return new RawBsonDocument(document, new DocumentCodec());
+    }
+
+    private static Contact contact(String id, int nbOfMessages) {
+        List<HelloMessageDetail> messageDetails = new ArrayList<>(nbOfMessages);
+        for (int i = 0; i < nbOfMessages; i++) {
+            messageDetails.add(HelloMessageDetail.builder()
+                    .timeCollectedOnDevice(3800000000L + i * 60)
+                    .timeFromHelloMessage(12345 + i)
+                    .rssiCalibrated(-70 - i)
+                    .mac(new byte[] { 1, 2, 3, 4, (byte) i })
+                    .build());
+        }
+        return Contact.builder()
+                .id(id)
+                .ebid(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 })
+                .ecc(new byte[] { 0x21 })
+                .timeInsertion(System.currentTimeMillis())
+                .messageDetails(messageDetails)
+                .build();
+    }
+}
@@ -0,0 +1,140 @@
+package test.fr.gouv.stopc.robertserver.batch.reader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import fr.gouv.stopc.robert.server.batch.model.ContactView;
+import fr.gouv.stopc.robert.server.batch.reader.RawContactDecoder;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.model.HelloMessageDetail;
+
+public class RawContactDecoderTest {
+
+    private MappingMongoConverter converter;
+
+    @BeforeEach
+    public void before() {
+        this.converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        this.converter.afterPropertiesSet();
+    }
+
+    @Test
+    public void testDecodeReadsTheContactAsMappedBySpringData() {
+        // Given
+        Contact contact = contact(new ObjectId().toHexString(), 3);
+
+        // When
+        ContactView view = new ContactView();
+        RawContactDecoder.decode(toRawBson(contact).getByteBuffer().asNIO(), view);
+
+        // Then
+        ContactView expectedView = ContactView.of(contact);
+        assertEquals(contact.getId(), view.getId());
+        assertArrayEquals(contact.getEbid(), view.getEbid());
+        assertArrayEquals(contact.getEcc(), view.getEcc());
+        assertEquals(contact.getTimeInsertion(), view.getTimeInsertion());
+        assertEquals(3, view.getNbOfMessages());
+        assertFalse(view.isMalformedMessages());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(expectedView.getTimeCollectedOnDevice(i), view.getTimeCollectedOnDevice(i));
+            assertEquals(expectedView.getTimeFromHelloMessage(i), view.getTimeFromHelloMessage(i));
+            assertEquals(expectedView.getRssiCalibrated(i), view.getRssiCalibrated(i));
+        }
+        assertArrayEquals(Arrays.copyOf(expectedView.getMacs(), 3 * ContactView.MAC_SIZE),
+                Arrays.copyOf(view.getMacs(), 3 * ContactView.MAC_SIZE));
+    }
+
+    @Test
+    public void testDecodeFlagsIncompleteMessagesAndSkipsUnknownFields() {
+        // Given
+        Document document = toDocument(contact(new ObjectId().toHexString(), 2));
+        document.append("unknown", new Document("nested", Arrays.asList(1, "two", 3.0)));
+        List<Document> messages = document.getList("messageDetails", Document.class);
+        messages.get(1).remove("mac");
+
+        // When
+        ContactView view = new ContactView();
+        RawContactDecoder.decode(new RawBsonDocument(document, new DocumentCodec()).getByteBuffer().asNIO(), view);
+
+        // Then
+        assertEquals(2, view.getNbOfMessages());
+        assertTrue(view.isMalformedMessages());
+    }
+
+    @Test
+    public void testDecodeReusesTheViewOfAnotherContact() {
+        // Given
+        ContactView view = new ContactView();
+        RawContactDecoder.decode(toRawBson(contact(new ObjectId().toHexString(), 40)).getByteBuffer().asNIO(), view);
+        view.recycle();
+        Contact contact = contact(new ObjectId().toHexString(), 2);
+
+        // When
+        RawContactDecoder.decode(toRawBson(contact).getByteBuffer().asNIO(), view);
+
+        // Then
+        assertEquals(contact.getId(), view.getId());
+        assertEquals(2, view.getNbOfMessages());
+        assertEquals(contact.getMessageDetails().get(1).getTimeCollectedOnDevice(), view.getTimeCollectedOnDevice(1));
+    }
+
+    @Test
+    public void testDecodeReadsAMessageWithoutRssiAsComplete() {
+        // Given
+        Document document = toDocument(contact(new ObjectId().toHexString(), 2));
+        document.getList("messageDetails", Document.class).get(1).remove("rssiCalibrated");
+
+        // When
+        ContactView view = new ContactView();
+        RawContactDecoder.decode(new RawBsonDocument(document, new DocumentCodec()).getByteBuffer().asNIO(), view);
+
+        // Then
+        assertFalse(view.isMalformedMessages());
+        assertEquals(0, view.getRssiCalibrated(1));
+    }
+
+    private Document toDocument(Contact contact) {
+        Document document = new Document();
+        this.converter.write(contact, document);
+        return document;
+    }
+
+    private RawBsonDocument toRawBson(Contact contact) {
+        return new RawBsonDocument(toDocument(contact), new DocumentCodec());
+    }
+
+    private static Contact contact(String id, int nbOfMessages) {
+        List<HelloMessageDetail> messageDetails = new ArrayList<>(nbOfMessages);
+        for (int i = 0; i < nbOfMessages; i++) {
+            messageDetails.add(HelloMessageDetail.builder()
+                    .timeCollectedOnDevice(3800000000L + i * 60)
+                    .timeFromHelloMessage(12345 + i)
+                    .rssiCalibrated(-70 - i)
+                    .mac(new byte[] { 1, 2, 3, 4, (byte) i })
+                    .build());
+        }
+        return Contact.builder()
+                .id(id)
+                .ebid(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 })
+                .ecc(new byte[] { 0x21 })
+                .timeInsertion(System.currentTimeMillis())
+                .messageDetails(messageDetails)
+                .build();
+    }
+}
@@ -0,0 +1,254 @@
+package test.fr.gouv.stopc.robertserver.batch.runner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.server.batch.coordination.ShardLeaseManager;
+import fr.gouv.stopc.robert.server.batch.exception.RobertScoringException;
+import fr.gouv.stopc.robert.server.batch.model.ContactView;
+import fr.gouv.stopc.robert.server.batch.runner.ContinuousContactProcessingRunner;
+import fr.gouv.stopc.robert.server.batch.tasklet.ExpiredEpochsPurgeTasklet;
+import fr.gouv.stopc.robert.server.batch.utils.ContactDeduplicator;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.model.HelloMessageDetail;
+import fr.gouv.stopc.robertserver.database.service.ContactService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(SpringExtension.class)
+public class ContinuousContactProcessingRunnerTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ContactService contactService;
+
+    @Mock
+    private ItemWriter<Contact> contactsWriter;
+
+    @Mock
+    private ExpiredEpochsPurgeTasklet expiredEpochsPurgeTasklet;
+
+    private ContinuousContactProcessingRunner runner;
+
+    @BeforeEach
+    public void before() {
+        this.runner = buildRunner(true, 10L, 3600000L);
+    }
+
+    @AfterEach
+    public void after() throws InterruptedException {
+        this.runner.destroy();
+    }
+
+    @Test
+    public void testProcessMicroBatchRemovesContactsOnceWritten() throws Exception {
+        // Given
+        Contact contact1 = Contact.builder().id("1").build();
+        Contact contact2 = Contact.builder().id("2").build();
+        when(this.mongoTemplate.find(any(Query.class), eq(Contact.class))).thenReturn(Arrays.asList(contact1, contact2));
+
+        // When
+        int nbOfContacts = this.runner.processMicroBatch();
+
+        // Then
+        assertEquals(2, nbOfContacts);
+        verify(this.contactsWriter).write(Arrays.asList(contact1, contact2));
+        verify(this.contactService).deleteAllByIds(Arrays.asList("1", "2"));
+    }
+
+    @Test
+    public void testProcessMicroBatchKeepsContactsWhenWritingFails() throws Exception {
+        // Given
+        when(this.mongoTemplate.find(any(Query.class), eq(Contact.class)))
+                .thenReturn(Collections.singletonList(Contact.builder().id("1").build()));
+        doThrow(new RobertScoringException("Cannot score contact")).when(this.contactsWriter).write(anyList());
+
+        // When
+        assertThrows(RobertScoringException.class, () -> this.runner.processMicroBatch());
+
+        // Then
+        verify(this.contactService, never()).deleteAllByIds(any());
+    }
+
+    @Test
+    public void testProcessMicroBatchWithoutContactDoesNothing() throws Exception {
+        // Given
+        when(this.mongoTemplate.find(any(Query.class), eq(Contact.class))).thenReturn(Collections.emptyList());
+
+        // When
+        int nbOfContacts = this.runner.processMicroBatch();
+
+        // Then
+        assertEquals(0, nbOfContacts);
+        verifyNoInteractions(this.contactsWriter, this.contactService);
+    }
+
+    @Test
+    public void testProcessMicroBatchMovesContactsFailingOnTheirOwnToDeadLetterAfterMaxAttempts() throws Exception {
+        // Given
+        Contact contact1 = Contact.builder().id("1").build();
+        Contact poisonContact = Contact.builder().id("2").build();
+        when(this.mongoTemplate.find(any(Query.class), eq(Contact.class))).thenReturn(Arrays.asList(contact1, poisonContact));
+        doThrow(new RobertScoringException("Cannot score contact")).when(this.contactsWriter)
+                .write(Arrays.asList(contact1, poisonContact));
+        doThrow(new RobertScoringException("Cannot score contact")).when(this.contactsWriter)
+                .write(Collections.singletonList(poisonContact));
+
+        // When
+        assertThrows(RobertScoringException.class, () -> this.runner.processMicroBatch());
+        assertThrows(RobertScoringException.class, () -> this.runner.processMicroBatch());
+        int nbOfContacts = this.runner.processMicroBatch();
+
+        // Then
+        assertEquals(2, nbOfContacts);
+        verify(this.contactsWriter).write(Collections.singletonList(contact1));
+        verify(this.contactService).deleteAllByIds(Collections.singletonList("1"));
+        verify(this.mongoTemplate).insert(Collections.singletonList(poisonContact),
+                ContinuousContactProcessingRunner.DEAD_LETTER_COLLECTION);
+        verify(this.contactService).deleteAllByIds(Collections.singletonList("2"));
+    }
+
+    @Test
+    public void testProcessMicroBatchKeepsContactsWhenTheyAllFailOnTheirOwn() throws Exception {
+        // Given
+        when(this.mongoTemplate.find(any(Query.class), eq(Contact.class))).thenReturn(Arrays.asList(
+                Contact.builder().id("1").build(), Contact.builder().id("2").build()));
+        doThrow(new RobertScoringException("Crypto back-end unavailable")).when(this.contactsWriter).write(anyList());
+
+        // When
+        for (int i = 0; i < 4; i++) {
+            assertThrows(RobertScoringException.class, () -> this.runner.processMicroBatch());
+        }
+
+        // Then
+        verify(this.contactService, never()).deleteAllByIds(any());
+        verify(this.mongoTemplate, never()).insert(anyList(), anyString());
+    }
+
+    @Test
+    public void testRetriedMessagesAreStillRemovedOnceMoreMessagesThanTheBoundWereProcessed() throws Exception {
+        // Given
+        ContactDeduplicator contactDeduplicator = new ContactDeduplicator(4);
+        this.runner = buildRunner(contactDeduplicator);
+        doAnswer(invocation -> {
+            invocation.<List<Contact>>getArgument(0)
+                    .forEach(contact -> contactDeduplicator.removeDuplicates(ContactView.of(contact)));
+            return null;
+        }).when(this.contactsWriter).write(anyList());
+        for (int i = 0; i < 10; i += 2) {
+            when(this.mongoTemplate.find(any(Query.class), eq(Contact.class)))
+                    .thenReturn(Arrays.asList(contact(i), contact(i + 1)));
+            this.runner.processMicroBatch();
+        }
+        when(this.mongoTemplate.find(any(Query.class), eq(Contact.class)))
+                .thenReturn(Arrays.asList(contact(9), contact(10)));
+
+        // When
+        this.runner.processMicroBatch();
+
+        // Then
+        assertEquals(1, contactDeduplicator.getNbOfDuplicates());
+    }
+
+    @Test
+    public void testDestroyStopsWaitingForContactsAtOnce() throws Exception {
+        // Given
+        this.runner = buildRunner(true, 60000L, 3600000L);
+        when(this.mongoTemplate.find(any(Query.class), eq(Contact.class))).thenReturn(Collections.emptyList());
+        this.runner.run(null);
+        verify(this.mongoTemplate, timeout(5000)).find(any(Query.class), eq(Contact.class));
+
+        // When
+        long start = System.currentTimeMillis();
+        this.runner.destroy();
+
+        // Then
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+    }
+
+    @Test
+    public void testRunPurgesTheExpiredEpochsPeriodically() throws Exception {
+        // Given
+        this.runner = buildRunner(true, 10L, 0L);
+        when(this.mongoTemplate.find(any(Query.class), eq(Contact.class))).thenReturn(Collections.emptyList());
+
+        // When
+        this.runner.run(null);
+
+        // Then
+        verify(this.expiredEpochsPurgeTasklet, timeout(5000).atLeast(2)).purge();
+    }
+
+    @Test
+    public void testRunReturnsAtOnceWhenTheContinuousModeIsDisabled() throws Exception {
+        // Given
+        ContinuousContactProcessingRunner disabledRunner = buildRunner(false, 10L, 3600000L);
+
+        // When
+        disabledRunner.run(null);
+
+        // Then
+        verifyNoInteractions(this.mongoTemplate, this.contactsWriter, this.contactService);
+    }
+
+    private ContinuousContactProcessingRunner buildRunner(boolean enabled, long pollIntervalMillis,
+            long purgeIntervalMillis) {
+        return buildRunner(enabled, pollIntervalMillis, purgeIntervalMillis, new ContactDeduplicator(1000));
+    }
+
+    private ContinuousContactProcessingRunner buildRunner(ContactDeduplicator contactDeduplicator) {
+        return buildRunner(true, 10L, 3600000L, contactDeduplicator);
+    }
+
+    private ContinuousContactProcessingRunner buildRunner(boolean enabled, long pollIntervalMillis,
+            long purgeIntervalMillis, ContactDeduplicator contactDeduplicator) {
+        return new ContinuousContactProcessingRunner(enabled, this.mongoTemplate, this.contactService,
+                this.contactsWriter, 2, pollIntervalMillis, 3, 1000L,
+                new ContactProcessingMetrics(new SimpleMeterRegistry()), contactDeduplicator,
+                new ShardLeaseManager(false, this.mongoTemplate, "node", 16, 30000L, 10000L),
+                this.expiredEpochsPurgeTasklet, purgeIntervalMillis);
+    }
+
+    private static Contact contact(int mac) {
+        return Contact.builder()
+                .id(String.valueOf(mac))
+                .ebid(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 })
+                .ecc(new byte[] { 0x21 })
+                .messageDetails(new ArrayList<>(Collections.singletonList(HelloMessageDetail.builder()
+                        .mac(new byte[] { 9, 9, 9, 9, (byte) mac })
+                        .timeCollectedOnDevice(1000L + mac)
+                        .timeFromHelloMessage(12345)
+                        .rssiCalibrated(-70)
+                        .build())))
+                .build();
+    }
+}
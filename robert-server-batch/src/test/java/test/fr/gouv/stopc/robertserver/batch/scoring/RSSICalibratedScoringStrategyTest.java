@@ -1,5 +1,6 @@
 package test.fr.gouv.stopc.robertserver.batch.scoring;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -10,6 +11,7 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
@@ -24,6 +26,7 @@ import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import fr.gouv.stopc.robert.server.batch.exception.RobertScoringException;
+import fr.gouv.stopc.robert.server.batch.model.HelloMessageColumns;
 import fr.gouv.stopc.robert.server.batch.service.impl.ScoringStrategyServiceImpl;
 import fr.gouv.stopc.robert.server.batch.utils.PropertyLoader;
 import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
@@ -393,4 +396,79 @@ public class RSSICalibratedScoringStrategyTest {
 
         assertNotEquals(null, thrown);
     }
+
+    @Test
+    public void testScoreRiskOfSeveralContactsAtOnceGivesTheSameScoresAsTheFormula() {
+        // Given
+        Random random = new Random(42);
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            List<HelloMessageDetail> messages = new ArrayList<>();
+            // Contacts with a single message are scored differently
+            int nbOfMessages = i % 10 == 0 ? 1 : 2 + random.nextInt(40);
+            long time = this.randomReferenceEpochStartTime + random.nextInt(this.epochDuration);
+            for (int j = 0; j < nbOfMessages; j++) {
+                time += random.nextInt(30);
+                messages.add(HelloMessageDetail.builder()
+                        .timeCollectedOnDevice(time)
+                        .rssiCalibrated(-20 - random.nextInt(100))
+                        .build());
+            }
+            contacts.add(Contact.builder().messageDetails(messages).build());
+        }
+
+        try {
+            // When
+            double[] scores = this.scoringStrategyService.executeAll(HelloMessageColumns.of(contacts));
+
+            // Then
+            assertEquals(contacts.size(), scores.length);
+            for (int i = 0; i < contacts.size(); i++) {
+                double expectedScore = scoreWithWP4Formula(contacts.get(i).getMessageDetails());
+                assertEquals(expectedScore, scores[i]);
+                assertEquals(expectedScore, this.scoringStrategyService.execute(contacts.get(i)));
+            }
+        } catch (RobertScoringException e) {
+            fail(FAIL_EXCEPTION);
+        }
+    }
+
+    @Test
+    public void testScoreRiskOfSeveralContactsSkipsContactWithNoMessages() throws RobertScoringException {
+        List<Contact> contacts = new ArrayList<>();
+        contacts.add(Contact.builder()
+                .messageDetails(Collections.singletonList(HelloMessageDetail.builder()
+                        .timeCollectedOnDevice(this.randomReferenceEpochStartTime)
+                        .rssiCalibrated(-50)
+                        .build()))
+                .build());
+        contacts.add(Contact.builder().messageDetails(new ArrayList<>()).build());
+
+        double[] scores = this.scoringStrategyService.executeAll(HelloMessageColumns.of(contacts));
+
+        assertEquals(scoreWithWP4Formula(contacts.get(0).getMessageDetails()), scores[0]);
+        assertTrue(Double.isNaN(scores[1]));
+    }
+
+    /**
+     * risk = - SUM_i=1_to_I((5*delta_t(i, i - 1))/min((RSSI(i) + RSSI(i - 1)) / 2 + alpha, -5) * 60
+     * with the delta of a single message estimated from its distance to the closest epoch boundary, capped to 120s
+     */
+    private double scoreWithWP4Formula(List<HelloMessageDetail> messages) {
+        int alpha = -this.rssiScoringAlgorithm - 5;
+        double acc = 0.0;
+        if (messages.size() == 1) {
+            HelloMessageDetail message = messages.get(0);
+            long remainder = (message.getTimeCollectedOnDevice() - this.serverConfigurationService.getServiceTimeStart())
+                    % this.epochDuration;
+            long delta = Math.min(Math.min(remainder, this.epochDuration - remainder), 120);
+            acc += (double) (delta * 5) / (Math.min(message.getRssiCalibrated() + alpha, -5) * 60);
+        }
+        for (int i = 1; i < messages.size(); i++) {
+            long delta = messages.get(i).getTimeCollectedOnDevice() - messages.get(i - 1).getTimeCollectedOnDevice();
+            int averageRSSI = (messages.get(i).getRssiCalibrated() + messages.get(i - 1).getRssiCalibrated()) / 2;
+            acc += (double) (delta * 5) / (Math.min(averageRSSI + alpha, -5) * 60);
+        }
+        return 0 - acc;
+    }
 }
@@ -0,0 +1,104 @@
+package test.fr.gouv.stopc.robertserver.batch.tasklet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoDatabase;
+
+import fr.gouv.stopc.robert.server.batch.tasklet.ExpiredEpochsPurgeTasklet;
+import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
+import fr.gouv.stopc.robert.server.common.service.impl.ServerConfigurationServiceImpl;
+import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
+import fr.gouv.stopc.robertserver.database.model.Registration;
+
+@ExtendWith(SpringExtension.class)
+public class ExpiredEpochsPurgeTaskletTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private MongoDatabase mongoDatabase;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private IServerConfigurationService serverConfigurationService;
+
+    private StepExecution stepExecution;
+
+    @BeforeEach
+    public void before() {
+        this.serverConfigurationService = new ServerConfigurationServiceImpl();
+        this.stepExecution = new StepExecution("purgeExpiredEpochs", new JobExecution(1L));
+
+        when(this.mongoTemplate.bulkOps(BulkMode.UNORDERED, Registration.class)).thenReturn(this.bulkOperations);
+        when(this.bulkOperations.execute()).thenReturn(BulkWriteResult.acknowledged(0, 3, 0, 2, null));
+        when(this.mongoTemplate.getCollectionName(Registration.class)).thenReturn("idTable");
+        when(this.mongoTemplate.getDb()).thenReturn(this.mongoDatabase);
+        when(this.mongoDatabase.runCommand(any(Document.class)))
+                .thenReturn(new Document("size", 10_000L))
+                .thenReturn(new Document("size", 7_500L));
+    }
+
+    @Test
+    public void testExecutePullsExpiredEpochsOfEachIdRangeAndReportsReclaimedBytes() {
+        // Given
+        ExpiredEpochsPurgeTasklet tasklet = new ExpiredEpochsPurgeTasklet(this.mongoTemplate,
+                this.serverConfigurationService, 4);
+        StepContribution contribution = this.stepExecution.createStepContribution();
+
+        // When
+        RepeatStatus status = tasklet.execute(contribution, new ChunkContext(new StepContext(this.stepExecution)));
+
+        // Then
+        assertEquals(RepeatStatus.FINISHED, status);
+        verify(this.bulkOperations, times(4)).execute();
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(this.bulkOperations, times(8)).updateMulti(queries.capture(), updates.capture());
+
+        int currentEpochId = TimeUtils.getCurrentEpochFrom(this.serverConfigurationService.getServiceTimeStart());
+        int oldestEpochIdToKeep = currentEpochId - (this.serverConfigurationService.getContagiousPeriod() * 24 * 3600)
+                / this.serverConfigurationService.getEpochDurationSecs();
+        List<Query> capturedQueries = queries.getAllValues();
+        assertTrue(capturedQueries.get(0).getQueryObject().toJson().contains("exposedEpochs.epochId"));
+        assertTrue(capturedQueries.get(1).getQueryObject().toJson().contains("exposureWindow.epochs.epochId"));
+        // The first range has no lower bound, the following ones have both bounds
+        assertTrue(capturedQueries.get(0).getQueryObject().toJson().contains("$lt"));
+        assertTrue(capturedQueries.get(2).getQueryObject().toJson().contains("$gte"));
+        Document pull = (Document) updates.getAllValues().get(0).getUpdateObject().get("$pull");
+        assertEquals(new Document("epochId", new Document("$lt", oldestEpochIdToKeep)), pull.get("exposedEpochs"));
+        assertTrue(updates.getAllValues().get(0).getUpdateObject().containsKey("$unset"));
+
+        assertEquals(8, contribution.getWriteCount());
+        assertEquals(2_500L, this.stepExecution.getExecutionContext().getLong(ExpiredEpochsPurgeTasklet.BYTES_RECLAIMED_KEY));
+    }
+}
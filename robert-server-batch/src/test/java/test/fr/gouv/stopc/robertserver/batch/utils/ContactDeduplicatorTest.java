@@ -0,0 +1,151 @@
+package test.fr.gouv.stopc.robertserver.batch.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fr.gouv.stopc.robert.server.batch.model.ContactView;
+import fr.gouv.stopc.robert.server.batch.utils.ContactDeduplicator;
+import fr.gouv.stopc.robert.server.batch.utils.LongBloomFilter;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.model.HelloMessageDetail;
+
+public class ContactDeduplicatorTest {
+
+    private static final byte[] EBID = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+    private static final byte[] ECC = new byte[] { 0x21 };
+
+    private ContactDeduplicator deduplicator;
+
+    @BeforeEach
+    public void before() {
+        this.deduplicator = new ContactDeduplicator(1000);
+    }
+
+    @Test
+    public void testRetriedContactIsEmptiedOfItsMessages() {
+        // Given
+        ContactView contact = contact(EBID, message(1, 1000L), message(2, 1001L));
+        ContactView retriedContact = contact(EBID, message(1, 1000L), message(2, 1001L));
+
+        // When
+        int nbOfDuplicates = this.deduplicator.removeDuplicates(contact);
+        int nbOfRetriedDuplicates = this.deduplicator.removeDuplicates(retriedContact);
+
+        // Then
+        assertEquals(0, nbOfDuplicates);
+        assertEquals(2, contact.getNbOfMessages());
+        assertEquals(2, nbOfRetriedDuplicates);
+        assertEquals(0, retriedContact.getNbOfMessages());
+        assertEquals(2, this.deduplicator.getNbOfDuplicates());
+    }
+
+    @Test
+    public void testOnlyRepeatedMessagesAreRemoved() {
+        // Given
+        this.deduplicator.removeDuplicates(contact(EBID, message(1, 1000L)));
+        ContactView contact = contact(EBID, message(1, 1000L), message(1, 1002L), message(3, 1003L), message(3, 1003L));
+
+        // When
+        int nbOfDuplicates = this.deduplicator.removeDuplicates(contact);
+
+        // Then
+        assertEquals(2, nbOfDuplicates);
+        assertEquals(2, contact.getNbOfMessages());
+        assertEquals(1002L, contact.getTimeCollectedOnDevice(0));
+        assertEquals(1003L, contact.getTimeCollectedOnDevice(1));
+    }
+
+    @Test
+    public void testSameMessageFromAnotherEbidIsNotADuplicate() {
+        // Given
+        this.deduplicator.removeDuplicates(contact(EBID, message(1, 1000L)));
+        ContactView contact = contact(new byte[] { 1, 2, 3, 4, 5, 6, 7, 9 }, message(1, 1000L));
+
+        // When
+        int nbOfDuplicates = this.deduplicator.removeDuplicates(contact);
+
+        // Then
+        assertEquals(0, nbOfDuplicates);
+        assertEquals(1, contact.getNbOfMessages());
+    }
+
+    @Test
+    public void testOldestMessagesAreForgottenOnceTwoGenerationsAreRecorded() {
+        // Given
+        ContactDeduplicator smallDeduplicator = new ContactDeduplicator(4);
+        smallDeduplicator.removeDuplicates(contact(EBID, message(1, 1000L), message(2, 1001L), message(3, 1002L),
+                message(4, 1003L), message(5, 1004L)));
+
+        // When
+        int nbOfForgottenDuplicates = smallDeduplicator.removeDuplicates(contact(EBID, message(1, 1000L)));
+        int nbOfRecentDuplicates = smallDeduplicator.removeDuplicates(contact(EBID, message(3, 1002L),
+                message(4, 1003L), message(5, 1004L)));
+
+        // Then
+        assertEquals(0, nbOfForgottenDuplicates);
+        assertEquals(3, nbOfRecentDuplicates);
+    }
+
+    @Test
+    public void testMessagesAreNoLongerRecordedAfterClear() {
+        // Given
+        this.deduplicator.removeDuplicates(contact(EBID, message(1, 1000L)));
+        this.deduplicator.clear();
+
+        // When
+        int nbOfDuplicatesAfterClear = this.deduplicator.removeDuplicates(contact(EBID, message(1, 1000L)));
+
+        // Then
+        assertEquals(0, nbOfDuplicatesAfterClear);
+    }
+
+    @Test
+    public void testBloomFilterHasNoFalseNegative() {
+        // Given
+        LongBloomFilter bloomFilter = new LongBloomFilter(10000, 0.01);
+        for (long i = 0; i < 10000; i++) {
+            bloomFilter.put(i * 0x9E3779B97F4A7C15L);
+        }
+
+        // When
+        int nbOfFalsePositives = 0;
+        for (long i = 10000; i < 20000; i++) {
+            if (bloomFilter.mightContain(i * 0x9E3779B97F4A7C15L)) {
+                nbOfFalsePositives++;
+            }
+        }
+
+        // Then
+        for (long i = 0; i < 10000; i++) {
+            assertTrue(bloomFilter.mightContain(i * 0x9E3779B97F4A7C15L));
+        }
+        assertTrue(nbOfFalsePositives < 300, "Too many false positives: " + nbOfFalsePositives);
+        bloomFilter.clear();
+        assertFalse(bloomFilter.mightContain(0x9E3779B97F4A7C15L));
+    }
+
+    private static ContactView contact(byte[] ebid, HelloMessageDetail... messageDetails) {
+        return ContactView.of(Contact.builder()
+                .ebid(ebid)
+                .ecc(ECC)
+                .messageDetails(new ArrayList<>(Arrays.asList(messageDetails)))
+                .build());
+    }
+
+    private static HelloMessageDetail message(int mac, long timeCollectedOnDevice) {
+        return HelloMessageDetail.builder()
+                .mac(new byte[] { 9, 9, 9, 9, (byte) mac })
+                .timeCollectedOnDevice(timeCollectedOnDevice)
+                .timeFromHelloMessage(12345)
+                .rssiCalibrated(-70)
+                .build();
+    }
+}
@@ -0,0 +1,85 @@
+package test.fr.gouv.stopc.robertserver.batch.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fr.gouv.stopc.robert.server.batch.utils.LongHashSet;
+import fr.gouv.stopc.robert.server.batch.utils.UnknownIdentifierCache;
+
+public class UnknownIdentifierCacheTest {
+
+    private UnknownIdentifierCache cache;
+
+    @BeforeEach
+    public void before() {
+        this.cache = new UnknownIdentifierCache();
+    }
+
+    @Test
+    public void testCachedIdentifiersAreHitsAndOthersAreMisses() {
+        // Given
+        byte[] idA = new byte[] { 1, 2, 3, 4, 5 };
+        byte[] ebid = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+        this.cache.addUnknown(idA, ebid);
+
+        // When - Then
+        assertTrue(this.cache.isUnknownIdA(idA));
+        assertTrue(this.cache.isUnknownEbid(ebid));
+        assertFalse(this.cache.isUnknownIdA(new byte[] { 1, 2, 3, 4, 6 }));
+        assertFalse(this.cache.isUnknownEbid(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 }));
+        assertEquals(4, this.cache.getNbOfLookups());
+        assertEquals(2, this.cache.getNbOfHits());
+        assertEquals(0.5, this.cache.getHitRatio());
+    }
+
+    @Test
+    public void testIdentifiersTooLongToBeStoredExactlyAreNeverCached() {
+        // Given
+        byte[] tooLong = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+        this.cache.addUnknown(tooLong, tooLong);
+
+        // When - Then
+        assertFalse(this.cache.isUnknownIdA(tooLong));
+        assertFalse(this.cache.isUnknownEbid(tooLong));
+        assertFalse(this.cache.isUnknownIdA(null));
+        assertEquals(0, this.cache.getNbOfLookups());
+    }
+
+    @Test
+    public void testBeforeJobClearsTheCache() {
+        // Given
+        byte[] idA = new byte[] { 1, 2, 3, 4, 5 };
+        this.cache.addUnknown(idA, null);
+        this.cache.isUnknownIdA(idA);
+
+        // When
+        this.cache.beforeJob(null);
+
+        // Then
+        assertEquals(0, this.cache.getNbOfLookups());
+        assertFalse(this.cache.isUnknownIdA(idA));
+    }
+
+    @Test
+    public void testLongHashSetKeepsAllValuesWhenResized() {
+        // Given
+        LongHashSet set = new LongHashSet();
+
+        // When
+        for (long value = 0; value < 10_000; value++) {
+            assertTrue(set.add(value * 31));
+        }
+
+        // Then
+        assertEquals(10_000, set.size());
+        assertFalse(set.add(0));
+        for (long value = 0; value < 10_000; value++) {
+            assertTrue(set.contains(value * 31));
+            assertFalse(set.contains(value * 31 + 1));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package test.fr.gouv.stopc.robertserver.batch.writer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import fr.gouv.stopc.robert.server.batch.exception.RobertScoringException;
+import fr.gouv.stopc.robert.server.batch.model.ContactExposure;
+import fr.gouv.stopc.robert.server.batch.writer.PipelinedContactWriter;
+import fr.gouv.stopc.robert.server.batch.writer.RegistrationExposureWriter;
+import fr.gouv.stopc.robertserver.database.model.Contact;
+import fr.gouv.stopc.robertserver.database.model.Registration;
+import fr.gouv.stopc.robertserver.database.service.IRegistrationService;
+
+@ExtendWith(SpringExtension.class)
+public class PipelinedContactWriterTest {
+
+    @Mock
+    private ItemProcessor<Contact, ContactExposure> contactProcessor;
+
+    @Mock
+    private IRegistrationService registrationService;
+
+    @Mock
+    private RegistrationExposureWriter registrationExposureWriter;
+
+    private ExecutorService validationExecutor;
+
+    private ExecutorService lookupExecutor;
+
+    private PipelinedContactWriter writer;
+
+    @BeforeEach
+    public void before() {
+        this.validationExecutor = Executors.newFixedThreadPool(4);
+        this.lookupExecutor = Executors.newFixedThreadPool(2);
+        this.writer = new PipelinedContactWriter(this.contactProcessor, this.registrationService,
+                this.registrationExposureWriter, this.validationExecutor, this.lookupExecutor, 2, 10);
+    }
+
+    @AfterEach
+    public void after() {
+        this.validationExecutor.shutdownNow();
+        this.lookupExecutor.shutdownNow();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteLooksUpRegistrationsWithSingleRequestAndKeepsContactsOrder() throws Exception {
+        // Given
+        byte[] idA1 = new byte[] { 1, 1, 1, 1, 1 };
+        byte[] idA2 = new byte[] { 2, 2, 2, 2, 2 };
+        Contact slowContact = Contact.builder().id("1").build();
+        Contact contact2 = Contact.builder().id("2").build();
+        Contact contact3 = Contact.builder().id("3").build();
+        Contact invalidContact = Contact.builder().id("4").build();
+        ContactExposure slowExposure = ContactExposure.builder().idA(idA1).epochId(1).score(1.0).build();
+        ContactExposure exposure2 = ContactExposure.builder().idA(idA2).epochId(2).score(2.0).build();
+        ContactExposure exposure3 = ContactExposure.builder().idA(idA1).epochId(3).score(3.0).build();
+
+        when(this.contactProcessor.process(slowContact)).thenAnswer(invocation -> {
+            Thread.sleep(100);
+            return slowExposure;
+        });
+        when(this.contactProcessor.process(contact2)).thenReturn(exposure2);
+        when(this.contactProcessor.process(contact3)).thenReturn(exposure3);
+        when(this.contactProcessor.process(invalidContact)).thenReturn(null);
+        Registration registration1 = Registration.builder().permanentIdentifier(idA1).build();
+        when(this.registrationService.findAllByIds(any())).thenReturn(Collections.singletonList(registration1));
+
+        // When
+        this.writer.write(Arrays.asList(slowContact, contact2, contact3, invalidContact));
+
+        // Then
+        ArgumentCaptor<Collection<byte[]>> idAs = ArgumentCaptor.forClass(Collection.class);
+        verify(this.registrationService).findAllByIds(idAs.capture());
+        assertEquals(toSet(Arrays.asList(idA1, idA2)), toSet(idAs.getValue()));
+        verify(this.registrationService, never()).findById(any());
+
+        ArgumentCaptor<List<ContactExposure>> exposures = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<Function<Collection<byte[]>, Map<ByteBuffer, Registration>>> loader = ArgumentCaptor.forClass(Function.class);
+        verify(this.registrationExposureWriter).write(exposures.capture(), loader.capture());
+        assertEquals(Arrays.asList(slowExposure, exposure2, exposure3), exposures.getValue());
+        Map<ByteBuffer, Registration> registrations = loader.getValue().apply(Arrays.asList(idA1, idA2));
+        assertEquals(registration1, registrations.get(ByteBuffer.wrap(idA1)));
+        assertFalse(registrations.containsKey(ByteBuffer.wrap(idA2)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteLooksUpRegistrationsByBatchesOfDistinctIdAs() throws Exception {
+        // Given
+        this.writer = new PipelinedContactWriter(this.contactProcessor, this.registrationService,
+                this.registrationExposureWriter, this.validationExecutor, this.lookupExecutor, 2, 2);
+        List<Contact> contacts = new ArrayList<>();
+        Set<ByteBuffer> expectedIdAs = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            byte[] idA = new byte[] { (byte) (i % 5), 0, 0, 0, 0 };
+            Contact contact = Contact.builder().id(String.valueOf(i)).build();
+            when(this.contactProcessor.process(contact))
+                    .thenReturn(ContactExposure.builder().idA(idA).epochId(i).score(1.0).build());
+            contacts.add(contact);
+            expectedIdAs.add(ByteBuffer.wrap(idA));
+        }
+        when(this.registrationService.findAllByIds(any())).thenReturn(Collections.emptyList());
+
+        // When
+        this.writer.write(contacts);
+
+        // Then
+        ArgumentCaptor<Collection<byte[]>> idAs = ArgumentCaptor.forClass(Collection.class);
+        verify(this.registrationService, times(3)).findAllByIds(idAs.capture());
+        Set<ByteBuffer> lookedUpIdAs = new HashSet<>();
+        for (Collection<byte[]> batch : idAs.getAllValues()) {
+            assertTrue(batch.size() <= 2);
+            lookedUpIdAs.addAll(toSet(batch));
+        }
+        assertEquals(expectedIdAs, lookedUpIdAs);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteFailsWhenTheValidationOfAContactFails() throws Exception {
+        // Given
+        Contact contact = Contact.builder().id("1").build();
+        when(this.contactProcessor.process(contact)).thenThrow(new RobertScoringException("Cannot score contact"));
+
+        // When
+        assertThrows(RobertScoringException.class, () -> this.writer.write(Arrays.asList(contact)));
+
+        // Then
+        verify(this.registrationExposureWriter, never()).write(anyList(), any(Function.class));
+    }
+
+    private static Set<ByteBuffer> toSet(Collection<byte[]> idAs) {
+        return idAs.stream().map(ByteBuffer::wrap).collect(Collectors.toSet());
+    }
+}
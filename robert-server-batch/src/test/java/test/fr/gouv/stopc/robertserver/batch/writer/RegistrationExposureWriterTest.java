@@ -0,0 +1,376 @@
+package test.fr.gouv.stopc.robertserver.batch.writer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.mongodb.bulk.BulkWriteResult;
+
+import fr.gouv.stopc.robert.server.batch.model.ContactExposure;
+import fr.gouv.stopc.robert.server.batch.model.HelloMessageColumns;
+import fr.gouv.stopc.robert.server.batch.service.ScoringStrategyService;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics;
+import fr.gouv.stopc.robert.server.batch.utils.ContactProcessingMetrics.RejectionReason;
+import fr.gouv.stopc.robert.server.batch.utils.PropertyLoader;
+import fr.gouv.stopc.robert.server.batch.utils.RegistrationLockProvider;
+import fr.gouv.stopc.robert.server.batch.utils.UnknownIdentifierCache;
+import fr.gouv.stopc.robert.server.batch.writer.RegistrationExposureWriter;
+import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
+import fr.gouv.stopc.robert.server.common.service.impl.ServerConfigurationServiceImpl;
+import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
+import fr.gouv.stopc.robertserver.database.model.EpochExposition;
+import fr.gouv.stopc.robertserver.database.model.EpochExposureWindow;
+import fr.gouv.stopc.robertserver.database.model.Registration;
+import fr.gouv.stopc.robertserver.database.service.IRegistrationService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(SpringExtension.class)
+public class RegistrationExposureWriterTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    @Mock
+    private IRegistrationService registrationService;
+
+    @Mock
+    private PropertyLoader propertyLoader;
+
+    @Mock
+    private ScoringStrategyService scoringStrategyService;
+
+    private IServerConfigurationService serverConfigurationService;
+
+    private UnknownIdentifierCache unknownIdentifierCache;
+
+    private ContactProcessingMetrics metrics;
+
+    private RegistrationExposureWriter writer;
+
+    private int currentEpochId;
+
+    @BeforeEach
+    public void before() {
+        this.serverConfigurationService = new ServerConfigurationServiceImpl();
+        this.currentEpochId = TimeUtils.getCurrentEpochFrom(this.serverConfigurationService.getServiceTimeStart());
+
+        when(this.mongoTemplate.bulkOps(BulkMode.UNORDERED, Registration.class)).thenReturn(this.bulkOperations);
+        when(this.propertyLoader.getRiskThreshold()).thenReturn(1.0);
+
+        this.unknownIdentifierCache = new UnknownIdentifierCache();
+        this.metrics = new ContactProcessingMetrics(new SimpleMeterRegistry());
+        this.writer = new RegistrationExposureWriter(
+                this.mongoTemplate,
+                this.registrationService,
+                this.serverConfigurationService,
+                this.propertyLoader,
+                new RegistrationLockProvider(),
+                this.unknownIdentifierCache,
+                this.metrics,
+                this.scoringStrategyService);
+    }
+
+    @Test
+    public void testWriteScoresTheExposuresOfTheChunkWithASingleCall() throws Exception {
+        // Given
+        byte[] idA = new byte[] { 1, 2, 3, 4, 5 };
+        Registration registration = Registration.builder().permanentIdentifier(idA).build();
+        when(this.registrationService.findAllByIds(any())).thenReturn(Collections.singletonList(registration));
+        when(this.scoringStrategyService.executeAll(any())).thenReturn(new double[] { 0.3, Double.NaN, 0.5 });
+        ContactExposure alreadyScored = buildExposure(idA, this.currentEpochId, 0.1);
+        ContactExposure withTwoMessages = buildExposure(idA, this.currentEpochId, null);
+        withTwoMessages.setTimesCollectedOnDevice(new long[] { 10L, 20L });
+        withTwoMessages.setRssisCalibrated(new int[] { -50, -60 });
+        ContactExposure withoutMessages = buildExposure(idA, this.currentEpochId, null);
+        withoutMessages.setTimesCollectedOnDevice(new long[0]);
+        withoutMessages.setRssisCalibrated(new int[0]);
+        ContactExposure withOneMessage = buildExposure(idA, this.currentEpochId - 1, null);
+        withOneMessage.setTimesCollectedOnDevice(new long[] { 30L });
+        withOneMessage.setRssisCalibrated(new int[] { -70 });
+
+        // When
+        this.writer.write(Arrays.asList(alreadyScored, withTwoMessages, withoutMessages, withOneMessage));
+
+        // Then
+        ArgumentCaptor<HelloMessageColumns> columns = ArgumentCaptor.forClass(HelloMessageColumns.class);
+        verify(this.scoringStrategyService, times(1)).executeAll(columns.capture());
+        assertArrayEquals(new long[] { 10L, 20L, 30L }, columns.getValue().getTimesCollectedOnDevice());
+        assertArrayEquals(new int[] { -50, -60, -70 }, columns.getValue().getRssisCalibrated());
+        assertArrayEquals(new int[] { 0, 2, 2, 3 }, columns.getValue().getOffsets());
+
+        assertEquals(0.3, withTwoMessages.getScore());
+        assertNull(withTwoMessages.getTimesCollectedOnDevice());
+        assertEquals(0.5, withOneMessage.getScore());
+        EpochExposureWindow window = registration.getExposureWindow();
+        assertEquals(2, window.getNbOfScores(this.currentEpochId));
+        assertEquals(0.4, window.getScoresSum(this.currentEpochId), 1e-9);
+        assertEquals(1, window.getNbOfScores(this.currentEpochId - 1));
+    }
+
+    @Test
+    public void testWriteMergesExposuresOfSameRegistrationInOneUpdate() throws Exception {
+        // Given
+        byte[] idA = new byte[] { 1, 2, 3, 4, 5 };
+        Registration registration = Registration.builder()
+                .permanentIdentifier(idA)
+                .exposedEpochs(new ArrayList<>(Arrays.asList(EpochExposition.builder()
+                        .epochId(this.currentEpochId)
+                        .expositionScores(Arrays.asList(0.2))
+                        .build())))
+                .build();
+        when(this.registrationService.findAllByIds(any())).thenReturn(Collections.singletonList(registration));
+
+        // When
+        this.writer.write(Arrays.asList(
+                buildExposure(new byte[] { 1, 2, 3, 4, 5 }, this.currentEpochId, 0.3),
+                buildExposure(new byte[] { 1, 2, 3, 4, 5 }, this.currentEpochId - 1, 0.4),
+                buildExposure(new byte[] { 1, 2, 3, 4, 5 }, this.currentEpochId, 0.5)));
+
+        // Then
+        verify(this.registrationService, times(1)).findAllByIds(any());
+        verify(this.registrationService, never()).findById(any());
+        verify(this.bulkOperations, times(1)).updateOne(any(Query.class), any(Update.class));
+        verify(this.bulkOperations, times(1)).execute();
+        verify(this.registrationService, never()).saveRegistration(any());
+
+        assertTrue(registration.getExposedEpochs().isEmpty());
+        EpochExposureWindow window = registration.getExposureWindow();
+        assertEquals(2, window.size());
+        assertEquals(3, window.getNbOfScores(this.currentEpochId));
+        assertEquals(1.0, window.getScoresSum(this.currentEpochId), 1e-9);
+        assertTrue(registration.isAtRisk());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteUpdatesEachRegistrationOfTheChunkInTheSameBulk() throws Exception {
+        // Given
+        byte[] idA1 = new byte[] { 1, 1, 1, 1, 1 };
+        byte[] idA2 = new byte[] { 2, 2, 2, 2, 2 };
+        when(this.registrationService.findAllByIds(any())).thenReturn(Arrays.asList(
+                Registration.builder().permanentIdentifier(idA1).build(),
+                Registration.builder().permanentIdentifier(idA2).build()));
+
+        // When
+        this.writer.write(Arrays.asList(
+                buildExposure(idA1, this.currentEpochId, 0.1),
+                buildExposure(idA2, this.currentEpochId, 0.1),
+                buildExposure(idA1, this.currentEpochId, 0.1)));
+
+        // Then
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        ArgumentCaptor<Collection<byte[]>> idAs = ArgumentCaptor.forClass(Collection.class);
+        verify(this.registrationService).findAllByIds(idAs.capture());
+        assertEquals(2, idAs.getValue().size());
+        verify(this.bulkOperations, times(2)).updateOne(any(Query.class), updates.capture());
+        verify(this.bulkOperations, times(1)).execute();
+        updates.getAllValues().forEach(update -> assertEquals(Boolean.FALSE, update.getUpdateObject().get("$set", Document.class).get("atRisk")));
+    }
+
+    @Test
+    public void testWriteDropsOldEpochsAndUnknownRegistrations() throws Exception {
+        // Given
+        byte[] knownIdA = new byte[] { 1, 1, 1, 1, 1 };
+        int tooOldEpochId = this.currentEpochId - (this.serverConfigurationService.getContagiousPeriod() * 24 * 3600)
+                / this.serverConfigurationService.getEpochDurationSecs() - 1;
+        Registration registration = Registration.builder()
+                .permanentIdentifier(knownIdA)
+                .exposedEpochs(Collections.singletonList(EpochExposition.builder()
+                        .epochId(tooOldEpochId)
+                        .expositionScores(Arrays.asList(10.0))
+                        .build()))
+                .build();
+        when(this.registrationService.findAllByIds(any())).thenReturn(Collections.singletonList(registration));
+
+        // When
+        this.writer.write(Arrays.asList(
+                buildExposure(knownIdA, this.currentEpochId, 0.1),
+                buildExposure(new byte[] { 9, 9, 9, 9, 9 }, this.currentEpochId, 0.1)));
+
+        // Then
+        verify(this.bulkOperations, times(1)).updateOne(any(Query.class), any(Update.class));
+        EpochExposureWindow window = registration.getExposureWindow();
+        assertEquals(1, window.size());
+        assertEquals(this.currentEpochId, window.getLastEpochId());
+        assertEquals(false, registration.isAtRisk());
+        assertEquals(1L, this.metrics.getNbOfAcceptedContacts());
+        assertEquals(1L, this.metrics.getNbOfRejectedContacts().get(RejectionReason.UNKNOWN_REGISTRATION));
+    }
+
+    @Test
+    public void testWriteUpdatesTheRunningTotalRiskIncrementally() throws Exception {
+        // Given
+        byte[] idA = new byte[] { 1, 2, 3, 4, 5 };
+        int nbOfEpochsToKeep = (this.serverConfigurationService.getContagiousPeriod() * 24 * 3600)
+                / this.serverConfigurationService.getEpochDurationSecs();
+        int tooOldEpochId = this.currentEpochId - nbOfEpochsToKeep - 1;
+        EpochExposureWindow window = new EpochExposureWindow(nbOfEpochsToKeep + 1);
+        window.add(tooOldEpochId, 0.3, 2);
+        window.add(this.currentEpochId - 1, 0.6, 1);
+        Registration registration = Registration.builder()
+                .permanentIdentifier(idA)
+                .latestRiskEpoch(tooOldEpochId - 1)
+                .totalRiskSinceLatestRiskEpoch(0.9)
+                .exposureWindow(window)
+                .build();
+        when(this.registrationService.findAllByIds(any())).thenReturn(Collections.singletonList(registration));
+
+        // When
+        this.writer.write(Arrays.asList(
+                buildExposure(idA, this.currentEpochId, 0.25),
+                buildExposure(idA, this.currentEpochId - 1, 0.1)));
+
+        // Then
+        assertEquals(2, window.size());
+        assertEquals(0.7, window.getScoresSum(this.currentEpochId - 1), 1e-9);
+        assertEquals(0.25, window.getScoresSum(this.currentEpochId), 1e-9);
+        // 0.9 + 0.25 + 0.1 - 0.3 for the expired epoch
+        assertEquals(0.95, registration.getTotalRiskSinceLatestRiskEpoch(), 1e-9);
+        assertEquals(false, registration.isAtRisk());
+    }
+
+    @Test
+    public void testWriteMovesTheExposedEpochsIntoTheExposureWindow() throws Exception {
+        // Given
+        byte[] idA = new byte[] { 1, 2, 3, 4, 5 };
+        Registration registration = Registration.builder()
+                .permanentIdentifier(idA)
+                .exposedEpochs(new ArrayList<>(Arrays.asList(
+                        EpochExposition.builder()
+                                .epochId(this.currentEpochId - 1)
+                                .expositionScores(Arrays.asList(0.1, 0.2))
+                                .scoresSum(0.3)
+                                .build(),
+                        // Written before the sums were maintained
+                        EpochExposition.builder()
+                                .epochId(this.currentEpochId - 2)
+                                .expositionScores(Arrays.asList(0.6))
+                                .build())))
+                .build();
+        when(this.registrationService.findAllByIds(any())).thenReturn(Collections.singletonList(registration));
+
+        // When
+        this.writer.write(Arrays.asList(buildExposure(idA, this.currentEpochId, 0.25)));
+
+        // Then
+        assertTrue(registration.getExposedEpochs().isEmpty());
+        EpochExposureWindow window = registration.getExposureWindow();
+        assertEquals(3, window.size());
+        assertEquals(2, window.getNbOfScores(this.currentEpochId - 1));
+        assertEquals(0.6, window.getScoresSum(this.currentEpochId - 2), 1e-9);
+        assertEquals(1.15, registration.getTotalRiskSinceLatestRiskEpoch(), 1e-9);
+        assertTrue(registration.isAtRisk());
+    }
+
+    @Test
+    public void testWriteCachesTheIdentifiersOfUnknownRegistrations() throws Exception {
+        // Given
+        byte[] unknownIdA = new byte[] { 9, 9, 9, 9, 9 };
+        byte[] ebid = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+        when(this.registrationService.findAllByIds(any())).thenReturn(Collections.emptyList());
+
+        // When
+        this.writer.write(Arrays.asList(ContactExposure.builder()
+                .idA(unknownIdA)
+                .ebid(ebid)
+                .epochId(this.currentEpochId)
+                .score(0.1)
+                .build()));
+
+        // Then
+        verify(this.bulkOperations, never()).execute();
+        assertTrue(this.unknownIdentifierCache.isUnknownIdA(unknownIdA));
+        assertTrue(this.unknownIdentifierCache.isUnknownEbid(ebid));
+    }
+
+    @Test
+    public void testWriteMergesAgainTheExposuresOfRegistrationsUpdatedByAnotherNode() throws Exception {
+        // Given
+        byte[] idA = new byte[] { 1, 2, 3, 4, 5 };
+        when(this.propertyLoader.getMultiNodeMode()).thenReturn(true);
+        when(this.registrationService.findAllByIds(any())).thenReturn(
+                Collections.singletonList(Registration.builder().permanentIdentifier(idA).exposureVersion(3).build()),
+                Collections.singletonList(Registration.builder().permanentIdentifier(idA).exposureVersion(4)
+                        .exposureWriteIds(Collections.singletonList("another-node-write")).build()),
+                Collections.singletonList(Registration.builder().permanentIdentifier(idA).exposureVersion(4).build()));
+        when(this.bulkOperations.execute()).thenReturn(
+                BulkWriteResult.acknowledged(0, 0, 0, 0, Collections.emptyList()),
+                BulkWriteResult.acknowledged(0, 1, 0, 1, Collections.emptyList()));
+
+        // When
+        this.writer.write(Arrays.asList(buildExposure(idA, this.currentEpochId, 0.3)));
+
+        // Then
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(this.bulkOperations, times(2)).updateOne(queries.capture(), any(Update.class));
+        verify(this.bulkOperations, times(2)).execute();
+        assertEquals(3, queries.getAllValues().get(0).getQueryObject().get("exposureVersion"));
+        assertEquals(4, queries.getAllValues().get(1).getQueryObject().get("exposureVersion"));
+        assertEquals(1L, this.metrics.getNbOfAcceptedContacts());
+    }
+
+    @Test
+    public void testWriteFailsWhenRegistrationsAreStillUpdatedByAnotherNodeAfterMaxAttempts() {
+        // Given
+        byte[] idA = new byte[] { 1, 2, 3, 4, 5 };
+        when(this.propertyLoader.getMultiNodeMode()).thenReturn(true);
+        when(this.registrationService.findAllByIds(any())).thenReturn(
+                Collections.singletonList(Registration.builder().permanentIdentifier(idA).exposureVersion(3).build()));
+        when(this.bulkOperations.execute()).thenReturn(BulkWriteResult.acknowledged(0, 0, 0, 0, Collections.emptyList()));
+
+        // When
+        assertThrows(OptimisticLockingFailureException.class,
+                () -> this.writer.write(Arrays.asList(buildExposure(idA, this.currentEpochId, 0.3))));
+
+        // Then
+        verify(this.bulkOperations, times(5)).execute();
+        assertEquals(0L, this.metrics.getNbOfAcceptedContacts());
+    }
+
+    @Test
+    public void testWriteWithoutExposureDoesNotHitTheDatabase() throws Exception {
+        // When
+        this.writer.write(Collections.emptyList());
+
+        // Then
+        verify(this.mongoTemplate, never()).bulkOps(any(BulkMode.class), any(Class.class));
+        verify(this.registrationService, never()).findAllByIds(any());
+    }
+
+    private ContactExposure buildExposure(byte[] idA, int epochId, Double score) {
+        return ContactExposure.builder()
+                .idA(idA)
+                .epochId(epochId)
+                .score(score)
+                .build();
+    }
+}
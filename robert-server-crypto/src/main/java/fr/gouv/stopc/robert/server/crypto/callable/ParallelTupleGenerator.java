@@ -0,0 +1,153 @@
+package fr.gouv.stopc.robert.server.crypto.callable;
+
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import fr.gouv.stopc.robert.server.crypto.exception.RobertServerCryptoException;
+import fr.gouv.stopc.robert.server.crypto.model.EphemeralTuple;
+import fr.gouv.stopc.robert.server.crypto.service.CryptoService;
+import fr.gouv.stopc.robert.server.crypto.service.impl.CryptoServiceImpl;
+import fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoAESECB;
+import fr.gouv.stopc.robert.server.crypto.structure.impl.CryptoSkinny64;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Generate the tuples of several days on a shared fork-join pool.
+ * The epochs of each day are split into blocks generated by distinct tasks. Each task encrypts the ECCs with its own
+ * AES cipher, a {@link javax.crypto.Cipher} not being thread-safe, while the Skinny64 cipher of a day is shared
+ * between the tasks of the day since its key schedule is never modified.
+ * Each task writes its tuples at the offset of its epochs, so that the tuples are returned in epoch order without
+ * sorting them.
+ */
+@Slf4j
+public class ParallelTupleGenerator {
+
+    private final ForkJoinPool pool;
+
+    private final int epochsPerTask;
+
+    private final CryptoService cryptoService;
+
+    /**
+     * @param pool pool shared with the other generations, bounding the number of threads generating tuples
+     * @param epochsPerTask the maximum number of epochs generated by a task
+     */
+    public ParallelTupleGenerator(ForkJoinPool pool, int epochsPerTask) {
+        if (epochsPerTask < 1) {
+            throw new IllegalArgumentException("A task must generate at least one epoch");
+        }
+        this.pool = pool;
+        this.epochsPerTask = epochsPerTask;
+        this.cryptoService = new CryptoServiceImpl();
+    }
+
+    /**
+     * @param serverKeySchedules the Skinny64 ciphers of the server keys of the days, null for a day without key
+     * @param nbOfEpochsPerDay the number of epochs to generate for each day
+     * @param federationKey
+     * @param idA
+     * @param firstEpoch the epoch of the first tuple of the first day
+     * @param countryCode
+     * @return the tuples ordered by epoch, without the tuples of the days without key or which failed
+     * @throws RobertServerCryptoException if the generation was interrupted
+     */
+    public List<EphemeralTuple> exec(final CryptoSkinny64[] serverKeySchedules,
+                                     final int[] nbOfEpochsPerDay,
+                                     final Key federationKey,
+                                     final byte[] idA,
+                                     final int firstEpoch,
+                                     final byte countryCode) throws RobertServerCryptoException {
+        int nbOfEpochs = 0;
+        for (int nbOfEpochsForDay : nbOfEpochsPerDay) {
+            nbOfEpochs += nbOfEpochsForDay;
+        }
+        final EphemeralTuple[] ephemeralTuples = new EphemeralTuple[nbOfEpochs];
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        int offset = 0;
+        for (int i = 0; i < nbOfEpochsPerDay.length; i++) {
+            if (Objects.isNull(serverKeySchedules[i])) {
+                log.warn("Cannot generating tuples for day {}, missing key", i);
+            } else {
+                for (int from = offset; from < offset + nbOfEpochsPerDay[i]; from += this.epochsPerTask) {
+                    tasks.add(new BlockTask(serverKeySchedules[i], federationKey, idA, firstEpoch, countryCode,
+                            ephemeralTuples, from, Math.min(from + this.epochsPerTask, offset + nbOfEpochsPerDay[i])));
+                }
+            }
+            offset += nbOfEpochsPerDay[i];
+        }
+
+        try {
+            for (Future<Void> future : this.pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RobertServerCryptoException("Interrupted while generating the tuples");
+        } catch (ExecutionException e) {
+            throw new RobertServerCryptoException("Failed to generate the tuples", e.getCause());
+        }
+
+        List<EphemeralTuple> orderedTuples = new ArrayList<>(nbOfEpochs);
+        for (EphemeralTuple ephemeralTuple : ephemeralTuples) {
+            if (Objects.nonNull(ephemeralTuple)) {
+                orderedTuples.add(ephemeralTuple);
+            }
+        }
+        return orderedTuples;
+    }
+
+    /**
+     * Generate the tuples of the epochs of a block of a day into their slots of the shared array
+     */
+    private class BlockTask implements Callable<Void> {
+
+        private final CryptoSkinny64 skinny64;
+
+        private final Key federationKey;
+
+        private final byte[] idA;
+
+        private final int firstEpoch;
+
+        private final byte countryCode;
+
+        private final EphemeralTuple[] ephemeralTuples;
+
+        private final int from;
+
+        private final int to;
+
+        private BlockTask(CryptoSkinny64 skinny64, Key federationKey, byte[] idA, int firstEpoch, byte countryCode,
+                          EphemeralTuple[] ephemeralTuples, int from, int to) {
+            this.skinny64 = skinny64;
+            this.federationKey = federationKey;
+            this.idA = idA;
+            this.firstEpoch = firstEpoch;
+            this.countryCode = countryCode;
+            this.ephemeralTuples = ephemeralTuples;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Void call() {
+            CryptoAESECB aes = new CryptoAESECB(this.federationKey);
+            for (int i = this.from; i < this.to; i++) {
+                try {
+                    this.ephemeralTuples[i] = cryptoService.generateEphemeralTuple(this.skinny64, aes,
+                            this.firstEpoch + i, this.idA, this.countryCode);
+                } catch (RobertServerCryptoException e) {
+                    log.error("Error when generating tuples");
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -21,8 +21,6 @@ import org.springframework.util.CollectionUtils;
 @Slf4j
 public class TupleGenerator {
 
-    private final byte[] serverKey;
-
     private final Key federationKey;
     
     private CryptoSkinny64 skinny64;
@@ -32,9 +30,16 @@ public class TupleGenerator {
     private final CryptoService cryptoService;
 
     public TupleGenerator(byte[] serverKey, Key federationKey) {
-        this.serverKey = serverKey;
+        this(new CryptoSkinny64(serverKey), federationKey);
+    }
+
+    /**
+     * @param skinny64 cipher with the expanded key schedule of the server key, possibly shared with other generators
+     * @param federationKey
+     */
+    public TupleGenerator(CryptoSkinny64 skinny64, Key federationKey) {
         this.federationKey = federationKey;
-        this.skinny64 =  new CryptoSkinny64(this.serverKey);
+        this.skinny64 = skinny64;
         this.aes = new CryptoAESECB(this.federationKey);
 
         // Create instance of CryptoServiceImpl that will be used in threads
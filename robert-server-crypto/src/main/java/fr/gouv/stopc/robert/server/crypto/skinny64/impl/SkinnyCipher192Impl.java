@@ -266,7 +266,7 @@ public class SkinnyCipher192Impl implements SkinnyCipher192 {
     @Override
     final public void encrypt(final byte[] output, final byte[] input, final Skinny64Key ks) {
         final Skinny64Key.Cells state = new Skinny64Key.Cells();
-        Skinny64Key.Cells schedule = new Skinny64Key.Cells();
+        Skinny64Key.Cells schedule;
         int index;
         int temp_32u;
 
@@ -323,7 +323,7 @@ public class SkinnyCipher192Impl implements SkinnyCipher192 {
     @Override
     final public void decrypt(final byte[] output, final byte[] input, final Skinny64Key ks) {
         final Skinny64Key.Cells state = new Skinny64Key.Cells();
-        Skinny64Key.Cells schedule = new Skinny64Key.Cells();
+        Skinny64Key.Cells schedule;
         int index;
         int temp_32u;
 
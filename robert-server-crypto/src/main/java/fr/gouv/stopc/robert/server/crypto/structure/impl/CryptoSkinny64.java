@@ -14,6 +14,10 @@ import lombok.extern.slf4j.Slf4j;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.Objects;
 
+/**
+ * Skinny64 cipher with the key schedule expanded once, when built. The key schedule is never modified afterwards, so
+ * that an instance can be shared between threads and reused for every encryption and decryption with its key.
+ */
 @Slf4j
 public class CryptoSkinny64 extends CryptoCipherStructureAbstract {
 
@@ -0,0 +1,21 @@
+package fr.gouv.stopc.robertserver.database.configuration;
+
+import java.util.Arrays;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+
+import fr.gouv.stopc.robertserver.database.converter.EpochExposureWindowReadConverter;
+import fr.gouv.stopc.robertserver.database.converter.EpochExposureWindowWriteConverter;
+
+@Configuration
+public class MongoConversionsConfiguration {
+
+    @Bean
+    public MongoCustomConversions mongoCustomConversions() {
+        return new MongoCustomConversions(Arrays.asList(
+                new EpochExposureWindowWriteConverter(),
+                new EpochExposureWindowReadConverter()));
+    }
+}
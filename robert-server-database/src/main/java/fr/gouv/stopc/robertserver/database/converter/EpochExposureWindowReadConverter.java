@@ -0,0 +1,31 @@
+package fr.gouv.stopc.robertserver.database.converter;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+
+import fr.gouv.stopc.robertserver.database.model.EpochExposureWindow;
+
+/**
+ * Rebuild the window from the exposed epochs written by {@link EpochExposureWindowWriteConverter}
+ */
+@ReadingConverter
+public class EpochExposureWindowReadConverter implements Converter<Document, EpochExposureWindow> {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public EpochExposureWindow convert(Document document) {
+        EpochExposureWindow window = new EpochExposureWindow(
+                document.getInteger(EpochExposureWindowWriteConverter.CAPACITY_FIELD));
+
+        List<Document> epochs = document.get(EpochExposureWindowWriteConverter.EPOCHS_FIELD, List.class);
+        for (Document epoch : epochs) {
+            window.add(epoch.getInteger(EpochExposureWindowWriteConverter.EPOCH_ID_FIELD),
+                    epoch.getDouble(EpochExposureWindowWriteConverter.SCORES_SUM_FIELD),
+                    epoch.getInteger(EpochExposureWindowWriteConverter.NB_OF_SCORES_FIELD));
+        }
+        return window;
+    }
+}
@@ -0,0 +1,39 @@
+package fr.gouv.stopc.robertserver.database.converter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.WritingConverter;
+
+import fr.gouv.stopc.robertserver.database.model.EpochExposureWindow;
+
+/**
+ * Store only the exposed epochs of the window, in ascending order, so that expired epochs can be pulled
+ * by the database
+ */
+@WritingConverter
+public class EpochExposureWindowWriteConverter implements Converter<EpochExposureWindow, Document> {
+
+    public static final String CAPACITY_FIELD = "capacity";
+
+    public static final String EPOCHS_FIELD = "epochs";
+
+    public static final String EPOCH_ID_FIELD = "epochId";
+
+    public static final String SCORES_SUM_FIELD = "scoresSum";
+
+    public static final String NB_OF_SCORES_FIELD = "nbOfScores";
+
+    @Override
+    public Document convert(EpochExposureWindow window) {
+        List<Document> epochs = new ArrayList<>(window.size());
+        window.forEach((epochId, scoresSum, nbOfScores) -> epochs.add(new Document(EPOCH_ID_FIELD, epochId)
+                .append(SCORES_SUM_FIELD, scoresSum)
+                .append(NB_OF_SCORES_FIELD, nbOfScores)));
+
+        return new Document(CAPACITY_FIELD, window.getCapacity())
+                .append(EPOCHS_FIELD, epochs);
+    }
+}
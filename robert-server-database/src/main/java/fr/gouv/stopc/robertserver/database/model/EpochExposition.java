@@ -15,4 +15,9 @@ public class EpochExposition {
     private int epochId;
 
     private List<Double> expositionScores;
+
+    /**
+     * Sum of the exposition scores, null for the epochs written before it was maintained
+     */
+    private Double scoresSum;
 }
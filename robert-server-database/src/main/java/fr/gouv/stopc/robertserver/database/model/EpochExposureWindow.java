@@ -0,0 +1,193 @@
+package fr.gouv.stopc.robertserver.database.model;
+
+import java.util.Arrays;
+
+/**
+ * Exposures of a registration over a fixed window of epochs ending with the latest exposed epoch.
+ * The sum and the number of the exposition scores of each epoch are stored in primitive arrays indexed by epoch
+ * modulo the size of the window (ring buffer), so that reading, adding or expiring the exposure of an epoch
+ * neither searches nor allocates.
+ * Not thread-safe.
+ */
+public class EpochExposureWindow {
+
+    private static final int NO_EPOCH = Integer.MIN_VALUE;
+
+    private final int[] epochIds;
+
+    private final double[] scoresSums;
+
+    private final int[] nbOfScores;
+
+    // Lower bound of the exposed epochs, may be below the start of the window once it has moved
+    private int firstEpochId;
+
+    private int lastEpochId;
+
+    private int size;
+
+    @FunctionalInterface
+    public interface EpochExposureConsumer {
+        void accept(int epochId, double scoresSum, int nbOfScores);
+    }
+
+    /**
+     * @param capacity the number of epochs of the window
+     */
+    public EpochExposureWindow(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the window must be positive: " + capacity);
+        }
+        this.epochIds = new int[capacity];
+        this.scoresSums = new double[capacity];
+        this.nbOfScores = new int[capacity];
+        Arrays.fill(this.epochIds, NO_EPOCH);
+    }
+
+    public int getCapacity() {
+        return this.epochIds.length;
+    }
+
+    /**
+     * @return the number of exposed epochs
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return the latest exposed epoch, 0 if there is none
+     */
+    public int getLastEpochId() {
+        return isEmpty() ? 0 : this.lastEpochId;
+    }
+
+    public double getScoresSum(int epochId) {
+        int slot = slotOf(epochId);
+        return this.epochIds[slot] == epochId ? this.scoresSums[slot] : 0.0;
+    }
+
+    public int getNbOfScores(int epochId) {
+        int slot = slotOf(epochId);
+        return this.epochIds[slot] == epochId ? this.nbOfScores[slot] : 0;
+    }
+
+    public boolean add(int epochId, double score) {
+        return add(epochId, score, 1);
+    }
+
+    /**
+     * Add scores to an epoch. An epoch after the latest one moves the window, which evicts the epochs leaving it:
+     * call {@link #expireBefore(int, int)} first to know their risk.
+     * @return false if the epoch is older than the window, in which case it is ignored
+     */
+    public boolean add(int epochId, double scoresSum, int nbOfScores) {
+        boolean wasEmpty = isEmpty();
+        if (!wasEmpty && epochId <= this.lastEpochId - getCapacity()) {
+            return false;
+        }
+
+        if (!wasEmpty && epochId > this.lastEpochId) {
+            expireBefore(epochId - getCapacity() + 1, Integer.MAX_VALUE);
+        }
+
+        int slot = slotOf(epochId);
+        if (this.epochIds[slot] != epochId) {
+            this.size++;
+            this.epochIds[slot] = epochId;
+            this.scoresSums[slot] = 0.0;
+            this.nbOfScores[slot] = 0;
+        }
+        this.scoresSums[slot] += scoresSum;
+        this.nbOfScores[slot] += nbOfScores;
+
+        if (wasEmpty || epochId > this.lastEpochId) {
+            this.lastEpochId = epochId;
+        }
+        if (wasEmpty || epochId < this.firstEpochId) {
+            this.firstEpochId = epochId;
+        }
+        return true;
+    }
+
+    /**
+     * Remove the epochs before the given epoch, in time proportional to the number of epochs elapsed since the
+     * previous expiry
+     * @param epochId the first epoch to keep
+     * @param afterEpochId the epoch after which the scores of the removed epochs are summed
+     * @return the sum of the scores of the removed epochs after afterEpochId
+     */
+    public double expireBefore(int epochId, int afterEpochId) {
+        if (isEmpty()) {
+            return 0.0;
+        }
+
+        double expiredRisk = 0.0;
+        int end = Math.min(epochId, this.lastEpochId + 1);
+        for (int expiredEpochId = startEpochId(); expiredEpochId < end; expiredEpochId++) {
+            int slot = slotOf(expiredEpochId);
+            if (this.epochIds[slot] == expiredEpochId) {
+                if (expiredEpochId > afterEpochId) {
+                    expiredRisk += this.scoresSums[slot];
+                }
+                clearSlot(slot);
+            }
+        }
+        this.firstEpochId = Math.max(this.firstEpochId, epochId);
+        return expiredRisk;
+    }
+
+    /**
+     * @return the sum of the scores of the epochs after the given epoch, going through the whole window
+     */
+    public double sumAfter(int epochId) {
+        double sum = 0.0;
+        for (int slot = 0; slot < this.epochIds.length; slot++) {
+            if (this.epochIds[slot] != NO_EPOCH && this.epochIds[slot] > epochId) {
+                sum += this.scoresSums[slot];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Go through the exposed epochs in ascending order
+     */
+    public void forEach(EpochExposureConsumer consumer) {
+        if (isEmpty()) {
+            return;
+        }
+        for (int epochId = startEpochId(); epochId <= this.lastEpochId; epochId++) {
+            int slot = slotOf(epochId);
+            if (this.epochIds[slot] == epochId) {
+                consumer.accept(epochId, this.scoresSums[slot], this.nbOfScores[slot]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(this.epochIds, NO_EPOCH);
+        Arrays.fill(this.scoresSums, 0.0);
+        Arrays.fill(this.nbOfScores, 0);
+        this.size = 0;
+    }
+
+    private int startEpochId() {
+        return Math.max(this.firstEpochId, this.lastEpochId - getCapacity() + 1);
+    }
+
+    private void clearSlot(int slot) {
+        this.epochIds[slot] = NO_EPOCH;
+        this.scoresSums[slot] = 0.0;
+        this.nbOfScores[slot] = 0;
+        this.size--;
+    }
+
+    private int slotOf(int epochId) {
+        return Math.floorMod(epochId, getCapacity());
+    }
+}
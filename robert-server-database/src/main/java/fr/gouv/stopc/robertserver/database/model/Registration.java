@@ -26,7 +26,30 @@ public class Registration {
 
 	private int latestRiskEpoch;
 
+	/**
+	 * Running sum of the scores of the exposed epochs after latestRiskEpoch, null if not computed yet
+	 */
+	private Double totalRiskSinceLatestRiskEpoch;
+
+	/**
+	 * Exposed epochs written before the exposure window, moved to it by the batch
+	 */
 	@Builder.Default
 	private List<EpochExposition> exposedEpochs = new ArrayList<>();
+
+	/**
+	 * Exposures over the contagious period, null until the batch first updates the registration
+	 */
+	private EpochExposureWindow exposureWindow;
+
+	/**
+	 * Number of exposure updates by the batch, checked before each of them when several batch nodes run at once
+	 */
+	private Integer exposureVersion;
+
+	/**
+	 * Ids of the latest exposure updates by the batch, telling a batch node whether its update was applied
+	 */
+	private List<String> exposureWriteIds;
 	
 }
@@ -1,5 +1,7 @@
 package fr.gouv.stopc.robertserver.database.repository;
 
+import java.util.Collection;
+
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 import fr.gouv.stopc.robertserver.database.model.Contact;
@@ -7,4 +9,6 @@ import fr.gouv.stopc.robertserver.database.model.Contact;
 
 public interface ContactRepository extends MongoRepository<Contact, String> {
 
+	void deleteByIdIn(Collection<String> ids);
+
 }
@@ -1,5 +1,6 @@
 package fr.gouv.stopc.robertserver.database.service;
 
+import java.util.Collection;
 import java.util.List;
 
 import fr.gouv.stopc.robertserver.database.model.Contact;
@@ -11,6 +12,12 @@ public interface ContactService {
 
 	void delete(Contact contact);
 
+	/**
+	 * Remove the contacts with a single request
+	 * @param ids the ids of the contacts to remove
+	 */
+	void deleteAllByIds(Collection<String> ids);
+
 	void deleteAll();
 
 	List<Contact> findAll();
@@ -1,5 +1,6 @@
 package fr.gouv.stopc.robertserver.database.service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -11,6 +12,13 @@ public interface IRegistrationService {
 	
 	Optional<Registration> findById(byte[] id);
 
+	/**
+	 * Find the registrations of several ids with a single request
+	 * @param ids
+	 * @return the registrations found, unknown ids are ignored
+	 */
+	List<Registration> findAllByIds(Collection<byte[]> ids);
+
 	Optional<Registration> saveRegistration(Registration registration);
 
 	void delete(Registration registration);
@@ -1,5 +1,6 @@
 package fr.gouv.stopc.robertserver.database.service.impl;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -7,6 +8,7 @@ import javax.inject.Inject;
 
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.CollectionUtils;
 
 import fr.gouv.stopc.robertserver.database.model.Contact;
 import fr.gouv.stopc.robertserver.database.repository.ContactRepository;
@@ -37,6 +39,14 @@ public class ContactServiceImpl implements ContactService {
 		Optional.ofNullable(contact).ifPresent(this.contactRepository::delete);
 	}
 
+	@Override
+	public void deleteAllByIds(Collection<String> ids) {
+
+		if (!CollectionUtils.isEmpty(ids)) {
+			this.contactRepository.deleteByIdIn(ids);
+		}
+	}
+
 	@Override
 	public void deleteAll() {
 		this.contactRepository.deleteAll();
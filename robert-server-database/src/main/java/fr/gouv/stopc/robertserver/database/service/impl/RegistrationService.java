@@ -4,7 +4,9 @@ import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 import javax.crypto.KeyGenerator;
@@ -40,6 +42,16 @@ public class RegistrationService implements IRegistrationService {
 	public Optional<Registration> findById(byte[] id) {
 		return this.registrationRepository.findById(id);
 	}
+
+	@Override
+	public List<Registration> findAllByIds(Collection<byte[]> ids) {
+		if (Objects.isNull(ids) || ids.isEmpty()) {
+			return new ArrayList<>();
+		}
+		List<Registration> registrations = new ArrayList<>();
+		this.registrationRepository.findAllById(ids).forEach(registrations::add);
+		return registrations;
+	}
 	
 	@Override
 	public Optional<Registration> saveRegistration(Registration registration) {
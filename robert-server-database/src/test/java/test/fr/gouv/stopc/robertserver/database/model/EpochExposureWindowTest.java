@@ -0,0 +1,103 @@
+package test.fr.gouv.stopc.robertserver.database.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import fr.gouv.stopc.robertserver.database.converter.EpochExposureWindowReadConverter;
+import fr.gouv.stopc.robertserver.database.converter.EpochExposureWindowWriteConverter;
+import fr.gouv.stopc.robertserver.database.model.EpochExposureWindow;
+
+public class EpochExposureWindowTest {
+
+	@Test
+	public void testAddSumsTheScoresOfEachEpoch() {
+		// Given
+		EpochExposureWindow window = new EpochExposureWindow(10);
+
+		// When
+		window.add(100, 0.5);
+		window.add(102, 1.0);
+		window.add(100, 0.25);
+
+		// Then
+		assertEquals(2, window.size());
+		assertEquals(0.75, window.getScoresSum(100));
+		assertEquals(2, window.getNbOfScores(100));
+		assertEquals(0.0, window.getScoresSum(101));
+		assertEquals(102, window.getLastEpochId());
+		assertEquals(1.0, window.sumAfter(100));
+	}
+
+	@Test
+	public void testAddRejectsEpochsOlderThanTheWindowAndEvictsThoseLeavingIt() {
+		// Given
+		EpochExposureWindow window = new EpochExposureWindow(10);
+		window.add(100, 0.5);
+		window.add(105, 1.0);
+
+		// When
+		boolean tooOldAdded = window.add(95, 2.0);
+		window.add(110, 0.25);
+
+		// Then
+		assertFalse(tooOldAdded);
+		assertEquals(2, window.size());
+		assertEquals(0.0, window.getScoresSum(100));
+		assertEquals(1.25, window.sumAfter(0));
+		assertEquals(110, window.getLastEpochId());
+	}
+
+	@Test
+	public void testExpireBeforeReturnsTheRiskOfTheExpiredEpochsAfterTheGivenOne() {
+		// Given
+		EpochExposureWindow window = new EpochExposureWindow(10);
+		window.add(100, 0.5);
+		window.add(101, 1.0);
+		window.add(102, 2.0);
+		window.add(104, 4.0);
+
+		// When
+		double expiredRisk = window.expireBefore(103, 100);
+
+		// Then
+		assertEquals(3.0, expiredRisk);
+		assertEquals(1, window.size());
+		assertEquals(0.0, window.expireBefore(103, 0));
+
+		window.expireBefore(105, 0);
+		assertTrue(window.isEmpty());
+		assertEquals(0, window.getLastEpochId());
+	}
+
+	@Test
+	public void testConvertersKeepTheExposedEpochs() {
+		// Given
+		EpochExposureWindow window = new EpochExposureWindow(10);
+		window.add(108, 0.5);
+		window.add(100, 1.0, 3);
+		window.add(104, 2.0);
+
+		// When
+		Document document = new EpochExposureWindowWriteConverter().convert(window);
+		EpochExposureWindow readWindow = new EpochExposureWindowReadConverter().convert(document);
+
+		// Then
+		assertEquals(3, document.get("epochs", List.class).size());
+		assertEquals(10, readWindow.getCapacity());
+		List<Integer> epochIds = new ArrayList<>();
+		readWindow.forEach((epochId, scoresSum, nbOfScores) -> {
+			epochIds.add(epochId);
+			assertEquals(window.getScoresSum(epochId), scoresSum);
+			assertEquals(window.getNbOfScores(epochId), nbOfScores);
+		});
+		assertEquals(Arrays.asList(100, 104, 108), epochIds);
+	}
+}
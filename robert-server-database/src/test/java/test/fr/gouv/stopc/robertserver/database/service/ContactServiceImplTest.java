@@ -6,6 +6,8 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -73,6 +75,29 @@ public class ContactServiceImplTest {
 		verify(this.contactRepository).delete(contact);
 	}
 
+	@Test
+	public void testDeleteAllByIdsWhenEmpty() {
+
+		// When
+		this.contactService.deleteAllByIds(Collections.emptyList());
+
+		// Then
+		verify(this.contactRepository, never()).deleteByIdIn(any());
+	}
+
+	@Test
+	public void testDeleteAllByIds() {
+
+		// Given
+		List<String> ids = Arrays.asList("1", "2");
+
+		// When
+		this.contactService.deleteAllByIds(ids);
+
+		// Then
+		verify(this.contactRepository).deleteByIdIn(ids);
+	}
+
 	@Test
 	public void testFindAll() {
 
@@ -26,6 +26,9 @@ import javax.crypto.KeyGenerator;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 @Slf4j
 @ExtendWith(SpringExtension.class)
@@ -119,6 +122,33 @@ public class RegistrationServiceImplTest {
 		verify(this.registrationRepository).findById(ByteUtils.EMPTY_BYTE_ARRAY);
 	}
 
+	@Test
+	public void testFindAllByIds() {
+
+		// Given
+		List<byte[]> ids = Arrays.asList(this.generateKey(5), this.generateKey(5));
+		Registration registration = Registration.builder().permanentIdentifier(ids.get(0)).build();
+		when(this.registrationRepository.findAllById(ids)).thenReturn(Collections.singletonList(registration));
+
+		// When
+		List<Registration> registrations = this.registrationService.findAllByIds(ids);
+
+		// Then
+		verify(this.registrationRepository).findAllById(ids);
+		assertEquals(Collections.singletonList(registration), registrations);
+	}
+
+	@Test
+	public void testFindAllByIdsWhenEmpty() {
+
+		// When
+		List<Registration> registrations = this.registrationService.findAllByIds(Collections.emptyList());
+
+		// Then
+		verify(this.registrationRepository, never()).findAllById(any());
+		assertTrue(registrations.isEmpty());
+	}
+
 	@Test
 	public void testSaveRegistrationWhenIsNull() {
 
@@ -57,9 +57,16 @@ public class DeleteHistoryControllerImpl implements IDeleteHistoryController {
 		if (registrationRecord.isPresent()) {
 			Registration record = registrationRecord.get();
 
-			// Clear ExposedEpoch list then save the updated registration
-			if (!CollectionUtils.isEmpty(record.getExposedEpochs())) {
-				record.getExposedEpochs().clear();
+			// Clear ExposedEpoch list and exposure window then save the updated registration
+			boolean hasExposureWindow = Objects.nonNull(record.getExposureWindow()) && !record.getExposureWindow().isEmpty();
+			if (!CollectionUtils.isEmpty(record.getExposedEpochs()) || hasExposureWindow) {
+				if (!CollectionUtils.isEmpty(record.getExposedEpochs())) {
+					record.getExposedEpochs().clear();
+				}
+				if (hasExposureWindow) {
+					record.getExposureWindow().clear();
+				}
+				record.setTotalRiskSinceLatestRiskEpoch(0.0);
 				registrationService.saveRegistration(record);
 			}
 
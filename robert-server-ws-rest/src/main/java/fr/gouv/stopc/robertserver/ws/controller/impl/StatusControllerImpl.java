@@ -19,6 +19,7 @@ import fr.gouv.stopc.robert.crypto.grpc.server.client.service.ICryptoServerGrpcC
 import fr.gouv.stopc.robert.server.common.service.IServerConfigurationService;
 import fr.gouv.stopc.robert.server.common.utils.TimeUtils;
 import fr.gouv.stopc.robertserver.database.model.EpochExposition;
+import fr.gouv.stopc.robertserver.database.model.EpochExposureWindow;
 import fr.gouv.stopc.robertserver.database.model.Registration;
 import fr.gouv.stopc.robertserver.database.service.IApplicationConfigService;
 import fr.gouv.stopc.robertserver.database.service.IRegistrationService;
@@ -93,19 +94,21 @@ public class StatusControllerImpl implements IStatusController {
 	}
 
 	/**
-	 * Sort list of epochs and get last
-	 * @param exposedEpochs
+	 * Get the last exposed epoch from the exposure window, or from the exposed epochs not moved to it yet
+	 * @param record
 	 * @return
 	 */
-	private int findLastExposedEpoch(List<EpochExposition> exposedEpochs) {
+	private int findLastExposedEpoch(Registration record) {
+		EpochExposureWindow exposureWindow = record.getExposureWindow();
+		if (Objects.nonNull(exposureWindow) && !exposureWindow.isEmpty()) {
+			return exposureWindow.getLastEpochId();
+		}
+
+		List<EpochExposition> exposedEpochs = record.getExposedEpochs();
 		if (CollectionUtils.isEmpty(exposedEpochs)) {
 			return 0;
 		}
-
-		List<EpochExposition> sortedEpochs = exposedEpochs.stream()
-				.sorted((a, b) -> new Integer(a.getEpochId()).compareTo(b.getEpochId()))
-				.collect(Collectors.toList());
-		return sortedEpochs.get(sortedEpochs.size() - 1).getEpochId();
+		return exposedEpochs.stream().mapToInt(EpochExposition::getEpochId).max().getAsInt();
 	}
 
 	public Optional<ResponseEntity> validate(Registration record, int epoch, byte[] tuples) throws RobertServerException {
@@ -144,8 +147,10 @@ public class StatusControllerImpl implements IStatusController {
 				newRiskDetected = true;
 				record.setAtRisk(false);
 				record.setNotified(true);
-				int lastExposedEpoch = findLastExposedEpoch(record.getExposedEpochs());
+				int lastExposedEpoch = findLastExposedEpoch(record);
 				record.setLatestRiskEpoch(lastExposedEpoch);
+				// No exposed epoch is after the new latest risk epoch
+				record.setTotalRiskSinceLatestRiskEpoch(0.0);
 			}
 		} else {
 			// Has already been notified he was at risk
@@ -155,8 +160,9 @@ public class StatusControllerImpl implements IStatusController {
 			if (atRisk) {
 				newRiskDetected = true;
 				record.setAtRisk(false);
-				int lastExposedEpoch = findLastExposedEpoch(record.getExposedEpochs());
+				int lastExposedEpoch = findLastExposedEpoch(record);
 				record.setLatestRiskEpoch(lastExposedEpoch);
+				record.setTotalRiskSinceLatestRiskEpoch(0.0);
 			}
 		}
 